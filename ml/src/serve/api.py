@@ -87,6 +87,12 @@ class RecommendCTRRequest(BaseModel):
     candidate_ids: list[str]   # list item_id thật (UUID hoặc int string)
     item_types: list[str]      # parallel với candidate_ids: "PITCH" | "PRODUCT"
     context: dict = Field(default_factory=dict)
+    # parallel với candidate_ids, ghi đè context theo item (price_bucket, item_category); có thể rỗng
+    item_context: list[dict] = Field(default_factory=list)
+
+
+class RecommendCTRBatchRequest(BaseModel):
+    requests: list[RecommendCTRRequest]
 
 
 class RetrieveRequest(BaseModel):
@@ -196,6 +202,64 @@ async def recommend_next(req: RecommendNextRequest):
     return {"user_id": req.user_id, "results": items}
 
 
+def _ctr_rows(state: dict, req: RecommendCTRRequest) -> list[list[int]]:
+    """Feature rows (đã clamp) cho mọi ứng viên của 1 request."""
+    encs = state["encoders"]
+    fd = state["field_dims"]
+
+    def _safe(v: int, j: int) -> int:
+        return v if 0 <= v < fd[j] else 1  # out-of-range field idx → UNK(1)
+
+    user_le = encs["user"]
+    item_le = encs["item"]
+    # Không dùng setdefault: tham số mặc định bị tính mỗi lần gọi → dựng lại set cả vocab mỗi request
+    if "user_classes" not in state:
+        state["user_classes"] = set(user_le.classes_)
+    if "item_classes" not in state:
+        state["item_classes"] = set(item_le.classes_)
+    user_classes = state["user_classes"]
+    item_classes = state["item_classes"]
+    uid = int(user_le.transform([req.user_id])[0]) if req.user_id in user_classes else 1
+
+    rows = []
+    for i, (iid, itype) in enumerate(zip(req.candidate_ids, req.item_types)):
+        key = f"P_{iid}" if itype == "PITCH" else f"T_{iid}"
+        item_idx = int(item_le.transform([key])[0]) if key in item_classes else 1
+        ctx = {**req.context, **req.item_context[i]} if i < len(req.item_context) else req.context
+        row = [
+            uid,
+            item_idx,
+            _enc_safe(encs["weather"], ctx.get("weather", "UNKNOWN")),
+            _enc_safe(encs["os"], ctx.get("os", "UNKNOWN")),
+            _enc_safe(encs["hour_bucket"], ctx.get("hour_bucket", "UNKNOWN")),
+            _enc_safe(encs["price_bucket"], ctx.get("price_bucket", "UNKNOWN")),
+            _enc_safe(encs["user_gender_snap"], ctx.get("user_gender", "UNKNOWN")),
+            _enc_safe(encs["item_category_snap"], ctx.get("item_category", "UNKNOWN")),
+            _enc_safe(encs["itemType"], itype),
+        ]
+        rows.append([_safe(v, j) for j, v in enumerate(row)])
+    return rows
+
+
+def _ctr_probs(state: dict, rows: list[list[int]]) -> list[float]:
+    if not rows:
+        return []
+    x = torch.tensor(rows, dtype=torch.long, device=state["device"])
+    with torch.no_grad():
+        logits = state["model"](x)
+        return torch.sigmoid(logits).reshape(-1).cpu().numpy().tolist()
+
+
+def _ctr_scores(req: RecommendCTRRequest, probs: list[float]) -> dict:
+    return {
+        "user_id": req.user_id,
+        "scores": [
+            {"item_id": iid, "item_type": itype, "ctr_score": float(s)}
+            for iid, itype, s in zip(req.candidate_ids, req.item_types, probs)
+        ],
+    }
+
+
 @app.post("/recommend/ctr")
 async def recommend_ctr(req: RecommendCTRRequest):
     """DeepFM CTR rerank — input candidates, return scores.
@@ -210,56 +274,35 @@ async def recommend_ctr(req: RecommendCTRRequest):
     if not state:
         raise HTTPException(503, "DeepFM not loaded")
 
-    empty = {"user_id": req.user_id, "scores": []}
     try:
-        encs = state["encoders"]
-        device = state["device"]
-        model = state["model"]
-        fd = state["field_dims"]
-
-        def _safe(v: int, j: int) -> int:
-            return v if 0 <= v < fd[j] else 1  # out-of-range field idx → UNK(1)
-
-        user_le = encs["user"]
-        item_le = encs["item"]
-        user_classes = set(user_le.classes_)
-        item_classes = set(item_le.classes_)
-        uid = int(user_le.transform([req.user_id])[0]) if req.user_id in user_classes else 1
-
-        rows = []
-        for iid, itype in zip(req.candidate_ids, req.item_types):
-            key = f"P_{iid}" if itype == "PITCH" else f"T_{iid}"
-            item_idx = int(item_le.transform([key])[0]) if key in item_classes else 1
-            ctx = req.context
-            row = [
-                uid,
-                item_idx,
-                _enc_safe(encs["weather"], ctx.get("weather", "UNKNOWN")),
-                _enc_safe(encs["os"], ctx.get("os", "UNKNOWN")),
-                _enc_safe(encs["hour_bucket"], ctx.get("hour_bucket", "UNKNOWN")),
-                _enc_safe(encs["price_bucket"], ctx.get("price_bucket", "UNKNOWN")),
-                _enc_safe(encs["user_gender_snap"], ctx.get("user_gender", "UNKNOWN")),
-                _enc_safe(encs["item_category_snap"], ctx.get("item_category", "UNKNOWN")),
-                _enc_safe(encs["itemType"], itype),
-            ]
-            rows.append([_safe(v, j) for j, v in enumerate(row)])
-
-        x = torch.tensor(rows, dtype=torch.long, device=device)
-        with torch.no_grad():
-            logits = model(x)
-            probs = torch.sigmoid(logits).cpu().numpy().tolist()
-
-        return {
-            "user_id": req.user_id,
-            "scores": [
-                {"item_id": iid, "item_type": itype, "ctr_score": float(s)}
-                for iid, itype, s in zip(req.candidate_ids, req.item_types, probs)
-            ],
-        }
+        return _ctr_scores(req, _ctr_probs(state, _ctr_rows(state, req)))
     except Exception as e:
         log.exception("recommend_ctr failed (user=%s, n=%d): %s",
                       req.user_id, len(req.candidate_ids), e)
-        return empty
+        return {"user_id": req.user_id, "scores": []}
+
+
+@app.post("/recommend/ctr/batch")
+async def recommend_ctr_batch(req: RecommendCTRBatchRequest):
+    """CTR cho nhiều (user, candidates) trong 1 forward pass; results song song với requests.
+
+    Cùng chính sách never-500 với /recommend/ctr: lỗi → mọi request nhận scores rỗng.
+    """
+    state = _load_deepfm()
+    if not state:
+        raise HTTPException(503, "DeepFM not loaded")
+
+    try:
+        per_req = [_ctr_rows(state, r) for r in req.requests]
+        probs = _ctr_probs(state, [row for rows in per_req for row in rows])
+        results, offset = [], 0
+        for r, rows in zip(req.requests, per_req):
+            results.append(_ctr_scores(r, probs[offset:offset + len(rows)]))
+            offset += len(rows)
+        return {"results": results}
+    except Exception as e:
+        log.exception("recommend_ctr_batch failed (n_requests=%d): %s", len(req.requests), e)
+        return {"results": [{"user_id": r.user_id, "scores": []} for r in req.requests]}
 
 
 @app.post("/retrieve/image")
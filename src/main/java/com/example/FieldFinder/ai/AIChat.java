@@ -2,10 +2,13 @@ package com.example.FieldFinder.ai;
 //deploytest
 import com.example.FieldFinder.Enum.PitchEnvironment;
 import com.example.FieldFinder.ai.util.AiTextUtil;
+import com.example.FieldFinder.ai.util.PromptTemplate;
 import com.example.FieldFinder.ai.gemini.GeminiClient;
 import com.example.FieldFinder.ai.enrich.ProductEnrichment;
 import com.example.FieldFinder.ai.enrich.ProductEnrichmentService;
 import com.example.FieldFinder.ai.cache.AiCatalogCache;
+import com.example.FieldFinder.ai.cache.IntentCache;
+import com.example.FieldFinder.ai.cache.PitchTypeCounter;
 import com.example.FieldFinder.ai.handler.ImageSearchHandler;
 import com.example.FieldFinder.ai.handler.ProductQueryHandler;
 import com.example.FieldFinder.ai.handler.ActivityRecommendHandler;
@@ -13,6 +16,7 @@ import com.example.FieldFinder.ai.handler.PitchQueryHandler;
 import com.example.FieldFinder.dto.res.MLItemResult;
 import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
+import com.example.FieldFinder.entity.Pitch;
 import com.example.FieldFinder.service.BookingService;
 import com.example.FieldFinder.service.CategoryService;
 import com.example.FieldFinder.service.GeocodingService;
@@ -30,9 +34,15 @@ import io.github.cdimascio.dotenv.Dotenv;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @Component
@@ -51,6 +61,9 @@ public class AIChat {
     private final ProductQueryHandler productQueryHandler;
     private final ActivityRecommendHandler activityRecommendHandler;
     private final PitchQueryHandler pitchQueryHandler;
+    private final IntentCache intentCache;
+    private final PitchTypeCounter pitchTypeCounter;
+    private final AiChatWorkers chatWorkers;
     private final PitchService pitchService;
     private final ProductService productService;
     private final UserService userService;
@@ -70,12 +83,7 @@ public class AIChat {
     private final OpenWeatherService weatherService;
     private final GeocodingService geocodingService;
 
-    // Optional: present only when MongoDB is configured. Used to read VIEW_PITCH interaction logs
-    // for "đã xem" personalization signals. Null-safe everywhere it's used.
-    @org.springframework.beans.factory.annotation.Autowired(required = false)
-    private org.springframework.data.mongodb.core.MongoTemplate mongoTemplate;
-
-    public AIChat(PitchService pitchService, ProductService productService, UserService userService, OpenWeatherService weatherService, GeocodingService geocodingService, LogPublisherService logPublisherService, BookingService bookingService, RedisService redisService, MLRecommendationService mlService, PhashIndex phashIndex, CategoryService categoryService, com.example.FieldFinder.ai.ranking.CompositeRanker compositeRanker, AiChatSessionContextStore sessionContextStore, GeminiClient geminiClient, ProductEnrichmentService enrichmentService, AiCatalogCache catalogCache, ImageSearchHandler imageSearchHandler, ProductQueryHandler productQueryHandler, ActivityRecommendHandler activityRecommendHandler, PitchQueryHandler pitchQueryHandler) {
+    public AIChat(PitchService pitchService, ProductService productService, UserService userService, OpenWeatherService weatherService, GeocodingService geocodingService, LogPublisherService logPublisherService, BookingService bookingService, RedisService redisService, MLRecommendationService mlService, PhashIndex phashIndex, CategoryService categoryService, com.example.FieldFinder.ai.ranking.CompositeRanker compositeRanker, AiChatSessionContextStore sessionContextStore, GeminiClient geminiClient, ProductEnrichmentService enrichmentService, AiCatalogCache catalogCache, ImageSearchHandler imageSearchHandler, ProductQueryHandler productQueryHandler, ActivityRecommendHandler activityRecommendHandler, PitchQueryHandler pitchQueryHandler, IntentCache intentCache, PitchTypeCounter pitchTypeCounter, AiChatWorkers chatWorkers) {
         this.geminiClient = geminiClient;
         this.enrichmentService = enrichmentService;
         this.catalogCache = catalogCache;
@@ -83,6 +91,9 @@ public class AIChat {
         this.productQueryHandler = productQueryHandler;
         this.activityRecommendHandler = activityRecommendHandler;
         this.pitchQueryHandler = pitchQueryHandler;
+        this.intentCache = intentCache;
+        this.pitchTypeCounter = pitchTypeCounter;
+        this.chatWorkers = chatWorkers;
         this.pitchService = pitchService;
         this.productService = productService;
         this.userService = userService;
@@ -159,27 +170,67 @@ public class AIChat {
         return geminiClient.getEmbedding(text);
     }
 
-    public static String buildSystemPrompt(List<PitchResponseDTO> allPitches) {
-        LocalDate today = LocalDate.now(ZoneId.of("Asia/Ho_Chi_Minh"));
+    /** Prompt đã render + fingerprint (khóa IntentCache) cho 1 (ngày, version số sân). */
+    record RenderedPrompt(LocalDate date, long countsVersion, String prompt, String fingerprint) {}
 
-        long fiveCount = allPitches.stream().filter(p -> p.getType().name().equals("FIVE_A_SIDE")).count();
-        long sevenCount = allPitches.stream().filter(p -> p.getType().name().equals("SEVEN_A_SIDE")).count();
-        long elevenCount = allPitches.stream().filter(p -> p.getType().name().equals("ELEVEN_A_SIDE")).count();
+    private volatile RenderedPrompt renderedPrompt;
 
-        return SYSTEM_INSTRUCTION
-                .replace("{{today}}", today.toString())
-                .replace("{{plus1}}", today.plusDays(1).toString())
-                .replace("{{plus2}}", today.plusDays(2).toString())
-                .replace("{{year}}", String.valueOf(today.getYear()))
-                .replace("{{totalPitches}}", String.valueOf(allPitches.size()))
-                .replace("{{fiveASideCount}}", String.valueOf(fiveCount))
-                .replace("{{sevenASideCount}}", String.valueOf(sevenCount))
-                .replace("{{elevenASideCount}}", String.valueOf(elevenCount));
+    /** System prompt hiện hành — chỉ render lại khi sang ngày mới hoặc số sân theo loại đổi. */
+    RenderedPrompt currentSystemPrompt() {
+        LocalDate today = LocalDate.now(PROMPT_ZONE);
+        PitchTypeCounter.Counts counts = pitchTypeCounter.current();
+        RenderedPrompt p = renderedPrompt;
+        if (p != null && p.date().equals(today) && p.countsVersion() == counts.version()) {
+            return p;
+        }
+        String prompt = buildSystemPrompt(today, counts);
+        p = new RenderedPrompt(today, counts.version(), prompt, GeminiClient.sha256Hex(prompt));
+        renderedPrompt = p;
+        return p;
+    }
+
+    static String buildSystemPrompt(LocalDate today, PitchTypeCounter.Counts counts) {
+        Map<String, String> values = new HashMap<>();
+        values.put("today", today.toString());
+        values.put("plus1", today.plusDays(1).toString());
+        values.put("plus2", today.plusDays(2).toString());
+        values.put("year", String.valueOf(today.getYear()));
+        values.put("totalPitches", String.valueOf(counts.total()));
+        values.put("fiveASideCount", String.valueOf(counts.of(Pitch.PitchType.FIVE_A_SIDE)));
+        values.put("sevenASideCount", String.valueOf(counts.of(Pitch.PitchType.SEVEN_A_SIDE)));
+        values.put("elevenASideCount", String.valueOf(counts.of(Pitch.PitchType.ELEVEN_A_SIDE)));
+        return SYSTEM_PROMPT_TEMPLATE.render(values);
     }
 
     /** Tìm kiếm sản phẩm theo ảnh — ủy quyền ImageSearchHandler. */
     public BookingQuery processImageSearchWithGemini(String base64Image, String sessionId) {
-        return imageSearchHandler.process(base64Image, sessionId);
+        return imageSearchHandler.process(base64Image, sessionId, Instant.now().plus(IMAGE_BUDGET),
+                ChatStreamListener.NONE);
+    }
+
+    /** Bản async cho /api/ai/image: pHash + Gemini Vision + CLIP chạy trên {@link AiChatWorkers}. */
+    public CompletableFuture<BookingQuery> processImageSearchWithGeminiAsync(String base64Image, String sessionId,
+                                                                             Instant deadline) {
+        return processImageSearchWithGeminiAsync(base64Image, sessionId, deadline, ChatStreamListener.NONE);
+    }
+
+    /**
+     * Như trên, kèm {@code listener} nhận card khớp pHash + thuộc tính Vision trước kết quả cuối (SSE).
+     * Worker không bị giữ trong lúc chờ Gemini Vision + CLIP: Stage 0 và phần xử lý kết quả là hai task
+     * riêng, mỗi task mở turn phiên của mình.
+     */
+    public CompletableFuture<BookingQuery> processImageSearchWithGeminiAsync(String base64Image, String sessionId,
+                                                                             Instant deadline,
+                                                                             ChatStreamListener listener) {
+        Executor workers = chatWorkers.withCurrentSecurityContext();
+        Executor inTurn = task -> workers.execute(() -> {
+            try (AiChatSessionContextStore.Turn turn = sessionContextStore.openTurn(sessionId)) {
+                task.run();
+            }
+        });
+        return CompletableFuture.supplyAsync(
+                        () -> imageSearchHandler.processAsync(base64Image, sessionId, deadline, listener, inTurn), inTurn)
+                .thenCompose(result -> result);
     }
 
     private BookingQuery parseAIResponse(String cleanJson) throws IOException {
@@ -187,15 +238,15 @@ public class AIChat {
         return mapper.readValue(cleanJson, BookingQuery.class);
     }
 
-    private void processSpecialCases(String userInput, String sessionId,
-                                     BookingQuery query, List<PitchResponseDTO> allPitches) {
+    /** Danh sách sân chỉ được nạp ở nhánh thật sự cần (rẻ/mắc nhất, "sân này" chưa có ngữ cảnh). */
+    private void processSpecialCases(String userInput, String sessionId, BookingQuery query) {
 
         boolean isPitchRequest = userInput.toLowerCase().contains("sân") || userInput.toLowerCase().contains("pitch");
 
         // Xử lý sân rẻ nhất/mắc nhất
         if (query.message != null && isPitchRequest) {
             if (query.message.contains("giá rẻ nhất") || query.message.contains("giá mắc nhất")) {
-                PitchResponseDTO selectedPitch = AiTextUtil.findPitchByPrice(allPitches,
+                PitchResponseDTO selectedPitch = AiTextUtil.findPitchByPrice(catalogCache.getAllPitchesCached(),
                         query.message.contains("giá rẻ nhất"));
 
                 if (selectedPitch != null) {
@@ -209,7 +260,7 @@ public class AIChat {
         if (userInput.contains("sân này")) {
             PitchResponseDTO selectedPitch = sessionContextStore.getLastPitch(sessionId);
             if (selectedPitch == null) {
-                selectedPitch = findPitchByContext(userInput, allPitches);
+                selectedPitch = findPitchByContext(userInput, catalogCache.getAllPitchesCached());
             }
 
             if (selectedPitch != null) {
@@ -230,8 +281,9 @@ public class AIChat {
         return null;
     }
 
-    private BookingQuery handleProductQuery(BookingQuery query, String userInput, String sessionId) {
-        return productQueryHandler.handle(query, userInput, sessionId);
+    private BookingQuery handleProductQuery(BookingQuery query, String userInput, String sessionId,
+                                            ChatStreamListener listener) {
+        return productQueryHandler.handle(query, userInput, sessionId, listener);
     }
 
     /** Bổ sung category/activity từ session khi user follow-up (vd "mắc quá" sau khi xem giày đá bóng). */
@@ -404,8 +456,9 @@ public class AIChat {
 
 
 
-    private BookingQuery handleRecommendByActivity(BookingQuery query, String sessionId, String userInput) {
-        return activityRecommendHandler.handle(query, sessionId, userInput);
+    private BookingQuery handleRecommendByActivity(BookingQuery query, String sessionId, String userInput,
+                                                   ChatStreamListener listener) {
+        return activityRecommendHandler.handle(query, sessionId, userInput, listener);
     }
 
     public BookingQuery parseBookingInput(String userInput, String sessionId) throws IOException, InterruptedException {
@@ -413,33 +466,103 @@ public class AIChat {
     }
 
     public BookingQuery parseBookingInput(String userInput, String sessionId, Double userLat, Double userLng) throws IOException, InterruptedException {
+        CompletableFuture<BookingQuery> future =
+                parseBookingInputAsync(userInput, sessionId, userLat, userLng, Instant.now().plus(CHAT_BUDGET));
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Bản async của {@link #parseBookingInput}: gọi Gemini không chặn thread caller, phần định tuyến
+     * intent + tra DB chạy trên {@link AiChatWorkers} (giữ SecurityContext của caller).
+     * Gemini lỗi/quá {@code deadline} → câu trả lời "AI tạm bận" như bản đồng bộ.
+     */
+    public CompletableFuture<BookingQuery> parseBookingInputAsync(String userInput, String sessionId,
+                                                                  Double userLat, Double userLng, Instant deadline) {
+        return parseBookingInputAsync(userInput, sessionId, userLat, userLng, deadline, ChatStreamListener.NONE);
+    }
+
+    /** Như trên, kèm {@code listener} nhận intent ngay sau khi parse và card khi handler có (SSE). */
+    public CompletableFuture<BookingQuery> parseBookingInputAsync(String userInput, String sessionId,
+                                                                  Double userLat, Double userLng, Instant deadline,
+                                                                  ChatStreamListener listener) {
         if (AiTextUtil.isGreeting(userInput)) {
             BookingQuery query = new BookingQuery();
             query.message = "Xin chào! Tôi có thể giúp bạn đặt sân bóng hoặc tìm kiếm sản phẩm thể thao (giày, áo...).";
             query.slotList = new ArrayList<>();
             query.pitchType = "ALL";
             query.data = new HashMap<>();
-            return query;
+            return CompletableFuture.completedFuture(query);
+        }
+
+        RenderedPrompt systemPrompt = currentSystemPrompt();
+        String promptFingerprint = systemPrompt.fingerprint();
+        Executor continuation = chatWorkers.withCurrentSecurityContext();
+
+        // Câu hỏi tương đương (sau chuẩn hóa) + cùng prompt → dùng lại intent đã parse, bỏ qua Gemini
+        String cachedJson = intentCache.get(promptFingerprint, userInput);
+        if (cachedJson != null) {
+            System.out.println("🟢 Intent cache hit: " + (cachedJson.length() > 800 ? cachedJson.substring(0, 800) + "..." : cachedJson));
+            return CompletableFuture.supplyAsync(
+                    () -> resolveIntent(cachedJson, false, promptFingerprint, userInput, sessionId, userLat, userLng,
+                            listener),
+                    continuation);
         }
+        return geminiClient.chatAsync(userInput, systemPrompt.prompt(), deadline)
+                .handleAsync((cleanJson, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        System.err.println("❌ Lỗi gọi Gemini trong parseBookingInput: " + cause.getMessage());
+                        return busyFallback();
+                    }
+                    System.out.println("🟢 Gemini parsed JSON: " + (cleanJson != null && cleanJson.length() > 800 ? cleanJson.substring(0, 800) + "..." : cleanJson));
+                    return resolveIntent(cleanJson, true, promptFingerprint, userInput, sessionId, userLat, userLng,
+                            listener);
+                }, continuation);
+    }
+
+    private static BookingQuery busyFallback() {
+        BookingQuery fallback = new BookingQuery();
+        fallback.message = "Hệ thống AI tạm thời bận, bạn vui lòng thử lại sau ít phút nhé.";
+        fallback.slotList = new ArrayList<>();
+        fallback.pitchType = "ALL";
+        fallback.data = new HashMap<>();
+        return fallback;
+    }
 
-        List<PitchResponseDTO> allPitches = catalogCache.getAllPitchesCached();
-        String finalPrompt = buildSystemPrompt(allPitches);
+    /**
+     * Parse JSON intent (từ cache hoặc Gemini) rồi định tuyến tới handler tương ứng. Cả lượt dùng chung
+     * 1 ngữ cảnh session: đọc Redis 1 lần, ghi thay đổi 1 lần khi xong.
+     */
+    private BookingQuery resolveIntent(String cleanJson, boolean fromGemini, String promptFingerprint,
+                                       String userInput, String sessionId, Double userLat, Double userLng,
+                                       ChatStreamListener listener) {
+        try (AiChatSessionContextStore.Turn turn = sessionContextStore.openTurn(sessionId)) {
+            return routeIntent(cleanJson, fromGemini, promptFingerprint, userInput, sessionId, userLat, userLng,
+                    listener);
+        }
+    }
 
+    private BookingQuery routeIntent(String cleanJson, boolean fromGemini, String promptFingerprint,
+                                     String userInput, String sessionId, Double userLat, Double userLng,
+                                     ChatStreamListener listener) {
         BookingQuery query;
-        String cleanJson = null;
         try {
-            cleanJson = geminiClient.chat(userInput, finalPrompt);
-            System.out.println("🟢 Gemini parsed JSON: " + (cleanJson != null && cleanJson.length() > 800 ? cleanJson.substring(0, 800) + "..." : cleanJson));
             query = parseAIResponse(cleanJson);
         } catch (IOException e) {
-            System.err.println("❌ Lỗi gọi Gemini trong parseBookingInput: " + e.getMessage());
-            BookingQuery fallback = new BookingQuery();
-            fallback.message = "Hệ thống AI tạm thời bận, bạn vui lòng thử lại sau ít phút nhé.";
-            fallback.slotList = new ArrayList<>();
-            fallback.pitchType = "ALL";
-            fallback.data = new HashMap<>();
-            return fallback;
+            System.err.println("❌ Lỗi parse intent trong parseBookingInput: " + e.getMessage());
+            return busyFallback();
         }
+        if (fromGemini) intentCache.put(promptFingerprint, userInput, cleanJson);
 
         if (query.slotList == null) query.slotList = new ArrayList<>();
         if (query.pitchType == null) query.pitchType = "ALL";
@@ -487,22 +610,25 @@ public class AIChat {
                     action = "recommend_by_activity";
                     query.data.put("action", "recommend_by_activity");
                 } else {
+                    listener.onIntent(intentOf(query));
                     return query;
                 }
             }
 
+            listener.onIntent(intentOf(query));
             if ("get_weather".equals(action)) {
                 return handleWeatherQuery(query, sessionId, userLat, userLng);
             }
             if ("recommend_by_activity".equals(action)) {
-                return handleRecommendByActivity(query, sessionId, userInput);
+                return handleRecommendByActivity(query, sessionId, userInput, listener);
             }
             if ("list_pitches".equals(action) || "recommend_pitch".equals(action)
                     || "count_pitches_by_type".equals(action)
                     || "check_pitch_availability".equals(action) || "book_pitch".equals(action)
                     || "list_my_bookings".equals(action) || "cheapest_pitch".equals(action)
                     || "most_expensive_pitch".equals(action)) {
-                return handlePitchQuery(query, userInput, sessionId, allPitches, userLat, userLng, cleanJson);
+                return handlePitchQuery(query, userInput, sessionId, catalogCache.getAllPitchesCached(), userLat, userLng,
+                        cleanJson, listener);
             }
             if (action.contains("product") || action.contains("stock") ||
                     action.contains("sales") || action.contains("sale") ||
@@ -513,16 +639,17 @@ public class AIChat {
                     "cheapest_product".equals(action) ||
                     "most_expensive_product".equals(action)) {
 
-                return handleProductQuery(query, userInput, sessionId);
+                return handleProductQuery(query, userInput, sessionId, listener);
             }
         }
 
+        if (!query.data.containsKey("action")) listener.onIntent(intentOf(query));
         boolean isBookingRequest = query.bookingDate != null || !query.slotList.isEmpty() || !"ALL".equals(query.pitchType);
 
         if (isBookingRequest && query.data.get("action") == null) {
             PitchEnvironment requestedEnvironment = AiTextUtil.detectEnvironmentFromInput(userInput);
 
-            List<PitchResponseDTO> matchedPitches = allPitches.stream()
+            List<PitchResponseDTO> matchedPitches = catalogCache.getAllPitchesCached().stream()
                     .filter(p -> {
                         if (!"ALL".equals(query.pitchType)) {
                             if (!p.getType().name().equalsIgnoreCase(query.pitchType)) {
@@ -551,7 +678,7 @@ public class AIChat {
             }
         }
 
-        processSpecialCases(userInput, sessionId, query, allPitches);
+        processSpecialCases(userInput, sessionId, query);
 
         if (query.message == null || query.message.isBlank()) {
             query.message = "Mình chưa hiểu rõ yêu cầu. Bạn muốn tìm sân bóng, đặt sân, hay mua sản phẩm thể thao? Ví dụ: \"cho xem các sân 5 người\" hoặc \"giày rẻ nhất\".";
@@ -561,8 +688,21 @@ public class AIChat {
     }
 
     private BookingQuery handlePitchQuery(BookingQuery query, String userInput, String sessionId,
-                                          List<PitchResponseDTO> allPitches, Double userLat, Double userLng, String cleanJson) {
-        return pitchQueryHandler.handle(query, userInput, sessionId, allPitches, userLat, userLng, cleanJson);
+                                          List<PitchResponseDTO> allPitches, Double userLat, Double userLng, String cleanJson,
+                                          ChatStreamListener listener) {
+        return pitchQueryHandler.handle(query, userInput, sessionId, allPitches, userLat, userLng, cleanJson, listener);
+    }
+
+    /** Bản chụp intent (action + tham số Gemini) để stream — handler còn sửa {@code query.data} sau đó. */
+    private static Map<String, Object> intentOf(BookingQuery query) {
+        Map<String, Object> intent = new LinkedHashMap<>(query.data);
+        intent.put("pitchType", query.pitchType);
+        if (query.bookingDate != null) intent.put("bookingDate", query.bookingDate);
+        if (!query.slotList.isEmpty()) intent.put("slotList", new ArrayList<>(query.slotList));
+        if (query.environment != null) intent.put("environment", query.environment);
+        if (query.location != null) intent.put("location", query.location);
+        if (query.nearMe) intent.put("nearMe", true);
+        return intent;
     }
 
 
@@ -826,6 +966,13 @@ public class AIChat {
         - Nếu chứa từ 'sân', 'sân bóng', 'đặt sân', 'book sân'... -> Hỏi về SÂN; BẮT BUỘC gán một action sân tương ứng ở trên (không để action=null).
         """;
 
+    /** Hạn chót Gemini cho caller đồng bộ (controller async tự truyền deadline riêng). */
+    private static final Duration CHAT_BUDGET = Duration.ofSeconds(45);
+    private static final Duration IMAGE_BUDGET = Duration.ofSeconds(30);
+    private static final ZoneId PROMPT_ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    /** SYSTEM_INSTRUCTION tách sẵn thành đoạn cố định/biến — mỗi lượt render chỉ nối chuỗi 1 lần. */
+    private static final PromptTemplate SYSTEM_PROMPT_TEMPLATE = PromptTemplate.compile(SYSTEM_INSTRUCTION);
+
     public static class BookingQuery {
         public String bookingDate;
         public List<Integer> slotList;
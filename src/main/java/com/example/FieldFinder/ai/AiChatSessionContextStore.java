@@ -2,19 +2,39 @@ package com.example.FieldFinder.ai;
 
 import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Ngữ cảnh hội thoại AI theo session, lưu ở 1 Redis hash {@code ai:chat:session:<sessionId>}.
+ *
+ * Trong 1 lượt chat ({@link #openTurn}) hash được đọc 1 lần bằng HGETALL khi cần lần đầu, mọi
+ * get/set sau đó đi vào bộ nhớ; đóng lượt → ghi các field đã đổi trong 1 MULTI pipeline + 1 EXPIRE.
+ * Ngoài lượt chat (hoặc session khác) thì get/set đi thẳng Redis từng field như trước.
+ *
+ * Field {@code v} ghi phiên bản định dạng; hash thiếu {@code v} (ghi trước khi có versioning) cùng
+ * định dạng với bản 1. Hash của phiên bản mới hơn → coi như trống và ghi đè khi đóng lượt.
+ */
 @Component
-@RequiredArgsConstructor
 public class AiChatSessionContextStore {
 
     private static final long SESSION_TTL_HOURS = 2;
     private static final String KEY_PREFIX = "ai:chat:session:";
+    static final String VERSION_FIELD = "v";
+    static final int FORMAT_VERSION = 1;
     private static final String LAST_PRODUCT = "lastProduct";
     private static final String LAST_PITCH = "lastPitch";
     private static final String LAST_SIZE = "lastSize";
@@ -23,58 +43,102 @@ public class AiChatSessionContextStore {
     private static final String LAST_PRODUCT_TYPE = "lastProductType";
 
     private final StringRedisTemplate redisTemplate;
+    /** Bỏ field null khi ghi (DTO lớn, nhiều field rỗng); bỏ qua field lạ khi đọc (khác phiên bản DTO). */
     private final ObjectMapper objectMapper;
+    private final ThreadLocal<Turn> currentTurn = new ThreadLocal<>();
+
+    public AiChatSessionContextStore(StringRedisTemplate redisTemplate, ObjectMapper objectMapper) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper.copy()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Mở 1 lượt chat cho {@code sessionId} trên thread hiện tại; dùng với try-with-resources.
+     * Thread đã có lượt đang mở → trả handle rỗng, lượt ngoài vẫn là lượt flush.
+     */
+    public Turn openTurn(String sessionId) {
+        if (blank(sessionId) || currentTurn.get() != null) return Turn.NESTED;
+        Turn turn = new Turn(this, sessionId);
+        currentTurn.set(turn);
+        return turn;
+    }
 
     public ProductResponseDTO getLastProduct(String sessionId) {
-        return readJson(sessionId, LAST_PRODUCT, ProductResponseDTO.class);
+        return read(sessionId, LAST_PRODUCT, ProductResponseDTO.class);
     }
 
     public void setLastProduct(String sessionId, ProductResponseDTO product) {
-        writeJson(sessionId, LAST_PRODUCT, product);
+        write(sessionId, LAST_PRODUCT, product);
     }
 
     public PitchResponseDTO getLastPitch(String sessionId) {
-        return readJson(sessionId, LAST_PITCH, PitchResponseDTO.class);
+        return read(sessionId, LAST_PITCH, PitchResponseDTO.class);
     }
 
     public void setLastPitch(String sessionId, PitchResponseDTO pitch) {
-        writeJson(sessionId, LAST_PITCH, pitch);
+        write(sessionId, LAST_PITCH, pitch);
     }
 
     public String getLastSize(String sessionId) {
-        return readString(sessionId, LAST_SIZE);
+        return read(sessionId, LAST_SIZE, String.class);
     }
 
     public void setLastSize(String sessionId, String size) {
-        writeString(sessionId, LAST_SIZE, size);
+        write(sessionId, LAST_SIZE, size);
     }
 
     public String getLastActivity(String sessionId) {
-        return readString(sessionId, LAST_ACTIVITY);
+        return read(sessionId, LAST_ACTIVITY, String.class);
     }
 
     public void setLastActivity(String sessionId, String activity) {
-        writeString(sessionId, LAST_ACTIVITY, activity);
+        write(sessionId, LAST_ACTIVITY, activity);
     }
 
     public String getLastCategoryKeyword(String sessionId) {
-        return readString(sessionId, LAST_CATEGORY_KEYWORD);
+        return read(sessionId, LAST_CATEGORY_KEYWORD, String.class);
     }
 
     public void setLastCategoryKeyword(String sessionId, String categoryKeyword) {
-        writeString(sessionId, LAST_CATEGORY_KEYWORD, categoryKeyword);
+        write(sessionId, LAST_CATEGORY_KEYWORD, categoryKeyword);
     }
 
     public String getLastProductType(String sessionId) {
-        return readString(sessionId, LAST_PRODUCT_TYPE);
+        return read(sessionId, LAST_PRODUCT_TYPE, String.class);
     }
 
     public void setLastProductType(String sessionId, String productType) {
-        writeString(sessionId, LAST_PRODUCT_TYPE, productType);
+        write(sessionId, LAST_PRODUCT_TYPE, productType);
     }
 
-    private <T> T readJson(String sessionId, String field, Class<T> type) {
+    private <T> T read(String sessionId, String field, Class<T> type) {
         if (blank(sessionId)) return null;
+        Turn turn = turnFor(sessionId);
+        if (turn != null) return turn.get(field, type);
+        return type == String.class ? type.cast(readString(sessionId, field)) : readJson(sessionId, field, type);
+    }
+
+    private void write(String sessionId, String field, Object value) {
+        if (blank(sessionId) || value == null) return;
+        if (value instanceof String s && s.isBlank()) return;
+        Turn turn = turnFor(sessionId);
+        if (turn != null) {
+            turn.put(field, value);
+        } else if (value instanceof String s) {
+            writeString(sessionId, field, s);
+        } else {
+            writeJson(sessionId, field, value);
+        }
+    }
+
+    private Turn turnFor(String sessionId) {
+        Turn turn = currentTurn.get();
+        return turn != null && turn.sessionId.equals(sessionId) ? turn : null;
+    }
+
+    private <T> T readJson(String sessionId, String field, Class<T> type) {
         String key = key(sessionId);
         String raw = (String) redisTemplate.opsForHash().get(key, field);
         if (raw == null || raw.isBlank()) return null;
@@ -88,7 +152,6 @@ public class AiChatSessionContextStore {
     }
 
     private void writeJson(String sessionId, String field, Object value) {
-        if (blank(sessionId) || value == null) return;
         try {
             writeString(sessionId, field, objectMapper.writeValueAsString(value));
         } catch (Exception ignored) {
@@ -96,7 +159,6 @@ public class AiChatSessionContextStore {
     }
 
     private String readString(String sessionId, String field) {
-        if (blank(sessionId)) return null;
         String key = key(sessionId);
         String value = (String) redisTemplate.opsForHash().get(key, field);
         if (value != null) touch(key);
@@ -104,7 +166,6 @@ public class AiChatSessionContextStore {
     }
 
     private void writeString(String sessionId, String field, String value) {
-        if (blank(sessionId) || value == null || value.isBlank()) return;
         String key = key(sessionId);
         redisTemplate.opsForHash().put(key, field, value);
         touch(key);
@@ -121,4 +182,107 @@ public class AiChatSessionContextStore {
     private boolean blank(String value) {
         return value == null || value.isBlank();
     }
+
+    /**
+     * Ngữ cảnh của 1 session trong 1 lượt chat: HGETALL lười (lần get/set đầu), giữ giá trị đã
+     * decode, đánh dấu field bẩn/xóa; {@link #close()} flush rồi gỡ khỏi thread.
+     */
+    public static final class Turn implements AutoCloseable {
+
+        static final Turn NESTED = new Turn(null, null);
+
+        private final AiChatSessionContextStore store;
+        private final String sessionId;
+        private Map<Object, Object> raw;
+        private boolean reset;
+        private final Map<String, Object> decoded = new HashMap<>();
+        private final Set<String> dirty = new HashSet<>();
+        private final Set<String> removed = new HashSet<>();
+
+        private Turn(AiChatSessionContextStore store, String sessionId) {
+            this.store = store;
+            this.sessionId = sessionId;
+        }
+
+        <T> T get(String field, Class<T> type) {
+            if (decoded.containsKey(field)) return type.cast(decoded.get(field));
+            Object value = load().get(field);
+            T result = null;
+            if (value instanceof String s && !s.isBlank()) {
+                if (type == String.class) {
+                    result = type.cast(s);
+                } else {
+                    try {
+                        result = store.objectMapper.readValue(s, type);
+                    } catch (Exception e) {
+                        removed.add(field);
+                    }
+                }
+            }
+            decoded.put(field, result);
+            return result;
+        }
+
+        void put(String field, Object value) {
+            load();
+            decoded.put(field, value);
+            dirty.add(field);
+            removed.remove(field);
+        }
+
+        private Map<Object, Object> load() {
+            if (raw != null) return raw;
+            try {
+                raw = store.redisTemplate.opsForHash().entries(store.key(sessionId));
+            } catch (DataAccessException e) {
+                System.err.println("⚠️ Session context load fail (" + sessionId + "): " + e.getMessage());
+                raw = new HashMap<>();
+            }
+            Object version = raw.get(VERSION_FIELD);
+            if (version != null && !String.valueOf(FORMAT_VERSION).equals(version)) {
+                // Định dạng của bản deploy khác → không đọc, ghi đè cả hash khi flush
+                raw = new HashMap<>();
+                reset = true;
+            }
+            return raw;
+        }
+
+        /** Số thao tác Redis của lượt: 0 nếu không đụng tới session, 1 nếu chỉ gia hạn TTL. */
+        @Override
+        public void close() {
+            if (store == null) return;
+            store.currentTurn.remove();
+            if (raw == null) return;
+            boolean changed = reset || !dirty.isEmpty() || !removed.isEmpty();
+            String key = store.key(sessionId);
+            try {
+                if (!changed) {
+                    if (!raw.isEmpty()) store.touch(key);
+                    return;
+                }
+                Map<String, String> encoded = new LinkedHashMap<>();
+                for (String field : dirty) {
+                    Object value = decoded.get(field);
+                    encoded.put(field, value instanceof String s ? s : store.objectMapper.writeValueAsString(value));
+                }
+                encoded.put(VERSION_FIELD, String.valueOf(FORMAT_VERSION));
+                store.redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        ops.multi();
+                        if (reset) ops.delete(key);
+                        if (!removed.isEmpty()) ops.opsForHash().delete(key, removed.toArray());
+                        ops.opsForHash().putAll(key, encoded);
+                        ops.expire(key, SESSION_TTL_HOURS, TimeUnit.HOURS);
+                        ops.exec();
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                System.err.println("⚠️ Session context flush fail (" + sessionId + "): " + e.getMessage());
+            }
+        }
+    }
 }
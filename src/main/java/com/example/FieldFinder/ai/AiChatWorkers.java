@@ -0,0 +1,51 @@
+package com.example.FieldFinder.ai;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutor;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool có giới hạn cho phần xử lý sau Gemini của /api/ai/chat và /api/ai/image (tra DB, xếp hạng,
+ * ML) — request async trả Tomcat thread ngay, phần nặng chạy ở đây. Đầy hàng đợi → từ chối
+ * ({@link java.util.concurrent.RejectedExecutionException}) để controller trả 503, không dồn vô hạn.
+ *
+ * Không khai báo dạng bean {@link Executor}: tránh thay executor mặc định của {@code @Async}.
+ */
+@Component
+public class AiChatWorkers {
+
+    private final ThreadPoolExecutor pool;
+
+    public AiChatWorkers(@Value("${ai.chat.workers:16}") int workers,
+                         @Value("${ai.chat.queue-capacity:200}") int queueCapacity) {
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "ai-chat-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executor mang SecurityContext của thread đang gọi — handler dùng
+     * {@code AiCatalogCache.resolveCurrentUserId} nên phải giữ user khi đổi thread.
+     */
+    public Executor withCurrentSecurityContext() {
+        return new DelegatingSecurityContextExecutor(pool, SecurityContextHolder.getContext());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
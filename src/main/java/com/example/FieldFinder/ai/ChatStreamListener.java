@@ -0,0 +1,23 @@
+package com.example.FieldFinder.ai;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nhận kết quả từng phần của 1 lượt chat/ảnh khi trả về dạng SSE: intent đã parse trước, rồi
+ * card sân/sản phẩm khi handler có; câu trả lời cuối vẫn là {@link AIChat.BookingQuery} của future.
+ *
+ * Gọi trên thread worker của AI chat — implementation phải tự lo đồng bộ và không được ném lỗi.
+ * Dữ liệu truyền vào không bị handler sửa tiếp sau khi gọi.
+ */
+public interface ChatStreamListener {
+
+    /** Không stream (endpoint JSON thường). */
+    ChatStreamListener NONE = new ChatStreamListener() {};
+
+    /** Intent đã hiểu từ câu hỏi/ảnh (action + tham số) — sự kiện đầu tiên. */
+    default void onIntent(Map<String, Object> intent) {}
+
+    /** 1 lô card, {@code type}: {@code availability}, {@code pitches}, {@code products}, {@code exactMatch}. */
+    default void onCards(String type, List<?> items) {}
+}
@@ -1,51 +1,300 @@
 package com.example.FieldFinder.ai;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Token bucket phân tán cho Gemini, ngân sách RPM + TPM riêng theo model (generateContent / embedContent).
+ *
+ * - Bucket nằm trong Redis (hash r/t/ts), nạp + trừ nguyên tử bằng Lua theo đồng hồ Redis → cả cluster
+ *   chia chung ngân sách. Không lấy được → script trả số ms cần chờ, không phải đoán.
+ * - Mỗi node 1 hàng đợi ưu tiên / model: {@link Priority#CHAT} &gt; {@link Priority#IMAGE} &gt;
+ *   {@link Priority#ENRICHMENT}, cùng lớp thì FIFO. 1 thread điều phối chờ đúng thời gian script báo
+ *   (hoặc tới khi có request mới) — caller chỉ block trên future, không poll Redis.
+ * - Lớp thấp phải chừa lại {@link #RESERVE} ngân sách sau khi lấy → enrichment ở node khác không vét
+ *   cạn bucket trước lượt chat.
+ * - Redis lỗi → bucket cục bộ cùng công thức (ngân sách tính riêng từng node).
+ */
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class GeminiRateLimiter {
 
-    static final long MIN_INTERVAL_MS = 5_000L;
-    private static final String PERMIT_KEY = "ai:gemini:rate:permit";
+    /** Thứ tự khai báo = độ ưu tiên (ordinal nhỏ được phục vụ trước). */
+    public enum Priority { CHAT, IMAGE, ENRICHMENT }
+
+    /** Phần ngân sách phải còn lại sau khi lấy, theo Priority.ordinal(). */
+    static final double[] RESERVE = {0.0, 0.1, 0.3};
+
+    public record Budget(int rpm, int tpm) {}
+
+    public static final String GENERATE_MODEL = "gemini-2.5-flash";
+    public static final String EMBEDDING_MODEL = "gemini-embedding-001";
+
+    static final String KEY_PREFIX = "ai:gemini:bucket:";
+    private static final long MAX_IDLE_WAIT_MS = 1_000L;
+
+    /**
+     * KEYS[1] = bucket; ARGV = rpm, tpm, tokens, reserve. Trả 0 = đã trừ, > 0 = số ms cần chờ.
+     * Dùng TIME của Redis để mọi node chung 1 đồng hồ.
+     */
+    private static final RedisScript<Long> BUCKET_SCRIPT = new DefaultRedisScript<>("""
+            if redis.replicate_commands then redis.replicate_commands() end
+            local t = redis.call('TIME')
+            local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            local rpm = tonumber(ARGV[1])
+            local tpm = tonumber(ARGV[2])
+            local tokens = tonumber(ARGV[3])
+            local reserve = tonumber(ARGV[4])
+            local b = redis.call('HMGET', KEYS[1], 'r', 't', 'ts')
+            local r = tonumber(b[1]) or rpm
+            local tk = tonumber(b[2]) or tpm
+            local ts = tonumber(b[3]) or now
+            local elapsed = math.max(0, now - ts)
+            r = math.min(rpm, r + elapsed * rpm / 60000)
+            tk = math.min(tpm, tk + elapsed * tpm / 60000)
+            local needR = math.min(rpm, 1 + reserve * rpm)
+            local needT = math.min(tpm, tokens + reserve * tpm)
+            local wait = 0
+            if r < needR then wait = math.max(wait, (needR - r) * 60000 / rpm) end
+            if tk < needT then wait = math.max(wait, (needT - tk) * 60000 / tpm) end
+            if wait == 0 then
+                r = r - 1
+                tk = tk - tokens
+            end
+            redis.call('HSET', KEYS[1], 'r', tostring(r), 't', tostring(tk), 'ts', tostring(now))
+            redis.call('PEXPIRE', KEYS[1], 120000)
+            return math.ceil(wait)
+            """, Long.class);
 
     private final StringRedisTemplate redisTemplate;
-    private final AtomicLong fallbackNextAvailableTime = new AtomicLong(0);
-
-    public void acquire() throws InterruptedException {
-        while (true) {
-            try {
-                Boolean acquired = redisTemplate.opsForValue()
-                        .setIfAbsent(PERMIT_KEY, "1", MIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
-                if (Boolean.TRUE.equals(acquired)) {
+    private final Map<String, Budget> budgets;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, LocalBucket> localBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean running = true;
+
+    private final LongAdder[] granted = adders();
+    private final LongAdder[] totalWaitMs = adders();
+    private final AtomicLong[] maxWaitMs = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private final LongAdder redisFallbacks = new LongAdder();
+
+    @Autowired
+    public GeminiRateLimiter(StringRedisTemplate redisTemplate,
+                             @Value("${gemini.rate.generate.rpm:12}") int generateRpm,
+                             @Value("${gemini.rate.generate.tpm:250000}") int generateTpm,
+                             @Value("${gemini.rate.embedding.rpm:100}") int embeddingRpm,
+                             @Value("${gemini.rate.embedding.tpm:30000}") int embeddingTpm) {
+        this(redisTemplate, Map.of(
+                GENERATE_MODEL, new Budget(generateRpm, generateTpm),
+                EMBEDDING_MODEL, new Budget(embeddingRpm, embeddingTpm)));
+    }
+
+    GeminiRateLimiter(StringRedisTemplate redisTemplate, Map<String, Budget> budgets) {
+        this.redisTemplate = redisTemplate;
+        this.budgets = Map.copyOf(budgets);
+    }
+
+    /**
+     * Chờ tới lượt gọi {@code model} với ước lượng {@code tokens} (input + output tối đa).
+     * Bị interrupt → rời hàng đợi và ném lại InterruptedException.
+     */
+    public void acquire(String model, Priority priority, int tokens) throws InterruptedException {
+        Ticket ticket = new Ticket(priority, Math.max(0, tokens), sequence.incrementAndGet());
+        lane(model).submit(ticket);
+        try {
+            ticket.future.get();
+        } catch (InterruptedException e) {
+            ticket.future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** Độ sâu hàng đợi + thời gian chờ theo lớp ưu tiên — xem qua {@code GET /api/ai/rate-limiter/stats}. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Priority p : Priority.values()) {
+            int i = p.ordinal();
+            long queued = lanes.values().stream().mapToLong(l -> l.queued(p)).sum();
+            long count = granted[i].sum();
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("queued", queued);
+            s.put("granted", count);
+            s.put("avgWaitMs", count == 0 ? 0.0 : (double) totalWaitMs[i].sum() / count);
+            s.put("maxWaitMs", maxWaitMs[i].get());
+            stats.put(p.name().toLowerCase(), s);
+        }
+        stats.put("redisFallbacks", redisFallbacks.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        lanes.values().forEach(l -> l.thread.interrupt());
+    }
+
+    private Lane lane(String model) {
+        return lanes.computeIfAbsent(model, m -> {
+            Lane lane = new Lane(m, budgets.getOrDefault(m, budgets.get(GENERATE_MODEL)));
+            lane.thread.start();
+            return lane;
+        });
+    }
+
+    /** 0 = được gọi; > 0 = số ms nên chờ trước khi thử lại. */
+    private long tryTake(String model, Budget budget, Ticket ticket) {
+        int tokens = Math.min(ticket.tokens, budget.tpm());
+        double reserve = RESERVE[ticket.priority.ordinal()];
+        try {
+            Long wait = redisTemplate.execute(BUCKET_SCRIPT, List.of(KEY_PREFIX + model),
+                    Integer.toString(budget.rpm()), Integer.toString(budget.tpm()),
+                    Integer.toString(tokens), Double.toString(reserve));
+            return wait == null ? 0L : wait;
+        } catch (Exception redisUnavailable) {
+            redisFallbacks.increment();
+            return localBuckets.computeIfAbsent(model, m -> new LocalBucket(budget))
+                    .take(tokens, reserve, System.currentTimeMillis());
+        }
+    }
+
+    private void recordGrant(Ticket ticket) {
+        int i = ticket.priority.ordinal();
+        long waited = System.currentTimeMillis() - ticket.enqueuedAt;
+        granted[i].increment();
+        totalWaitMs[i].add(waited);
+        maxWaitMs[i].accumulateAndGet(waited, Math::max);
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] out = new LongAdder[Priority.values().length];
+        for (int i = 0; i < out.length; i++) out[i] = new LongAdder();
+        return out;
+    }
+
+    private static final class Ticket implements Comparable<Ticket> {
+        final Priority priority;
+        final int tokens;
+        final long seq;
+        final long enqueuedAt = System.currentTimeMillis();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Ticket(Priority priority, int tokens, long seq) {
+            this.priority = priority;
+            this.tokens = tokens;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Ticket o) {
+            int c = Integer.compare(priority.ordinal(), o.priority.ordinal());
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    /** Hàng đợi + thread điều phối của 1 model. Chỉ ticket đầu hàng được thử lấy bucket. */
+    private final class Lane implements Runnable {
+        final String model;
+        final Budget budget;
+        final PriorityBlockingQueue<Ticket> queue = new PriorityBlockingQueue<>();
+        final Thread thread;
+        private boolean arrived; // guarded by this
+
+        Lane(String model, Budget budget) {
+            this.model = model;
+            this.budget = budget;
+            this.thread = new Thread(this, "gemini-rate-" + model);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(Ticket ticket) {
+            queue.add(ticket);
+            synchronized (this) {
+                arrived = true;
+                notifyAll();
+            }
+        }
+
+        long queued(Priority priority) {
+            return queue.stream().filter(t -> t.priority == priority && !t.future.isDone()).count();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Ticket head = queue.take();
+                    if (head.future.isDone()) continue; // caller đã hủy
+                    synchronized (this) {
+                        arrived = false;
+                    }
+                    long wait = tryTake(model, budget, head);
+                    if (wait <= 0) {
+                        recordGrant(head);
+                        head.future.complete(null);
+                        continue;
+                    }
+                    queue.add(head);
+                    // Chờ bucket nạp lại; request mới (có thể ưu tiên cao hơn) đánh thức sớm
+                    synchronized (this) {
+                        if (!arrived) wait(Math.min(wait, MAX_IDLE_WAIT_MS));
+                    }
+                } catch (InterruptedException e) {
                     return;
+                } catch (Exception e) {
+                    log.warn("GeminiRateLimiter[{}]: dispatch error: {}", model, e.getMessage());
                 }
-            } catch (Exception redisUnavailable) {
-                acquireLocalFallback();
-                return;
             }
-            Thread.sleep(100L);
         }
     }
 
-    private void acquireLocalFallback() throws InterruptedException {
-        long now = System.currentTimeMillis();
-        long myTurn;
-        while (true) {
-            long currentNext = fallbackNextAvailableTime.get();
-            myTurn = Math.max(now, currentNext);
-            if (fallbackNextAvailableTime.compareAndSet(currentNext, myTurn + MIN_INTERVAL_MS)) {
-                break;
-            }
+    /** Bucket trong heap khi Redis lỗi — cùng công thức với script. */
+    static final class LocalBucket {
+        private final Budget budget;
+        private double requests;
+        private double tokens;
+        private long updatedAt = -1;
+
+        LocalBucket(Budget budget) {
+            this.budget = budget;
+            this.requests = budget.rpm();
+            this.tokens = budget.tpm();
         }
-        long waitMs = myTurn - now;
-        if (waitMs > 0) {
-            Thread.sleep(waitMs);
+
+        synchronized long take(int cost, double reserve, long now) {
+            if (updatedAt >= 0) {
+                long elapsed = Math.max(0, now - updatedAt);
+                requests = Math.min(budget.rpm(), requests + elapsed * (double) budget.rpm() / 60_000);
+                tokens = Math.min(budget.tpm(), tokens + elapsed * (double) budget.tpm() / 60_000);
+            }
+            updatedAt = now;
+            double needR = Math.min(budget.rpm(), 1 + reserve * budget.rpm());
+            double needT = Math.min(budget.tpm(), cost + reserve * budget.tpm());
+            double wait = 0;
+            if (requests < needR) wait = Math.max(wait, (needR - requests) * 60_000 / budget.rpm());
+            if (tokens < needT) wait = Math.max(wait, (needT - tokens) * 60_000 / budget.tpm());
+            if (wait == 0) {
+                requests -= 1;
+                tokens -= cost;
+            }
+            return (long) Math.ceil(wait);
         }
     }
 }
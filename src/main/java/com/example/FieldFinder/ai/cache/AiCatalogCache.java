@@ -1,6 +1,5 @@
 package com.example.FieldFinder.ai.cache;
 
-import com.example.FieldFinder.ai.gemini.GeminiClient;
 import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.service.PitchService;
@@ -23,9 +22,9 @@ import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Cache Redis dùng chung cho trợ lý AI: catalog sản phẩm/sân + resolve userId.
- * Tách khỏi AIChat để các intent handler (image-search, product, pitch) cùng dùng,
- * tránh phụ thuộc vòng vào AIChat. TTL/hành vi giữ nguyên 1:1.
+ * Cache dùng chung cho trợ lý AI: catalog sản phẩm (snapshot trong heap, {@link CatalogSnapshotStore}),
+ * danh sách sân (Redis) + resolve userId. Tách khỏi AIChat để các intent handler (image-search,
+ * product, pitch) cùng dùng, tránh phụ thuộc vòng vào AIChat.
  */
 @Component
 public class AiCatalogCache {
@@ -35,13 +34,16 @@ public class AiCatalogCache {
     private final ProductService productService;
     private final PitchService pitchService;
     private final UserService userService;
+    private final CatalogSnapshotStore snapshotStore;
 
     public AiCatalogCache(RedisService redisService, ProductService productService,
-                          PitchService pitchService, UserService userService) {
+                          PitchService pitchService, UserService userService,
+                          CatalogSnapshotStore snapshotStore) {
         this.redisService = redisService;
         this.productService = productService;
         this.pitchService = pitchService;
         this.userService = userService;
+        this.snapshotStore = snapshotStore;
     }
 
     /** Ưu tiên user đã đăng nhập (SecurityContext → email → uid), fallback theo sessionId. */
@@ -80,45 +82,31 @@ public class AiCatalogCache {
         return data;
     }
 
-    /** P3+: Cache productsByIds map. Key = sorted ids hash. TTL 60s. */
+    /** Tra theo id từ snapshot (bản công khai, không theo user); id chưa có trong snapshot mới đọc DB. */
     public Map<Long, ProductResponseDTO> getProductsByIdsCached(List<Long> ids) {
         if (ids == null || ids.isEmpty()) return Collections.emptyMap();
-        List<Long> sorted = new ArrayList<>(ids);
-        Collections.sort(sorted);
-        String key = "ai:products:byids:" + GeminiClient.sha256Hex(sorted.toString());
-        try {
-            String cached = redisService.getData(key);
-            if (cached != null) {
-                List<ProductResponseDTO> list = mapper.readValue(cached,
-                        new TypeReference<List<ProductResponseDTO>>() {});
-                Map<Long, ProductResponseDTO> map = new LinkedHashMap<>();
-                for (ProductResponseDTO p : list) {
-                    if (p != null && p.getId() != null) map.put(p.getId(), p);
-                }
-                return map;
-            }
-        } catch (Exception ignored) {}
-        Map<Long, ProductResponseDTO> fresh = productService.getProductsByIds(ids, null);
-        try {
-            redisService.saveDataWithTTL(key, mapper.writeValueAsString(new ArrayList<>(fresh.values())),
-                    60, TimeUnit.SECONDS);
-        } catch (Exception ignored) {}
-        return fresh;
+        CatalogSnapshot catalog = snapshotStore.current();
+        Map<Long, ProductResponseDTO> out = new LinkedHashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            ProductResponseDTO p = catalog.byId(id);
+            if (p != null) out.put(id, p);
+            else if (id != null) missing.add(id);
+        }
+        if (!missing.isEmpty()) out.putAll(productService.getProductsByIds(missing, null));
+        return out;
     }
 
-    /** P2: Cache `getProductsForAiAssistant(userId)` TTL 60s. */
+    /**
+     * Snapshot catalog trong heap (index dựng sẵn) theo user — không đọc/parse JSON từ Redis mỗi lượt chat.
+     * Xem {@link CatalogSnapshotStore}.
+     */
+    public CatalogSnapshot getCatalogSnapshot(UUID userId) {
+        return snapshotStore.forUser(userId);
+    }
+
+    /** Toàn bộ catalog theo user (danh sách bất biến của snapshot). */
     public List<ProductResponseDTO> getProductsForAiAssistantCached(UUID userId) {
-        String key = "ai:products:assistant:" + (userId == null ? "anon" : userId.toString());
-        try {
-            String cached = redisService.getData(key);
-            if (cached != null) {
-                return mapper.readValue(cached, new TypeReference<List<ProductResponseDTO>>() {});
-            }
-        } catch (Exception ignored) {}
-        List<ProductResponseDTO> data = productService.getProductsForAiAssistant(userId);
-        try {
-            redisService.saveDataWithTTL(key, mapper.writeValueAsString(data), 60, TimeUnit.SECONDS);
-        } catch (Exception ignored) {}
-        return data;
+        return getCatalogSnapshot(userId).all();
     }
 }
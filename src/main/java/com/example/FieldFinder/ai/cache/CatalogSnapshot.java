@@ -0,0 +1,278 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.dto.res.ProductResponseDTO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Ảnh chụp bất biến của catalog sản phẩm cho trợ lý AI, giữ trong heap kèm index dựng sẵn
+ * (category id/tên, brand, giới tính, tag, màu chủ đạo, size còn hàng, đang sale). Handler tra
+ * index thay vì quét + deserialize cả catalog mỗi lượt chat.
+ *
+ * Index lưu productId; DTO lấy qua {@link #byId}. Nhờ vậy bản overlay giá theo user
+ * ({@link #overlay}) dùng lại nguyên index + map DTO của bản gốc, chỉ giữ thêm DTO của các sản phẩm
+ * có giá/mã khác bản gốc.
+ *
+ * DTO trong snapshot dùng chung giữa mọi request — chỉ đọc, không set field.
+ */
+public final class CatalogSnapshot {
+
+    public static final CatalogSnapshot EMPTY = build(0L, List.of());
+
+    private final long version;
+    private final long builtAt;
+    /** Bản gốc: toàn bộ DTO. Bản overlay: null — {@link #all()} dựng từ {@link #byId} + {@link #overrides}. */
+    private final List<ProductResponseDTO> products;
+    private final Map<Long, ProductResponseDTO> byId;
+    /** DTO theo user của các sản phẩm giá/mã khác bản gốc (rỗng ở bản gốc). */
+    private final Map<Long, ProductResponseDTO> overrides;
+    private final Indexes indexes;
+    private final List<Long> onSaleIds;
+
+    /** Các index không phụ thuộc giá theo user — chia sẻ giữa bản gốc và bản overlay. */
+    private record Indexes(Map<Long, List<Long>> byCategoryId,
+                           Map<String, List<Long>> byCategoryName,
+                           Map<String, List<Long>> byBrand,
+                           Map<String, List<Long>> bySex,
+                           Map<String, List<Long>> byTag,
+                           Map<String, List<Long>> byDominantColor,
+                           Map<String, List<Long>> byInStockSize,
+                           List<String> brands) {}
+
+    private CatalogSnapshot(long version, long builtAt, List<ProductResponseDTO> products,
+                            Map<Long, ProductResponseDTO> byId, Map<Long, ProductResponseDTO> overrides,
+                            Indexes indexes, List<Long> onSaleIds) {
+        this.version = version;
+        this.builtAt = builtAt;
+        this.products = products;
+        this.byId = byId;
+        this.overrides = overrides;
+        this.indexes = indexes;
+        this.onSaleIds = onSaleIds;
+    }
+
+    /** Dựng snapshot + toàn bộ index từ danh sách sản phẩm (giữ thứ tự đầu vào). */
+    public static CatalogSnapshot build(long version, Collection<ProductResponseDTO> source) {
+        Map<Long, ProductResponseDTO> byId = new LinkedHashMap<>(source.size() * 2);
+        for (ProductResponseDTO p : source) {
+            if (p != null && p.getId() != null) byId.put(p.getId(), p);
+        }
+        List<ProductResponseDTO> products = List.copyOf(byId.values());
+
+        Map<Long, List<Long>> byCategoryId = new HashMap<>();
+        Map<String, List<Long>> byCategoryName = new HashMap<>();
+        Map<String, List<Long>> byBrand = new HashMap<>();
+        Map<String, List<Long>> bySex = new HashMap<>();
+        Map<String, List<Long>> byTag = new HashMap<>();
+        Map<String, List<Long>> byColor = new HashMap<>();
+        Map<String, List<Long>> bySize = new HashMap<>();
+        Set<String> brands = new LinkedHashSet<>();
+        Set<String> seenBrands = new LinkedHashSet<>();
+
+        for (ProductResponseDTO p : products) {
+            Long id = p.getId();
+            if (p.getCategoryId() != null) byCategoryId.computeIfAbsent(p.getCategoryId(), k -> new ArrayList<>()).add(id);
+            add(byCategoryName, p.getCategoryName(), id);
+            add(bySex, p.getSex(), id);
+            add(byColor, p.getDominantColor(), id);
+            if (p.getBrand() != null && !p.getBrand().isBlank()) {
+                add(byBrand, p.getBrand(), id);
+                if (seenBrands.add(norm(p.getBrand()))) brands.add(p.getBrand());
+            }
+            if (p.getTags() != null) {
+                for (String tag : p.getTags()) add(byTag, tag, id);
+            }
+            if (p.getVariants() != null) {
+                for (ProductResponseDTO.VariantDTO v : p.getVariants()) {
+                    if (v.getQuantity() != null && v.getQuantity() > 0) add(bySize, v.getSize(), id);
+                }
+            }
+        }
+
+        Indexes indexes = new Indexes(freeze(byCategoryId), freeze(byCategoryName), freeze(byBrand),
+                freeze(bySex), freeze(byTag), freeze(byColor), freeze(bySize), List.copyOf(brands));
+        return new CatalogSnapshot(version, System.currentTimeMillis(), products,
+                Collections.unmodifiableMap(byId), Map.of(), indexes, onSaleIdsOf(products));
+    }
+
+    /**
+     * Snapshot mới = bản này + thay/thêm {@code changed}, bỏ {@code removedIds}. Chỉ các sản phẩm
+     * đổi phải nạp lại từ DB; index dựng lại trong heap (vài nghìn phần tử — rẻ hơn 1 lượt parse JSON).
+     */
+    public CatalogSnapshot apply(long newVersion, Collection<ProductResponseDTO> changed, Collection<Long> removedIds) {
+        Map<Long, ProductResponseDTO> merged = new LinkedHashMap<>(byId);
+        for (Long id : removedIds) merged.remove(id);
+        for (ProductResponseDTO p : changed) {
+            if (p != null && p.getId() != null) merged.put(p.getId(), p);
+        }
+        return build(newVersion, merged.values());
+    }
+
+    /**
+     * Bản xem theo user: dùng chung map DTO + index của bản gốc (brand/tag/size… không đổi theo user),
+     * chỉ giữ riêng các sản phẩm có giá/mã theo user khác bản gốc — mỗi cái là bản sao nông của DTO gốc
+     * thay 4 field giá/mã. Danh sách đang sale tính lại.
+     */
+    public CatalogSnapshot overlay(Collection<ProductResponseDTO> userProducts) {
+        Map<Long, ProductResponseDTO> deltas = new HashMap<>(overrides);
+        for (ProductResponseDTO p : userProducts) {
+            if (p == null || p.getId() == null) continue;
+            ProductResponseDTO base = byId.get(p.getId());
+            if (base == null) continue;
+            if (samePricing(base, p)) {
+                deltas.remove(p.getId());
+            } else {
+                deltas.put(p.getId(), base.toBuilder()
+                        .salePrice(p.getSalePrice())
+                        .salePercent(p.getSalePercent())
+                        .appliedDiscountCodes(p.getAppliedDiscountCodes())
+                        .availableGlobalCodes(p.getAvailableGlobalCodes())
+                        .build());
+            }
+        }
+        if (deltas.isEmpty() && overrides.isEmpty()) return this;
+        List<Long> onSale = new ArrayList<>();
+        for (Long id : byId.keySet()) {
+            ProductResponseDTO p = deltas.getOrDefault(id, byId.get(id));
+            if (p.getSalePercent() != null && p.getSalePercent() > 0) onSale.add(id);
+        }
+        return new CatalogSnapshot(version, builtAt, null, byId, Collections.unmodifiableMap(deltas),
+                indexes, List.copyOf(onSale));
+    }
+
+    /** Số sản phẩm có giá/mã theo user khác bản gốc. */
+    public int overrideCount() {
+        return overrides.size();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public long builtAt() {
+        return builtAt;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /** Toàn bộ catalog (bất biến), thứ tự như lúc nạp. Bản overlay dựng list mới mỗi lần gọi. */
+    public List<ProductResponseDTO> all() {
+        if (products != null) return products;
+        List<ProductResponseDTO> list = new ArrayList<>(byId.size());
+        for (Map.Entry<Long, ProductResponseDTO> e : byId.entrySet()) {
+            list.add(overrides.getOrDefault(e.getKey(), e.getValue()));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    public ProductResponseDTO byId(Long id) {
+        if (id == null) return null;
+        ProductResponseDTO p = overrides.get(id);
+        return p != null ? p : byId.get(id);
+    }
+
+    public List<ProductResponseDTO> byCategoryId(Long categoryId) {
+        return resolve(categoryId == null ? null : indexes.byCategoryId().get(categoryId));
+    }
+
+    /** Sản phẩm thuộc bất kỳ category nào trong {@code categoryNames} (không phân biệt hoa thường). */
+    public List<ProductResponseDTO> byCategoryNames(Collection<String> categoryNames) {
+        List<ProductResponseDTO> result = new ArrayList<>();
+        if (categoryNames == null) return result;
+        Set<String> seen = new LinkedHashSet<>();
+        for (String name : categoryNames) {
+            if (name != null && seen.add(norm(name))) result.addAll(resolve(indexes.byCategoryName().get(norm(name))));
+        }
+        return result;
+    }
+
+    public List<ProductResponseDTO> byBrand(String brand) {
+        return lookup(indexes.byBrand(), brand);
+    }
+
+    public List<ProductResponseDTO> bySex(String sex) {
+        return lookup(indexes.bySex(), sex);
+    }
+
+    public List<ProductResponseDTO> byTag(String tag) {
+        return lookup(indexes.byTag(), tag);
+    }
+
+    public List<ProductResponseDTO> byDominantColor(String color) {
+        return lookup(indexes.byDominantColor(), color);
+    }
+
+    /** Sản phẩm còn hàng ở size này (quantity > 0). */
+    public List<ProductResponseDTO> inStockSize(String size) {
+        return lookup(indexes.byInStockSize(), size);
+    }
+
+    /** Sản phẩm có salePercent > 0 (theo giá của bản này — bản overlay là giá theo user). */
+    public List<ProductResponseDTO> onSale() {
+        return resolve(onSaleIds);
+    }
+
+    /** Các brand có trong catalog (mỗi brand 1 lần, giữ cách viết gốc). */
+    public List<String> brands() {
+        return indexes.brands();
+    }
+
+    private List<ProductResponseDTO> lookup(Map<String, List<Long>> index, String value) {
+        return resolve(value == null || value.isBlank() ? null : index.get(norm(value)));
+    }
+
+    /** Luôn trả list mới (caller được sort/thêm/bớt); chỉ DTO bên trong là dùng chung. */
+    private List<ProductResponseDTO> resolve(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) return new ArrayList<>();
+        List<ProductResponseDTO> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ProductResponseDTO p = byId(id);
+            if (p != null) result.add(p);
+        }
+        return result;
+    }
+
+    private static boolean samePricing(ProductResponseDTO base, ProductResponseDTO user) {
+        return Objects.equals(base.getSalePrice(), user.getSalePrice())
+                && Objects.equals(base.getSalePercent(), user.getSalePercent())
+                && Objects.equals(base.getAppliedDiscountCodes(), user.getAppliedDiscountCodes())
+                && Objects.equals(base.getAvailableGlobalCodes(), user.getAvailableGlobalCodes());
+    }
+
+    private static List<Long> onSaleIdsOf(List<ProductResponseDTO> products) {
+        List<Long> ids = new ArrayList<>();
+        for (ProductResponseDTO p : products) {
+            if (p.getSalePercent() != null && p.getSalePercent() > 0) ids.add(p.getId());
+        }
+        return List.copyOf(ids);
+    }
+
+    private static void add(Map<String, List<Long>> index, String value, Long id) {
+        if (value == null || value.isBlank()) return;
+        List<Long> ids = index.computeIfAbsent(norm(value), k -> new ArrayList<>());
+        // Cùng sản phẩm có thể lặp (vd 2 variant cùng size) — chỉ thêm 1 lần
+        if (ids.isEmpty() || !ids.get(ids.size() - 1).equals(id)) ids.add(id);
+    }
+
+    private static <K> Map<K, List<Long>> freeze(Map<K, List<Long>> index) {
+        Map<K, List<Long>> frozen = new HashMap<>(index.size() * 2);
+        index.forEach((k, v) -> frozen.put(k, List.copyOf(v)));
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    private static String norm(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.dto.res.ProductResponseDTO;
+import com.example.FieldFinder.event.CatalogChangedEvent;
+import com.example.FieldFinder.service.ProductService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Giữ {@link CatalogSnapshot} hiện hành của node. Dựng lười ở lượt đọc đầu tiên, sau đó chỉ nạp lại
+ * sản phẩm bị đánh dấu đổi:
+ *
+ * - {@link CatalogChangedEvent} (sau commit) → đánh dấu dirty + publish kênh Redis cho node khác.
+ * - Lượt đọc kế tiếp: dirty là vài id → 1 query {@code getProductsByIds}, ghép vào snapshot cũ;
+ *   dirty là "tất cả" (hoặc snapshot quá {@link #MAX_AGE_MS}) → nạp lại toàn bộ.
+ * - Bản theo user (giá/mã riêng) dựng từ snapshot gốc, giữ {@link #USER_VIEW_TTL_MS} trong heap —
+ *   chỉ chứa các sản phẩm có giá/mã khác bản gốc ({@link CatalogSnapshot#overlay}).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CatalogSnapshotStore {
+
+    static final String CHANNEL = "catalog-snapshot:invalidate";
+    private static final String ALL = "*";
+    private static final long MAX_AGE_MS = 30 * 60_000L;
+    private static final long USER_VIEW_TTL_MS = 60_000L;
+    private static final int MAX_USER_VIEWS = 1_000;
+
+    private final ProductService productService;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private volatile CatalogSnapshot snapshot;
+    private volatile boolean fullReload = true;
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicLong versions = new AtomicLong();
+    private final Object refreshLock = new Object();
+    private final Map<UUID, UserView> userViews = new ConcurrentHashMap<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private record UserView(CatalogSnapshot snapshot, long createdAt) {}
+
+    @PostConstruct
+    void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteChange(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    /** Snapshot gốc (giá công khai, không theo user). */
+    public CatalogSnapshot current() {
+        CatalogSnapshot s = snapshot;
+        if (s != null && !fullReload && dirty.isEmpty()
+                && System.currentTimeMillis() - s.builtAt() < MAX_AGE_MS) {
+            return s;
+        }
+        return refresh();
+    }
+
+    /** Snapshot đã áp giá/mã giảm theo user; userId null → bản gốc. */
+    public CatalogSnapshot forUser(UUID userId) {
+        CatalogSnapshot base = current();
+        if (userId == null) return base;
+        long now = System.currentTimeMillis();
+        UserView view = userViews.get(userId);
+        if (view != null && view.snapshot().version() == base.version() && now - view.createdAt() < USER_VIEW_TTL_MS) {
+            return view.snapshot();
+        }
+        CatalogSnapshot overlaid = base.overlay(productService.overlayForUser(base.all(), userId));
+        if (userViews.size() >= MAX_USER_VIEWS) {
+            userViews.values().removeIf(v -> now - v.createdAt() >= USER_VIEW_TTL_MS);
+            // Vẫn đầy (>1000 user trong 1 phút) ⇒ bỏ bản cũ nhất, không xóa sạch bản của user khác
+            while (userViews.size() >= MAX_USER_VIEWS) {
+                userViews.entrySet().stream()
+                        .min(Map.Entry.comparingByValue(Comparator.comparingLong(UserView::createdAt)))
+                        .ifPresent(oldest -> userViews.remove(oldest.getKey(), oldest.getValue()));
+            }
+        }
+        userViews.put(userId, new UserView(overlaid, now));
+        return overlaid;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (!event.isAll() && event.getProductIds().isEmpty()) return;
+        markChanged(event.isAll(), event.getProductIds());
+        try {
+            StringBuilder payload = new StringBuilder(nodeId).append('|');
+            if (event.isAll()) {
+                payload.append(ALL);
+            } else {
+                StringBuilder ids = new StringBuilder();
+                for (Long id : event.getProductIds()) {
+                    if (!ids.isEmpty()) ids.append(',');
+                    ids.append(id);
+                }
+                payload.append(ids);
+            }
+            redisTemplate.convertAndSend(CHANNEL, payload.toString());
+        } catch (Exception e) {
+            // Node khác tự nạp lại khi snapshot quá MAX_AGE_MS
+            log.warn("CatalogSnapshotStore: publish change failed: {}", e.getMessage());
+        }
+    }
+
+    void onRemoteChange(String payload) {
+        String[] parts = payload.split("\\|", 2);
+        if (parts.length < 2 || nodeId.equals(parts[0])) return;
+        try {
+            if (ALL.equals(parts[1])) {
+                markChanged(true, Set.of());
+            } else {
+                Set<Long> ids = new LinkedHashSet<>();
+                for (String id : parts[1].split(",")) ids.add(Long.parseLong(id.trim()));
+                markChanged(false, ids);
+            }
+        } catch (Exception e) {
+            log.warn("CatalogSnapshotStore: bad change payload '{}'", payload);
+        }
+    }
+
+    private void markChanged(boolean all, Set<Long> productIds) {
+        if (all) {
+            fullReload = true;
+        } else {
+            dirty.addAll(productIds);
+        }
+    }
+
+    private CatalogSnapshot refresh() {
+        synchronized (refreshLock) {
+            CatalogSnapshot s = snapshot;
+            boolean full = s == null || fullReload || System.currentTimeMillis() - s.builtAt() >= MAX_AGE_MS;
+            if (!full && dirty.isEmpty()) return s; // thread khác vừa làm mới xong
+
+            List<Long> ids = new ArrayList<>(dirty);
+            dirty.removeAll(ids);
+            if (full) fullReload = false;
+            try {
+                CatalogSnapshot next = full ? reloadAll() : reloadProducts(s, ids);
+                snapshot = next;
+                return next;
+            } catch (RuntimeException e) {
+                dirty.addAll(ids);
+                if (full) fullReload = true;
+                if (s == null) throw e;
+                log.warn("CatalogSnapshotStore: refresh failed, serving v{}: {}", s.version(), e.getMessage());
+                return s;
+            }
+        }
+    }
+
+    /**
+     * Nạp toàn bộ: chỉ đọc danh sách id (1 query nhẹ) rồi nạp bản mới nhất của tất cả trong 1 lượt —
+     * không đi qua cache ai_catalog (không bị evict khi đổi tồn kho, lại phải nạp DTO lần nữa).
+     */
+    private CatalogSnapshot reloadAll() {
+        List<Long> ids = productService.getAllProductIds();
+        Map<Long, ProductResponseDTO> fresh = productService.getProductsByIds(ids, null);
+        List<ProductResponseDTO> ordered = new ArrayList<>(fresh.size());
+        for (Long id : ids) {
+            ProductResponseDTO p = fresh.get(id);
+            if (p != null) ordered.add(p);
+        }
+        CatalogSnapshot next = CatalogSnapshot.build(versions.incrementAndGet(), ordered);
+        log.info("CatalogSnapshotStore: full reload v{} ({} products)", next.version(), next.size());
+        return next;
+    }
+
+    private CatalogSnapshot reloadProducts(CatalogSnapshot previous, List<Long> ids) {
+        Map<Long, ProductResponseDTO> fresh = productService.getProductsByIds(ids, null);
+        List<Long> removed = new ArrayList<>();
+        for (Long id : ids) {
+            if (!fresh.containsKey(id)) removed.add(id);
+        }
+        return previous.apply(versions.incrementAndGet(), fresh.values(), removed);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.ai.gemini.GeminiClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache kết quả parse ý định của Gemini cho {@code AIChat.parseBookingInput}, 2 tầng:
+ * heap (LRU, {@link #LOCAL_MAX_ENTRIES}) → Redis {@code ai:intent:<hash>} (chia sẻ giữa các node).
+ *
+ * Key = hash(prompt đã điền biến ngày/số sân) + câu hỏi đã chuẩn hóa (bỏ dấu, gộp khoảng trắng,
+ * chuẩn số) → "Sân 5 người tối nay" và "san 5 nguoi  toi nay" dùng chung 1 lượt gọi Gemini; sang ngày
+ * mới hoặc số sân đổi thì prompt đổi → key đổi, không cần invalidate.
+ *
+ * Giá trị là JSON BookingQuery Gemini trả về (action + tham số), KHÔNG phải câu trả lời cuối —
+ * handler vẫn chạy trên dữ liệu sống (tồn kho, lịch sân, giá).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IntentCache {
+
+    static final String KEY_PREFIX = "ai:intent:";
+    private static final long REDIS_TTL_HOURS = 6;
+    private static final long LOCAL_TTL_MS = 30 * 60_000L;
+    private static final int LOCAL_MAX_ENTRIES = 2_000;
+    /** Câu dài gần như không lặp lại — không đáng tốn chỗ. */
+    static final int MAX_INPUT_LENGTH = 200;
+
+    private static final Pattern THOUSANDS = Pattern.compile("(?<=\\d)[.,](?=\\d{3}(?!\\d))");
+    private static final Pattern K_SUFFIX = Pattern.compile("\\b(\\d+)\\s*k\\b");
+    private static final Pattern LEADING_ZEROS = Pattern.compile("\\b0+(?=\\d)");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Map<String, Entry> local = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > LOCAL_MAX_ENTRIES;
+        }
+    };
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    private record Entry(String json, long expiresAt) {}
+
+    /** JSON intent đã cache cho (prompt, input); null nếu chưa có / không cache được. */
+    public String get(String promptFingerprint, String userInput) {
+        String key = key(promptFingerprint, userInput);
+        if (key == null) return null;
+        long now = System.currentTimeMillis();
+        synchronized (local) {
+            Entry e = local.get(key);
+            if (e != null && e.expiresAt() > now) {
+                localHits.increment();
+                return e.json();
+            }
+            if (e != null) local.remove(key);
+        }
+        try {
+            String json = redisTemplate.opsForValue().get(KEY_PREFIX + key);
+            if (json != null) {
+                redisHits.increment();
+                putLocal(key, json, now);
+                return json;
+            }
+        } catch (Exception e) {
+            log.warn("IntentCache: Redis get failed: {}", e.getMessage());
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String promptFingerprint, String userInput, String intentJson) {
+        String key = key(promptFingerprint, userInput);
+        if (key == null || intentJson == null || intentJson.isBlank()) return;
+        putLocal(key, intentJson, System.currentTimeMillis());
+        stores.increment();
+        try {
+            redisTemplate.opsForValue().set(KEY_PREFIX + key, intentJson, REDIS_TTL_HOURS, TimeUnit.HOURS);
+        } catch (Exception e) {
+            log.warn("IntentCache: Redis set failed: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long l = localHits.sum(), r = redisHits.sum(), m = misses.sum();
+        long total = l + r + m;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localHits", l);
+        stats.put("redisHits", r);
+        stats.put("misses", m);
+        stats.put("stores", stores.sum());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (l + r) / total);
+        synchronized (local) {
+            stats.put("localSize", local.size());
+        }
+        return stats;
+    }
+
+    private void putLocal(String key, String json, long now) {
+        synchronized (local) {
+            local.put(key, new Entry(json, now + LOCAL_TTL_MS));
+        }
+    }
+
+    private static String key(String promptFingerprint, String userInput) {
+        String normalized = normalize(userInput);
+        if (normalized.isEmpty() || normalized.length() > MAX_INPUT_LENGTH) return null;
+        return GeminiClient.sha256Hex(promptFingerprint + '\n' + normalized);
+    }
+
+    /**
+     * Chuẩn hóa câu hỏi: lowercase, bỏ dấu tiếng Việt (đ→d), bỏ dấu câu, gộp khoảng trắng,
+     * số "1.000.000"/"1,000,000" → "1000000", "500k" → "500000", "07" → "7".
+     */
+    static String normalize(String input) {
+        if (input == null) return "";
+        String t = Normalizer.normalize(input.toLowerCase(Locale.ROOT).trim(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .replace('đ', 'd');
+        t = THOUSANDS.matcher(t).replaceAll("");
+        Matcher k = K_SUFFIX.matcher(t);
+        t = k.replaceAll("$1000");
+        t = LEADING_ZEROS.matcher(t).replaceAll("");
+        t = NON_WORD.matcher(t).replaceAll(" ");
+        return t.trim();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.entity.Pitch;
+import com.example.FieldFinder.event.PitchCatalogChangedEvent;
+import com.example.FieldFinder.repository.PitchRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Số sân đang hoạt động theo loại cho system prompt của trợ lý AI — thay cho việc kéo cả danh sách
+ * sân (JSON trong Redis) chỉ để đếm.
+ *
+ * - Đếm bằng 1 query GROUP BY, giữ trong heap kèm {@code version}.
+ * - {@link PitchCatalogChangedEvent} (sau commit) → đánh dấu dirty + publish kênh Redis cho node khác.
+ * - Lượt đọc kế tiếp đếm lại; version chỉ tăng khi số đếm thực sự đổi (prompt đã render vẫn dùng được).
+ * - Quá {@link #MAX_AGE_MS} cũng đếm lại — phòng lỡ event (ngưng sân theo lịch, sửa tay DB).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PitchTypeCounter {
+
+    static final String CHANNEL = "pitch-type-counter:invalidate";
+    private static final long MAX_AGE_MS = 10 * 60_000L;
+
+    private final PitchRepository pitchRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private volatile Counts counts;
+    private volatile boolean dirty = true;
+    private final AtomicLong versions = new AtomicLong();
+    private final Object refreshLock = new Object();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /** Ảnh chụp số đếm; {@code version} đổi ⇔ số đếm đổi. */
+    public record Counts(long version, long total, Map<Pitch.PitchType, Long> byType, long loadedAt) {
+        public long of(Pitch.PitchType type) {
+            return byType.getOrDefault(type, 0L);
+        }
+    }
+
+    @PostConstruct
+    void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteChange(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    public Counts current() {
+        Counts c = counts;
+        if (c != null && !dirty && System.currentTimeMillis() - c.loadedAt() < MAX_AGE_MS) {
+            return c;
+        }
+        return refresh();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onPitchCatalogChanged(PitchCatalogChangedEvent event) {
+        dirty = true;
+        try {
+            redisTemplate.convertAndSend(CHANNEL, nodeId + "|" + event.getPitchId());
+        } catch (Exception e) {
+            // Node khác tự đếm lại khi quá MAX_AGE_MS
+            log.warn("PitchTypeCounter: publish change failed: {}", e.getMessage());
+        }
+    }
+
+    void onRemoteChange(String payload) {
+        String[] parts = payload.split("\\|", 2);
+        if (parts.length < 2 || nodeId.equals(parts[0])) return;
+        dirty = true;
+    }
+
+    private Counts refresh() {
+        synchronized (refreshLock) {
+            Counts c = counts;
+            if (c != null && !dirty && System.currentTimeMillis() - c.loadedAt() < MAX_AGE_MS) return c;
+            dirty = false;
+            try {
+                Map<Pitch.PitchType, Long> byType = new EnumMap<>(Pitch.PitchType.class);
+                long total = 0;
+                for (Object[] row : pitchRepository.countByTypeAndStatus(Pitch.PitchStatus.ACTIVE)) {
+                    long n = ((Number) row[1]).longValue();
+                    byType.put((Pitch.PitchType) row[0], n);
+                    total += n;
+                }
+                long version = c != null && c.byType().equals(byType) ? c.version() : versions.incrementAndGet();
+                Counts next = new Counts(version, total, Map.copyOf(byType), System.currentTimeMillis());
+                counts = next;
+                return next;
+            } catch (RuntimeException e) {
+                dirty = true;
+                if (c == null) throw e;
+                log.warn("PitchTypeCounter: recount failed, serving v{}: {}", c.version(), e.getMessage());
+                return c;
+            }
+        }
+    }
+}
@@ -1,81 +1,170 @@
 package com.example.FieldFinder.ai.gemini;
 
 import com.example.FieldFinder.ai.GeminiRateLimiter;
+import com.example.FieldFinder.ai.GeminiRateLimiter.Priority;
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
 import com.example.FieldFinder.service.RedisService;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.github.cdimascio.dotenv.Dotenv;
+import jakarta.annotation.PreDestroy;
 import okhttp3.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
 import java.security.MessageDigest;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Lớp transport gọi Gemini (chat / vision / embedding) — tách khỏi AIChat.
  * Chỉ lo HTTP + retry + làm sạch JSON; KHÔNG chứa logic nghiệp vụ hay prompt
- * (prompt do caller truyền vào). Hành vi giữ nguyên 1:1 so với bản cũ trong AIChat.
+ * (prompt do caller truyền vào).
+ *
+ * Non-blocking: API {@code *Async} trả {@link CompletableFuture}, không giữ thread của caller.
+ * - Chờ permit {@link GeminiRateLimiter} trên virtual thread; HTTP qua {@code enqueue} của OkHttp
+ *   với {@link ConnectionPool}/{@link Dispatcher} cấu hình tường minh (1 host duy nhất).
+ * - Retry (timeout, 429) hẹn giờ trên {@link #retryScheduler} với backoff lũy thừa + jitter,
+ *   KHÔNG {@code Thread.sleep}; bỏ retry nếu lượt kế vượt hạn chót caller truyền vào.
+ * - Bản đồng bộ ({@link #chat}, {@link #visionJson}, {@link #getEmbedding}) = bản async + chờ,
+ *   hạn chót mặc định {@link #DEFAULT_BUDGET} — cho job nền/enrichment.
+ * - Circuit breaker {@link CircuitBreakers#GEMINI}: đang mở → future lỗi ngay, không chờ permit/HTTP.
  */
 @Component
 public class GeminiClient {
 
-    private static final String MODEL_VERSION = "gemini-2.5-flash";
+    private static final String MODEL_VERSION = GeminiRateLimiter.GENERATE_MODEL;
     private static final String GEMINI_API_URL =
             "https://generativelanguage.googleapis.com/v1beta/models/" + MODEL_VERSION + ":generateContent?key=";
     private static final String EMBEDDING_API_URL =
-            "https://generativelanguage.googleapis.com/v1beta/models/gemini-embedding-001:embedContent?key=";
+            "https://generativelanguage.googleapis.com/v1beta/models/" + GeminiRateLimiter.EMBEDDING_MODEL + ":embedContent?key=";
+    /** Gemini tính ~258 token cho 1 ảnh inline (≤ 384px mỗi cạnh, ảnh lớn hơn chia tile). */
+    private static final int IMAGE_TOKENS = 258;
     private static final String GOOGLE_API_KEY = Dotenv.load().get("GOOGLE_API_KEY");
-
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(15))
-            .readTimeout(Duration.ofSeconds(60))
-            .writeTimeout(Duration.ofSeconds(30))
-            .callTimeout(Duration.ofSeconds(90))
-            .build();
+    private static final MediaType JSON_TYPE = MediaType.parse("application/json");
+    private static final JsonFactory JSON = new JsonFactory();
+
+    static final Duration DEFAULT_BUDGET = Duration.ofSeconds(90);
+    static final int MAX_RETRIES = 4;
+    private static final long BASE_BACKOFF_MS = 6000; // Gemini free tier cần nhiều thời gian hồi hơn 4s
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final OkHttpClient client;
+    /** Virtual thread: chờ permit rate limiter + đọc body — block rẻ, không chiếm Tomcat/platform thread. */
+    private final ExecutorService callExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("gemini-call-", 0).factory());
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gemini-retry");
+        t.setDaemon(true);
+        return t;
+    });
     private final ObjectMapper mapper = new ObjectMapper();
 
     private final GeminiRateLimiter geminiRateLimiter;
     private final RedisService redisService;
+    private final CircuitBreaker circuitBreaker;
+
+    @Autowired
+    public GeminiClient(GeminiRateLimiter geminiRateLimiter, RedisService redisService,
+                        CircuitBreakers circuitBreakers,
+                        @Value("${gemini.http.max-requests:64}") int maxRequests,
+                        @Value("${gemini.http.max-idle-connections:16}") int maxIdleConnections) {
+        this(geminiRateLimiter, redisService, circuitBreakers.get(CircuitBreakers.GEMINI), maxRequests,
+                maxIdleConnections);
+    }
 
-    public GeminiClient(GeminiRateLimiter geminiRateLimiter, RedisService redisService) {
+    private GeminiClient(GeminiRateLimiter geminiRateLimiter, RedisService redisService,
+                         CircuitBreaker circuitBreaker, int maxRequests, int maxIdleConnections) {
         this.geminiRateLimiter = geminiRateLimiter;
         this.redisService = redisService;
+        this.circuitBreaker = circuitBreaker;
+        Dispatcher dispatcher = new Dispatcher(Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("gemini-http-", 0).factory()));
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests); // mọi call đều tới generativelanguage.googleapis.com
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, 5, TimeUnit.MINUTES))
+                .connectTimeout(Duration.ofSeconds(15))
+                .readTimeout(Duration.ofSeconds(60))
+                .writeTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    GeminiClient(GeminiRateLimiter geminiRateLimiter, RedisService redisService) {
+        this(geminiRateLimiter, redisService, new CircuitBreaker(CircuitBreakers.GEMINI,
+                new CircuitBreaker.Settings(20, 5, 50, 30_000, 80, 60_000, 2), t -> {}));
+    }
+
+    GeminiClient(GeminiRateLimiter geminiRateLimiter, RedisService redisService, CircuitBreaker circuitBreaker) {
+        this(geminiRateLimiter, redisService, circuitBreaker, 64, 16);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        callExecutor.shutdownNow();
+        client.dispatcher().cancelAll();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
     }
 
     /** Gọi Gemini chat, trả về text JSON đã làm sạch ```json fences. */
     public String chat(String userInput, String systemPrompt) throws IOException, InterruptedException {
-        ObjectNode rootNode = mapper.createObjectNode();
-        ObjectNode systemInstNode = rootNode.putObject("system_instruction");
-        systemInstNode.putObject("parts").put("text", systemPrompt);
-
-        ArrayNode contentsArray = rootNode.putArray("contents");
-        ObjectNode userMessage = contentsArray.addObject();
-        userMessage.put("role", "user");
-        userMessage.putObject("parts").put("text", userInput);
-
-        ObjectNode generationConfig = rootNode.putObject("generationConfig");
-        generationConfig.put("temperature", 0.1);
-        generationConfig.put("response_mime_type", "application/json");
-        generationConfig.put("maxOutputTokens", 2048);
-        generationConfig.putObject("thinkingConfig").put("thinkingBudget", 0);
-
-        Request request = new Request.Builder()
-                .url(GEMINI_API_URL + GOOGLE_API_KEY)
-                .post(RequestBody.create(mapper.writeValueAsString(rootNode), MediaType.parse("application/json")))
-                .build();
+        return await(chatAsync(userInput, systemPrompt, Instant.now().plus(DEFAULT_BUDGET)));
+    }
 
-        try (Response response = callWithRetry(request, "Chat")) {
-            return cleanJson(extractGeminiResponse(response.body().string()));
+    /** Bản async của {@link #chat}; lỗi HTTP/hết hạn → future lỗi {@link IOException}. */
+    public CompletableFuture<String> chatAsync(String userInput, String systemPrompt, Instant deadline) {
+        byte[] body;
+        try {
+            body = writeJson(g -> {
+                writeSystemInstruction(g, systemPrompt);
+                g.writeArrayFieldStart("contents");
+                g.writeStartObject();
+                g.writeStringField("role", "user");
+                g.writeObjectFieldStart("parts");
+                g.writeStringField("text", userInput);
+                g.writeEndObject();
+                g.writeEndObject();
+                g.writeEndArray();
+                writeGenerationConfig(g, 0.1, 2048);
+            });
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        int tokens = estimateTokens(systemPrompt, userInput) + 2048;
+        return callAsync(generateRequest(body), "Chat", MODEL_VERSION, Priority.CHAT, tokens, deadline)
+                .thenApply(raw -> {
+                    try {
+                        return cleanJson(extractGeminiResponse(raw));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
     }
 
     /**
@@ -84,47 +173,30 @@ public class GeminiClient {
      */
     public JsonNode visionJson(String systemPrompt, String userText, String base64Image) {
         try {
-            ObjectNode rootNode = mapper.createObjectNode();
-            rootNode.putObject("system_instruction").putObject("parts").put("text", systemPrompt);
-
-            ArrayNode contentsArray = rootNode.putArray("contents");
-            ObjectNode userMessage = contentsArray.addObject();
-            userMessage.put("role", "user");
-            ArrayNode parts = userMessage.putArray("parts");
-            parts.addObject().put("text", userText);
-
-            if (base64Image != null && !base64Image.isEmpty()) {
-                ObjectNode inlineData = parts.addObject().putObject("inline_data");
-                String mimeType = "image/jpeg";
-                String cleanB64 = base64Image;
-                if (base64Image.contains(",")) {
-                    String[] tokens = base64Image.split(",");
-                    if (tokens[0].contains("png")) mimeType = "image/png";
-                    cleanB64 = tokens[1];
-                }
-                inlineData.put("mime_type", mimeType);
-                inlineData.put("data", cleanB64);
-            }
-
-            ObjectNode generationConfig = rootNode.putObject("generationConfig");
-            generationConfig.put("response_mime_type", "application/json");
-            generationConfig.put("maxOutputTokens", 1024);
-            generationConfig.putObject("thinkingConfig").put("thinkingBudget", 0);
-
-            Request request = new Request.Builder()
-                    .url(GEMINI_API_URL + GOOGLE_API_KEY)
-                    .post(RequestBody.create(mapper.writeValueAsString(rootNode), MediaType.parse("application/json")))
-                    .build();
-
-            try (Response response = callWithRetry(request, "Image Analysis")) {
-                return mapper.readTree(cleanJson(extractGeminiResponse(response.body().string())));
-            }
-        } catch (Exception e) {
-            System.err.println("GeminiClient.visionJson fail: " + e.getMessage());
+            return await(visionJsonAsync(systemPrompt, userText, base64Image, Instant.now().plus(DEFAULT_BUDGET)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
             return null;
         }
     }
 
+    /** Bản async của {@link #visionJson(String, String, String)}; lỗi → hoàn tất với null. */
+    public CompletableFuture<JsonNode> visionJsonAsync(String systemPrompt, String userText, String base64Image,
+                                                       Instant deadline) {
+        String mimeType = "image/jpeg";
+        String cleanB64 = base64Image;
+        if (base64Image != null && base64Image.contains(",")) {
+            String[] tokens = base64Image.split(",");
+            if (tokens[0].contains("png")) mimeType = "image/png";
+            cleanB64 = tokens[1];
+        }
+        boolean hasImage = base64Image != null && !base64Image.isEmpty();
+        return visionAsync(systemPrompt, userText, hasImage ? cleanB64 : null, mimeType, null,
+                "Image Analysis", Priority.IMAGE, deadline);
+    }
+
     /**
      * Vision parse với mime + temperature tường minh (dùng cho enrichment).
      * base64Image phải là chuỗi đã sạch (không tiền tố data:). Trả JsonNode hoặc null.
@@ -132,39 +204,69 @@ public class GeminiClient {
     public JsonNode visionJson(String systemPrompt, String userText, String base64Image,
                                String mimeType, double temperature) {
         try {
-            ObjectNode rootNode = mapper.createObjectNode();
-            rootNode.putObject("system_instruction").putObject("parts").put("text", systemPrompt);
-
-            ArrayNode contentsArray = rootNode.putArray("contents");
-            ObjectNode userMessage = contentsArray.addObject();
-            userMessage.put("role", "user");
-            ArrayNode parts = userMessage.putArray("parts");
-            parts.addObject().put("text", userText);
-
-            ObjectNode inlineData = parts.addObject().putObject("inline_data");
-            inlineData.put("mime_type", mimeType);
-            inlineData.put("data", base64Image);
-
-            ObjectNode generationConfig = rootNode.putObject("generationConfig");
-            generationConfig.put("temperature", temperature);
-            generationConfig.put("response_mime_type", "application/json");
-            generationConfig.put("maxOutputTokens", 1024);
-            generationConfig.putObject("thinkingConfig").put("thinkingBudget", 0);
-
-            Request request = new Request.Builder()
-                    .url(GEMINI_API_URL + GOOGLE_API_KEY)
-                    .post(RequestBody.create(mapper.writeValueAsString(rootNode), MediaType.parse("application/json")))
-                    .build();
-
-            try (Response response = callWithRetry(request, "Product Tags Enrichment")) {
-                return mapper.readTree(cleanJson(extractGeminiResponse(response.body().string())));
-            }
-        } catch (Exception e) {
-            System.err.println("GeminiClient.visionJson(enrich) fail: " + e.getMessage());
+            return await(visionAsync(systemPrompt, userText, base64Image, mimeType, temperature,
+                    "Product Tags Enrichment", Priority.ENRICHMENT, Instant.now().plus(DEFAULT_BUDGET)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
             return null;
         }
     }
 
+    private CompletableFuture<JsonNode> visionAsync(String systemPrompt, String userText, String base64Image,
+                                                    String mimeType, Double temperature, String description,
+                                                    Priority priority, Instant deadline) {
+        byte[] body;
+        try {
+            body = writeJson(g -> {
+                writeSystemInstruction(g, systemPrompt);
+                g.writeArrayFieldStart("contents");
+                g.writeStartObject();
+                g.writeStringField("role", "user");
+                g.writeArrayFieldStart("parts");
+                g.writeStartObject();
+                g.writeStringField("text", userText);
+                g.writeEndObject();
+                if (base64Image != null) {
+                    g.writeStartObject();
+                    g.writeObjectFieldStart("inline_data");
+                    g.writeStringField("mime_type", mimeType);
+                    g.writeStringField("data", base64Image);
+                    g.writeEndObject();
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+                g.writeEndArray();
+                writeGenerationConfig(g, temperature, 1024);
+            });
+        } catch (IOException e) {
+            System.err.println("GeminiClient.visionJson fail: " + e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+        int tokens = estimateTokens(systemPrompt, userText) + IMAGE_TOKENS + 1024;
+        CompletableFuture<String> call = callAsync(generateRequest(body), description, MODEL_VERSION, priority,
+                tokens, deadline);
+        CompletableFuture<JsonNode> parsed = call
+                .thenApply(raw -> {
+                    try {
+                        return mapper.readTree(cleanJson(extractGeminiResponse(raw)));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .exceptionally(e -> {
+                    System.err.println("GeminiClient.visionJson(" + description + ") fail: " + rootCause(e).getMessage());
+                    return null;
+                });
+        // Caller hủy future trả về (vd hết thời gian chờ) → hủy luôn call HTTP phía sau
+        parsed.whenComplete((v, e) -> {
+            if (parsed.isCancelled()) call.cancel(true);
+        });
+        return parsed;
+    }
+
     /** Embedding gemini-embedding-001, cache Redis theo hash(text) TTL 7 ngày. */
     public List<Double> getEmbedding(String text) {
         if (text == null || text.isBlank()) return new ArrayList<>();
@@ -180,80 +282,282 @@ public class GeminiClient {
         }
 
         try {
-            ObjectNode rootNode = mapper.createObjectNode();
-            ObjectNode content = rootNode.putObject("content");
-            content.putObject("parts").put("text", text);
-
+            byte[] body = writeJson(g -> {
+                g.writeObjectFieldStart("content");
+                g.writeObjectFieldStart("parts");
+                g.writeStringField("text", text);
+                g.writeEndObject();
+                g.writeEndObject();
+            });
             Request request = new Request.Builder()
                     .url(EMBEDDING_API_URL + GOOGLE_API_KEY)
-                    .post(RequestBody.create(mapper.writeValueAsString(rootNode), MediaType.parse("application/json")))
+                    .post(RequestBody.create(body, JSON_TYPE))
                     .build();
 
-            try (Response response = callWithRetry(request, "Embedding")) {
-                JsonNode root = mapper.readTree(response.body().string());
-                JsonNode valuesNode = root.path("embedding").path("values");
+            String raw = await(callAsync(request, "Embedding", GeminiRateLimiter.EMBEDDING_MODEL,
+                    Priority.CHAT, estimateTokens(text), Instant.now().plus(DEFAULT_BUDGET)));
+            JsonNode valuesNode = mapper.readTree(raw).path("embedding").path("values");
 
-                List<Double> vector = new ArrayList<>();
-                if (valuesNode.isArray()) {
-                    for (JsonNode val : valuesNode) {
-                        vector.add(val.asDouble());
-                    }
+            List<Double> vector = new ArrayList<>();
+            if (valuesNode.isArray()) {
+                for (JsonNode val : valuesNode) {
+                    vector.add(val.asDouble());
                 }
-                if (!vector.isEmpty()) {
-                    try {
-                        redisService.saveDataWithTTL(cacheKey, mapper.writeValueAsString(vector), 7, TimeUnit.DAYS);
-                    } catch (Exception ignored) {}
-                }
-                return vector;
             }
+            if (!vector.isEmpty()) {
+                try {
+                    redisService.saveDataWithTTL(cacheKey, mapper.writeValueAsString(vector), 7, TimeUnit.DAYS);
+                } catch (Exception ignored) {}
+            }
+            return vector;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
         } catch (Exception e) {
             e.printStackTrace();
             return new ArrayList<>();
         }
     }
 
-    private Response callWithRetry(Request request, String description) throws IOException, InterruptedException {
-        int maxRetries = 4;
-        long backoff = 6000; // 6s base — Gemini free tier cần nhiều thời gian hồi hơn 4s
-
-        for (int i = 0; i <= maxRetries; i++) {
-            geminiRateLimiter.acquire();
-            Response response;
-            try {
-                response = client.newCall(request).execute();
-            } catch (SocketTimeoutException ste) {
-                if (i < maxRetries) {
-                    System.err.println("⚠️ [" + description + "] timeout. Retry " + (i + 1) + "/" + maxRetries + " sau " + backoff + "ms...");
-                    Thread.sleep(backoff);
-                    backoff = Math.min(backoff * 2, 30000);
-                    continue;
-                }
-                throw new IOException("Gemini timeout sau " + maxRetries + " retries: " + ste.getMessage(), ste);
-            }
+    /**
+     * Gọi Gemini với retry không chặn thread. Future hoàn tất với body (2xx), hoặc lỗi {@link IOException}
+     * (4xx/5xx khác 429, hết retry, quá hạn chót, breaker đang mở). Caller hủy future → hủy luôn call đang bay.
+     *
+     * Breaker xin phép ở lần gửi đầu tiên — sau khi có permit của {@link GeminiRateLimiter} — và tính cả lượt
+     * (gồm retry): thành công / lỗi 5xx, 429 hết retry, timeout, lỗi mạng; thời gian tính từ lần gửi cuối.
+     * Lỗi 4xx khác 429 là lỗi request (prompt, ảnh) chứ không phải Gemini hỏng → tính thành công. Lỗi do
+     * phía mình ({@link LocalFailureException}: chờ permit quá hạn chót, bị ngắt, client dừng) không tính.
+     */
+    CompletableFuture<String> callAsync(Request request, String description, String model, Priority priority,
+                                        int tokens, Instant deadline) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (circuitBreaker.isOpen()) {
+            result.completeExceptionally(new IOException("[" + description + "] Gemini circuit breaker đang mở"));
+            return result;
+        }
+        AtomicReference<Call> inFlight = new AtomicReference<>();
+        result.whenComplete((body, error) -> {
+            Call call = inFlight.get();
+            if (error != null && call != null) call.cancel();
+        });
+        attempt(new Attempt(request, description, model, priority, tokens, deadline, result, inFlight,
+                new AtomicLong(NOT_SENT)), 0, BASE_BACKOFF_MS);
+        return result;
+    }
 
-            if (response.isSuccessful()) {
-                return response;
-            }
+    /** Báo kết quả cả lượt cho breaker — đăng ký đúng 1 lần, ngay khi breaker cho phép lần gửi đầu. */
+    private void settle(Attempt a, Throwable error) {
+        long start = a.sentAt().get();
+        if (error == null || error instanceof ClientErrorException) {
+            circuitBreaker.onSuccess(start);
+        } else if (error instanceof CancellationException || error instanceof LocalFailureException) {
+            circuitBreaker.release(start);
+        } else {
+            circuitBreaker.onFailure(start);
+        }
+    }
 
-            String errorBody = response.body() != null ? response.body().string() : "No body";
-            if (response.code() == 429 && i < maxRetries) {
-                String retryAfter = response.header("Retry-After");
-                long waitMs = backoff;
-                if (retryAfter != null) {
-                    try {
-                        waitMs = Math.max(backoff, Long.parseLong(retryAfter.trim()) * 1000);
-                    } catch (NumberFormatException ignored) {}
+    /** 4xx khác 429: request sai, Gemini vẫn khỏe — không tính vào breaker. */
+    static final class ClientErrorException extends IOException {
+        ClientErrorException(String message) {
+            super(message);
+        }
+    }
+
+    /** Lỗi phát sinh ở phía mình trước khi gửi (hàng đợi permit, hạn chót, client dừng) — Gemini không liên quan. */
+    static final class LocalFailureException extends IOException {
+        LocalFailureException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final long NOT_SENT = Long.MIN_VALUE;
+
+    /** {@code sentAt}: System.nanoTime() lúc gửi lần gần nhất; {@link #NOT_SENT} khi chưa xin phép breaker. */
+    private record Attempt(Request request, String description, String model, Priority priority, int tokens,
+                           Instant deadline, CompletableFuture<String> result, AtomicReference<Call> inFlight,
+                           AtomicLong sentAt) {}
+
+    private void attempt(Attempt a, int retry, long backoff) {
+        if (a.result().isDone()) return;
+        try {
+            callExecutor.execute(() -> {
+                try {
+                    geminiRateLimiter.acquire(a.model(), a.priority(), a.tokens());
+                } catch (InterruptedException e) {
+                    a.result().completeExceptionally(new LocalFailureException("Gemini call bị ngắt khi chờ permit", e));
+                    return;
                 }
-                System.err.println("⚠️ [" + description + "] Gemini 429. Retry " + (i + 1) + "/" + maxRetries + " sau " + waitMs + "ms...");
-                response.close();
-                Thread.sleep(waitMs);
-                backoff = Math.min(backoff * 2, 30000);
-                continue;
-            }
+                long remaining = remainingMs(a.deadline());
+                if (remaining <= 0) {
+                    a.result().completeExceptionally(new LocalFailureException(
+                            "[" + a.description() + "] quá hạn chót trước khi gửi (retry " + retry + ")", null));
+                    return;
+                }
+                if (a.result().isDone()) return;
+                if (a.sentAt().get() == NOT_SENT) {
+                    if (!circuitBreaker.tryAcquire()) {
+                        a.result().completeExceptionally(
+                                new IOException("[" + a.description() + "] Gemini circuit breaker đang mở"));
+                        return;
+                    }
+                    a.sentAt().set(System.nanoTime());
+                    // Future đã xong (bị hủy) giữa chừng → callback chạy ngay, trả lại lượt
+                    a.result().whenComplete((body, error) -> settle(a, error));
+                } else {
+                    a.sentAt().set(System.nanoTime());
+                }
+                Call call = client.newCall(a.request());
+                call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+                a.inFlight().set(call);
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call c, IOException e) {
+                        if (a.result().isDone()) return;
+                        if (e instanceof InterruptedIOException && retry < MAX_RETRIES) {
+                            scheduleRetry(a, retry, backoff, backoff, "timeout");
+                            return;
+                        }
+                        a.result().completeExceptionally(e instanceof InterruptedIOException
+                                ? new IOException("Gemini timeout sau " + retry + " retries: " + e.getMessage(), e)
+                                : e);
+                    }
+
+                    @Override
+                    public void onResponse(Call c, Response response) {
+                        try (response) {
+                            if (response.isSuccessful()) {
+                                a.result().complete(response.body().string());
+                                return;
+                            }
+                            String errorBody = response.body() != null ? response.body().string() : "No body";
+                            if (response.code() == 429 && retry < MAX_RETRIES) {
+                                long waitMs = backoff;
+                                String retryAfter = response.header("Retry-After");
+                                if (retryAfter != null) {
+                                    try {
+                                        waitMs = Math.max(backoff, Long.parseLong(retryAfter.trim()) * 1000);
+                                    } catch (NumberFormatException ignored) {}
+                                }
+                                scheduleRetry(a, retry, backoff, waitMs, "429");
+                                return;
+                            }
+                            String message = "Gemini API Error [" + response.code() + "]: " + errorBody;
+                            a.result().completeExceptionally(response.code() >= 400 && response.code() < 500
+                                    && response.code() != 429
+                                    ? new ClientErrorException(message)
+                                    : new IOException(message));
+                        } catch (IOException e) {
+                            a.result().completeExceptionally(e);
+                        }
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            a.result().completeExceptionally(new LocalFailureException("GeminiClient đã dừng", e));
+        }
+    }
+
+    /** Hẹn lượt kế sau waitMs ± jitter; không kịp trước hạn chót → báo lỗi ngay thay vì chờ vô ích. */
+    private void scheduleRetry(Attempt a, int retry, long backoff, long waitMs, String reason) {
+        long delay = jitter(waitMs);
+        if (delay >= remainingMs(a.deadline())) {
+            a.result().completeExceptionally(new IOException("[" + a.description() + "] Gemini " + reason
+                    + ": retry sau " + delay + "ms sẽ vượt hạn chót"));
+            return;
+        }
+        System.err.println("⚠️ [" + a.description() + "] Gemini " + reason + ". Retry " + (retry + 1) + "/"
+                + MAX_RETRIES + " sau " + delay + "ms...");
+        try {
+            retryScheduler.schedule(() -> attempt(a, retry + 1, Math.min(backoff * 2, MAX_BACKOFF_MS)),
+                    delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            a.result().completeExceptionally(new LocalFailureException("GeminiClient đã dừng", e));
+        }
+    }
+
+    /** Jitter ±25%: nhiều node cùng dính 429 không retry trùng nhịp. */
+    static long jitter(long waitMs) {
+        long spread = waitMs / 4;
+        return waitMs - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1);
+    }
+
+    private static long remainingMs(Instant deadline) {
+        return Duration.between(Instant.now(), deadline).toMillis();
+    }
+
+    /** Chờ future cho các API đồng bộ, gỡ lớp bọc để caller vẫn nhận IOException như trước. */
+    private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = rootCause(e);
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        Throwable t = e;
+        while ((t instanceof ExecutionException || t instanceof CompletionException)
+                && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    private static Request generateRequest(byte[] body) {
+        return new Request.Builder()
+                .url(GEMINI_API_URL + GOOGLE_API_KEY)
+                .post(RequestBody.create(body, JSON_TYPE))
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface JsonWriter {
+        void write(JsonGenerator g) throws IOException;
+    }
+
+    /** Ghi thẳng body request bằng streaming generator — không dựng cây ObjectNode cho prompt dài. */
+    private static byte[] writeJson(JsonWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try (JsonGenerator g = JSON.createGenerator(out)) {
+            g.writeStartObject();
+            writer.write(g);
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeSystemInstruction(JsonGenerator g, String systemPrompt) throws IOException {
+        g.writeObjectFieldStart("system_instruction");
+        g.writeObjectFieldStart("parts");
+        g.writeStringField("text", systemPrompt);
+        g.writeEndObject();
+        g.writeEndObject();
+    }
+
+    private static void writeGenerationConfig(JsonGenerator g, Double temperature, int maxOutputTokens) throws IOException {
+        g.writeObjectFieldStart("generationConfig");
+        if (temperature != null) g.writeNumberField("temperature", temperature);
+        g.writeStringField("response_mime_type", "application/json");
+        g.writeNumberField("maxOutputTokens", maxOutputTokens);
+        g.writeObjectFieldStart("thinkingConfig");
+        g.writeNumberField("thinkingBudget", 0);
+        g.writeEndObject();
+        g.writeEndObject();
+    }
 
-            throw new IOException("Gemini API Error [" + response.code() + "]: " + errorBody);
+    /** Ước lượng token đầu vào ~ 4 ký tự / token — đủ cho ngân sách TPM, không cần tokenizer. */
+    static int estimateTokens(String... texts) {
+        int chars = 0;
+        for (String t : texts) {
+            if (t != null) chars += t.length();
         }
-        throw new IOException("Gemini API call failed after " + maxRetries + " retries.");
+        return chars / 4 + 1;
     }
 
     private String extractGeminiResponse(String rawJson) throws IOException {
@@ -2,7 +2,9 @@ package com.example.FieldFinder.ai.handler;
 
 import com.example.FieldFinder.ai.AIChat;
 import com.example.FieldFinder.ai.AiChatSessionContextStore;
+import com.example.FieldFinder.ai.ChatStreamListener;
 import com.example.FieldFinder.ai.cache.AiCatalogCache;
+import com.example.FieldFinder.ai.cache.CatalogSnapshot;
 import com.example.FieldFinder.ai.gemini.GeminiClient;
 import com.example.FieldFinder.ai.match.AiProductMatch;
 import com.example.FieldFinder.ai.ranking.CompositeRanker;
@@ -70,7 +72,8 @@ public class ActivityRecommendHandler {
     }
 
     @SuppressWarnings("unchecked")
-    public AIChat.BookingQuery handle(AIChat.BookingQuery query, String sessionId, String userInput) {
+    public AIChat.BookingQuery handle(AIChat.BookingQuery query, String sessionId, String userInput,
+                                      ChatStreamListener listener) {
         UUID userId = catalogCache.resolveCurrentUserId(sessionId);
         String activity = (String) query.data.get("activity");
         List<String> tags = (List<String>) query.data.get("tags");
@@ -175,7 +178,8 @@ public class ActivityRecommendHandler {
         List<String> resolvedCategories = CategoryMapper.resolveCategories(activity, aiCategories, categoryKeyword);
 
         // Thuộc tính user nêu thẳng trong query — dùng cho cả ranking lẫn tiered message cuối flow.
-        String queryBrand = AiProductMatch.detectQueryBrand(catalogCache.getProductsForAiAssistantCached(userId), (String) query.data.get("productName"), tags, userInput);
+        CatalogSnapshot catalog = catalogCache.getCatalogSnapshot(userId);
+        String queryBrand = AiProductMatch.detectQueryBrandAmong(catalog.brands(), (String) query.data.get("productName"), tags, userInput);
         String queryColor = AiProductMatch.detectQueryColor(query.data.get("color"), userInput);
         String queryGender = AiProductMatch.detectQueryGender(tags, userInput);
         String querySize = AiProductMatch.detectQuerySize(query.data.get("size"), userInput);
@@ -207,7 +211,7 @@ public class ActivityRecommendHandler {
                     .map(ProductResponseDTO::getId).filter(Objects::nonNull)
                     .collect(Collectors.toCollection(HashSet::new));
             int added = 0;
-            for (ProductResponseDTO p : catalogCache.getProductsForAiAssistantCached(userId)) {
+            for (ProductResponseDTO p : catalog.all()) {
                 if (p.getId() == null || haveIds.contains(p.getId())) continue;
                 // Union by category name OR detected type. Type match (via productMatchesType)
                 // covers generic queries: "Shoes" → mọi subcat (Running/Football/Basketball Shoes),
@@ -286,9 +290,7 @@ public class ActivityRecommendHandler {
 
         if ((results == null || results.isEmpty()) && !resolvedCategories.isEmpty()) {
             final String typeForFallback = detectedType;
-            results = catalogCache.getProductsForAiAssistantCached(userId).stream()
-                    .filter(p -> p.getCategoryName() != null &&
-                            resolvedCategories.contains(p.getCategoryName()))
+            results = catalog.byCategoryNames(resolvedCategories).stream()
                     .filter(p -> typeForFallback == null
                             || categoryService.productMatchesType(p, typeForFallback))
                     .filter(p -> !priceActive
@@ -302,7 +304,7 @@ public class ActivityRecommendHandler {
         // e.g. skirts filed under "Shorts" but named "…Skirt" → khớp DRESS qua tên (productMatchesType 0a).
         if ((results == null || results.isEmpty()) && detectedType != null && !detectedType.isBlank()) {
             final String typeForScan = detectedType;
-            results = catalogCache.getProductsForAiAssistantCached(userId).stream()
+            results = catalog.all().stream()
                     .filter(p -> categoryService.productMatchesType(p, typeForScan))
                     .filter(p -> !priceActive
                             || (AiTextUtil.effectivePrice(p) >= minPriceQ && AiTextUtil.effectivePrice(p) <= maxPriceQ))
@@ -523,6 +525,7 @@ public class ActivityRecommendHandler {
 
         query.data.put("groupedProducts", groupedProducts);
         query.data.put("products", results);
+        if (!results.isEmpty()) listener.onCards("products", List.copyOf(results));
         query.data.put("explainContext", Map.of("style", "sales_consultant", "maxReasonLength", 25));
         query.data.put("action", "recommend_by_activity");
         query.data.put("showImage", true);
@@ -2,10 +2,13 @@ package com.example.FieldFinder.ai.handler;
 
 import com.example.FieldFinder.ai.AIChat;
 import com.example.FieldFinder.ai.AiChatSessionContextStore;
+import com.example.FieldFinder.ai.ChatStreamListener;
 import com.example.FieldFinder.ai.cache.AiCatalogCache;
 import com.example.FieldFinder.ai.gemini.GeminiClient;
 import com.example.FieldFinder.ai.match.AiProductMatch;
 import com.example.FieldFinder.ai.util.AiTextUtil;
+import com.example.FieldFinder.config.StageExecutors;
+import com.example.FieldFinder.config.StageMetrics;
 import com.example.FieldFinder.dto.req.MLRetrieveByImageRequest;
 import com.example.FieldFinder.dto.res.MLItemResult;
 import com.example.FieldFinder.dto.res.MLRetrieveResponse;
@@ -23,6 +26,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,6 +37,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -91,12 +97,15 @@ public class ImageSearchHandler {
     private final AiChatSessionContextStore sessionContextStore;
     private final LogPublisherService logPublisherService;
     private final AiCatalogCache catalogCache;
+    private final StageExecutors stageExecutors;
+    private final StageMetrics stageMetrics;
 
     public ImageSearchHandler(GeminiClient geminiClient, MLRecommendationService mlService,
                               ProductService productService, CategoryService categoryService,
                               PhashIndex phashIndex, RedisService redisService,
                               AiChatSessionContextStore sessionContextStore,
-                              LogPublisherService logPublisherService, AiCatalogCache catalogCache) {
+                              LogPublisherService logPublisherService, AiCatalogCache catalogCache,
+                              StageExecutors stageExecutors, StageMetrics stageMetrics) {
         this.geminiClient = geminiClient;
         this.mlService = mlService;
         this.productService = productService;
@@ -106,12 +115,55 @@ public class ImageSearchHandler {
         this.sessionContextStore = sessionContextStore;
         this.logPublisherService = logPublisherService;
         this.catalogCache = catalogCache;
+        this.stageExecutors = stageExecutors;
+        this.stageMetrics = stageMetrics;
     }
 
-    public AIChat.BookingQuery process(String base64Image, String sessionId) {
+    /**
+     * {@code deadline}: hạn chót của request — Gemini Vision + chờ song song không vượt quá mốc này.
+     * {@code listener}: nhận card khớp pHash (Stage 0) và thuộc tính Vision đã parse trước kết quả cuối.
+     * Bản đồng bộ: thread gọi chờ Vision + CLIP; luồng chat dùng {@link #processAsync}.
+     */
+    public AIChat.BookingQuery process(String base64Image, String sessionId, Instant deadline,
+                                       ChatStreamListener listener) {
+        Pending pending = start(base64Image, sessionId, deadline, listener);
+        pending.ready.join();
+        return finish(pending);
+    }
+
+    /**
+     * Như {@link #process} nhưng không giữ thread nào trong lúc chờ Vision + CLIP: Stage 0 chạy trên
+     * thread gọi, phần còn lại chạy trên {@code continuation} khi cả hai xong hoặc hết hạn.
+     */
+    public CompletableFuture<AIChat.BookingQuery> processAsync(String base64Image, String sessionId, Instant deadline,
+                                                               ChatStreamListener listener, Executor continuation) {
+        Pending pending = start(base64Image, sessionId, deadline, listener);
+        return pending.ready.thenApplyAsync(v -> finish(pending), continuation);
+    }
+
+    /** Trạng thái Stage 0 + hai call song song, chuyển từ {@link #start} sang {@link #finish}. */
+    private static final class Pending {
+        AIChat.BookingQuery result;
+        Runnable logTotal;
+        String sessionId;
+        ChatStreamListener listener;
+        Long pinnedPid;
+        ProductResponseDTO pinnedDto;
+        double pinnedScore;
+        String cleanBase64;
+        String visionCacheKey;
+        JsonNode cachedVision;
+        UUID resolvedMlUid;
+        CompletableFuture<JsonNode> visionFuture;
+        CompletableFuture<MLRetrieveResponse> mlFuture;
+        long tParallel;
+        /** Xong khi cả Vision lẫn CLIP xong (kể cả lỗi) hoặc hết hạn — không bao giờ lỗi. */
+        CompletableFuture<Void> ready;
+    }
+
+    private Pending start(String base64Image, String sessionId, Instant deadline, ChatStreamListener listener) {
         final long _tStart = System.currentTimeMillis();
-        Runnable _logTotal = () -> System.out.println("[IMG-TIMING] processImageSearchWithGemini TOTAL="
-                + (System.currentTimeMillis() - _tStart) + "ms");
+        Runnable _logTotal = () -> stageMetrics.recordSince("image.total", _tStart);
         AIChat.BookingQuery result = new AIChat.BookingQuery();
         result.data = new HashMap<>();
         result.slotList = new ArrayList<>();
@@ -126,14 +178,12 @@ public class ImageSearchHandler {
         // ========== Stage 0: pHash near-duplicate match ==========
         long _t0 = System.currentTimeMillis();
         Long uploadHash = PhashUtil.computeFromBase64(base64Image);
-        System.out.println("[IMG-TIMING] pHash compute=" + (System.currentTimeMillis() - _t0) + "ms");
-        System.out.println("🔍 pHash debug: uploadHash=" + uploadHash + " indexSize=" + phashIndex.size());
+        stageMetrics.recordSince("image.phash", _t0);
         if (uploadHash != null && phashIndex.size() > 0) {
-            List<PhashIndex.Hit> debugTop = phashIndex.findWithin(uploadHash, 64, 3);
-            System.out.println("🔍 pHash top3 distances: " + debugTop.stream()
+            List<PhashIndex.Hit> hits = phashIndex.findWithin(uploadHash, 8, 5);
+            System.out.println("🔍 pHash hits (≤8): " + hits.stream()
                     .map(h -> h.productId + "=" + h.distance)
                     .collect(java.util.stream.Collectors.joining(", ")));
-            List<PhashIndex.Hit> hits = phashIndex.findWithin(uploadHash, 8, 5);
             if (!hits.isEmpty()) {
                 // P3: Batch fetch products thay N+1
                 List<Long> pidList = hits.stream().map(h -> h.productId).collect(Collectors.toList());
@@ -155,6 +205,7 @@ public class ImageSearchHandler {
                     pinnedScore = 1.0 - (hits.get(0).distance / 64.0);
                     System.out.println("✅ pHash exact: pid=" + pinnedPid + " dist=" + hits.get(0).distance
                             + " → pin #0, backfill similars via Stage 1");
+                    if (pinnedDto != null) listener.onCards("exactMatch", List.of(pinnedDto));
                 }
             }
         }
@@ -166,17 +217,11 @@ public class ImageSearchHandler {
         }
         // P4: Resize ảnh xuống max 512px để giảm payload ML/Gemini → tăng tốc upload + inference
         long _tResize = System.currentTimeMillis();
-        int _origLen = cleanBase64 != null ? cleanBase64.length() : 0;
         cleanBase64 = GeminiClient.resizeBase64(cleanBase64, 512);
-        int _newLen = cleanBase64 != null ? cleanBase64.length() : 0;
-        System.out.println("[IMG-TIMING] resize=" + (System.currentTimeMillis() - _tResize)
-                + "ms (base64 " + _origLen + "→" + _newLen + ")");
+        stageMetrics.recordSince("image.resize", _tResize);
         final String resizedForVision = cleanBase64;
 
         // Pre-call Gemini Vision để lấy caption/category/tags/productType. Nếu fail → context empty.
-        String parsedCategory = null, parsedProductName = null, parsedColor = null, parsedProductType = null;
-        List<String> parsedTags = new ArrayList<>();
-
         // P2: Cache Vision parse theo uploadHash (pHash). Same image perceptually → reuse parsed JSON.
         String visionCacheKey = uploadHash != null ? "ai:vision:phash:" + uploadHash : null;
         JsonNode cachedVision = null;
@@ -185,7 +230,7 @@ public class ImageSearchHandler {
                 String cached = redisService.getData(visionCacheKey);
                 if (cached != null) {
                     cachedVision = mapper.readTree(cached);
-                    System.out.println("[IMG-TIMING] Gemini Vision parse=0ms (CACHE HIT)");
+                    stageMetrics.record("image.vision.cached", 0);
                 }
             } catch (Exception ignored) {}
         }
@@ -198,17 +243,13 @@ public class ImageSearchHandler {
             JsonNode finalCached = cachedVision;
             visionFuture = CompletableFuture.completedFuture(finalCached);
         } else {
-            visionFuture = CompletableFuture.supplyAsync(() -> {
-                long _tV = System.currentTimeMillis();
-                try {
-                    JsonNode v = geminiClient.visionJson(IMAGE_ANALYSIS_SYSTEM_PROMPT, "Phân tích ảnh này và trích xuất Tags.", resizedForVision);
-                    System.out.println("[IMG-TIMING] Gemini Vision parse=" + (System.currentTimeMillis() - _tV) + "ms");
-                    return v;
-                } catch (Exception e) {
-                    System.err.println("⚠️ Gemini Vision pre-parse fail: " + e.getMessage());
-                    return null;
-                }
-            });
+            // Non-blocking: không chiếm thread nào trong lúc chờ Gemini (lỗi → null, xem GeminiClient)
+            long _tV = System.currentTimeMillis();
+            visionFuture = geminiClient.visionJsonAsync(IMAGE_ANALYSIS_SYSTEM_PROMPT,
+                    "Phân tích ảnh này và trích xuất Tags.", resizedForVision, deadline);
+            // Không gán lại visionFuture bằng future phụ thuộc: cancel phải tới được call Gemini đang bay
+            visionFuture.whenComplete((v, e) -> stageMetrics.recordSince(
+                    v == null ? "image.vision.fail" : "image.vision", _tV));
         }
 
         UUID resolvedMlUid = catalogCache.resolveCurrentUserId(sessionId);
@@ -220,29 +261,68 @@ public class ImageSearchHandler {
                 .itemType("PRODUCT")
                 .userId(mlUserId)
                 .build();
-        CompletableFuture<MLRetrieveResponse> mlFuture = CompletableFuture.supplyAsync(() -> {
+        // Pool riêng, có giới hạn: đầy hàng đợi → future lỗi ngay → coi như ML không có kết quả (Stage 2 fallback)
+        CompletableFuture<MLRetrieveResponse> mlFuture = stageExecutors.mlRetrieve().supply(() -> {
             long _tM = System.currentTimeMillis();
             try {
                 MLRetrieveResponse r = mlService.retrieveByImageFull(mlReqEarly);
-                System.out.println("[IMG-TIMING] ML CLIP retrieve=" + (System.currentTimeMillis() - _tM) + "ms");
+                stageMetrics.recordSince("image.ml_retrieve", _tM);
                 return r;
             } catch (Exception e) {
+                stageMetrics.recordSince("image.ml_retrieve.fail", _tM);
                 System.err.println("⚠️ ML retrieve fail: " + e.getMessage());
                 return null;
             }
         });
 
-        JsonNode visionJson = null;
-        MLRetrieveResponse mlResEarly = null;
-        try {
-            CompletableFuture.allOf(visionFuture, mlFuture).get(25, TimeUnit.SECONDS);
-            visionJson = visionFuture.getNow(null);
-            mlResEarly = mlFuture.getNow(null);
-        } catch (Exception e) {
-            System.err.println("⚠️ Parallel future timeout/error: " + e.getMessage());
-            visionJson = visionFuture.getNow(null);
-            mlResEarly = mlFuture.getNow(null);
+        long waitMs = Math.max(1, Math.min(25_000, Duration.between(Instant.now(), deadline).toMillis()));
+        Pending pending = new Pending();
+        pending.result = result;
+        pending.logTotal = _logTotal;
+        pending.sessionId = sessionId;
+        pending.listener = listener;
+        pending.pinnedPid = pinnedPid;
+        pending.pinnedDto = pinnedDto;
+        pending.pinnedScore = pinnedScore;
+        pending.cleanBase64 = cleanBase64;
+        pending.visionCacheKey = visionCacheKey;
+        pending.cachedVision = cachedVision;
+        pending.resolvedMlUid = resolvedMlUid;
+        pending.visionFuture = visionFuture;
+        pending.mlFuture = mlFuture;
+        pending.tParallel = _tParallel;
+        // Chờ cả 2 kể cả khi 1 bên lỗi sớm (vd ML bị từ chối) — bên còn lại vẫn có thể trả kết quả
+        pending.ready = CompletableFuture.allOf(visionFuture.exceptionally(e -> null), mlFuture.exceptionally(e -> null))
+                .completeOnTimeout(null, waitMs, TimeUnit.MILLISECONDS);
+        return pending;
+    }
+
+    private AIChat.BookingQuery finish(Pending pending) {
+        AIChat.BookingQuery result = pending.result;
+        Runnable _logTotal = pending.logTotal;
+        String sessionId = pending.sessionId;
+        ChatStreamListener listener = pending.listener;
+        Long pinnedPid = pending.pinnedPid;
+        ProductResponseDTO pinnedDto = pending.pinnedDto;
+        double pinnedScore = pending.pinnedScore;
+        String cleanBase64 = pending.cleanBase64;
+        String visionCacheKey = pending.visionCacheKey;
+        JsonNode cachedVision = pending.cachedVision;
+        UUID resolvedMlUid = pending.resolvedMlUid;
+        CompletableFuture<JsonNode> visionFuture = pending.visionFuture;
+        CompletableFuture<MLRetrieveResponse> mlFuture = pending.mlFuture;
+        long _tParallel = pending.tParallel;
+        String parsedCategory = null, parsedProductName = null, parsedColor = null, parsedProductType = null;
+        List<String> parsedTags = new ArrayList<>();
+
+        if (!visionFuture.isDone() || !mlFuture.isDone()) {
+            System.err.println("⚠️ Parallel future timeout: vision=" + visionFuture.isDone() + " ml=" + mlFuture.isDone());
         }
+        JsonNode visionJson = nowOrNull(visionFuture);
+        MLRetrieveResponse mlResEarly = nowOrNull(mlFuture);
+        // Bên nào chưa xong thì hủy: nhả thread ML / call Gemini thay vì để chạy tiếp vô ích
+        visionFuture.cancel(true);
+        mlFuture.cancel(true);
 
         if (visionJson != null) {
             try {
@@ -265,7 +345,15 @@ public class ImageSearchHandler {
             }
         }
         final MLRetrieveResponse mlResultEarly = mlResEarly;
-        System.out.println("[IMG-TIMING] Parallel phase total=" + (System.currentTimeMillis() - _tParallel) + "ms");
+        Map<String, Object> intent = new HashMap<>();
+        intent.put("action", "image_search");
+        if (parsedProductType != null) intent.put("productType", parsedProductType);
+        if (parsedCategory != null) intent.put("majorCategory", parsedCategory);
+        if (parsedProductName != null) intent.put("productName", parsedProductName);
+        if (parsedColor != null) intent.put("color", parsedColor);
+        intent.put("tags", new ArrayList<>(parsedTags));
+        listener.onIntent(intent);
+        stageMetrics.recordSince("image.parallel", _tParallel);
 
         try {
             List<Long> typeIds = parsedProductType != null
@@ -308,8 +396,7 @@ public class ImageSearchHandler {
                 }
                 long _tDb = System.currentTimeMillis();
                 Map<Long, ProductResponseDTO> pmap = catalogCache.getProductsByIdsCached(pidOrder);
-                System.out.println("[IMG-TIMING] catalogCache.getProductsByIdsCached(" + pidOrder.size() + ")="
-                        + (System.currentTimeMillis() - _tDb) + "ms");
+                stageMetrics.recordSince("image.catalog_fetch", _tDb);
                 List<ProductResponseDTO> products = new ArrayList<>();
                 List<Double> scores = new ArrayList<>();
                 for (int i = 0; i < pidOrder.size(); i++) {
@@ -353,7 +440,7 @@ public class ImageSearchHandler {
                                 && !pinnedDto.getBrand().isBlank()) ? pinnedDto.getBrand() : null;
                         String queryBrand = anchorBrand != null
                                 ? anchorBrand
-                                : AiProductMatch.detectQueryBrand(catalogCache.getProductsForAiAssistantCached(resolvedMlUid), parsedProductName, parsedTags, caption);
+                                : AiProductMatch.detectQueryBrandAmong(catalogCache.getCatalogSnapshot(resolvedMlUid).brands(), parsedProductName, parsedTags, caption);
                         System.out.println("🏷️ image queryBrand='" + queryBrand + "' (source="
                                 + (anchorBrand != null ? "anchor pid=" + pinnedPid : "gemini-text") + ")");
 
@@ -363,10 +450,9 @@ public class ImageSearchHandler {
                                 if (p != null && p.getId() != null) present.add(p.getId());
                             }
                             int added = 0;
-                            for (ProductResponseDTO p : catalogCache.getProductsForAiAssistantCached(resolvedMlUid)) {
-                                if (p == null || p.getId() == null || present.contains(p.getId())) continue;
-                                if (p.getBrand() != null && p.getBrand().equalsIgnoreCase(queryBrand)
-                                        && categoryService.productMatchesType(p, normType)) {
+                            for (ProductResponseDTO p : catalogCache.getCatalogSnapshot(resolvedMlUid).byBrand(queryBrand)) {
+                                if (p.getId() == null || present.contains(p.getId())) continue;
+                                if (categoryService.productMatchesType(p, normType)) {
                                     products.add(p);
                                     scores.add(0.5);
                                     present.add(p.getId());
@@ -623,6 +709,12 @@ public class ImageSearchHandler {
         }
     }
 
+    /** Kết quả nếu future đã xong bình thường; chưa xong / lỗi / bị hủy → null. */
+    private static <T> T nowOrNull(CompletableFuture<T> future) {
+        if (!future.isDone() || future.isCompletedExceptionally()) return null;
+        return future.getNow(null);
+    }
+
     /** Mức khớp màu canonical: 2 = dominant, 1 = trong colors/fallback tag, 0 = không. */
     private int colorRankOf(ProductResponseDTO p, String qColor) {
         if (p == null || qColor == null) return 0;
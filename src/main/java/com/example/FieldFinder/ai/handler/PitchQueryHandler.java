@@ -3,19 +3,17 @@ package com.example.FieldFinder.ai.handler;
 import com.example.FieldFinder.Enum.PitchEnvironment;
 import com.example.FieldFinder.ai.AIChat;
 import com.example.FieldFinder.ai.AiChatSessionContextStore;
+import com.example.FieldFinder.ai.ChatStreamListener;
 import com.example.FieldFinder.ai.cache.AiCatalogCache;
 import com.example.FieldFinder.ai.util.AiTextUtil;
 import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.ProviderBookingResponseDTO;
-import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.repository.InteractionLogRepository;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
 import com.example.FieldFinder.service.BookingService;
 import com.example.FieldFinder.service.UserService;
 import com.example.FieldFinder.service.log.LogPublisherService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
@@ -48,7 +46,10 @@ public class PitchQueryHandler {
     private final LogPublisherService logPublisherService;
 
     @Autowired(required = false)
-    private MongoTemplate mongoTemplate;
+    private InteractionLogRepository interactionLogRepository;
+
+    @Autowired(required = false)
+    private UserBehaviorProfileRepository userBehaviorProfileRepository;
 
     public PitchQueryHandler(AiCatalogCache catalogCache, BookingService bookingService,
                              AiChatSessionContextStore sessionContextStore, UserService userService,
@@ -60,9 +61,10 @@ public class PitchQueryHandler {
         this.logPublisherService = logPublisherService;
     }
 
+    /** {@code listener}: nhận card availability từng sân / danh sách sân gợi ý ngay khi có (SSE). */
     public AIChat.BookingQuery handle(AIChat.BookingQuery query, String userInput, String sessionId,
                                           List<PitchResponseDTO> allPitches, Double userLat, Double userLng,
-                                          String geminiRawJson) {
+                                          String geminiRawJson, ChatStreamListener listener) {
         if (query.data == null) query.data = new HashMap<>();
         if (query.slotList == null) query.slotList = new ArrayList<>();
         if (query.pitchType == null) query.pitchType = "ALL";
@@ -135,8 +137,9 @@ public class PitchQueryHandler {
             try {
                 LocalDate date = LocalDate.parse(query.bookingDate);
                 int beforeAvail = matched.size();
+                Map<UUID, List<Integer>> bookedByPitch = bookingService.getBookedTimeSlots(pitchIdsOf(matched), date);
                 matched = matched.stream().filter(p -> {
-                    List<Integer> booked = bookingService.getBookedTimeSlots(p.getPitchId(), date);
+                    List<Integer> booked = bookedByPitch.getOrDefault(p.getPitchId(), List.of());
                     return query.slotList.stream().noneMatch(booked::contains);
                 }).collect(Collectors.toList());
                 reasoning.step(String.format("⏰ Lọc slot trống (ngày %s, slot %s): %d/%d sân còn trống",
@@ -239,8 +242,9 @@ public class PitchQueryHandler {
                     List<Integer> desired = query.slotList.isEmpty() ? null : query.slotList;
                     List<Map<String, Object>> availability = new ArrayList<>();
                     List<PitchResponseDTO> finalMatched = new ArrayList<>();
+                    Map<UUID, List<Integer>> bookedByPitch = bookingService.getBookedTimeSlots(pitchIdsOf(matched), date);
                     for (PitchResponseDTO p : matched) {
-                        List<Integer> booked = bookingService.getBookedTimeSlots(p.getPitchId(), date);
+                        List<Integer> booked = bookedByPitch.getOrDefault(p.getPitchId(), List.of());
                         List<Integer> freeSlots = new ArrayList<>();
                         for (int s = 1; s <= 18; s++) if (!booked.contains(s)) freeSlots.add(s);
                         List<Integer> checkSlots = desired != null ? desired : freeSlots;
@@ -254,6 +258,7 @@ public class PitchQueryHandler {
                         item.put("availableSlots", freeInRequested);
                         availability.add(item);
                         finalMatched.add(p);
+                        listener.onCards("availability", List.of(item));
                     }
                     query.data.put("availability", availability);
                     query.data.put("matchedPitches", finalMatched);
@@ -388,8 +393,9 @@ public class PitchQueryHandler {
                         List<Integer> desired = query.slotList;
                         List<Map<String, Object>> availability = new ArrayList<>();
                         List<PitchResponseDTO> finalMatched = new ArrayList<>();
+                        Map<UUID, List<Integer>> bookedByPitch = bookingService.getBookedTimeSlots(pitchIdsOf(matched), date);
                         for (PitchResponseDTO p : matched) {
-                            List<Integer> booked = bookingService.getBookedTimeSlots(p.getPitchId(), date);
+                            List<Integer> booked = bookedByPitch.getOrDefault(p.getPitchId(), List.of());
                             List<Integer> freeInRequested = desired.stream().filter(s -> !booked.contains(s)).collect(Collectors.toList());
                             if (freeInRequested.size() != desired.size()) continue; // cần đủ slot yêu cầu mới list
 
@@ -400,6 +406,7 @@ public class PitchQueryHandler {
                             item.put("availableSlots", freeInRequested);
                             availability.add(item);
                             finalMatched.add(p);
+                            listener.onCards("availability", List.of(item));
                         }
                         if (finalMatched.isEmpty()) {
                             reasoning.step("❌ Không sân nào còn đủ slot yêu cầu (sau kiểm tra chi tiết từng sân)");
@@ -491,6 +498,7 @@ public class PitchQueryHandler {
                 reasoning.step("🎯 Xử lý recommend_pitch (cá nhân hóa)");
                 PitchRankResult rr = rankRecommendedPitches(matched, sessionId, query.location, userLat, userLng, query.nearMe, 10);
                 List<PitchResponseDTO> ranked = rr.pitches;
+                if (!ranked.isEmpty()) listener.onCards("pitches", List.copyOf(ranked));
                 if (ranked.isEmpty()) {
                     query.message = String.format("Hiện chưa có%s %s nào phù hợp để gợi ý cho bạn.", envStr, typeStr);
                 } else if (query.message == null || query.message.isEmpty()) {
@@ -830,24 +838,26 @@ public class PitchQueryHandler {
         return s;
     }
 
-    /** Recently viewed pitch ids from Mongo interaction logs. Empty if Mongo unavailable. */
+    /** Recently viewed pitch ids: behavior profile, else raw interaction logs. Empty if Mongo unavailable. */
     private Set<UUID> loadViewedPitchIds(UUID userId, int limit) {
         Set<UUID> ids = new HashSet<>();
-        if (mongoTemplate == null || userId == null) return ids;
+        if (userId == null) return ids;
         try {
-            org.springframework.data.mongodb.core.query.Query q =
-                    org.springframework.data.mongodb.core.query.Query.query(
-                            org.springframework.data.mongodb.core.query.Criteria.where("userId").is(userId.toString())
-                                    .and("eventType").is("VIEW_PITCH")
-                                    .and("itemType").is("PITCH"))
-                            .with(org.springframework.data.domain.Sort.by(
-                                    org.springframework.data.domain.Sort.Direction.DESC, "timestamp"));
-            q.limit(limit);
-            List<com.example.FieldFinder.entity.log.InteractionLog> logs =
-                    mongoTemplate.find(q, com.example.FieldFinder.entity.log.InteractionLog.class);
-            for (var l : logs) {
-                if (l.getItemId() == null) continue;
-                try { ids.add(UUID.fromString(l.getItemId())); } catch (IllegalArgumentException ignored) {}
+            if (userBehaviorProfileRepository != null) {
+                var profile = userBehaviorProfileRepository.findById(userId.toString()).orElse(null);
+                if (profile != null) {
+                    for (String id : profile.getVisitedPitchIds()) {
+                        if (ids.size() >= limit) break;
+                        try { ids.add(UUID.fromString(id)); } catch (IllegalArgumentException ignored) {}
+                    }
+                    return ids;
+                }
+            }
+            if (interactionLogRepository == null) return ids;
+            for (var v : interactionLogRepository.findRecentItemEvents(
+                    userId.toString(), List.of("VIEW_PITCH"), "PITCH", limit)) {
+                if (v.getItemId() == null) continue;
+                try { ids.add(UUID.fromString(v.getItemId())); } catch (IllegalArgumentException ignored) {}
             }
         } catch (Exception e) {
             System.err.println("loadViewedPitchIds error: " + e.getMessage());
@@ -855,6 +865,10 @@ public class PitchQueryHandler {
         return ids;
     }
 
+    private static List<UUID> pitchIdsOf(List<PitchResponseDTO> pitches) {
+        return pitches.stream().map(PitchResponseDTO::getPitchId).collect(Collectors.toList());
+    }
+
     /** Haversine great-circle distance in km. */
     private static double haversineKm(double lat1, double lng1, double lat2, double lng2) {
         double R = 6371.0;
@@ -2,7 +2,9 @@ package com.example.FieldFinder.ai.handler;
 
 import com.example.FieldFinder.ai.AIChat;
 import com.example.FieldFinder.ai.AiChatSessionContextStore;
+import com.example.FieldFinder.ai.ChatStreamListener;
 import com.example.FieldFinder.ai.cache.AiCatalogCache;
+import com.example.FieldFinder.ai.cache.CatalogSnapshot;
 import com.example.FieldFinder.ai.util.AiTextUtil;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.entity.Discount;
@@ -99,11 +101,29 @@ public class ProductQueryHandler {
         return s.toString();
     }
 
-    public AIChat.BookingQuery handle(AIChat.BookingQuery query, String userInput, String sessionId) {
+    /**
+     * {@code listener}: nhận card sản phẩm (danh sách hoặc sản phẩm đơn) ngay khi tra xong, trước khi
+     * AIChat hoàn tất lượt chat.
+     */
+    public AIChat.BookingQuery handle(AIChat.BookingQuery query, String userInput, String sessionId,
+                                      ChatStreamListener listener) {
+        AIChat.BookingQuery result = answer(query, userInput, sessionId);
+        if (result.data != null) {
+            if (result.data.get("products") instanceof List<?> list && !list.isEmpty()) {
+                listener.onCards("products", List.copyOf(list));
+            } else if (result.data.get("product") instanceof ProductResponseDTO product) {
+                listener.onCards("products", List.of(product));
+            }
+        }
+        return result;
+    }
+
+    private AIChat.BookingQuery answer(AIChat.BookingQuery query, String userInput, String sessionId) {
         if (query.data == null) query.data = new HashMap<>();
 
         UUID userId = catalogCache.resolveCurrentUserId(sessionId);
-        List<ProductResponseDTO> products = catalogCache.getProductsForAiAssistantCached(userId);
+        CatalogSnapshot catalog = catalogCache.getCatalogSnapshot(userId);
+        List<ProductResponseDTO> products = catalog.all();
         String action = (String) query.data.get("action");
         String productName = (String) query.data.get("productName");
 
@@ -117,9 +137,7 @@ public class ProductQueryHandler {
 
         if ("list_on_sale".equals(action)) {
             List<ProductResponseDTO> onSaleProducts = applySaleScope(
-                    products.stream()
-                            .filter(p -> p.getSalePercent() != null && p.getSalePercent() > 0)
-                            .collect(Collectors.toList()),
+                    catalog.onSale(),
                     saleBrand, saleProductType, saleCategoryKeyword);
 
             String globalAnnounce = globalCampaignAnnouncement();
@@ -146,9 +164,7 @@ public class ProductQueryHandler {
 
         if ("count_on_sale".equals(action)) {
             long count = applySaleScope(
-                    products.stream()
-                            .filter(p -> p.getSalePercent() != null && p.getSalePercent() > 0)
-                            .collect(Collectors.toList()),
+                    catalog.onSale(),
                     saleBrand, saleProductType, saleCategoryKeyword).size();
             String globalAnnounceCount = globalCampaignAnnouncement();
             if (count == 0 && globalAnnounceCount != null) {
@@ -436,9 +452,7 @@ public class ProductQueryHandler {
         }
         else if ("max_discount_product".equals(action)) {
             foundProduct = applySaleScope(
-                    products.stream()
-                            .filter(p -> p.getSalePercent() != null && p.getSalePercent() > 0)
-                            .collect(Collectors.toList()),
+                    catalog.onSale(),
                     saleBrand, saleProductType, saleCategoryKeyword).stream()
                     .max(Comparator.comparing(ProductResponseDTO::getSalePercent))
                     .orElse(null);
@@ -459,9 +473,7 @@ public class ProductQueryHandler {
         }
         else if ("max_discount_brand".equals(action) || "max_discount_category".equals(action)) {
             boolean byBrand = "max_discount_brand".equals(action);
-            List<ProductResponseDTO> onSale = products.stream()
-                    .filter(p -> p.getSalePercent() != null && p.getSalePercent() > 0)
-                    .collect(Collectors.toList());
+            List<ProductResponseDTO> onSale = catalog.onSale();
             DiscountGroup top = topDiscountGroup(onSale,
                     byBrand ? ProductResponseDTO::getBrand : ProductResponseDTO::getCategoryName);
             if (top == null) {
@@ -480,9 +492,7 @@ public class ProductQueryHandler {
             return query;
         }
         else if ("list_discount_categories".equals(action)) {
-            List<ProductResponseDTO> onSale = products.stream()
-                    .filter(p -> p.getSalePercent() != null && p.getSalePercent() > 0)
-                    .collect(Collectors.toList());
+            List<ProductResponseDTO> onSale = catalog.onSale();
             List<DiscountGroup> groups = allDiscountGroups(onSale, ProductResponseDTO::getCategoryName);
             if (groups.isEmpty()) {
                 String globalAnnounce = globalCampaignAnnouncement();
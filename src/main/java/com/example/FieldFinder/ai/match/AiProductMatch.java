@@ -5,6 +5,7 @@ import com.example.FieldFinder.service.CategoryService;
 import com.example.FieldFinder.util.ColorVocab;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -127,6 +128,16 @@ public final class AiProductMatch {
     /** Dò brand dài nhất khớp trong (productName + userInput + tags) so với brand có trong catalog. */
     public static String detectQueryBrand(List<ProductResponseDTO> catalog, String productName,
                                           List<String> tags, String userInput) {
+        List<String> brands = new ArrayList<>();
+        if (catalog != null) {
+            for (ProductResponseDTO p : catalog) brands.add(p.getBrand());
+        }
+        return detectQueryBrandAmong(brands, productName, tags, userInput);
+    }
+
+    /** Như {@link #detectQueryBrand} nhưng nhận thẳng danh sách brand (vd {@code CatalogSnapshot.brands()}). */
+    public static String detectQueryBrandAmong(Collection<String> brands, String productName,
+                                               List<String> tags, String userInput) {
         StringBuilder hayB = new StringBuilder();
         if (productName != null) hayB.append(' ').append(productName);
         if (userInput != null) hayB.append(' ').append(userInput);
@@ -141,9 +152,8 @@ public final class AiProductMatch {
         String best = null;
         int bestLen = 0;
         Set<String> seen = new HashSet<>();
-        if (catalog != null) {
-            for (ProductResponseDTO p : catalog) {
-                String brand = p.getBrand();
+        if (brands != null) {
+            for (String brand : brands) {
                 if (brand == null || brand.isBlank()) continue;
                 String b = brand.toLowerCase();
                 if (!seen.add(b)) continue;
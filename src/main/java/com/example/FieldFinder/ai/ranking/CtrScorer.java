@@ -0,0 +1,162 @@
+package com.example.FieldFinder.ai.ranking;
+
+import com.example.FieldFinder.dto.req.MLRecommendCtrRequest;
+import com.example.FieldFinder.service.MLRecommendationService;
+import com.example.FieldFinder.service.ProductFeatureIndex;
+import com.example.FieldFinder.service.ProductFeatureIndex.ProductFeatures;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chấm CTR theo lô cho rerank sản phẩm: nhiều (user, danh sách ứng viên) → 1 call
+ * {@code /recommend/ctr/batch}. Feature từng item (price bucket, category) lấy 1 lần cho cả lô từ
+ * {@link ProductFeatureIndex}, không tra DB theo item.
+ *
+ * Request nào ML không chấm được (lỗi, circuit mở, trả rỗng) → chấm bằng {@link LogisticCtrModel}
+ * cục bộ: thứ tự xuống cấp chứ không bỏ rerank.
+ */
+@Slf4j
+@Component
+public class CtrScorer {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    /** 1 yêu cầu chấm: ứng viên của 1 user, tùy chọn sản phẩm anchor (trang chi tiết) + context thêm. */
+    public record Query(UUID userId, List<Long> candidateIds, Long anchorProductId, Map<String, Object> context) {}
+
+    private final MLRecommendationService mlService;
+    private final ProductFeatureIndex featureIndex;
+    private final LogisticCtrModel fallbackModel = new LogisticCtrModel();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder mlScored = new LongAdder();
+    private final LongAdder fallbackScored = new LongAdder();
+
+    public CtrScorer(MLRecommendationService mlService, ProductFeatureIndex featureIndex) {
+        this.mlService = mlService;
+        this.featureIndex = featureIndex;
+    }
+
+    public Map<Long, Double> score(Query query) {
+        return scoreBatch(List.of(query)).get(0);
+    }
+
+    /** Kết quả song song với {@code queries}: productId → điểm CTR ∈ [0, 1]. */
+    public List<Map<Long, Double>> scoreBatch(List<Query> queries) {
+        batches.increment();
+        Map<Long, ProductFeatures> features = featureIndex.get(featureIds(queries));
+        String hourBucket = hourBucket(LocalTime.now(ZONE));
+
+        List<MLRecommendCtrRequest> requests = new ArrayList<>(queries.size());
+        for (Query q : queries) requests.add(toRequest(q, features, hourBucket));
+        List<Map<String, Double>> ml = null;
+        try {
+            ml = mlService.rerankCtrBatch(requests);
+        } catch (Exception e) {
+            log.warn("[CTR] batch scoring failed, local LR fallback: {}", e.getMessage());
+        }
+
+        List<Map<Long, Double>> out = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            Map<String, Double> scores = ml != null && i < ml.size() ? ml.get(i) : null;
+            if (scores != null && !scores.isEmpty()) {
+                mlScored.increment();
+                out.add(fromMl(queries.get(i), scores));
+            } else {
+                fallbackScored.increment();
+                out.add(local(queries.get(i), features));
+            }
+        }
+        return out;
+    }
+
+    /** Chỉ chấm bằng LR cục bộ — cho caller đã hết hạn chờ call ML. */
+    public Map<Long, Double> fallback(Query query) {
+        fallbackScored.increment();
+        return local(query, featureIndex.get(featureIds(List.of(query))));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", batches.sum());
+        stats.put("mlScored", mlScored.sum());
+        stats.put("fallbackScored", fallbackScored.sum());
+        stats.put("featureIndexSize", featureIndex.size());
+        return stats;
+    }
+
+    private MLRecommendCtrRequest toRequest(Query q, Map<Long, ProductFeatures> features, String hourBucket) {
+        List<String> ids = new ArrayList<>(q.candidateIds().size());
+        List<String> types = new ArrayList<>(q.candidateIds().size());
+        List<Map<String, Object>> itemContext = new ArrayList<>(q.candidateIds().size());
+        for (Long id : q.candidateIds()) {
+            ids.add(String.valueOf(id));
+            types.add("PRODUCT");
+            ProductFeatures f = features.get(id);
+            Map<String, Object> item = new HashMap<>();
+            if (f != null) {
+                item.put("price_bucket", f.priceBucket());
+                if (f.categoryName() != null) item.put("item_category", f.categoryName());
+            }
+            itemContext.add(item);
+        }
+        Map<String, Object> context = new HashMap<>();
+        context.put("hour_bucket", hourBucket);
+        if (q.anchorProductId() != null) context.put("anchor_product_id", q.anchorProductId());
+        if (q.context() != null) context.putAll(q.context());
+        return MLRecommendCtrRequest.builder()
+                .userId(q.userId() != null ? q.userId().toString() : null)
+                .candidateIds(ids)
+                .itemTypes(types)
+                .context(context)
+                .itemContext(itemContext)
+                .build();
+    }
+
+    private Map<Long, Double> fromMl(Query q, Map<String, Double> scores) {
+        Map<Long, Double> out = new HashMap<>();
+        for (Long id : q.candidateIds()) {
+            Double s = scores.get(String.valueOf(id));
+            if (s != null) out.put(id, s);
+        }
+        return out;
+    }
+
+    private Map<Long, Double> local(Query q, Map<Long, ProductFeatures> features) {
+        ProductFeatures anchor = q.anchorProductId() != null ? features.get(q.anchorProductId()) : null;
+        Map<Long, Double> out = new HashMap<>();
+        for (Long id : q.candidateIds()) out.put(id, fallbackModel.score(features.get(id), anchor));
+        return out;
+    }
+
+    private static Set<Long> featureIds(List<Query> queries) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Query q : queries) {
+            ids.addAll(q.candidateIds());
+            if (q.anchorProductId() != null) ids.add(q.anchorProductId());
+        }
+        return ids;
+    }
+
+    /** Cùng bin {@code hour_bucket} lúc train DeepFM. */
+    static String hourBucket(LocalTime time) {
+        int h = time.getHour();
+        if (h <= 5) return "NIGHT";
+        if (h <= 11) return "MORNING";
+        if (h <= 17) return "AFTERNOON";
+        if (h <= 21) return "EVENING";
+        return "LATE";
+    }
+}
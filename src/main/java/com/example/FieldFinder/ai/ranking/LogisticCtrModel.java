@@ -0,0 +1,51 @@
+package com.example.FieldFinder.ai.ranking;
+
+import com.example.FieldFinder.service.ProductFeatureIndex.ProductFeatures;
+
+import java.util.List;
+
+/**
+ * Logistic regression cục bộ thay DeepFM khi ML service không chấm được (down / circuit mở / quá hạn).
+ * Chỉ dùng feature đã có sẵn trong {@link com.example.FieldFinder.service.ProductFeatureIndex}:
+ *
+ *   z = b + w_pop * pop + w_cat * sameCategory + w_brand * sameBrand + w_price * priceNear
+ *
+ * pop = log1p(totalSold) / log1p(1000) (chặn 1); 3 feature sau so với sản phẩm anchor (không có
+ * anchor → 0). Trọng số chỉnh tay theo thứ tự heuristic cũ (cùng loại > cùng brand > giá gần),
+ * bias ~ CTR nền 5% — đủ để rerank xuống cấp có thứ tự thay vì bỏ hẳn, không thay được DeepFM.
+ */
+public final class LogisticCtrModel {
+
+    private static final double BIAS = -3.0;
+    private static final double W_POPULARITY = 1.2;
+    private static final double W_SAME_CATEGORY = 0.9;
+    private static final double W_SAME_BRAND = 0.6;
+    private static final double W_PRICE_NEAR = 0.4;
+    private static final double POPULARITY_CAP = Math.log1p(1000);
+    private static final List<String> PRICE_BUCKETS = List.of("VERY_LOW", "LOW", "MID", "HIGH", "VIP");
+
+    /** Xác suất click ∈ (0, 1); {@code item} null (không có feature) → CTR nền. */
+    public double score(ProductFeatures item, ProductFeatures anchor) {
+        if (item == null) return sigmoid(BIAS);
+        double z = BIAS + W_POPULARITY * Math.min(1.0, Math.log1p(Math.max(0, item.totalSold())) / POPULARITY_CAP);
+        if (anchor != null) {
+            if (item.categoryId() != null && item.categoryId().equals(anchor.categoryId())) z += W_SAME_CATEGORY;
+            if (item.brand() != null && item.brand().equalsIgnoreCase(anchor.brand())) z += W_SAME_BRAND;
+            z += W_PRICE_NEAR * priceNear(item.priceBucket(), anchor.priceBucket());
+        }
+        return sigmoid(z);
+    }
+
+    /** 1 cùng bucket, 0.5 bucket kề, 0 xa hơn / không rõ giá. */
+    private static double priceNear(String a, String b) {
+        int i = PRICE_BUCKETS.indexOf(a);
+        int j = PRICE_BUCKETS.indexOf(b);
+        if (i < 0 || j < 0) return 0.0;
+        int d = Math.abs(i - j);
+        return d == 0 ? 1.0 : d == 1 ? 0.5 : 0.0;
+    }
+
+    private static double sigmoid(double z) {
+        return 1.0 / (1.0 + Math.exp(-z));
+    }
+}
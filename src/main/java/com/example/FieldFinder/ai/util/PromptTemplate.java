@@ -0,0 +1,70 @@
+package com.example.FieldFinder.ai.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Template prompt dạng {@code {{ten_bien}}} biên dịch 1 lần thành dãy đoạn (chữ cố định / biến),
+ * render = nối đoạn vào 1 StringBuilder đủ dung lượng — thay cho chuỗi {@code String.replace}
+ * quét lại cả prompt dài cho từng biến.
+ *
+ * Chỉ nhận tên biến gồm chữ/số; {@code {{} khác (vd JSON mẫu trong prompt) giữ nguyên.
+ * Biến không có giá trị khi render → giữ nguyên {@code {{ten_bien}}}.
+ */
+public final class PromptTemplate {
+
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+
+    private PromptTemplate(List<String> literals, List<String> variables) {
+        this.literals = literals.toArray(String[]::new);
+        this.variables = variables.toArray(String[]::new);
+        int len = 0;
+        for (String l : this.literals) len += l.length();
+        this.literalLength = len;
+    }
+
+    public static PromptTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int start = 0;
+        int from = 0;
+        while (true) {
+            int open = template.indexOf("{{", from);
+            if (open < 0) break;
+            int end = open + 2;
+            while (end < template.length() && Character.isLetterOrDigit(template.charAt(end))) end++;
+            if (end == open + 2 || !template.startsWith("}}", end)) {
+                from = open + 1;
+                continue;
+            }
+            literals.add(template.substring(start, open));
+            variables.add(template.substring(open + 2, end));
+            start = end + 2;
+            from = start;
+        }
+        literals.add(template.substring(start));
+        return new PromptTemplate(literals, variables);
+    }
+
+    /** Tên biến theo thứ tự xuất hiện (có thể lặp). */
+    public List<String> variables() {
+        return List.of(variables);
+    }
+
+    public String render(Map<String, String> values) {
+        StringBuilder sb = new StringBuilder(literalLength + variables.length * 16);
+        for (int i = 0; i < variables.length; i++) {
+            sb.append(literals[i]);
+            String v = values.get(variables[i]);
+            if (v != null) {
+                sb.append(v);
+            } else {
+                sb.append("{{").append(variables[i]).append("}}");
+            }
+        }
+        return sb.append(literals[variables.length]).toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.FieldFinder.aspect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Khai báo log hành vi trên method controller — {@link UserActivityAspect} đọc annotation thay vì
+ * bóc response bằng Jackson. Id / snapshot lấy theo tên thuộc tính của DTO (getter tra 1 lần / class,
+ * xem {@link PropertyExtractors}); metadata dựng trễ trên thread {@code log-publisher}.
+ *
+ * Ví dụ: {@code @LogActivity(event = "VIEW_PITCH", itemType = "PITCH", idArg = 0, snapshot = Snapshot.PITCH)}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(LogActivity.List.class)
+public @interface LogActivity {
+
+    String event();
+
+    String itemType() default "";
+
+    Kind kind() default Kind.ITEM;
+
+    /** ITEM: vị trí tham số chứa id item (vd {@code @PathVariable}); -1 = lấy thuộc tính {@link #id()} của response. */
+    int idArg() default -1;
+
+    /** ITEM: thuộc tính id trên body response. IMPRESSION: thuộc tính id trên từng phần tử. */
+    String id() default "";
+
+    Snapshot snapshot() default Snapshot.NONE;
+
+    /** IMPRESSION: loại danh sách ({@code PITCH_LIST}, {@code TOP_SELLING}...). */
+    String listType() default "";
+
+    /** Query param ghi vào metadata. SEARCH: không có param nào được truyền → không log. */
+    String[] params() default {};
+
+    enum Kind {
+        /** 1 item: xem chi tiết, tạo đơn/booking. */
+        ITEM,
+        /** Danh sách hiển thị (Page / List): id các phần tử + vị trí. */
+        IMPRESSION,
+        /** Tìm kiếm / lọc: param + tổng số kết quả. */
+        SEARCH
+    }
+
+    /** Metadata key → thuộc tính DTO, đọc từ body response hoặc từ tham số {@code @RequestBody}. */
+    enum Snapshot {
+        NONE(false),
+        PITCH(false,
+                "item_pitch_type", "type",
+                "item_environment", "environment",
+                "item_price_snapshot", "price",
+                "item_name", "name"),
+        PRODUCT(false,
+                "item_category", "categoryName",
+                "item_brand", "brand",
+                "item_price_snapshot", "price",
+                "item_name", "name",
+                "item_tags", "tags",
+                "item_sale_percent", "salePercent"),
+        BOOKING_REQUEST(true,
+                "requested_pitch_id", "pitchId",
+                "total_price", "totalPrice",
+                "booking_date", "bookingDate",
+                "booking_details", "bookingDetails"),
+        ORDER_REQUEST(true,
+                "payment_method", "paymentMethod",
+                "order_items", "items");
+
+        private final boolean fromRequestBody;
+        private final Map<String, String> properties = new LinkedHashMap<>();
+
+        Snapshot(boolean fromRequestBody, String... keyThenProperty) {
+            this.fromRequestBody = fromRequestBody;
+            for (int i = 0; i < keyThenProperty.length; i += 2) {
+                properties.put(keyThenProperty[i], keyThenProperty[i + 1]);
+            }
+        }
+
+        public boolean fromRequestBody() {
+            return fromRequestBody;
+        }
+
+        public Map<String, String> properties() {
+            return properties;
+        }
+    }
+
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface List {
+        LogActivity[] value();
+    }
+}
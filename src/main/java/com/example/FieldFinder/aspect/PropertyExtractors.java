@@ -0,0 +1,115 @@
+package com.example.FieldFinder.aspect;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Đọc thuộc tính DTO cho log hành vi qua {@link MethodHandle} getter, tra 1 lần / class rồi cache —
+ * thay cho {@code ObjectMapper.valueToTree} cả body response.
+ *
+ * {@link #toLoggable} đổi giá trị về dạng lưu Mongo được (số, chuỗi, list, map) mà không qua Jackson.
+ */
+final class PropertyExtractors {
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final int MAX_DEPTH = 3;
+    private static final Map<Class<?>, Map<String, MethodHandle>> GETTERS = new ConcurrentHashMap<>();
+
+    private PropertyExtractors() {}
+
+    /** {@code null} nếu target null hoặc không có thuộc tính đó. Map thì đọc theo key. */
+    static Object get(Object target, String property) {
+        if (target == null || property == null || property.isEmpty()) return null;
+        if (target instanceof Map<?, ?> map) return map.get(property);
+        MethodHandle getter = getters(target.getClass()).get(property);
+        if (getter == null) return null;
+        try {
+            return (Object) getter.invokeExact(target);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    static Map<String, MethodHandle> getters(Class<?> type) {
+        return GETTERS.computeIfAbsent(type, PropertyExtractors::resolve);
+    }
+
+    /** Dạng lưu được: số (BigDecimal → double), chuỗi, enum/UUID/ngày → chuỗi, list, map; DTO lồng → map. */
+    static Object toLoggable(Object value) {
+        return toLoggable(value, 0);
+    }
+
+    private static Object toLoggable(Object value, int depth) {
+        if (value == null || value instanceof String || value instanceof Boolean) return value;
+        if (value instanceof BigDecimal d) return d.doubleValue();
+        if (value instanceof Number) return value;
+        if (value instanceof Enum<?> e) return e.name();
+        if (value instanceof CharSequence || value instanceof UUID || value instanceof TemporalAccessor) {
+            return value.toString();
+        }
+        if (depth >= MAX_DEPTH) return value.toString();
+        if (value instanceof Collection<?> c) {
+            List<Object> list = new ArrayList<>(c.size());
+            for (Object o : c) list.add(toLoggable(o, depth + 1));
+            return list;
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) list.add(toLoggable(Array.get(value, i), depth + 1));
+            return list;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (value instanceof Map<?, ?> m) {
+            m.forEach((k, v) -> map.put(String.valueOf(k), toLoggable(v, depth + 1)));
+            return map;
+        }
+        for (Map.Entry<String, MethodHandle> getter : getters(value.getClass()).entrySet()) {
+            Object v = get(value, getter.getKey());
+            if (v != null) map.put(getter.getKey(), toLoggable(v, depth + 1));
+        }
+        return map;
+    }
+
+    private static Map<String, MethodHandle> resolve(Class<?> type) {
+        Map<String, MethodHandle> getters = new LinkedHashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        if (type.isRecord()) {
+            for (RecordComponent rc : type.getRecordComponents()) add(getters, lookup, rc.getName(), rc.getAccessor());
+        } else {
+            try {
+                for (PropertyDescriptor pd : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                    if (pd.getReadMethod() != null) add(getters, lookup, pd.getName(), pd.getReadMethod());
+                }
+            } catch (IntrospectionException ignored) {
+                // Không đọc được bean info → coi như không có thuộc tính
+            }
+        }
+        return Collections.unmodifiableMap(getters);
+    }
+
+    private static void add(Map<String, MethodHandle> getters, MethodHandles.Lookup lookup, String name, Method method) {
+        try {
+            getters.put(name, lookup.unreflect(method).asType(GETTER));
+        } catch (IllegalAccessException ignored) {
+            // Getter không public (class nội bộ) → bỏ qua thuộc tính
+        }
+    }
+}
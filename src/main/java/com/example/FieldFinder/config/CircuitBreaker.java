@@ -0,0 +1,270 @@
+package com.example.FieldFinder.config;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker trong bộ nhớ của 1 node cho 1 phụ thuộc ngoài — đường nóng không đụng Redis.
+ *
+ * - CLOSED: cửa sổ trượt {@code windowSize} call gần nhất; đủ {@code minCalls} mà tỉ lệ lỗi hoặc
+ *   tỉ lệ call chậm (≥ {@code slowCallMs}) chạm ngưỡng → OPEN.
+ * - OPEN: chặn mọi call tới hết {@code openDurationMs}, sau đó HALF_OPEN.
+ * - HALF_OPEN: cho tối đa {@code halfOpenProbes} call thử; tất cả ổn → CLOSED, 1 call lỗi/chậm → OPEN lại.
+ *
+ * Kết quả của call bắt đầu (startNanos) trước lần chuyển trạng thái gần nhất bị bỏ qua: call xin phép lúc
+ * CLOSED mà xong khi đã HALF_OPEN không được tính là lượt thử.
+ *
+ * Chỉ chuyển sang OPEN / CLOSED được báo ra listener ({@link CircuitBreakers} publish cho node khác);
+ * trạng thái nhận từ node khác áp qua {@link #applyRemote}, không báo lại. Mốc {@code openUntil} là
+ * epoch ms để so được giữa các node.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public record Settings(int windowSize, int minCalls, int failureRatePct, long slowCallMs,
+                           int slowCallRatePct, long openDurationMs, int halfOpenProbes) {}
+
+    /** Chuyển trạng thái cần báo cho node khác. */
+    public record Transition(String name, State state, long openUntil) {}
+
+    private final String name;
+    private final Settings settings;
+    private final Consumer<Transition> listener;
+    private final LongSupplier clock;
+
+    // Cửa sổ trượt: vòng outcome của windowSize call gần nhất
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    /** Đọc không khóa ở đường nóng (CLOSED); mọi thay đổi trong synchronized. */
+    private volatile State state = State.CLOSED;
+    /** System.nanoTime() lúc vào trạng thái hiện tại. */
+    private long stateSince = System.nanoTime();
+    private long openUntil;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    private final LongAdder permitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failedTotal = new LongAdder();
+    private final LongAdder slowTotal = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    public CircuitBreaker(String name, Settings settings, Consumer<Transition> listener) {
+        this(name, settings, listener, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, Settings settings, Consumer<Transition> listener, LongSupplier clock) {
+        this.name = name;
+        this.settings = settings;
+        this.listener = listener;
+        this.clock = clock;
+        this.failed = new boolean[settings.windowSize()];
+        this.slow = new boolean[settings.windowSize()];
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /** Xin phép gọi; true → caller phải báo đúng 1 lần {@link #onSuccess}/{@link #onFailure}/{@link #release}. */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            permitted.increment();
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (clock.getAsLong() < openUntil) {
+                    rejected.increment();
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                stateSince = System.nanoTime();
+                probesIssued = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesIssued >= settings.halfOpenProbes()) {
+                    rejected.increment();
+                    return false;
+                }
+                probesIssued++;
+            }
+            permitted.increment();
+            return true;
+        }
+    }
+
+    public void onSuccess(long startNanos) {
+        record(false, startNanos);
+    }
+
+    public void onFailure(long startNanos) {
+        record(true, startNanos);
+    }
+
+    /** Đang OPEN và chưa hết {@code openDurationMs} — caller bỏ qua sớm, không cần xin phép. */
+    public boolean isOpen() {
+        if (state != State.OPEN) return false;
+        synchronized (this) {
+            return state == State.OPEN && clock.getAsLong() < openUntil;
+        }
+    }
+
+    /** Call đã được phép nhưng bị hủy, không có kết quả: trả lại lượt thử nếu đang HALF_OPEN. */
+    public void release() {
+        release(System.nanoTime());
+    }
+
+    /** Như {@link #release()}, bỏ qua nếu call bắt đầu trước lần chuyển trạng thái gần nhất. */
+    public synchronized void release(long startNanos) {
+        if (startNanos - stateSince < 0) return;
+        if (state == State.HALF_OPEN && probesIssued > 0) probesIssued--;
+    }
+
+    /**
+     * Gọi {@code call} qua breaker: bị chặn → {@code whenOpen}; ném exception → tính là lỗi rồi ném tiếp.
+     */
+    public <T> T execute(Supplier<T> call, Supplier<T> whenOpen) {
+        return execute(call, whenOpen, e -> true);
+    }
+
+    /**
+     * Như trên, nhưng exception mà {@code isFailure} trả false (vd 4xx — request của mình sai, phía kia
+     * vẫn sống) tính là call thành công trước khi ném tiếp.
+     */
+    public <T> T execute(Supplier<T> call, Supplier<T> whenOpen, Predicate<RuntimeException> isFailure) {
+        if (!tryAcquire()) return whenOpen.get();
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            if (isFailure.test(e)) onFailure(start);
+            else onSuccess(start);
+            throw e;
+        }
+        onSuccess(start);
+        return result;
+    }
+
+    /** Áp trạng thái node khác vừa chuyển sang; không báo lại listener. */
+    public void applyRemote(State remote, long remoteOpenUntil) {
+        synchronized (this) {
+            if (remote == State.OPEN) {
+                if (state == State.OPEN && remoteOpenUntil <= openUntil) return;
+                if (state != State.OPEN) stateSince = System.nanoTime();
+                state = State.OPEN;
+                openUntil = remoteOpenUntil;
+                resetWindow();
+            } else if (remote == State.CLOSED && state != State.CLOSED) {
+                state = State.CLOSED;
+                stateSince = System.nanoTime();
+                resetWindow();
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("windowCalls", calls);
+        stats.put("failureRatePct", calls == 0 ? 0 : failures * 100 / calls);
+        stats.put("slowCallRatePct", calls == 0 ? 0 : slowCalls * 100 / calls);
+        stats.put("openUntil", state == State.CLOSED ? 0L : openUntil);
+        stats.put("permitted", permitted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failedTotal.sum());
+        stats.put("slow", slowTotal.sum());
+        stats.put("opened", opened.sum());
+        return stats;
+    }
+
+    private void record(boolean failure, long startNanos) {
+        boolean isSlow = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) >= settings.slowCallMs();
+        if (failure) failedTotal.increment();
+        if (isSlow) slowTotal.increment();
+        Transition transition;
+        synchronized (this) {
+            // Call của trạng thái trước (vd xin phép lúc CLOSED, xong khi HALF_OPEN): không tính
+            if (startNanos - stateSince < 0) return;
+            transition = switch (state) {
+                case HALF_OPEN -> {
+                    if (failure || isSlow) yield open();
+                    yield ++probesSucceeded >= settings.halfOpenProbes() ? close() : null;
+                }
+                case CLOSED -> {
+                    push(failure, isSlow);
+                    yield tripped() ? open() : null;
+                }
+                // Call bắt đầu trước khi mở: không đổi gì
+                case OPEN -> null;
+            };
+        }
+        if (transition != null) listener.accept(transition);
+    }
+
+    private void push(boolean failure, boolean isSlow) {
+        if (calls == failed.length) {
+            if (failed[next]) failures--;
+            if (slow[next]) slowCalls--;
+        } else {
+            calls++;
+        }
+        failed[next] = failure;
+        slow[next] = isSlow;
+        if (failure) failures++;
+        if (isSlow) slowCalls++;
+        next = (next + 1) % failed.length;
+    }
+
+    private boolean tripped() {
+        if (calls < settings.minCalls()) return false;
+        return failures * 100 >= settings.failureRatePct() * calls
+                || slowCalls * 100 >= settings.slowCallRatePct() * calls;
+    }
+
+    private Transition open() {
+        state = State.OPEN;
+        stateSince = System.nanoTime();
+        openUntil = clock.getAsLong() + settings.openDurationMs();
+        resetWindow();
+        opened.increment();
+        return new Transition(name, State.OPEN, openUntil);
+    }
+
+    private Transition close() {
+        state = State.CLOSED;
+        stateSince = System.nanoTime();
+        resetWindow();
+        return new Transition(name, State.CLOSED, 0L);
+    }
+
+    private void resetWindow() {
+        Arrays.fill(failed, false);
+        Arrays.fill(slow, false);
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesIssued = 0;
+        probesSucceeded = 0;
+    }
+}
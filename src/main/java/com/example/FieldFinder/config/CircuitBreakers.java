@@ -0,0 +1,132 @@
+package com.example.FieldFinder.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Các {@link CircuitBreaker} theo phụ thuộc ngoài (ML, Gemini, OSRM, Nominatim, PayOS thu, PayOS chi hộ).
+ *
+ * Trạng thái giữ cục bộ từng node: cho phép / ghi nhận call không tốn lệnh Redis nào. Chỉ khi 1 node
+ * chuyển sang OPEN hoặc CLOSED mới publish {@code nodeId|name|STATE|openUntil} lên {@link #CHANNEL}
+ * (trên thread riêng, không chặn caller); node khác áp trạng thái đó để không phải tự dò lỗi lại.
+ * Redis lỗi → mỗi node vẫn tự mở/đóng theo cửa sổ của chính nó.
+ */
+@Slf4j
+@Component
+public class CircuitBreakers {
+
+    static final String CHANNEL = "circuit-breaker:transition";
+
+    public static final String ML = "ml";
+    public static final String GEMINI = "gemini";
+    public static final String OSRM = "osrm";
+    public static final String NOMINATIM = "nominatim";
+    public static final String PAYOS = "payos";
+    /** Kênh chi hộ: credentials + hạn mức khác kênh thu, lỗi bên này không chặn thanh toán. */
+    public static final String PAYOS_PAYOUT = "payos-payout";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "circuit-breaker-publish");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CircuitBreakers(StringRedisTemplate redisTemplate,
+                           RedisMessageListenerContainer listenerContainer,
+                           @Value("${circuit-breaker.window-size:20}") int windowSize,
+                           @Value("${circuit-breaker.min-calls:5}") int minCalls,
+                           @Value("${circuit-breaker.failure-rate-pct:50}") int failureRatePct,
+                           @Value("${circuit-breaker.slow-call-rate-pct:80}") int slowCallRatePct,
+                           @Value("${circuit-breaker.open-duration-ms:60000}") long openDurationMs,
+                           @Value("${circuit-breaker.half-open-probes:2}") int halfOpenProbes,
+                           @Value("${circuit-breaker.ml.slow-call-ms:10000}") long mlSlowMs,
+                           @Value("${circuit-breaker.gemini.slow-call-ms:30000}") long geminiSlowMs,
+                           @Value("${circuit-breaker.osrm.slow-call-ms:2000}") long osrmSlowMs,
+                           @Value("${circuit-breaker.nominatim.slow-call-ms:4000}") long nominatimSlowMs,
+                           @Value("${circuit-breaker.payos.slow-call-ms:5000}") long payosSlowMs,
+                           @Value("${circuit-breaker.payos-payout.slow-call-ms:10000}") long payosPayoutSlowMs) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        Map<String, Long> slowCallMs = new LinkedHashMap<>();
+        slowCallMs.put(ML, mlSlowMs);
+        slowCallMs.put(GEMINI, geminiSlowMs);
+        slowCallMs.put(OSRM, osrmSlowMs);
+        slowCallMs.put(NOMINATIM, nominatimSlowMs);
+        slowCallMs.put(PAYOS, payosSlowMs);
+        slowCallMs.put(PAYOS_PAYOUT, payosPayoutSlowMs);
+        slowCallMs.forEach((name, slowMs) -> breakers.put(name, new CircuitBreaker(name,
+                new CircuitBreaker.Settings(windowSize, minCalls, failureRatePct, slowMs, slowCallRatePct,
+                        openDurationMs, halfOpenProbes),
+                this::publish)));
+    }
+
+    @PostConstruct
+    void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteTransition(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    public CircuitBreaker get(String name) {
+        CircuitBreaker breaker = breakers.get(name);
+        if (breaker == null) throw new IllegalArgumentException("Unknown circuit breaker: " + name);
+        return breaker;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        breakers.forEach((name, breaker) -> stats.put(name, breaker.stats()));
+        return stats;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        publisher.shutdownNow();
+    }
+
+    private void publish(CircuitBreaker.Transition t) {
+        log.warn("Circuit breaker {} -> {}", t.name(), t.state());
+        String payload = nodeId + "|" + t.name() + "|" + t.state() + "|" + t.openUntil();
+        try {
+            publisher.execute(() -> {
+                try {
+                    redisTemplate.convertAndSend(CHANNEL, payload);
+                } catch (Exception e) {
+                    log.warn("Circuit breaker {}: publish {} failed: {}", t.name(), t.state(), e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Đang tắt app
+        }
+    }
+
+    void onRemoteTransition(String payload) {
+        String[] parts = payload.split("\\|", 4);
+        if (parts.length < 4 || nodeId.equals(parts[0])) return;
+        CircuitBreaker breaker = breakers.get(parts[1]);
+        if (breaker == null) return;
+        try {
+            breaker.applyRemote(CircuitBreaker.State.valueOf(parts[2]), Long.parseLong(parts[3]));
+        } catch (IllegalArgumentException e) {
+            log.warn("Circuit breaker: bad transition payload '{}'", payload);
+        }
+    }
+}
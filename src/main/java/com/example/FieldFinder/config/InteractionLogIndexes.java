@@ -0,0 +1,97 @@
+package com.example.FieldFinder.config;
+
+import com.example.FieldFinder.entity.log.InteractionLog;
+import com.mongodb.MongoCommandException;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Index cho {@code user_interaction_logs}, tạo lúc khởi động (Spring Data không tự tạo index):
+ * - {@code (userId, eventType, timestamp desc)}: "N event gần nhất của user" (lịch sử xem, brand yêu thích).
+ * - {@code (itemId, eventType, timestamp)}: thống kê theo sân / sản phẩm.
+ * - TTL trên {@code timestamp}: log quá {@code log.retention-days} ngày tự xoá, giữ working set vừa RAM.
+ *   Đổi số ngày → cập nhật index hiện có bằng {@code collMod}, không cần drop.
+ *
+ * Mongo không tới được thì chỉ log cảnh báo, app vẫn lên.
+ */
+@Component
+public class InteractionLogIndexes implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(InteractionLogIndexes.class);
+
+    static final String USER_EVENT_TIME = "userId_eventType_timestamp";
+    static final String ITEM_EVENT_TIME = "itemId_eventType_timestamp";
+    static final String RETENTION = "timestamp_ttl";
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+    private final ObjectProvider<MongoTemplate> mongoTemplate;
+    private final long retentionDays;
+
+    public InteractionLogIndexes(ObjectProvider<MongoTemplate> mongoTemplate,
+                                 @Value("${log.retention-days:180}") long retentionDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.retentionDays = retentionDays;
+    }
+
+    @Override
+    public void run(String... args) {
+        MongoTemplate template = mongoTemplate.getIfAvailable();
+        if (template == null) return;
+        try {
+            ensureIndexes(template);
+        } catch (Exception e) {
+            log.warn("Không tạo được index cho log hành vi: {}", e.getMessage());
+        }
+    }
+
+    void ensureIndexes(MongoTemplate template) {
+        IndexOperations ops = template.indexOps(InteractionLog.class);
+        ops.ensureIndex(new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("eventType", Sort.Direction.ASC)
+                .on("timestamp", Sort.Direction.DESC)
+                .named(USER_EVENT_TIME)
+                .background());
+        ops.ensureIndex(new Index()
+                .on("itemId", Sort.Direction.ASC)
+                .on("eventType", Sort.Direction.ASC)
+                .on("timestamp", Sort.Direction.ASC)
+                .named(ITEM_EVENT_TIME)
+                .background());
+
+        if (retentionDays <= 0) return;
+        Duration ttl = Duration.ofDays(retentionDays);
+        try {
+            ops.ensureIndex(new Index()
+                    .on("timestamp", Sort.Direction.ASC)
+                    .named(RETENTION)
+                    .expire(ttl)
+                    .background());
+        } catch (RuntimeException e) {
+            if (!isOptionsConflict(e)) throw e;
+            // Đã có index trên timestamp với số ngày cũ (hoặc tên khác)
+            template.executeCommand(new Document("collMod", template.getCollectionName(InteractionLog.class))
+                    .append("index", new Document("keyPattern", new Document("timestamp", 1))
+                            .append("expireAfterSeconds", ttl.toSeconds())));
+        }
+        log.info("Index log hành vi sẵn sàng (giữ {} ngày).", retentionDays);
+    }
+
+    private static boolean isOptionsConflict(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof MongoCommandException mce) return mce.getErrorCode() == INDEX_OPTIONS_CONFLICT;
+        }
+        return false;
+    }
+}
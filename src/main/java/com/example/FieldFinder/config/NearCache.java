@@ -0,0 +1,230 @@
+package com.example.FieldFinder.config;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Cache 2 tầng: tầng local (LRU có giới hạn số entry + TTL, giữ object đã deserialize) đứng trước
+ * cache Redis. Hit local không tốn round-trip Redis lẫn parse JSON.
+ *
+ * Object ở tầng local là tham chiếu dùng chung giữa các request — caller phải coi như read-only
+ * (như {@code ProductServiceImpl.applyUserOverlay} đã làm: clone trước khi chỉnh).
+ *
+ * evict/clear → xóa cả 2 tầng rồi báo {@link NearCacheManager} broadcast cho node khác xóa tầng local.
+ */
+public class NearCache implements Cache {
+
+    private final Cache remote;
+    private final LocalTier local;
+    /** (cacheName, key) — key null nghĩa là clear cả cache. */
+    private final BiConsumer<String, String> invalidationPublisher;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder remoteHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public NearCache(Cache remote, int maxEntries, long ttlMillis, BiConsumer<String, String> invalidationPublisher) {
+        this.remote = remote;
+        this.local = new LocalTier(maxEntries, ttlMillis);
+        this.invalidationPublisher = invalidationPublisher;
+    }
+
+    @Override
+    public String getName() {
+        return remote.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        Object value = local.get(localKey);
+        if (value != null) {
+            localHits.increment();
+            return new SimpleValueWrapper(value);
+        }
+        ValueWrapper wrapper = remote.get(key);
+        if (wrapper != null && wrapper.get() != null) {
+            remoteHits.increment();
+            local.put(localKey, wrapper.get());
+        } else {
+            misses.increment();
+        }
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = localKey(key);
+        Object value = local.get(localKey);
+        if (value != null) {
+            localHits.increment();
+            return (T) value;
+        }
+        boolean[] loaded = {false};
+        T result = remote.get(key, () -> {
+            loaded[0] = true;
+            return valueLoader.call();
+        });
+        (loaded[0] ? misses : remoteHits).increment();
+        if (result != null) local.put(localKey, result);
+        return result;
+    }
+
+    /** Đường async (@Cacheable trả CompletableFuture) đi thẳng Redis — chưa có method nào dùng. */
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        return remote.retrieve(key);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return remote.retrieve(key, valueLoader);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        remote.put(key, value);
+        if (value != null) {
+            local.put(localKey(key), value);
+        } else {
+            local.remove(localKey(key));
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        local.remove(localKey(key));
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        evictLocal(localKey(key));
+        invalidationPublisher.accept(getName(), localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        evictLocal(localKey(key));
+        invalidationPublisher.accept(getName(), localKey(key));
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        invalidationPublisher.accept(getName(), null);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean present = remote.invalidate();
+        clearLocal();
+        invalidationPublisher.accept(getName(), null);
+        return present;
+    }
+
+    void evictLocal(String localKey) {
+        local.remove(localKey);
+    }
+
+    void clearLocal() {
+        local.clear();
+    }
+
+    /** Số hit/miss theo tầng + tỉ lệ hit — xem qua {@code GET /api/admin/cache/stats}. */
+    public Map<String, Object> stats() {
+        long l = localHits.sum();
+        long r = remoteHits.sum();
+        long m = misses.sum();
+        long total = l + r + m;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localHits", l);
+        stats.put("remoteHits", r);
+        stats.put("misses", m);
+        stats.put("localHitRatio", total == 0 ? 0.0 : (double) l / total);
+        stats.put("remoteHitRatio", total == 0 ? 0.0 : (double) r / total);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (l + r) / total);
+        stats.put("localSize", local.size());
+        return stats;
+    }
+
+    /** Key tầng local = dạng chuỗi của key (trùng cách RedisCache đổi key sang String). */
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    /** LRU theo thứ tự truy cập, giới hạn số entry; entry quá TTL coi như miss. */
+    private static final class LocalTier {
+
+        private record Entry(Object value, long expiresAt) {}
+
+        private final long ttlNanos;
+        private final LinkedHashMap<String, Entry> map;
+
+        LocalTier(int maxEntries, long ttlMillis) {
+            this.ttlNanos = ttlMillis * 1_000_000L;
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized Object get(String key) {
+            Entry entry = map.get(key);
+            if (entry == null) return null;
+            if (System.nanoTime() - entry.expiresAt() > 0) {
+                map.remove(key);
+                return null;
+            }
+            return entry.value();
+        }
+
+        synchronized void put(String key, Object value) {
+            map.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+        }
+
+        synchronized void remove(String key) {
+            map.remove(key);
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
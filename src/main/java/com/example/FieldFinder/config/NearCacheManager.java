@@ -0,0 +1,104 @@
+package com.example.FieldFinder.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CacheManager bọc RedisCacheManager: cache nào có cấu hình near-cache thì trả {@link NearCache}
+ * (tầng local + Redis), còn lại trả thẳng cache Redis (vd product_detail — key theo user, evict
+ * qua {@link com.example.FieldFinder.service.ProductDetailCacheIndex} không đi qua Cache API).
+ *
+ * evict/clear ở 1 node → publish kênh {@link #CHANNEL}; node khác nhận thì xóa tầng local của mình.
+ * Lỡ mất message thì entry local vẫn hết hạn theo TTL local (ngắn hơn TTL Redis nhiều).
+ */
+@Slf4j
+public class NearCacheManager implements CacheManager {
+
+    static final String CHANNEL = "near-cache:invalidate";
+    private static final String CLEAR = "C";
+    private static final String EVICT = "E";
+
+    /** Giới hạn tầng local của 1 cache. */
+    public record Spec(int maxEntries, Duration ttl) {}
+
+    private final CacheManager remote;
+    private final Map<String, Spec> specs;
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, NearCache> caches = new ConcurrentHashMap<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public NearCacheManager(CacheManager remote, Map<String, Spec> specs, StringRedisTemplate redisTemplate) {
+        this.remote = remote;
+        this.specs = Map.copyOf(specs);
+        this.redisTemplate = redisTemplate;
+    }
+
+    public void subscribe(RedisMessageListenerContainer listenerContainer) {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Spec spec = specs.get(name);
+        if (spec == null) return remote.getCache(name);
+        NearCache cache = caches.get(name);
+        if (cache != null) return cache;
+        Cache remoteCache = remote.getCache(name);
+        if (remoteCache == null) return null;
+        return caches.computeIfAbsent(name, n ->
+                new NearCache(remoteCache, spec.maxEntries(), spec.ttl().toMillis(), this::publishInvalidation));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remote.getCacheNames();
+    }
+
+    /** Hit/miss theo từng cache và tầng (local / redis). */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        caches.forEach((name, cache) -> stats.put(name, cache.stats()));
+        return stats;
+    }
+
+    private void publishInvalidation(String cacheName, String key) {
+        String payload = key == null
+                ? nodeId + "|" + CLEAR + "|" + cacheName
+                : nodeId + "|" + EVICT + "|" + cacheName + "|" + key;
+        try {
+            redisTemplate.convertAndSend(CHANNEL, payload);
+        } catch (Exception e) {
+            // Node khác tự làm mới khi entry local hết TTL
+            log.warn("NearCacheManager: publish invalidation failed: {}", e.getMessage());
+        }
+    }
+
+    void onRemoteInvalidation(String payload) {
+        // Key có thể chứa '|' → giới hạn 4 phần
+        String[] parts = payload.split("\\|", 4);
+        if (parts.length < 3 || nodeId.equals(parts[0])) return;
+        NearCache cache = caches.get(parts[2]);
+        if (cache == null) return;
+        if (CLEAR.equals(parts[1])) {
+            cache.clearLocal();
+        } else if (EVICT.equals(parts[1]) && parts.length == 4) {
+            cache.evictLocal(parts[3]);
+        } else {
+            log.warn("NearCacheManager: bad invalidation payload '{}'", payload);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.FieldFinder.config;
+
+import com.example.FieldFinder.entity.ProductEmbedding;
+import com.example.FieldFinder.repository.ProductEmbeddingRepository;
+import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.service.EmbeddingIndex;
+import com.example.FieldFinder.util.EmbeddingCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Convert products.embedding (TEXT "[...]") sang bảng product_embeddings (float32 nhị phân).
+ * Chạy lúc khởi động, từng chunk {@link #CHUNK_SIZE} dòng / 1 transaction, phân trang theo product_id
+ * nên dừng giữa chừng chạy lại vẫn đúng. Idempotent: dòng đã convert và TEXT không đổi (CRC32) thì bỏ qua.
+ * DB mới không còn cột TEXT cũ → không có gì để làm.
+ */
+@Component
+public class ProductEmbeddingBackfill implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductEmbeddingBackfill.class);
+
+    static final int CHUNK_SIZE = 200;
+
+    private final ProductEmbeddingRepository productEmbeddingRepository;
+    private final ProductRepository productRepository;
+    private final EmbeddingIndex embeddingIndex;
+    private final TransactionTemplate transactionTemplate;
+
+    public ProductEmbeddingBackfill(ProductEmbeddingRepository productEmbeddingRepository,
+                                    ProductRepository productRepository,
+                                    EmbeddingIndex embeddingIndex,
+                                    TransactionTemplate transactionTemplate) {
+        this.productEmbeddingRepository = productEmbeddingRepository;
+        this.productRepository = productRepository;
+        this.embeddingIndex = embeddingIndex;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    public void run(String... args) {
+        int converted = 0;
+        int skipped = 0;
+        long afterId = 0;
+        try {
+            while (true) {
+                List<Object[]> rows = productEmbeddingRepository.findLegacyTextChunk(afterId, CHUNK_SIZE);
+                if (rows.isEmpty()) break;
+                int[] result = transactionTemplate.execute(status -> convertChunk(rows));
+                converted += result[0];
+                skipped += result[1];
+                afterId = ((Number) rows.get(rows.size() - 1)[0]).longValue();
+                if (rows.size() < CHUNK_SIZE) break;
+            }
+        } catch (Exception e) {
+            // Thường gặp: DB mới không có cột products.embedding — không có dữ liệu cũ để convert
+            log.info("Backfill embedding dừng sau {} dòng: {}", converted, e.getMessage());
+        }
+        if (converted > 0 || skipped > 0) {
+            log.info("Backfill embedding: {} sản phẩm -> product_embeddings, {} dòng TEXT lỗi bị bỏ qua.", converted, skipped);
+        }
+        if (converted > 0) {
+            embeddingIndex.refresh();
+        }
+    }
+
+    /** @return {converted, skipped} */
+    int[] convertChunk(List<Object[]> rows) {
+        List<Long> ids = rows.stream().map(r -> ((Number) r[0]).longValue()).toList();
+        Map<Long, ProductEmbedding> existing = productEmbeddingRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(ProductEmbedding::getProductId, Function.identity()));
+        List<ProductEmbedding> batch = new ArrayList<>(rows.size());
+        int skipped = 0;
+        LocalDateTime now = LocalDateTime.now();
+        for (Object[] r : rows) {
+            Long id = ((Number) r[0]).longValue();
+            float[] vector = EmbeddingCodec.parseText((String) r[1]);
+            if (vector == null) {
+                skipped++;
+                continue;
+            }
+            ProductEmbedding e = existing.get(id);
+            if (e == null) {
+                e = ProductEmbedding.builder().product(productRepository.getReferenceById(id)).build();
+            }
+            e.setDimension(vector.length);
+            e.setVector(EmbeddingCodec.encode(vector));
+            e.setSourceCrc(r[2] == null ? null : ((Number) r[2]).longValue());
+            e.setUpdatedAt(now);
+            batch.add(e);
+        }
+        productEmbeddingRepository.saveAll(batch);
+        return new int[]{batch.size(), skipped};
+    }
+}
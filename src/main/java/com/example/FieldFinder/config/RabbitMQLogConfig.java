@@ -1,8 +1,11 @@
 package com.example.FieldFinder.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,6 +15,13 @@ public class RabbitMQLogConfig {
     public static final String QUEUE_LOG = "user_interaction_log_queue";
     public static final String EXCHANGE_LOG = "logging_exchange";
     public static final String ROUTING_KEY_LOG = "log.routing.key";
+    // Lô InteractionLogBatch; queue cũ giữ lại để tiêu nốt message đơn còn tồn
+    public static final String QUEUE_LOG_BATCH = "user_interaction_log_batch_queue";
+    public static final String ROUTING_KEY_LOG_BATCH = "log.batch.routing.key";
+    // Message / event hỏng mà consumer không ghi được → giữ lại để soi, không giao lại
+    public static final String QUEUE_LOG_DEAD = "user_interaction_log_dead_queue";
+    public static final String ROUTING_KEY_LOG_DEAD = "log.dead.routing.key";
+    public static final String LOG_LISTENER_FACTORY = "logBatchListenerFactory";
 
     @Bean
     public Queue logQueue() {
@@ -28,6 +38,50 @@ public class RabbitMQLogConfig {
         return BindingBuilder.bind(logQueue).to(logExchange).with(ROUTING_KEY_LOG);
     }
 
+    @Bean
+    public Queue logBatchQueue() {
+        return new Queue(QUEUE_LOG_BATCH, true);
+    }
+
+    @Bean
+    public Binding logBatchBinding(Queue logBatchQueue, DirectExchange logExchange) {
+        return BindingBuilder.bind(logBatchQueue).to(logExchange).with(ROUTING_KEY_LOG_BATCH);
+    }
+
+    @Bean
+    public Queue logDeadQueue() {
+        return new Queue(QUEUE_LOG_DEAD, true);
+    }
+
+    @Bean
+    public Binding logDeadBinding(Queue logDeadQueue, DirectExchange logExchange) {
+        return BindingBuilder.bind(logDeadQueue).to(logExchange).with(ROUTING_KEY_LOG_DEAD);
+    }
+
+    /**
+     * Consumer log theo lô: nhận tối đa {@code batchSize} message (hoặc tới khi {@code receiveTimeoutMs}
+     * không có message mới) rồi giao 1 lần cho listener; ack tay sau khi ghi Mongo xong.
+     * Không dùng retry interceptor chung của spring.rabbitmq.listener — listener tự requeue/dead-letter.
+     */
+    @Bean(LOG_LISTENER_FACTORY)
+    public SimpleRabbitListenerContainerFactory logBatchListenerFactory(
+            ConnectionFactory connectionFactory,
+            @Value("${log.consumer.prefetch:1000}") int prefetch,
+            @Value("${log.consumer.batch-size:500}") int batchSize,
+            @Value("${log.consumer.receive-timeout-ms:200}") long receiveTimeoutMs,
+            @Value("${log.consumer.concurrency:2}") int concurrency) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(prefetch);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        factory.setConcurrentConsumers(concurrency);
+        return factory;
+    }
+
     // Convert Java Object sang JSON khi đẩy vào RabbitMQ
     @Bean
     public MessageConverter jsonMessageConverter() {
@@ -4,15 +4,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.BatchStrategies;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.time.Duration;
+import java.util.Map;
 
 @Configuration
 public class RedisConfig {
@@ -33,15 +38,23 @@ public class RedisConfig {
                 .build();
     }
 
+    /**
+     * RedisCacheManager bọc bởi {@link NearCacheManager}: các cache đọc nhiều (trang catalog, danh
+     * sách/chi tiết sân, top bán chạy, catalog AI) có thêm tầng local trước Redis. TTL local ngắn hơn
+     * TTL Redis — chỉ là lưới an toàn, evict đi qua pub/sub. Xóa allEntries dùng SCAN thay vì KEYS.
+     */
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
+    public NearCacheManager cacheManager(RedisConnectionFactory connectionFactory,
+                                         StringRedisTemplate stringRedisTemplate,
+                                         RedisMessageListenerContainer redisMessageListenerContainer) {
         RedisCacheConfiguration base = RedisCacheConfiguration.defaultCacheConfig()
                 .entryTtl(Duration.ofMinutes(10))
                 .disableCachingNullValues()
                 .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
                 .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(redisJsonSerializer()));
 
-        return RedisCacheManager.builder(connectionFactory)
+        RedisCacheManager redisCacheManager = RedisCacheManager
+                .builder(RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory, BatchStrategies.scan(500)))
                 .cacheDefaults(base)
                 .withCacheConfiguration("products_category", base.entryTtl(Duration.ofHours(24)))
                 .withCacheConfiguration("product_detail",    base.entryTtl(Duration.ofHours(6)))
@@ -50,6 +63,17 @@ public class RedisConfig {
                 .withCacheConfiguration("ai_catalog",        base.entryTtl(Duration.ofHours(24)))
                 .withCacheConfiguration("top_selling",       base.entryTtl(Duration.ofHours(12)))
                 .build();
+        redisCacheManager.afterPropertiesSet();
+
+        NearCacheManager cacheManager = new NearCacheManager(redisCacheManager, Map.of(
+                "products_category", new NearCacheManager.Spec(500,  Duration.ofMinutes(2)),
+                "pitches_list",      new NearCacheManager.Spec(200,  Duration.ofMinutes(2)),
+                "pitch_detail",      new NearCacheManager.Spec(1000, Duration.ofMinutes(5)),
+                "top_selling",       new NearCacheManager.Spec(500,  Duration.ofMinutes(2)),
+                "ai_catalog",        new NearCacheManager.Spec(2,    Duration.ofMinutes(5))
+        ), stringRedisTemplate);
+        cacheManager.subscribe(redisMessageListenerContainer);
+        return cacheManager;
     }
 
     @Bean
@@ -66,4 +90,16 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
+
+    /**
+     * Container pub/sub dùng chung cho các kênh invalidation giữa các node
+     * (vd {@link com.example.FieldFinder.service.SlotAvailabilityIndex}, {@link NearCacheManager}). Mỗi bean tự đăng ký
+     * listener + topic của mình lúc khởi tạo.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
@@ -0,0 +1,107 @@
+package com.example.FieldFinder.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Pool có tên + giới hạn cho 1 phụ thuộc ngoài bị gọi chặn (ML retrieve, CTR...) — thay cho
+ * {@code CompletableFuture.supplyAsync} trên common ForkJoinPool, nơi vài request chờ HTTP 25s
+ * là đủ làm nghẽn mọi parallel stream khác trong JVM.
+ *
+ * - Hàng đợi đầy → future hoàn tất với {@link RejectedExecutionException} ngay, caller tự rơi
+ *   về nhánh fallback thay vì xếp hàng chờ.
+ * - Hủy future (vd caller hết thời gian chờ) → task chưa chạy bị bỏ, task đang chạy bị interrupt.
+ * - Thời gian chờ hàng đợi / chạy ghi vào {@link StageMetrics} ({@code executor.<tên>.queue|run}).
+ */
+public class StageExecutor {
+
+    private final String name;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor pool;
+    private final StageMetrics metrics;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    public StageExecutor(String name, int threads, int queueCapacity, StageMetrics metrics) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.metrics = metrics;
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Chạy {@code task} trên pool; không bao giờ ném — lỗi/từ chối đều nằm trong future trả về. */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        submitted.increment();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long enqueuedAt = System.currentTimeMillis();
+        Future<?> running;
+        try {
+            running = pool.submit(() -> {
+                if (result.isDone()) return; // bị hủy khi còn trong hàng đợi
+                long startedAt = System.currentTimeMillis();
+                metrics.record("executor." + name + ".queue", startedAt - enqueuedAt);
+                try {
+                    T value = task.get();
+                    if (result.complete(value)) completed.increment();
+                } catch (Throwable e) {
+                    if (result.completeExceptionally(e)) failed.increment();
+                } finally {
+                    metrics.recordSince("executor." + name + ".run", startedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((v, e) -> {
+            if (result.isCancelled()) {
+                cancelled.increment();
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", pool.getMaximumPoolSize());
+        stats.put("active", pool.getActiveCount());
+        stats.put("queued", pool.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("cancelled", cancelled.sum());
+        return stats;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+}
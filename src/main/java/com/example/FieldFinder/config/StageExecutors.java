@@ -0,0 +1,64 @@
+package com.example.FieldFinder.config;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Các {@link StageExecutor} theo phụ thuộc ngoài. Gemini Vision không có ở đây: nó đã là HTTP
+ * non-blocking, giới hạn bởi dispatcher OkHttp + {@link com.example.FieldFinder.ai.GeminiRateLimiter}.
+ *
+ * Không khai báo dạng bean {@link java.util.concurrent.Executor}: tránh thay executor mặc định của {@code @Async}.
+ */
+@Component
+public class StageExecutors {
+
+    private final StageExecutor mlRetrieve;
+    private final StageExecutor ctr;
+    private final StageExecutor mlRefresh;
+
+    public StageExecutors(StageMetrics metrics,
+                          @Value("${executor.ml-retrieve.threads:8}") int mlRetrieveThreads,
+                          @Value("${executor.ml-retrieve.queue-capacity:32}") int mlRetrieveQueue,
+                          @Value("${executor.ctr.threads:8}") int ctrThreads,
+                          @Value("${executor.ctr.queue-capacity:64}") int ctrQueue,
+                          @Value("${executor.ml-refresh.threads:2}") int mlRefreshThreads,
+                          @Value("${executor.ml-refresh.queue-capacity:64}") int mlRefreshQueue) {
+        this.mlRetrieve = new StageExecutor("ml-retrieve", mlRetrieveThreads, mlRetrieveQueue, metrics);
+        this.ctr = new StageExecutor("ctr", ctrThreads, ctrQueue, metrics);
+        this.mlRefresh = new StageExecutor("ml-refresh", mlRefreshThreads, mlRefreshQueue, metrics);
+    }
+
+    /** ML CLIP retrieve-by-image (image search Stage 1). */
+    public StageExecutor mlRetrieve() {
+        return mlRetrieve;
+    }
+
+    /** ML CTR rerank cho gợi ý sản phẩm. */
+    public StageExecutor ctr() {
+        return ctr;
+    }
+
+    /** Làm mới nền các kết quả ML đã hết tươi (stale-while-revalidate của {@code MlResultCache}). */
+    public StageExecutor mlRefresh() {
+        return mlRefresh;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(mlRetrieve.name(), mlRetrieve.stats());
+        stats.put(ctr.name(), ctr.stats());
+        stats.put(mlRefresh.name(), mlRefresh.stats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mlRetrieve.shutdown();
+        ctr.shutdown();
+        mlRefresh.shutdown();
+    }
+}
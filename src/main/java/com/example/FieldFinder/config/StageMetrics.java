@@ -0,0 +1,85 @@
+package com.example.FieldFinder.config;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thời gian từng stage (vd {@code image.vision}, {@code image.ml_retrieve}) giữ trong heap —
+ * count/sum/max + histogram theo lũy thừa 2 (ms) để ước lượng p50/p95. Thay cho các dòng
+ * {@code System.out} đo thời gian; xem qua {@code GET /api/admin/runtime/stages}.
+ *
+ * Percentile là cận trên của bucket chứa nó → sai số tối đa x2, đủ để thấy stage nào chậm.
+ */
+@Component
+public class StageMetrics {
+
+    /** Bucket i chứa giá trị trong [2^(i-1), 2^i) ms; bucket cuối gom mọi thứ ≥ ~9 phút. */
+    private static final int BUCKETS = 20;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public void record(String stage, long millis) {
+        timers.computeIfAbsent(stage, s -> new Timer()).record(Math.max(0, millis));
+    }
+
+    /** Ghi thời gian tính từ {@code startMillis} ({@link System#currentTimeMillis()}) đến lúc gọi. */
+    public void recordSince(String stage, long startMillis) {
+        record(stage, System.currentTimeMillis() - startMillis);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        new TreeMap<>(timers).forEach((stage, timer) -> stats.put(stage, timer.snapshot()));
+        return stats;
+    }
+
+    static int bucketOf(long millis) {
+        int b = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long millis) {
+            count.increment();
+            sum.add(millis);
+            max.accumulate(millis);
+            histogram.incrementAndGet(bucketOf(millis));
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("count", n);
+            s.put("avgMs", n == 0 ? 0.0 : (double) sum.sum() / n);
+            s.put("p50Ms", percentile(0.50));
+            s.put("p95Ms", percentile(0.95));
+            s.put("maxMs", max.get());
+            return s;
+        }
+
+        private long percentile(double q) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += histogram.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= rank) return Math.min(i == 0 ? 0 : 1L << i, max.get());
+            }
+            return max.get();
+        }
+    }
+}
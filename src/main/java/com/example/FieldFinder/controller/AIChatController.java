@@ -1,6 +1,9 @@
 package com.example.FieldFinder.controller;
 
 import com.example.FieldFinder.ai.AIChat;
+import com.example.FieldFinder.ai.ChatStreamListener;
+import com.example.FieldFinder.ai.GeminiRateLimiter;
+import com.example.FieldFinder.ai.cache.IntentCache;
 import com.example.FieldFinder.dto.req.ChatClickRequestDTO;
 import com.example.FieldFinder.dto.req.ChatFeedbackRequestDTO;
 import com.example.FieldFinder.dto.req.ChatRequestDTO;
@@ -8,14 +11,27 @@ import com.example.FieldFinder.service.UserService;
 import com.example.FieldFinder.service.log.LogPublisherService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.example.FieldFinder.ai.AIChat.BookingQuery;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api/ai")
@@ -25,39 +41,49 @@ public class AIChatController {
     private final AIChat aiChatService;
     private final LogPublisherService logPublisherService;
     private final UserService userService;
+    private final GeminiRateLimiter geminiRateLimiter;
+    private final IntentCache intentCache;
 
+    /** Hạn chót Gemini cho 1 lượt chat/ảnh; spring.mvc.async.request-timeout phải lớn hơn. */
+    @Value("${ai.chat.timeout-ms:45000}")
+    private long chatTimeoutMs;
+
+    @Value("${ai.image.timeout-ms:30000}")
+    private long imageTimeoutMs;
+
+    /**
+     * Async servlet: Tomcat thread trả về ngay, kết quả ghi ra khi future xong — Gemini chậm/429
+     * không còn giữ thread của request.
+     */
     @PostMapping("/chat")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<AIChat.BookingQuery> handleChat(
+    public CompletableFuture<ResponseEntity<AIChat.BookingQuery>> handleChat(
             @RequestBody ChatRequestDTO request) {
 
+        Instant deadline = Instant.now().plusMillis(chatTimeoutMs);
         aiChatService.pauseEnrichment();
+        CompletableFuture<AIChat.BookingQuery> future;
         try {
-            AIChat.BookingQuery response = aiChatService.parseBookingInput(
+            future = aiChatService.parseBookingInputAsync(
                     request.getUserInput(),
                     request.getSessionId(),
                     request.getLatitude(),
-                    request.getLongitude()
+                    request.getLongitude(),
+                    deadline
             );
-            return ResponseEntity.ok(response);
-
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            AIChat.BookingQuery errorQuery = new AIChat.BookingQuery();
-            errorQuery.message = "Xin lỗi, tôi đang gặp sự cố. Vui lòng thử lại sau.";
-            return ResponseEntity.status(500).body(errorQuery);
-        } catch (IllegalArgumentException e) {
-            AIChat.BookingQuery errorQuery = new AIChat.BookingQuery();
-            errorQuery.message = "Xin lỗi, tôi không hiểu yêu cầu của bạn. " + e.getMessage();
-            return ResponseEntity.status(400).body(errorQuery);
-        } finally {
-            aiChatService.resumeEnrichment();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
         }
+        return withDeadline(future, deadline)
+                .handle((response, error) -> {
+                    aiChatService.resumeEnrichment();
+                    return error == null ? ResponseEntity.ok(response) : errorResponse(error);
+                });
     }
 
     @PostMapping("/image")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<BookingQuery> chatWithImage(@RequestBody Map<String, String> payload) {
+    public CompletableFuture<ResponseEntity<BookingQuery>> chatWithImage(@RequestBody Map<String, String> payload) {
         String base64Image = payload.get("image");
 
         String sessionId = payload.getOrDefault("sessionId", "guest_session");
@@ -65,18 +91,170 @@ public class AIChatController {
         if (base64Image == null || base64Image.isEmpty()) {
             BookingQuery error = new BookingQuery();
             error.message = "Vui lòng gửi ảnh (Base64 string).";
-            return ResponseEntity.badRequest().body(error);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(error));
+        }
+
+        Instant deadline = Instant.now().plusMillis(imageTimeoutMs);
+        aiChatService.pauseEnrichment();
+        CompletableFuture<BookingQuery> future;
+        try {
+            future = aiChatService.processImageSearchWithGeminiAsync(base64Image, sessionId, deadline);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return withDeadline(future, deadline)
+                .handle((result, error) -> {
+                    aiChatService.resumeEnrichment();
+                    return error == null ? ResponseEntity.ok(result) : errorResponse(error);
+                });
+    }
+
+    /**
+     * Bản SSE của {@link #handleChat}: sự kiện {@code intent} ngay khi parse xong, {@code cards} khi
+     * handler có (vd availability từng sân), cuối cùng {@code message} = BookingQuery đầy đủ như
+     * /chat; lỗi → {@code error} {status, message}. Kết nối giữ bằng SseEmitter, không chiếm thread.
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public SseEmitter streamChat(@RequestBody ChatRequestDTO request) {
+        Instant deadline = Instant.now().plusMillis(chatTimeoutMs);
+        ChatEventStream stream = new ChatEventStream(chatTimeoutMs + 5_000);
+        aiChatService.pauseEnrichment();
+        CompletableFuture<BookingQuery> future;
+        try {
+            future = aiChatService.parseBookingInputAsync(
+                    request.getUserInput(),
+                    request.getSessionId(),
+                    request.getLatitude(),
+                    request.getLongitude(),
+                    deadline,
+                    stream
+            );
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        finish(withDeadline(future, deadline), stream);
+        return stream.emitter;
+    }
+
+    /** Bản SSE của {@link #chatWithImage}: {@code cards} exactMatch (pHash) → {@code intent} (Vision) → {@code message}. */
+    @PostMapping(value = "/image/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public SseEmitter streamImage(@RequestBody Map<String, String> payload) {
+        String base64Image = payload.get("image");
+        String sessionId = payload.getOrDefault("sessionId", "guest_session");
+        ChatEventStream stream = new ChatEventStream(imageTimeoutMs + 5_000);
+        if (base64Image == null || base64Image.isEmpty()) {
+            stream.fail(400, "Vui lòng gửi ảnh (Base64 string).");
+            return stream.emitter;
         }
 
+        Instant deadline = Instant.now().plusMillis(imageTimeoutMs);
         aiChatService.pauseEnrichment();
+        CompletableFuture<BookingQuery> future;
         try {
-            BookingQuery result = aiChatService.processImageSearchWithGemini(base64Image, sessionId);
-            return ResponseEntity.ok(result);
-        } finally {
+            future = aiChatService.processImageSearchWithGeminiAsync(base64Image, sessionId, deadline, stream);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        finish(withDeadline(future, deadline), stream);
+        return stream.emitter;
+    }
+
+    private void finish(CompletableFuture<BookingQuery> future, ChatEventStream stream) {
+        future.whenComplete((result, error) -> {
             aiChatService.resumeEnrichment();
+            if (error == null) {
+                stream.complete(result);
+            } else {
+                ResponseEntity<BookingQuery> response = errorResponse(error);
+                stream.fail(response.getStatusCode().value(), response.getBody().message);
+            }
+        });
+    }
+
+    /**
+     * Ghi sự kiện của 1 lượt chat ra SseEmitter. Client ngắt / emitter hết hạn → bỏ qua các sự kiện
+     * sau, phần xử lý vẫn chạy hết (kết quả còn được ghi log + cache).
+     */
+    private static final class ChatEventStream implements ChatStreamListener {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ChatEventStream(long timeoutMs) {
+            this.emitter = new SseEmitter(timeoutMs);
+            emitter.onTimeout(() -> closed.set(true));
+            emitter.onError(e -> closed.set(true));
+            emitter.onCompletion(() -> closed.set(true));
+        }
+
+        @Override
+        public void onIntent(Map<String, Object> intent) {
+            send("intent", intent);
+        }
+
+        @Override
+        public void onCards(String type, List<?> items) {
+            Map<String, Object> cards = new LinkedHashMap<>();
+            cards.put("type", type);
+            cards.put("items", items);
+            send("cards", cards);
+        }
+
+        void complete(BookingQuery result) {
+            if (send("message", result) && closed.compareAndSet(false, true)) emitter.complete();
+        }
+
+        void fail(int status, String message) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("status", status);
+            error.put("message", message);
+            if (send("error", error) && closed.compareAndSet(false, true)) emitter.complete();
+        }
+
+        private boolean send(String event, Object data) {
+            if (closed.get()) return false;
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // Client đã ngắt: container tự báo lỗi cho emitter, chỉ cần ngừng gửi
+                closed.set(true);
+                return false;
+            }
         }
     }
 
+    /** Chặn cứng ở deadline + 2s (phần xử lý sau Gemini) — không để request treo tới async timeout. */
+    private static <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, Instant deadline) {
+        long remaining = Math.max(0, Duration.between(Instant.now(), deadline).toMillis());
+        return future.orTimeout(remaining + 2_000, TimeUnit.MILLISECONDS);
+    }
+
+    private static <T> ResponseEntity<T> errorResponse(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        AIChat.BookingQuery errorQuery = new AIChat.BookingQuery();
+        int status;
+        if (cause instanceof IllegalArgumentException) {
+            errorQuery.message = "Xin lỗi, tôi không hiểu yêu cầu của bạn. " + cause.getMessage();
+            status = 400;
+        } else if (cause instanceof RejectedExecutionException) {
+            errorQuery.message = "Trợ lý AI đang quá tải, bạn vui lòng thử lại sau ít phút nhé.";
+            status = 503;
+        } else if (cause instanceof TimeoutException) {
+            errorQuery.message = "Trợ lý AI phản hồi quá lâu, bạn vui lòng thử lại nhé.";
+            status = 504;
+        } else {
+            cause.printStackTrace();
+            errorQuery.message = "Xin lỗi, tôi đang gặp sự cố. Vui lòng thử lại sau.";
+            status = 500;
+        }
+        @SuppressWarnings("unchecked")
+        ResponseEntity<T> response = (ResponseEntity<T>) ResponseEntity.status(status).body(errorQuery);
+        return response;
+    }
+
     @PostMapping("/chat/click")
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<Map<String, String>> trackChatClick(
@@ -131,6 +309,20 @@ public class AIChatController {
         }
     }
 
+    /** Độ sâu hàng đợi + thời gian chờ permit Gemini theo lớp ưu tiên. */
+    @GetMapping("/rate-limiter/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rateLimiterStats() {
+        return ResponseEntity.ok(geminiRateLimiter.stats());
+    }
+
+    /** Tỉ lệ trúng cache intent (heap / Redis / miss) của parseBookingInput. */
+    @GetMapping("/intent-cache/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> intentCacheStats() {
+        return ResponseEntity.ok(intentCache.stats());
+    }
+
     private String resolveUserId(String sessionId) {
         if (sessionId == null) return null;
         UUID uid = userService.getUserIdBySession(sessionId);
@@ -1,16 +1,19 @@
 package com.example.FieldFinder.controller;
 
+import com.example.FieldFinder.config.NearCacheManager;
+import com.example.FieldFinder.service.ProductDetailCacheIndex;
+import com.example.FieldFinder.service.RedisService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.cache.Cache;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
 @RestController
 @RequestMapping("/api/admin/cache")
@@ -18,33 +21,44 @@ import java.util.Set;
 @RequiredArgsConstructor
 public class AdminCacheController {
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisService redisService;
+    private final ProductDetailCacheIndex productDetailCacheIndex;
+    private final NearCacheManager cacheManager;
 
     @PostMapping("/evict-products")
     public ResponseEntity<Map<String, Object>> evictProductCaches() {
         Map<String, Object> result = new HashMap<>();
-        result.put("product_detail", evictByPattern("product_detail::*"));
-        result.put("top_selling", evictByPattern("top_selling::*"));
-        result.put("products_category", evictByPattern("products_category::*"));
-        result.put("ai_catalog", evictByPattern("ai_catalog::*"));
+        result.put("product_detail", redisService.deleteByPattern("product_detail::*"));
+        result.put("top_selling", clearCache("top_selling"));
+        result.put("products_category", clearCache("products_category"));
+        result.put("ai_catalog", clearCache("ai_catalog"));
         return ResponseEntity.ok(result);
     }
 
     @PostMapping("/evict-all")
     public ResponseEntity<Map<String, Object>> evictAll() {
         Map<String, Object> result = new HashMap<>();
-        result.put("product_detail", evictByPattern("product_detail::*"));
-        result.put("top_selling", evictByPattern("top_selling::*"));
-        result.put("products_category", evictByPattern("products_category::*"));
-        result.put("ai_catalog", evictByPattern("ai_catalog::*"));
-        result.put("cart", evictByPattern("cart:*"));
+        result.put("product_detail", redisService.deleteByPattern("product_detail::*"));
+        result.put("top_selling", clearCache("top_selling"));
+        result.put("products_category", clearCache("products_category"));
+        result.put("ai_catalog", clearCache("ai_catalog"));
+        result.put("cart", redisService.deleteByPattern("cart:*"));
         return ResponseEntity.ok(result);
     }
 
-    private long evictByPattern(String pattern) {
-        Set<String> keys = redisTemplate.keys(pattern);
-        if (keys == null || keys.isEmpty()) return 0L;
-        Long deleted = redisTemplate.delete(keys);
-        return deleted != null ? deleted : 0L;
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("product_detail_eviction", productDetailCacheIndex.stats());
+        result.put("near_cache", cacheManager.stats());
+        return ResponseEntity.ok(result);
+    }
+
+    /** Xóa key Redis (đếm được số key) rồi clear qua CacheManager để tầng local mọi node cũng sạch. */
+    private long clearCache(String name) {
+        long deleted = redisService.deleteByPattern(name + "::*");
+        Cache cache = cacheManager.getCache(name);
+        if (cache != null) cache.clear();
+        return deleted;
     }
 }
@@ -0,0 +1,80 @@
+package com.example.FieldFinder.controller;
+
+import com.example.FieldFinder.ai.ranking.CtrScorer;
+import com.example.FieldFinder.config.CircuitBreakers;
+import com.example.FieldFinder.config.StageExecutors;
+import com.example.FieldFinder.config.StageMetrics;
+import com.example.FieldFinder.service.MlResultCache;
+import com.example.FieldFinder.service.log.LogPublisherService;
+import com.example.FieldFinder.service.log.LogRabbitListener;
+import com.example.FieldFinder.service.payout.PayoutEngine;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/runtime")
+@PreAuthorize("hasRole('ADMIN')")
+@RequiredArgsConstructor
+public class AdminRuntimeController {
+
+    private final StageExecutors stageExecutors;
+    private final StageMetrics stageMetrics;
+    private final MlResultCache mlResultCache;
+    private final CtrScorer ctrScorer;
+    private final CircuitBreakers circuitBreakers;
+    private final LogPublisherService logPublisherService;
+    private final LogRabbitListener logRabbitListener;
+    private final PayoutEngine payoutEngine;
+
+    @GetMapping("/executors")
+    public ResponseEntity<Map<String, Object>> executors() {
+        return ResponseEntity.ok(stageExecutors.stats());
+    }
+
+    @GetMapping("/stages")
+    public ResponseEntity<Map<String, Object>> stages() {
+        return ResponseEntity.ok(stageMetrics.stats());
+    }
+
+    /** Hit/stale/miss, số request được gộp và số call bị chặn vì quá giới hạn — theo endpoint ML. */
+    @GetMapping("/ml-cache")
+    public ResponseEntity<Map<String, Object>> mlCache() {
+        return ResponseEntity.ok(mlResultCache.stats());
+    }
+
+    /** Số lô CTR, số request ML chấm được / phải chấm bằng LR cục bộ. */
+    @GetMapping("/ctr")
+    public ResponseEntity<Map<String, Object>> ctr() {
+        return ResponseEntity.ok(ctrScorer.stats());
+    }
+
+    /** Trạng thái cục bộ của node này + tỉ lệ lỗi/chậm trong cửa sổ, theo từng phụ thuộc ngoài. */
+    @GetMapping("/circuit-breakers")
+    public ResponseEntity<Map<String, Object>> breakers() {
+        return ResponseEntity.ok(circuitBreakers.stats());
+    }
+
+    /** Buffer log hành vi: đang chờ, số event bị bỏ khi đầy, số lô đã gửi, hit cache nhân khẩu học. */
+    @GetMapping("/log-publisher")
+    public ResponseEntity<Map<String, Object>> logPublisher() {
+        return ResponseEntity.ok(logPublisherService.stats());
+    }
+
+    /** Consumer log: số lô, event đã ghi / trùng / dead-letter, số lần chia lô và requeue. */
+    @GetMapping("/log-consumer")
+    public ResponseEntity<Map<String, Object>> logConsumer() {
+        return ResponseEntity.ok(logRabbitListener.stats());
+    }
+
+    /** Payout engine của node này: số dòng đã nhận lease, kết quả, lease bị mất, theo loại lệnh chi. */
+    @GetMapping("/payouts")
+    public ResponseEntity<Map<String, Object>> payouts() {
+        return ResponseEntity.ok(payoutEngine.stats());
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.FieldFinder.controller;
 
+import com.example.FieldFinder.aspect.LogActivity;
 import com.example.FieldFinder.dto.req.BlockSlotRequestDTO;
 import com.example.FieldFinder.ai.AIChat;
 
@@ -78,6 +79,8 @@ public class BookingController {
 
     @PostMapping
     @PreAuthorize("isAuthenticated()")
+    @LogActivity(event = "CREATE_BOOKING", itemType = "BOOKING", id = "bookingId",
+            snapshot = LogActivity.Snapshot.BOOKING_REQUEST)
     public ResponseEntity<Map<String, Object>> createBooking(@RequestBody BookingRequestDTO bookingRequestDTO) {
         Booking booking = bookingService.createBooking(bookingRequestDTO);
 
@@ -1,6 +1,7 @@
 package com.example.FieldFinder.controller;
 
 
+import com.example.FieldFinder.aspect.LogActivity;
 import com.example.FieldFinder.dto.req.OrderRequestDTO;
 import com.example.FieldFinder.dto.res.OrderResponseDTO;
 import com.example.FieldFinder.dto.res.ShipperEarningsDTO;
@@ -52,6 +53,8 @@ public class OrderController {
 
     @PostMapping
     @PreAuthorize("isAuthenticated()")
+    @LogActivity(event = "CREATE_ORDER", itemType = "ORDER", id = "orderId",
+            snapshot = LogActivity.Snapshot.ORDER_REQUEST)
     public OrderResponseDTO create(@RequestBody OrderRequestDTO request) {
         return orderService.createOrder(request);
     }
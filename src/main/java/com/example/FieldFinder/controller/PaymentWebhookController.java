@@ -6,6 +6,8 @@ import com.example.FieldFinder.Enum.PaymentStatus;
 import com.example.FieldFinder.entity.Booking;
 import com.example.FieldFinder.entity.Order;
 import com.example.FieldFinder.entity.Payment;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
+import com.example.FieldFinder.repository.BookingDetailRepository;
 import com.example.FieldFinder.repository.BookingRepository;
 import com.example.FieldFinder.repository.OrderRepository;
 import com.example.FieldFinder.repository.PaymentRepository;
@@ -13,9 +15,13 @@ import com.example.FieldFinder.service.NotificationService;
 import com.example.FieldFinder.service.UserTierService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.UUID;
+
 @RestController
 @RequestMapping("/api/payment")
 @RequiredArgsConstructor
@@ -24,12 +30,14 @@ public class PaymentWebhookController {
 
     private final PaymentRepository paymentRepository;
     private final BookingRepository bookingRepository;
+    private final BookingDetailRepository bookingDetailRepository;
     private final OrderRepository orderRepository;
     private final UserTierService userTierService;
     private final NotificationService notificationService;
     private final com.example.FieldFinder.service.WalletTopupService walletTopupService;
     private final com.example.FieldFinder.service.ShipperCodRemitService shipperCodRemitService;
     private final com.example.FieldFinder.service.impl.PayOsWebhookVerifier payOsWebhookVerifier;
+    private final ApplicationEventPublisher eventPublisher;
 
     @PostMapping("/webhook")
     public ResponseEntity<String> handleWebhook(@RequestBody java.util.Map<String, Object> payload) {
@@ -78,8 +86,14 @@ public class PaymentWebhookController {
                 if (!wasConfirmed) {
                     notificationService.notifyBookingConfirmed(booking);
                 }
+                bookingRepository.save(booking);
+                // PENDING/CANCELED → CONFIRMED đổi slot chiếm chỗ: báo SlotAvailabilityIndex làm mới bitmap
+                if (!wasConfirmed) {
+                    publishSlotsChanged(booking);
+                }
+            } else {
+                bookingRepository.save(booking);
             }
-            bookingRepository.save(booking);
         }
 
         Order order = payment.getOrder();
@@ -103,6 +117,15 @@ public class PaymentWebhookController {
         return ResponseEntity.ok("✅ Payment and Booking payment status updated successfully");
     }
 
+    /** bookingDetails là LAZY và controller không có transaction → lấy sân bằng query. */
+    private void publishSlotsChanged(Booking booking) {
+        if (booking.getBookingDate() == null) return;
+        List<UUID> pitchIds = bookingDetailRepository.findPitchIdsByBookingId(booking.getBookingId());
+        if (!pitchIds.isEmpty()) {
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(pitchIds, booking.getBookingDate()));
+        }
+    }
+
     @GetMapping("/thanks")
     public String thankYouPage() {
         return "Thank you for your payment!";
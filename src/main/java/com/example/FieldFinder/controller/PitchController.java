@@ -1,5 +1,6 @@
 package com.example.FieldFinder.controller;
 
+import com.example.FieldFinder.aspect.LogActivity;
 import com.example.FieldFinder.dto.req.PitchRequestDTO;
 import com.example.FieldFinder.dto.req.PitchStatusRequestDTO;
 import com.example.FieldFinder.dto.res.PitchResponseDTO;
@@ -75,6 +76,10 @@ public class PitchController {
     }
 
     @GetMapping
+    @LogActivity(event = "IMPRESSION_LIST", itemType = "PITCH", kind = LogActivity.Kind.IMPRESSION,
+            id = "pitchId", listType = "PITCH_LIST", params = {"district", "type", "name"})
+    @LogActivity(event = "FILTER_APPLY", itemType = "PITCH", kind = LogActivity.Kind.SEARCH,
+            params = {"district", "type", "name"})
     public ResponseEntity<?> getAllPitches(Pageable pageable,
                                            @RequestParam(required = false) String district,
                                            @RequestParam(required = false) String type,
@@ -146,6 +151,7 @@ public class PitchController {
 
     @GetMapping("/{pitchId}")
     // @PreAuthorize("isAuthenticated()")
+    @LogActivity(event = "VIEW_PITCH", itemType = "PITCH", idArg = 0, snapshot = LogActivity.Snapshot.PITCH)
     public ResponseEntity<PitchResponseDTO> getPitchById(@PathVariable UUID pitchId) {
         PitchResponseDTO pitch = pitchService.getPitchById(pitchId);
         return ResponseEntity.ok(pitch);
@@ -1,5 +1,6 @@
 package com.example.FieldFinder.controller;
 
+import com.example.FieldFinder.aspect.LogActivity;
 import com.example.FieldFinder.dto.req.ProductRequestDTO;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.service.ProductService;
@@ -54,12 +55,17 @@ public class ProductController {
     }
 
     @GetMapping("/{id}")
+    @LogActivity(event = "VIEW_PRODUCT", itemType = "PRODUCT", idArg = 0, snapshot = LogActivity.Snapshot.PRODUCT)
     public ProductResponseDTO getById(@PathVariable Long id, Authentication authentication) {
         UUID userId = getUserIdFromAuth(authentication);
         return productService.getProductDetail(id, userId);
     }
 
     @GetMapping
+    @LogActivity(event = "IMPRESSION_LIST", itemType = "PRODUCT", kind = LogActivity.Kind.IMPRESSION,
+            id = "id", listType = "PRODUCT_LIST", params = {"categoryId", "genders", "brand"})
+    @LogActivity(event = "SEARCH_QUERY", itemType = "PRODUCT", kind = LogActivity.Kind.SEARCH,
+            params = {"categoryId", "genders", "brand"})
     public Page<ProductResponseDTO> getAll(
             Pageable pageable,
             @RequestParam(required = false) Long categoryId,
@@ -72,12 +78,16 @@ public class ProductController {
     }
 
     @GetMapping("/top-selling")
+    @LogActivity(event = "IMPRESSION_LIST", itemType = "PRODUCT", kind = LogActivity.Kind.IMPRESSION,
+            id = "id", listType = "TOP_SELLING")
     public List<ProductResponseDTO> getTopSelling(Authentication authentication) {
         UUID userId = getUserIdFromAuth(authentication);
         return productService.getTopSellingProducts(5, userId);
     }
 
     @GetMapping("/by-categories")
+    @LogActivity(event = "IMPRESSION_LIST", itemType = "PRODUCT", kind = LogActivity.Kind.IMPRESSION,
+            id = "id", listType = "BY_CATEGORIES", params = {"categories"})
     public List<ProductResponseDTO> getByCategories(@RequestParam List<String> categories, Authentication authentication) {
         UUID userId = getUserIdFromAuth(authentication);
         return productService.findProductsByCategories(categories, userId);
@@ -0,0 +1,19 @@
+package com.example.FieldFinder.dto.req;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MLRecommendCtrBatchRequest {
+
+    @JsonProperty("requests")
+    private List<MLRecommendCtrRequest> requests;
+}
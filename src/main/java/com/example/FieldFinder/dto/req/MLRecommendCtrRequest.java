@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,4 +29,9 @@ public class MLRecommendCtrRequest {
     @JsonProperty("context")
     @Builder.Default
     private Map<String, Object> context = new HashMap<>();
+
+    /** Song song với candidateIds: feature riêng từng item (price_bucket, item_category), ghi đè context. */
+    @JsonProperty("item_context")
+    @Builder.Default
+    private List<Map<String, Object>> itemContext = new ArrayList<>();
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.example.FieldFinder.dto.res;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/** Kết quả song song với {@code requests} của batch. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class MLRecommendCtrBatchResponse {
+
+    @JsonProperty("results")
+    private List<MLRecommendCtrResponse> results;
+}
@@ -9,8 +9,13 @@ import java.util.*;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "products")
-/** Chỉ fetch 1 bag (variants) + category. discounts dùng @BatchSize — tránh MultipleBagFetchException. */
+@Table(name = "products", indexes = {
+        @Index(name = "ix_products_phash_updated_at", columnList = "phash_updated_at")
+})
+/**
+ * Chỉ fetch 1 bag (variants) + category. discounts dùng @BatchSize — tránh MultipleBagFetchException.
+ * Embedding không map trên Product (xem {@link ProductEmbedding}) — list view không bao giờ kéo vector.
+ */
 @NamedEntityGraph(
         name = "Product.listView",
         attributeNodes = {
@@ -74,12 +79,13 @@ public class Product {
     @org.hibernate.annotations.BatchSize(size = 50)
     private List<ProductVariant> variants;
 
-    @Column(columnDefinition = "TEXT")
-    private String embedding;
-
     @Column(name = "image_phash")
     private Long imagePhash;
 
+    /** Lần cuối ghi imagePhash — PhashIndex đồng bộ delta theo cột này. */
+    @Column(name = "phash_updated_at")
+    private LocalDateTime phashUpdatedAt;
+
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
     @OneToMany(mappedBy = "product", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
@@ -95,18 +101,6 @@ public class Product {
     private Double salePrice;
 
 
-    public double[] getEmbeddingArray() {
-        if (embedding == null || embedding.isEmpty()) return new double[0];
-        try {
-            String clean = embedding.replace("[", "").replace("]", "");
-            return Arrays.stream(clean.split(","))
-                    .mapToDouble(Double::parseDouble)
-                    .toArray();
-        } catch (Exception e) {
-            return new double[0];
-        }
-    }
-
     public int getTotalSold() {
         return variants == null ? 0 : variants.stream().mapToInt(ProductVariant::getSoldQuantity).sum();
     }
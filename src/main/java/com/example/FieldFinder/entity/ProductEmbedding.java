@@ -0,0 +1,56 @@
+package com.example.FieldFinder.entity;
+
+import com.example.FieldFinder.util.EmbeddingCodec;
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+/**
+ * Vector embedding của sản phẩm, tách khỏi bảng products: Product (và entity graph
+ * "Product.listView") không map cột này nên list view / findAll() không bao giờ kéo vector lên.
+ * Đọc khi cần qua {@code ProductEmbeddingRepository}.
+ *
+ * vector: float32 little-endian ({@link EmbeddingCodec}). sourceCrc = CRC32 của chuỗi TEXT cũ
+ * đã convert — backfill dựa vào đó để bỏ qua dòng không đổi.
+ */
+@Entity
+@Table(name = "product_embeddings")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductEmbedding {
+
+    @Id
+    @Column(name = "product_id")
+    private Long productId;
+
+    // Xóa sản phẩm → DB tự xóa embedding (FK ON DELETE CASCADE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "product_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Product product;
+
+    @Column(nullable = false)
+    private Integer dimension;
+
+    @ToString.Exclude
+    @Lob
+    @Column(nullable = false, columnDefinition = "MEDIUMBLOB")
+    private byte[] vector;
+
+    @Column(name = "source_crc")
+    private Long sourceCrc;
+
+    private LocalDateTime updatedAt;
+
+    public float[] toArray() {
+        return EmbeddingCodec.decode(vector);
+    }
+}
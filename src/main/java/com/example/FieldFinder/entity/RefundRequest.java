@@ -3,6 +3,7 @@ package com.example.FieldFinder.entity;
 import com.example.FieldFinder.Enum.RefundMethod;
 import com.example.FieldFinder.Enum.RefundSourceType;
 import com.example.FieldFinder.Enum.RefundStatus;
+import com.example.FieldFinder.service.payout.PayoutRow;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -23,7 +24,7 @@ import java.util.UUID;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-public class RefundRequest {
+public class RefundRequest implements PayoutRow {
 
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -106,4 +107,11 @@ public class RefundRequest {
 
     @Column(name = "ProcessedAt")
     private LocalDateTime processedAt;
+
+    /** Node đang gọi PayOS cho dòng này và hạn lease — xem {@link com.example.FieldFinder.service.payout.PayoutEngine}. */
+    @Column(name = "LeaseOwner", length = 80)
+    private String leaseOwner;
+
+    @Column(name = "LeaseUntil")
+    private LocalDateTime leaseUntil;
 }
\ No newline at end of file
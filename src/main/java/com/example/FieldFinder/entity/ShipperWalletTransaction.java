@@ -2,6 +2,7 @@ package com.example.FieldFinder.entity;
 
 import com.example.FieldFinder.Enum.ShipperWalletTxnType;
 import com.example.FieldFinder.Enum.WalletTxnStatus;
+import com.example.FieldFinder.service.payout.PayoutRow;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -27,7 +28,7 @@ import java.util.UUID;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-public class ShipperWalletTransaction {
+public class ShipperWalletTransaction implements PayoutRow {
 
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -92,4 +93,11 @@ public class ShipperWalletTransaction {
 
     @Column(name = "ProcessedAt")
     private LocalDateTime processedAt;
+
+    /** Node đang gọi PayOS cho dòng này và hạn lease — xem {@link com.example.FieldFinder.service.payout.PayoutEngine}. */
+    @Column(name = "LeaseOwner", length = 80)
+    private String leaseOwner;
+
+    @Column(name = "LeaseUntil")
+    private LocalDateTime leaseUntil;
 }
@@ -0,0 +1,15 @@
+package com.example.FieldFinder.entity.log;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/** 1 message RabbitMQ chở nhiều {@link InteractionLog} — publisher gom theo lô thay vì 1 message/event. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InteractionLogBatch {
+    private List<InteractionLog> events;
+}
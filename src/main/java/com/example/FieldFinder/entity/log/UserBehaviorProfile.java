@@ -0,0 +1,100 @@
+package com.example.FieldFinder.entity.log;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hồ sơ hành vi gọn của 1 user, cập nhật dần từ luồng log (xem
+ * {@code UserBehaviorProfileUpdater}) — đọc cá nhân hoá chỉ cần 1 {@code findById}.
+ *
+ * Điểm brand/danh mục và khung giá đều đã nhân hệ số suy giảm tới {@link #updatedAt}: event cũ
+ * nhạt dần theo half-life, không cần quét lại log.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "user_behavior_profiles")
+public class UserBehaviorProfile {
+    @Id
+    private String userId;
+
+    @Version
+    private Long version;
+
+    /** Thời điểm event mới nhất đã gộp — mốc của mọi điểm suy giảm. */
+    private Instant updatedAt;
+
+    @Builder.Default
+    private Map<String, Double> brandScores = new HashMap<>();
+    @Builder.Default
+    private Map<String, Double> categoryScores = new HashMap<>();
+
+    // Mới nhất trước, không trùng
+    @Builder.Default
+    private List<Long> recentProductIds = new ArrayList<>();
+    @Builder.Default
+    private List<Long> purchasedProductIds = new ArrayList<>();
+    @Builder.Default
+    private List<String> visitedPitchIds = new ArrayList<>();
+
+    /** logId các event vừa gộp, mới nhất trước — consumer nhận lại lô (redelivery) thì bỏ qua, không cộng 2 lần. */
+    @Builder.Default
+    private List<String> foldedLogIds = new ArrayList<>();
+
+    // Khung giá: tổng trọng số, Σ w·giá, Σ w·giá² (đều đã suy giảm)
+    private double priceWeight;
+    private double priceSum;
+    private double priceSquareSum;
+
+    /** Khung giá quanh mức user hay xem/mua: trung bình ± 1 độ lệch chuẩn. */
+    public record PriceBand(double low, double mean, double high) {}
+
+    /** Trọng số theo mức ý định (mua > thêm giỏ > click > xem). */
+    public static double eventWeight(String eventType) {
+        if (eventType == null) return 1.0;
+        switch (eventType) {
+            case "CREATE_ORDER":       return 5.0;
+            case "ADD_TO_CART":        return 3.0;
+            case "CHAT_RESULT_CLICK":  return 2.0;
+            case "VIEW_PRODUCT":       return 1.0;
+            default:                   return 1.0;
+        }
+    }
+
+    public List<String> topBrands(int limit) {
+        return topKeys(brandScores, limit);
+    }
+
+    public List<String> topCategories(int limit) {
+        return topKeys(categoryScores, limit);
+    }
+
+    /** null khi chưa có event nào kèm giá. */
+    public PriceBand priceBand() {
+        if (priceWeight <= 0) return null;
+        double mean = priceSum / priceWeight;
+        double std = Math.sqrt(Math.max(0, priceSquareSum / priceWeight - mean * mean));
+        return new PriceBand(Math.max(0, mean - std), mean, mean + std);
+    }
+
+    private static List<String> topKeys(Map<String, Double> scores, int limit) {
+        if (scores == null) return List.of();
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.FieldFinder.event;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Phát khi tập slot đã chiếm của (các) sân trong một ngày thay đổi: tạo đơn, khóa lịch,
+ * hủy (user/provider/hệ thống/hết hạn giữ chỗ), khôi phục đơn do webhook trễ.
+ * {@link com.example.FieldFinder.service.SlotAvailabilityIndex} nghe SAU KHI commit để
+ * làm mới bitmap của đúng (sân, ngày) đó trên mọi node.
+ */
+public class BookingSlotsChangedEvent {
+
+    private final List<UUID> pitchIds;
+    private final LocalDate bookingDate;
+
+    public BookingSlotsChangedEvent(Collection<UUID> pitchIds, LocalDate bookingDate) {
+        this.pitchIds = List.copyOf(pitchIds);
+        this.bookingDate = bookingDate;
+    }
+
+    public List<UUID> getPitchIds() {
+        return pitchIds;
+    }
+
+    public LocalDate getBookingDate() {
+        return bookingDate;
+    }
+}
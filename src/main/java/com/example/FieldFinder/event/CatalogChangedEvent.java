@@ -0,0 +1,37 @@
+package com.example.FieldFinder.event;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Phát khi dữ liệu sản phẩm hiển thị cho trợ lý AI đổi: tồn kho/giá/khuyến mãi của vài sản phẩm
+ * ({@link #ofProducts}) hoặc cả catalog ({@link #all()} — vd discount GLOBAL, làm giàu tag/màu hàng loạt).
+ * {@link com.example.FieldFinder.ai.cache.CatalogSnapshotStore} nghe SAU KHI commit để nạp lại
+ * đúng các sản phẩm đó vào snapshot trên mọi node.
+ */
+public class CatalogChangedEvent {
+
+    private final Set<Long> productIds;
+    private final boolean all;
+
+    private CatalogChangedEvent(Set<Long> productIds, boolean all) {
+        this.productIds = productIds;
+        this.all = all;
+    }
+
+    public static CatalogChangedEvent ofProducts(Collection<Long> productIds) {
+        return new CatalogChangedEvent(Set.copyOf(productIds), false);
+    }
+
+    public static CatalogChangedEvent all() {
+        return new CatalogChangedEvent(Set.of(), true);
+    }
+
+    public Set<Long> getProductIds() {
+        return productIds;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.FieldFinder.event;
+
+import java.util.UUID;
+
+/**
+ * Phát khi tập sân đang hoạt động (hoặc loại sân) thay đổi: tạo/sửa/xóa sân, ngưng/kích hoạt lại.
+ * {@link com.example.FieldFinder.ai.cache.PitchTypeCounter} nghe SAU KHI commit để đếm lại số sân
+ * theo loại trên mọi node (system prompt của trợ lý AI render lại theo version mới).
+ */
+public class PitchCatalogChangedEvent {
+
+    private final UUID pitchId;
+
+    public PitchCatalogChangedEvent(UUID pitchId) {
+        this.pitchId = pitchId;
+    }
+
+    public UUID getPitchId() {
+        return pitchId;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.FieldFinder.event;
+
+import java.util.UUID;
+
+/**
+ * Phát khi hồ sơ user đổi (ngày sinh, giới tính, toạ độ...).
+ * {@link com.example.FieldFinder.service.log.UserDemographicsCache} nghe SAU KHI commit để bỏ
+ * snapshot nhân khẩu học đã cache của user đó trên mọi node.
+ */
+public class UserProfileChangedEvent {
+
+    private final UUID userId;
+
+    public UserProfileChangedEvent(UUID userId) {
+        this.userId = userId;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -34,6 +35,19 @@ public interface BookingDetailRepository extends JpaRepository<BookingDetail, Lo
             @Param("bookingDate") LocalDate bookingDate,
             @Param("excludedStatuses") List<BookingStatus> excludedStatuses);
 
+    /**
+     * Slot đã chiếm của NHIỀU sân trong 1 ngày, 1 query cho cả lô — nạp bitmap của
+     * {@link com.example.FieldFinder.service.SlotAvailabilityIndex}. Mỗi dòng: [pitchId, slotId, blockType].
+     */
+    @Query("SELECT bd.pitch.pitchId, bd.timeSlot.slotId, bd.booking.blockType FROM BookingDetail bd " +
+            "WHERE bd.pitch.pitchId IN :pitchIds " +
+            "AND bd.booking.bookingDate = :bookingDate " +
+            "AND bd.booking.status NOT IN :excludedStatuses")
+    List<Object[]> findSlotRowsByPitchesAndDate(
+            @Param("pitchIds") Collection<UUID> pitchIds,
+            @Param("bookingDate") LocalDate bookingDate,
+            @Param("excludedStatuses") List<BookingStatus> excludedStatuses);
+
     boolean existsByPitch_PitchId(UUID pitchId);
 
     /** Dùng khi ngưng sân: kiểm tra có CONFIRMED nào trong tương lai không. */
@@ -68,4 +82,7 @@ public interface BookingDetailRepository extends JpaRepository<BookingDetail, Lo
     List<Booking> findPendingBookingsOnOrAfter(@Param("pitchId") UUID pitchId,
                                                @Param("targetDate") LocalDate targetDate);
 
+    /** Các sân của 1 booking — để báo SlotAvailabilityIndex khi booking đổi trạng thái ngoài transaction. */
+    @Query("SELECT DISTINCT bd.pitch.pitchId FROM BookingDetail bd WHERE bd.booking.bookingId = :bookingId")
+    List<UUID> findPitchIdsByBookingId(@Param("bookingId") UUID bookingId);
 }
\ No newline at end of file
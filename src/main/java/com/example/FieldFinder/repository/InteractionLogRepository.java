@@ -1,7 +1,32 @@
 package com.example.FieldFinder.repository;
 
 import com.example.FieldFinder.entity.log.InteractionLog;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Truy vấn log hành vi đều đi theo index tạo lúc khởi động (xem
+ * {@link com.example.FieldFinder.config.InteractionLogIndexes}); chỉ trả projection, không nạp
+ * context/metadata của từng event.
+ */
 public interface InteractionLogRepository extends MongoRepository<InteractionLog, String> {
+
+    /** Projection chỉ lấy item + loại event. */
+    interface ItemEventView {
+        String getItemId();
+        String getEventType();
+    }
+
+    /** Event gần nhất của user theo loại — index {@code (userId, eventType, timestamp desc)}. */
+    List<ItemEventView> findByUserIdAndEventTypeInAndItemTypeOrderByTimestampDesc(
+            String userId, Collection<String> eventTypes, String itemType, Limit limit);
+
+    default List<ItemEventView> findRecentItemEvents(String userId, Collection<String> eventTypes,
+                                                     String itemType, int limit) {
+        return findByUserIdAndEventTypeInAndItemTypeOrderByTimestampDesc(
+                userId, eventTypes, itemType, Limit.of(limit));
+    }
 }
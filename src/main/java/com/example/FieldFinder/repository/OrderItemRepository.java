@@ -32,4 +32,10 @@ public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
             @Param("statuses") List<com.example.FieldFinder.Enum.OrderStatus> statuses,
             @Param("startDate") java.time.LocalDate startDate,
             @Param("endDate") java.time.LocalDate endDate);
+
+    /** Sản phẩm user đã mua, đơn mới nhất trước. */
+    @Query("SELECT oi.product.productId FROM OrderItem oi WHERE oi.order.user.userId = :userId " +
+            "GROUP BY oi.product.productId ORDER BY MAX(oi.order.createdAt) DESC")
+    List<Long> findPurchasedProductIdsByUser(@Param("userId") java.util.UUID userId,
+                                             org.springframework.data.domain.Pageable pageable);
 }
\ No newline at end of file
@@ -12,9 +12,12 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface PitchRepository extends JpaRepository<Pitch, UUID>, JpaSpecificationExecutor<Pitch> {
@@ -37,9 +40,37 @@ public interface PitchRepository extends JpaRepository<Pitch, UUID>, JpaSpecific
     List<Pitch> findByStatusAndDeactivationDateLessThanEqual(
             Pitch.PitchStatus status, java.time.LocalDate date);
 
+    /** Projection chỉ lấy id sân — không nạp entity Pitch. */
+    interface PitchIdView {
+        UUID getPitchId();
+    }
+
+    /**
+     * Sân (lọc theo loại, null = mọi loại) KHÔNG có đơn còn hiệu lực trùng bất kỳ slot nào
+     * trong {@code slots} ngày {@code date} — 1 query, stream thẳng từ cursor (caller phải
+     * đóng stream + chạy trong transaction). {@code slots} không được rỗng.
+     */
+    @Query("SELECT p.pitchId AS pitchId FROM Pitch p " +
+            "WHERE (:type IS NULL OR p.type = :type) " +
+            "AND NOT EXISTS (SELECT 1 FROM BookingDetail bd " +
+            "  WHERE bd.pitch = p " +
+            "  AND bd.booking.bookingDate = :date " +
+            "  AND bd.booking.status <> com.example.FieldFinder.Enum.BookingStatus.CANCELED " +
+            "  AND bd.timeSlot.slotId IN :slots)")
+    Stream<PitchIdView> streamFreePitchIds(@Param("date") LocalDate date,
+                                           @Param("slots") Collection<Integer> slots,
+                                           @Param("type") Pitch.PitchType type);
+
+    @Query("SELECT p.pitchId AS pitchId FROM Pitch p WHERE (:type IS NULL OR p.type = :type)")
+    Stream<PitchIdView> streamPitchIdsByType(@Param("type") Pitch.PitchType type);
+
     @Query("SELECT p.type, COUNT(p) FROM Pitch p GROUP BY p.type")
     List<Object[]> countByType();
 
+    /** Số sân theo loại, lọc trạng thái — nguồn cho bộ đếm trong system prompt của trợ lý AI. */
+    @Query("SELECT p.type, COUNT(p) FROM Pitch p WHERE p.status = :status GROUP BY p.type")
+    List<Object[]> countByTypeAndStatus(@Param("status") Pitch.PitchStatus status);
+
     /** UserId của provider sở hữu sân — để bắn thông báo cho chủ sân (vd đánh giá mới). */
     @Query("SELECT p.providerAddress.provider.user.userId FROM Pitch p WHERE p.pitchId = :pitchId")
     UUID findProviderUserIdByPitchId(@Param("pitchId") UUID pitchId);
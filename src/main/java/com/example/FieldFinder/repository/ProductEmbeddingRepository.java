@@ -0,0 +1,36 @@
+package com.example.FieldFinder.repository;
+
+import com.example.FieldFinder.entity.ProductEmbedding;
+import com.example.FieldFinder.util.EmbeddingCodec;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface ProductEmbeddingRepository extends JpaRepository<ProductEmbedding, Long> {
+
+    @Query("SELECT e.productId, e.vector FROM ProductEmbedding e")
+    List<Object[]> findAllProductIdAndVector();
+
+    @Query("SELECT e.vector FROM ProductEmbedding e WHERE e.productId = :productId")
+    Optional<byte[]> findVectorByProductId(@Param("productId") Long productId);
+
+    /** Embedding của 1 sản phẩm, chỉ đọc khi gọi; chưa có → null. */
+    default float[] findEmbedding(Long productId) {
+        return findVectorByProductId(productId).map(EmbeddingCodec::decode).orElse(null);
+    }
+
+    /**
+     * Dòng products.embedding (TEXT cũ) chưa convert hoặc đã đổi so với lần convert trước
+     * (so CRC32 ngay trong DB — không kéo TEXT của dòng đã convert). Phân trang theo khóa: product_id > afterId.
+     * Cột: product_id, embedding, CRC32(embedding).
+     */
+    @Query(value = "SELECT p.product_id, p.embedding, CRC32(p.embedding) FROM products p " +
+            "LEFT JOIN product_embeddings e ON e.product_id = p.product_id " +
+            "WHERE p.embedding IS NOT NULL AND p.product_id > :afterId " +
+            "AND (e.product_id IS NULL OR e.source_crc IS NULL OR e.source_crc <> CRC32(p.embedding)) " +
+            "ORDER BY p.product_id LIMIT :limit", nativeQuery = true)
+    List<Object[]> findLegacyTextChunk(@Param("afterId") long afterId, @Param("limit") int limit);
+}
@@ -11,6 +11,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpecificationExecutor<Product> {
@@ -32,6 +33,10 @@ public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpec
     @Query("SELECT p FROM Product p JOIN p.variants v GROUP BY p ORDER BY SUM(v.soldQuantity) DESC")
     List<Product> findTopSellingProducts(Pageable pageable);
 
+    /** Toàn bộ id, cùng thứ tự mặc định của trang danh sách (productId giảm dần). */
+    @Query("SELECT p.productId FROM Product p ORDER BY p.productId DESC")
+    List<Long> findAllProductIds();
+
     @Query("SELECT COUNT(p) FROM Product p")
     long countAllProducts();
 
@@ -51,6 +56,24 @@ public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpec
     @Query("SELECT p.productId, p.imagePhash FROM Product p WHERE p.imagePhash IS NOT NULL")
     List<Object[]> findAllProductIdAndPhash();
 
+    @Query("SELECT p.productId, p.imagePhash FROM Product p " +
+           "WHERE p.imagePhash IS NOT NULL AND p.phashUpdatedAt >= :since")
+    List<Object[]> findPhashChangedSince(@Param("since") LocalDateTime since);
+
+    /** Feature CTR theo sản phẩm: id, price, categoryId, categoryName, brand, tổng đã bán. */
+    @Query("SELECT p.productId, p.price, c.categoryId, c.name, p.brand, COALESCE(SUM(v.soldQuantity), 0) " +
+           "FROM Product p LEFT JOIN p.category c LEFT JOIN p.variants v " +
+           "GROUP BY p.productId, p.price, c.categoryId, c.name, p.brand")
+    List<Object[]> findAllCtrFeatureRows();
+
+    @Query("SELECT p.productId, p.price, c.categoryId, c.name, p.brand, COALESCE(SUM(v.soldQuantity), 0) " +
+           "FROM Product p LEFT JOIN p.category c LEFT JOIN p.variants v WHERE p.productId IN :ids " +
+           "GROUP BY p.productId, p.price, c.categoryId, c.name, p.brand")
+    List<Object[]> findCtrFeatureRowsByIds(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT COUNT(p) FROM Product p WHERE p.imagePhash IS NOT NULL")
+    long countWithPhash();
+
     @Query("SELECT p FROM Product p WHERE p.imageUrl IS NOT NULL AND p.imagePhash IS NULL")
     List<Product> findAllNeedingPhashBackfill();
 
@@ -62,4 +85,16 @@ public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpec
            "LOWER(p.name) LIKE '%bóng đá%' OR " +
            "LOWER(p.name) LIKE '%đá banh%'")
     List<Product> findFootballProducts(org.springframework.data.domain.Pageable pageable);
+
+    /** Projection brand / tên danh mục / giá — không nạp entity Product. */
+    interface ProductTraitView {
+        Long getProductId();
+        String getBrand();
+        String getCategoryName();
+        Double getPrice();
+    }
+
+    @Query("SELECT p.productId AS productId, p.brand AS brand, c.name AS categoryName, p.price AS price " +
+           "FROM Product p LEFT JOIN p.category c WHERE p.productId IN :ids")
+    List<ProductTraitView> findTraitsByIds(@Param("ids") Collection<Long> ids);
 }
\ No newline at end of file
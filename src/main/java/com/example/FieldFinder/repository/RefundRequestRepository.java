@@ -3,8 +3,15 @@ package com.example.FieldFinder.repository;
 import com.example.FieldFinder.Enum.RefundSourceType;
 import com.example.FieldFinder.Enum.RefundStatus;
 import com.example.FieldFinder.entity.RefundRequest;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
@@ -25,8 +32,32 @@ public interface RefundRequestRepository extends JpaRepository<RefundRequest, UU
     @EntityGraph(attributePaths = {"issuedDiscount"})
     List<RefundRequest> findByUser_UserIdOrderByCreatedAtDesc(UUID userId);
 
-    /** Lệnh hoàn tiền mặt theo trạng thái — dùng cho các job dispatch/poll. */
-    List<RefundRequest> findByStatusOrderByCreatedAtAsc(RefundStatus status);
+    /**
+     * Lệnh hoàn tiền mặt đến hạn cho PayoutEngine: theo trạng thái, không còn lease, cũ nhất trước.
+     * Timeout -2 = SKIP LOCKED ⇒ {@code FOR UPDATE SKIP LOCKED}: dòng node khác đang khóa bị bỏ qua.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT r FROM RefundRequest r WHERE r.status = :status " +
+            "AND (r.leaseUntil IS NULL OR r.leaseUntil < :now) ORDER BY r.createdAt ASC")
+    List<RefundRequest> findDueForUpdate(@Param("status") RefundStatus status,
+                                         @Param("now") LocalDateTime now, Limit limit);
+
+    /**
+     * Khoản PENDING quá hạn, không có node nào đang giữ lease ({@link com.example.FieldFinder.service.payout.PayoutRow#isLeased})
+     * — job bù voucher nhận theo chunk, cùng kiểu khóa như trên. Dòng bị hoãn (thiếu số dư, chờ thử lại) có
+     * leaseUntil ở tương lai nhưng leaseOwner null nên vẫn được nhận.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT r FROM RefundRequest r WHERE r.status = :status AND r.deadlineAt < :now " +
+            "AND (r.leaseOwner IS NULL OR r.leaseUntil < :now) ORDER BY r.deadlineAt ASC")
+    List<RefundRequest> findOverdueForUpdate(@Param("status") RefundStatus status,
+                                             @Param("now") LocalDateTime now, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM RefundRequest r WHERE r.refundId = :id")
+    Optional<RefundRequest> findByIdForUpdate(@Param("id") UUID id);
 
     /** Khoản hoàn chưa xong (PENDING/PROCESSING) đã quá hạn — job cảnh báo. */
     List<RefundRequest> findByStatusInAndDeadlineAtBefore(
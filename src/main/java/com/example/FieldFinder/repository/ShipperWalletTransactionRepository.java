@@ -3,9 +3,18 @@ package com.example.FieldFinder.repository;
 import com.example.FieldFinder.Enum.ShipperWalletTxnType;
 import com.example.FieldFinder.Enum.WalletTxnStatus;
 import com.example.FieldFinder.entity.ShipperWalletTransaction;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface ShipperWalletTransactionRepository extends JpaRepository<ShipperWalletTransaction, UUID> {
@@ -15,8 +24,17 @@ public interface ShipperWalletTransactionRepository extends JpaRepository<Shippe
     /** Idempotency: một nguồn (đơn hàng) chỉ sinh 1 giao dịch cùng loại. */
     boolean existsByTypeAndSourceTypeAndSourceId(ShipperWalletTxnType type, String sourceType, String sourceId);
 
-    /** Cho ShipperWalletPayoutProcessor quét lệnh rút theo trạng thái. */
-    List<ShipperWalletTransaction> findByStatusOrderByCreatedAtAsc(WalletTxnStatus status);
+    /** Lệnh rút đến hạn cho PayoutEngine — {@code FOR UPDATE SKIP LOCKED} (timeout -2), bỏ qua dòng còn lease. */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT t FROM ShipperWalletTransaction t WHERE t.status = :status " +
+            "AND (t.leaseUntil IS NULL OR t.leaseUntil < :now) ORDER BY t.createdAt ASC")
+    List<ShipperWalletTransaction> findDueForUpdate(@Param("status") WalletTxnStatus status,
+            @Param("now") LocalDateTime now, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM ShipperWalletTransaction t WHERE t.txnId = :id")
+    Optional<ShipperWalletTransaction> findByIdForUpdate(@Param("id") UUID id);
 
     /** Shipper đang có lệnh rút dở (PENDING/PROCESSING) ⇒ không tạo lệnh mới. */
     boolean existsByShipper_UserIdAndStatusIn(UUID userId, java.util.Collection<WalletTxnStatus> statuses);
@@ -0,0 +1,7 @@
+package com.example.FieldFinder.repository;
+
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UserBehaviorProfileRepository extends MongoRepository<UserBehaviorProfile, String> {
+}
@@ -3,9 +3,18 @@ package com.example.FieldFinder.repository;
 import com.example.FieldFinder.Enum.WalletTxnStatus;
 import com.example.FieldFinder.Enum.WalletTxnType;
 import com.example.FieldFinder.entity.WalletTransaction;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface WalletTransactionRepository extends JpaRepository<WalletTransaction, UUID> {
@@ -15,8 +24,17 @@ public interface WalletTransactionRepository extends JpaRepository<WalletTransac
     /** Idempotency: một nguồn (booking) chỉ sinh 1 giao dịch cùng loại. */
     boolean existsByTypeAndSourceTypeAndSourceId(WalletTxnType type, String sourceType, String sourceId);
 
-    /** Cho WalletPayoutProcessor quét lệnh rút theo trạng thái. */
-    List<WalletTransaction> findByStatusOrderByCreatedAtAsc(WalletTxnStatus status);
+    /** Lệnh rút đến hạn cho PayoutEngine — {@code FOR UPDATE SKIP LOCKED} (timeout -2), bỏ qua dòng còn lease. */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT t FROM WalletTransaction t WHERE t.status = :status " +
+            "AND (t.leaseUntil IS NULL OR t.leaseUntil < :now) ORDER BY t.createdAt ASC")
+    List<WalletTransaction> findDueForUpdate(@Param("status") WalletTxnStatus status,
+            @Param("now") LocalDateTime now, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM WalletTransaction t WHERE t.txnId = :id")
+    Optional<WalletTransaction> findByIdForUpdate(@Param("id") UUID id);
 
     /** Provider đang có lệnh rút dở (PENDING/PROCESSING) ⇒ không tạo lệnh mới. */
     boolean existsByProvider_ProviderIdAndStatusIn(UUID providerId, java.util.Collection<WalletTxnStatus> statuses);
@@ -2,7 +2,9 @@ package com.example.FieldFinder.service;
 
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.example.FieldFinder.dto.req.BlockSlotRequestDTO;
@@ -25,6 +27,8 @@ public interface BookingService {
     void cancelBookingByProvider(UUID bookingId, UUID providerUserId, String reason);
     BigDecimal calculateTotalPrice(UUID bookingId);
     List<Integer> getBookedTimeSlots(UUID pitchId, LocalDate bookingDate);
+    /** Slot đã chiếm của nhiều sân cùng ngày trong 1 lần gọi (đọc bitmap, không query từng sân). */
+    Map<UUID, List<Integer>> getBookedTimeSlots(Collection<UUID> pitchIds, LocalDate bookingDate);
     List<com.example.FieldFinder.dto.res.SlotStatusDTO> getSlotStatuses(UUID pitchId, LocalDate bookingDate);
     List<BookingResponseDTO> getAllBookings();
     List<PitchBookedSlotsDTO> getAllBookedTimeSlots(LocalDate date);
@@ -34,4 +38,4 @@ public interface BookingService {
     List<ProviderBookingResponseDTO> getBookingsByProviderId(UUID providerId);
     List<BookingResponseDTO> getBookingsByProvider(UUID providerId);
     Booking blockSlots(BlockSlotRequestDTO request, java.util.UUID providerUserId);
-}
\ No newline at end of file
+}
\ No newline at end of file
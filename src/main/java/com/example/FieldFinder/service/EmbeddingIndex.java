@@ -0,0 +1,229 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.repository.ProductEmbeddingRepository;
+import com.example.FieldFinder.util.EmbeddingCodec;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Index vector embedding sản phẩm trong heap cho tìm kiếm ngữ nghĩa phía Java (fallback khi ML
+ * service tắt/circuit open). Thay cho findAll() + parse cột TEXT + cosine từng sản phẩm mỗi query:
+ *
+ * - Nguồn là bảng product_embeddings (float32 nhị phân) — decode thẳng, không parse chuỗi.
+ *
+ * - Vector chuẩn hóa sẵn (norm = 1) nằm liền nhau trong 1 mảng float (row-major) → cosine = dot product.
+ * - Top-k bằng min-heap kích thước k; catalog lớn ({@link #PARALLEL_THRESHOLD}) chia đoạn quét song song.
+ * - Nạp 1 lần lúc khởi động, refresh toàn bộ định kỳ; cập nhật đơn lẻ qua {@link #put}/{@link #remove}.
+ *
+ * Quét tuyến tính (exact) — vài chục nghìn vector × vài trăm chiều vẫn ở mức mili-giây,
+ * chưa cần HNSW/IVF ở quy mô catalog hiện tại.
+ */
+@Service
+@RequiredArgsConstructor
+public class EmbeddingIndex {
+
+    static final int PARALLEL_THRESHOLD = 20_000;
+    private static final int PARALLEL_CHUNK = 4_096;
+
+    private final ProductEmbeddingRepository productEmbeddingRepository;
+
+    private volatile Vectors vectors = Vectors.EMPTY;
+
+    /** Ảnh chụp bất biến: ids[i] ↔ data[i*dim .. (i+1)*dim). */
+    private record Vectors(long[] ids, float[] data, int dim) {
+        static final Vectors EMPTY = new Vectors(new long[0], new float[0], 0);
+
+        int size() {
+            return ids.length;
+        }
+    }
+
+    public record Hit(Long productId, double score) {}
+
+    @PostConstruct
+    public void init() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            System.err.println("EmbeddingIndex init failed: " + e.getMessage());
+        }
+    }
+
+    /** Full refresh — 10 phút (embedding đổi rất ít). */
+    @Scheduled(fixedDelay = 600_000, initialDelay = 600_000)
+    public synchronized void refresh() {
+        List<Object[]> rows = productEmbeddingRepository.findAllProductIdAndVector();
+        List<Long> ids = new ArrayList<>(rows.size());
+        List<float[]> vecs = new ArrayList<>(rows.size());
+        Map<Integer, Integer> dimCount = new HashMap<>();
+        for (Object[] r : rows) {
+            Long id = (Long) r[0];
+            float[] v = normalize(EmbeddingCodec.decode((byte[]) r[1]));
+            if (id == null || v == null) continue;
+            ids.add(id);
+            vecs.add(v);
+            dimCount.merge(v.length, 1, Integer::sum);
+        }
+        // Chiều phổ biến nhất thắng — vector lệch chiều (model cũ) bỏ qua như cosine cũ trả 0
+        int dim = dimCount.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(0);
+        List<Long> keptIds = new ArrayList<>(ids.size());
+        List<float[]> kept = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (vecs.get(i).length == dim) {
+                keptIds.add(ids.get(i));
+                kept.add(vecs.get(i));
+            }
+        }
+        vectors = pack(keptIds, kept, dim);
+        System.out.println("EmbeddingIndex refresh: " + keptIds.size() + " vectors, dim=" + dim);
+    }
+
+    /** Thêm/thay embedding của 1 sản phẩm (copy-on-write). Lệch chiều với index → bỏ qua. */
+    public synchronized void put(Long productId, double[] embedding) {
+        float[] v = normalize(toFloats(embedding));
+        if (productId == null || v == null) return;
+        Vectors cur = vectors;
+        if (cur.dim() != 0 && cur.dim() != v.length) return;
+        int dim = v.length;
+        int pos = indexOf(cur, productId);
+        if (pos >= 0) {
+            float[] data = cur.data().clone();
+            System.arraycopy(v, 0, data, pos * dim, dim);
+            vectors = new Vectors(cur.ids(), data, dim);
+            return;
+        }
+        long[] ids = Arrays.copyOf(cur.ids(), cur.size() + 1);
+        float[] data = Arrays.copyOf(cur.data(), (cur.size() + 1) * dim);
+        ids[cur.size()] = productId;
+        System.arraycopy(v, 0, data, cur.size() * dim, dim);
+        vectors = new Vectors(ids, data, dim);
+    }
+
+    public synchronized void remove(Long productId) {
+        Vectors cur = vectors;
+        int pos = productId == null ? -1 : indexOf(cur, productId);
+        if (pos < 0) return;
+        int n = cur.size(), dim = cur.dim();
+        long[] ids = new long[n - 1];
+        float[] data = new float[(n - 1) * dim];
+        System.arraycopy(cur.ids(), 0, ids, 0, pos);
+        System.arraycopy(cur.ids(), pos + 1, ids, pos, n - pos - 1);
+        System.arraycopy(cur.data(), 0, data, 0, pos * dim);
+        System.arraycopy(cur.data(), (pos + 1) * dim, data, pos * dim, (n - pos - 1) * dim);
+        vectors = new Vectors(ids, data, dim);
+    }
+
+    /**
+     * k sản phẩm có cosine với {@code query} lớn nhất và &gt; {@code minScore}, giảm dần.
+     * Query lệch chiều với index → rỗng.
+     */
+    public List<Hit> topK(double[] query, int k, double minScore) {
+        Vectors snap = vectors;
+        float[] q = normalize(toFloats(query));
+        if (q == null || k <= 0 || snap.size() == 0 || q.length != snap.dim()) return new ArrayList<>();
+
+        PriorityQueue<Hit> heap;
+        if (snap.size() >= PARALLEL_THRESHOLD) {
+            int chunks = (snap.size() + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+            heap = IntStream.range(0, chunks).parallel()
+                    .mapToObj(c -> scan(snap, q, c * PARALLEL_CHUNK,
+                            Math.min(snap.size(), (c + 1) * PARALLEL_CHUNK), k, minScore))
+                    .reduce(new PriorityQueue<>(scoreOrder()), (a, b) -> merge(a, b, k));
+        } else {
+            heap = scan(snap, q, 0, snap.size(), k, minScore);
+        }
+
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    public int size() {
+        return vectors.size();
+    }
+
+    public int dimension() {
+        return vectors.dim();
+    }
+
+    private static PriorityQueue<Hit> scan(Vectors snap, float[] q, int from, int to, int k, double minScore) {
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, scoreOrder());
+        float[] data = snap.data();
+        int dim = snap.dim();
+        for (int i = from; i < to; i++) {
+            int off = i * dim;
+            float dot = 0f;
+            for (int j = 0; j < dim; j++) dot += q[j] * data[off + j];
+            if (dot <= minScore) continue;
+            if (heap.size() < k) {
+                heap.add(new Hit(snap.ids()[i], dot));
+            } else if (dot > heap.peek().score()) {
+                heap.poll();
+                heap.add(new Hit(snap.ids()[i], dot));
+            }
+        }
+        return heap;
+    }
+
+    private static PriorityQueue<Hit> merge(PriorityQueue<Hit> a, PriorityQueue<Hit> b, int k) {
+        PriorityQueue<Hit> out = new PriorityQueue<>(k + 1, scoreOrder());
+        out.addAll(a);
+        for (Hit h : b) {
+            out.add(h);
+            if (out.size() > k) out.poll();
+        }
+        while (out.size() > k) out.poll();
+        return out;
+    }
+
+    private static Comparator<Hit> scoreOrder() {
+        return Comparator.comparingDouble(Hit::score);
+    }
+
+    private static int indexOf(Vectors v, long productId) {
+        long[] ids = v.ids();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == productId) return i;
+        }
+        return -1;
+    }
+
+    private static Vectors pack(List<Long> ids, List<float[]> vecs, int dim) {
+        long[] idArr = new long[ids.size()];
+        float[] data = new float[ids.size() * dim];
+        for (int i = 0; i < ids.size(); i++) {
+            idArr[i] = ids.get(i);
+            System.arraycopy(vecs.get(i), 0, data, i * dim, dim);
+        }
+        return new Vectors(idArr, data, dim);
+    }
+
+    private static float[] toFloats(double[] v) {
+        if (v == null) return null;
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = (float) v[i];
+        return out;
+    }
+
+    /** Chuẩn hóa về norm 1 (tại chỗ). Vector rỗng / toàn 0 → null. */
+    private static float[] normalize(float[] v) {
+        if (v == null || v.length == 0) return null;
+        double sum = 0;
+        for (float x : v) sum += (double) x * x;
+        if (sum == 0) return null;
+        float inv = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < v.length; i++) v[i] *= inv;
+        return v;
+    }
+}
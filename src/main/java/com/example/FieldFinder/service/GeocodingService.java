@@ -1,5 +1,7 @@
 package com.example.FieldFinder.service;
 
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,6 +14,9 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * Geocode qua Nominatim. Lỗi / circuit breaker {@link CircuitBreakers#NOMINATIM} mở → Optional.empty.
+ */
 @Slf4j
 @Service
 public class GeocodingService {
@@ -20,11 +25,14 @@ public class GeocodingService {
 
     private final WebClient webClient;
     private final String userAgent;
+    private final CircuitBreaker circuitBreaker;
 
     public GeocodingService(WebClient webClient,
+                            CircuitBreakers circuitBreakers,
                             @Value("${geocoding.user-agent:SportsHub/1.0 (admin@fieldfinder.local)}") String userAgent) {
         this.webClient = webClient;
         this.userAgent = userAgent;
+        this.circuitBreaker = circuitBreakers.get(CircuitBreakers.NOMINATIM);
     }
 
     public Optional<LatLng> geocode(String address) {
@@ -34,13 +42,13 @@ public class GeocodingService {
             // accept-language=vi: ưu tiên kết quả tiếng Việt. Phân biệt trùng tên trong VN
             // (vd "Phước Ngãi" Vĩnh Long vs Quảng Ngãi) PHẢI dựa vào tỉnh trong chuỗi address.
             String q = address.trim();
-            JsonNode result = webClient.get()
+            JsonNode result = circuitBreaker.execute(() -> webClient.get()
                     .uri("https://nominatim.openstreetmap.org/search?q={q}&format=json&limit=1&countrycodes=vn&accept-language=vi", q)
                     .header("User-Agent", userAgent)
                     .retrieve()
                     .bodyToMono(JsonNode.class)
                     .timeout(Duration.ofSeconds(8))
-                    .block();
+                    .block(), () -> null);
             if (result == null || !result.isArray() || result.isEmpty()) return Optional.empty();
             JsonNode first = result.get(0);
             double lat = first.path("lat").asDouble();
@@ -64,14 +72,14 @@ public class GeocodingService {
      */
     public Optional<String> reverseGeocodeCity(double lat, double lng) {
         try {
-            JsonNode root = webClient.get()
+            JsonNode root = circuitBreaker.execute(() -> webClient.get()
                     .uri("https://nominatim.openstreetmap.org/reverse?lat={lat}&lon={lon}&format=json&accept-language=vi",
                             lat, lng)
                     .header("User-Agent", userAgent)
                     .retrieve()
                     .bodyToMono(JsonNode.class)
                     .timeout(Duration.ofSeconds(8))
-                    .block();
+                    .block(), () -> null);
             if (root == null) return Optional.empty();
 
             JsonNode address = root.path("address");
@@ -1,10 +1,12 @@
 package com.example.FieldFinder.service;
 
+import com.example.FieldFinder.dto.req.MLRecommendCtrBatchRequest;
 import com.example.FieldFinder.dto.req.MLRecommendCtrRequest;
 import com.example.FieldFinder.dto.req.MLRecommendNextRequest;
 import com.example.FieldFinder.dto.req.MLRetrieveByImageRequest;
 import com.example.FieldFinder.dto.req.MLRetrieveRequest;
 import com.example.FieldFinder.dto.res.MLItemResult;
+import com.example.FieldFinder.dto.res.MLRecommendCtrBatchResponse;
 import com.example.FieldFinder.dto.res.MLRecommendCtrResponse;
 import com.example.FieldFinder.dto.res.MLRecommendNextResponse;
 import com.example.FieldFinder.dto.res.MLRetrieveResponse;
@@ -12,17 +14,23 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Wrapper gọi FastAPI ML service.
- * Có circuit breaker đơn giản: nếu fail liên tục → tạm tắt 60s, fallback null.
+ * Có circuit breaker ({@link MlCircuitBreaker}): tỉ lệ lỗi / call chậm vượt ngưỡng → tạm tắt, fallback null.
+ * Mọi call đi qua {@link MlResultCache} (cache TTL ngắn + gộp request trùng + giới hạn đồng thời),
+ * key là request đã chuẩn hóa; kết quả trả ra là bản sao, caller sửa thoải mái.
  */
 @Slf4j
 @Service
@@ -32,38 +40,49 @@ public class MLRecommendationService {
     private final boolean enabled;
     private final int timeoutMs;
     private final MlCircuitBreaker circuitBreaker;
+    private final MlResultCache resultCache;
 
     public MLRecommendationService(
             @Qualifier("mlWebClient") WebClient mlWebClient,
             @Value("${ml.api.enabled:true}") boolean enabled,
             @Value("${ml.api.timeout-ms:5000}") int timeoutMs,
-            MlCircuitBreaker circuitBreaker) {
+            MlCircuitBreaker circuitBreaker,
+            MlResultCache resultCache) {
         this.mlWebClient = mlWebClient;
         this.enabled = enabled;
         this.timeoutMs = timeoutMs;
         this.circuitBreaker = circuitBreaker;
+        this.resultCache = resultCache;
     }
 
     private boolean circuitOpen() {
         return !circuitBreaker.allowRequest();
     }
 
-    private void recordFailure(String op, Throwable e) {
-        circuitBreaker.recordFailure();
+    private void recordFailure(String op, long startNanos, Throwable e) {
+        circuitBreaker.recordFailure(startNanos);
         log.warn("ML API {} failed: {}", op, e.getMessage());
     }
 
-    private void recordSuccess() {
-        circuitBreaker.recordSuccess();
+    private void recordSuccess(long startNanos) {
+        circuitBreaker.recordSuccess(startNanos);
     }
 
     /**
      * SASRec next-K item cho user. Trả null nếu fail / disabled.
      */
     public List<MLItemResult> recommendNext(String userId, int topK, String itemType) {
-        if (!enabled || circuitOpen()) {
+        if (!enabled) return null;
+        String key = userId + "|" + topK + "|" + normType(itemType);
+        return copyOf(resultCache.get(MlResultCache.Endpoint.RECOMMEND_NEXT, key,
+                () -> fetchRecommendNext(userId, topK, itemType), list -> !list.isEmpty()));
+    }
+
+    private List<MLItemResult> fetchRecommendNext(String userId, int topK, String itemType) {
+        if (circuitOpen()) {
             return null;
         }
+        long start = System.nanoTime();
         try {
             MLRecommendNextRequest req = MLRecommendNextRequest.builder()
                     .userId(userId).topK(topK).itemType(itemType)
@@ -75,48 +94,80 @@ public class MLRecommendationService {
                     .bodyToMono(MLRecommendNextResponse.class)
                     .timeout(Duration.ofMillis(timeoutMs))
                     .block();
-            recordSuccess();
+            recordSuccess(start);
             return res != null ? res.getResults() : null;
         } catch (Exception e) {
-            recordFailure("recommendNext", e);
+            recordFailure("recommendNext", start, e);
             return null;
         }
     }
 
     /**
-     * DeepFM CTR rerank. Trả map<itemId, score>. Empty map nếu fail.
+     * DeepFM CTR cho nhiều (user, danh sách ứng viên) trong 1 call {@code /recommend/ctr/batch}.
+     * Kết quả song song với {@code requests} (map itemId → score, rỗng nếu ML không chấm được
+     * request đó); null nếu cả call fail / disabled / circuit mở.
+     */
+    public List<Map<String, Double>> rerankCtrBatch(List<MLRecommendCtrRequest> requests) {
+        if (!enabled || requests == null || requests.isEmpty()) return null;
+        List<Map<String, Double>> scores = resultCache.get(MlResultCache.Endpoint.CTR_BATCH, ctrBatchKey(requests),
+                () -> fetchCtrBatch(requests), list -> list.stream().anyMatch(m -> !m.isEmpty()));
+        if (scores == null) return null;
+        List<Map<String, Double>> out = new ArrayList<>(scores.size());
+        for (Map<String, Double> m : scores) out.add(new HashMap<>(m));
+        return out;
+    }
+
+    /**
+     * Key cache cho {@link #rerankCtrBatch}: giữ thứ tự request (kết quả song song theo vị trí) nhưng
+     * trong từng request, điểm CTR không phụ thuộc thứ tự ứng viên / thứ tự key của context → ứng viên
+     * sắp theo id (kèm type + item_context), context sắp theo key.
      */
-    public Map<String, Double> rerankCtr(String userId,
-                                         List<String> candidateIds,
-                                         List<String> itemTypes,
-                                         Map<String, Object> context) {
-        if (!enabled || circuitOpen() || candidateIds == null || candidateIds.isEmpty()) {
-            return Collections.emptyMap();
+    static String ctrBatchKey(List<MLRecommendCtrRequest> requests) {
+        StringBuilder key = new StringBuilder();
+        for (MLRecommendCtrRequest r : requests) {
+            List<String> ids = r.getCandidateIds() != null ? r.getCandidateIds() : List.of();
+            List<String> types = r.getItemTypes() != null ? r.getItemTypes() : List.of();
+            List<Map<String, Object>> itemContext = r.getItemContext() != null ? r.getItemContext() : List.of();
+            Map<String, String> candidates = new TreeMap<>();
+            for (int i = 0; i < ids.size(); i++) {
+                String type = i < types.size() ? types.get(i) : "";
+                Map<String, Object> features = i < itemContext.size() && itemContext.get(i) != null
+                        ? new TreeMap<>(itemContext.get(i)) : Map.of();
+                candidates.put(ids.get(i), type + features);
+            }
+            key.append(r.getUserId()).append('|').append(candidates).append('|')
+                    .append(r.getContext() != null ? new TreeMap<>(r.getContext()) : "{}").append(';');
         }
+        return key.toString();
+    }
+
+    private List<Map<String, Double>> fetchCtrBatch(List<MLRecommendCtrRequest> requests) {
+        if (circuitOpen()) return null;
+        long start = System.nanoTime();
         try {
-            MLRecommendCtrRequest req = MLRecommendCtrRequest.builder()
-                    .userId(userId)
-                    .candidateIds(candidateIds)
-                    .itemTypes(itemTypes)
-                    .context(context != null ? context : new HashMap<>())
-                    .build();
-            MLRecommendCtrResponse res = mlWebClient.post()
-                    .uri("/recommend/ctr")
-                    .bodyValue(req)
+            MLRecommendCtrBatchResponse res = mlWebClient.post()
+                    .uri("/recommend/ctr/batch")
+                    .bodyValue(MLRecommendCtrBatchRequest.builder().requests(requests).build())
                     .retrieve()
-                    .bodyToMono(MLRecommendCtrResponse.class)
+                    .bodyToMono(MLRecommendCtrBatchResponse.class)
                     .timeout(Duration.ofMillis(timeoutMs))
                     .block();
-            recordSuccess();
-            if (res == null || res.getScores() == null) return Collections.emptyMap();
-            Map<String, Double> out = new HashMap<>();
-            for (MLRecommendCtrResponse.CtrScore s : res.getScores()) {
-                out.put(s.getItemId(), s.getCtrScore() != null ? s.getCtrScore() : 0.0);
+            recordSuccess(start);
+            if (res == null || res.getResults() == null || res.getResults().size() != requests.size()) return null;
+            List<Map<String, Double>> out = new ArrayList<>(requests.size());
+            for (MLRecommendCtrResponse r : res.getResults()) {
+                Map<String, Double> m = new HashMap<>();
+                if (r != null && r.getScores() != null) {
+                    for (MLRecommendCtrResponse.CtrScore s : r.getScores()) {
+                        m.put(s.getItemId(), s.getCtrScore() != null ? s.getCtrScore() : 0.0);
+                    }
+                }
+                out.add(m);
             }
             return out;
         } catch (Exception e) {
-            recordFailure("rerankCtr", e);
-            return Collections.emptyMap();
+            recordFailure("rerankCtrBatch", start, e);
+            return null;
         }
     }
 
@@ -124,9 +175,18 @@ public class MLRecommendationService {
      * Personalized RAG retrieve. Trả null nếu fail.
      */
     public List<MLItemResult> retrieve(String query, String userId, int topK, String itemType) {
-        if (!enabled || circuitOpen()) {
+        if (!enabled) return null;
+        String normalized = query != null ? query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT) : "";
+        String key = normalized + "|" + userId + "|" + topK + "|" + normType(itemType);
+        return copyOf(resultCache.get(MlResultCache.Endpoint.RETRIEVE, key,
+                () -> fetchRetrieve(query, userId, topK, itemType), list -> !list.isEmpty()));
+    }
+
+    private List<MLItemResult> fetchRetrieve(String query, String userId, int topK, String itemType) {
+        if (circuitOpen()) {
             return null;
         }
+        long start = System.nanoTime();
         try {
             MLRetrieveRequest req = MLRetrieveRequest.builder()
                     .query(query)
@@ -141,10 +201,10 @@ public class MLRecommendationService {
                     .bodyToMono(MLRetrieveResponse.class)
                     .timeout(Duration.ofMillis(timeoutMs))
                     .block();
-            recordSuccess();
+            recordSuccess(start);
             return res != null ? res.getResults() : null;
         } catch (Exception e) {
-            recordFailure("retrieve", e);
+            recordFailure("retrieve", start, e);
             return null;
         }
     }
@@ -166,7 +226,17 @@ public class MLRecommendationService {
      * Full response variant — includes latency_ms + rrf_threshold from ML config.
      */
     public MLRetrieveResponse retrieveByImageFull(MLRetrieveByImageRequest req) {
-        if (!enabled || circuitOpen()) return null;
+        if (!enabled) return null;
+        MLRetrieveResponse res = resultCache.get(MlResultCache.Endpoint.RETRIEVE_IMAGE, imageKey(req),
+                () -> fetchRetrieveByImage(req), r -> r.getResults() != null && !r.getResults().isEmpty());
+        if (res == null) return null;
+        return new MLRetrieveResponse(res.getQuery(), res.getUserId(), copyOf(res.getResults()),
+                res.getLatencyMs(), res.getRrfThreshold());
+    }
+
+    private MLRetrieveResponse fetchRetrieveByImage(MLRetrieveByImageRequest req) {
+        if (circuitOpen()) return null;
+        long start = System.nanoTime();
         try {
             MLRetrieveResponse res = mlWebClient.post()
                     .uri("/retrieve/image")
@@ -175,14 +245,31 @@ public class MLRecommendationService {
                     .bodyToMono(MLRetrieveResponse.class)
                     .timeout(Duration.ofMillis(Math.max(timeoutMs, 30_000)))
                     .block();
-            recordSuccess();
+            recordSuccess(start);
             return res;
         } catch (Exception e) {
-            recordFailure("retrieveByImage", e);
+            recordFailure("retrieveByImage", start, e);
             return null;
         }
     }
 
+    /** Ảnh băm MD5 (chỉ để làm key, không cần chống va chạm có chủ đích) + mọi tham số khác của request. */
+    private static String imageKey(MLRetrieveByImageRequest req) {
+        String image = req.getImageBase64() != null ? req.getImageBase64() : "";
+        return DigestUtils.md5DigestAsHex(image.getBytes(StandardCharsets.UTF_8))
+                + "|" + req.getCaption() + "|" + req.getGeminiTags() + "|" + req.getCategoryIds()
+                + "|" + req.getDominantColor() + "|" + req.getTopK() + "|" + req.getRetrieveK()
+                + "|" + normType(req.getItemType()) + "|" + req.getUserId();
+    }
+
+    private static String normType(String itemType) {
+        return itemType != null ? itemType.toUpperCase(Locale.ROOT) : "";
+    }
+
+    private static List<MLItemResult> copyOf(List<MLItemResult> results) {
+        return results != null ? new ArrayList<>(results) : null;
+    }
+
     public boolean isHealthy() {
         if (!enabled) return false;
         try {
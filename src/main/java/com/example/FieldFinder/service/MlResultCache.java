@@ -0,0 +1,203 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.config.StageExecutor;
+import com.example.FieldFinder.config.StageExecutors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Lớp đứng trước các call HTTP của {@link MLRecommendationService}, theo từng endpoint:
+ *
+ * - Cache LRU có giới hạn, TTL ngắn: còn "tươi" → trả ngay; hết tươi nhưng còn trong cửa sổ stale
+ *   → trả bản cũ và làm mới nền (stale-while-revalidate) trên pool {@code ml-refresh}.
+ * - Single-flight: nhiều request cùng key đồng thời chỉ tạo 1 call, các request sau chờ chung future.
+ * - Giới hạn số call đồng thời / endpoint; chờ permit quá {@code ml.limit.acquire-timeout-ms} → trả
+ *   null như khi ML lỗi (caller đã có fallback), không dồn thêm tải lên ML service.
+ *
+ * Kết quả lỗi (null / rỗng theo {@code cacheable}) không được cache. Giá trị cache dùng chung giữa
+ * các request — caller không được sửa (MLRecommendationService trả bản sao).
+ */
+@Slf4j
+@Component
+public class MlResultCache {
+
+    /** TTL tươi / cửa sổ stale / số entry tối đa theo endpoint ML. */
+    public enum Endpoint {
+        RECOMMEND_NEXT(Duration.ofSeconds(60), Duration.ofMinutes(5), 2_000),
+        CTR_BATCH(Duration.ofSeconds(30), Duration.ofMinutes(2), 2_000),
+        RETRIEVE(Duration.ofMinutes(2), Duration.ofMinutes(10), 2_000),
+        RETRIEVE_IMAGE(Duration.ofMinutes(10), Duration.ZERO, 200);
+
+        final Duration fresh;
+        final Duration stale;
+        final int maxEntries;
+
+        Endpoint(Duration fresh, Duration stale, int maxEntries) {
+            this.fresh = fresh;
+            this.stale = stale;
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    private final boolean enabled;
+    private final long acquireTimeoutMs;
+    private final StageExecutor refreshExecutor;
+    private final Map<Endpoint, Region> regions = new EnumMap<>(Endpoint.class);
+
+    public MlResultCache(StageExecutors stageExecutors,
+                         @Value("${ml.cache.enabled:true}") boolean enabled,
+                         @Value("${ml.limit.max-concurrent:16}") int maxConcurrent,
+                         @Value("${ml.limit.acquire-timeout-ms:250}") long acquireTimeoutMs) {
+        this.enabled = enabled;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.refreshExecutor = stageExecutors.mlRefresh();
+        for (Endpoint endpoint : Endpoint.values()) {
+            regions.put(endpoint, new Region(endpoint, maxConcurrent));
+        }
+    }
+
+    /**
+     * Lấy kết quả theo {@code key} (request đã chuẩn hóa); miss → gọi {@code loader} qua single-flight.
+     * {@code cacheable}: kết quả nào đủ tốt để cache (vd list khác rỗng).
+     */
+    public <T> T get(Endpoint endpoint, String key, Supplier<T> loader, Predicate<T> cacheable) {
+        Region region = regions.get(endpoint);
+        if (!enabled) return region.load(key, loader, cacheable, acquireTimeoutMs);
+
+        Region.Entry entry = region.lookup(key);
+        long now = System.nanoTime();
+        if (entry != null && now - entry.freshUntil() < 0) {
+            region.hits.increment();
+            return cast(entry.value());
+        }
+        if (entry != null && now - entry.staleUntil() < 0) {
+            region.staleHits.increment();
+            if (!region.inFlight.containsKey(key)) {
+                // Pool đầy → bỏ lượt làm mới, request sau sẽ thử lại
+                refreshExecutor.supply(() -> region.load(key, loader, cacheable, acquireTimeoutMs));
+            }
+            return cast(entry.value());
+        }
+        region.misses.increment();
+        return region.load(key, loader, cacheable, acquireTimeoutMs);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        regions.forEach((endpoint, region) -> stats.put(endpoint.name(), region.stats()));
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+
+    private static final class Region {
+
+        private record Entry(Object value, long freshUntil, long staleUntil) {}
+
+        private final Endpoint endpoint;
+        private final Semaphore permits;
+        private final int maxConcurrent;
+        private final LinkedHashMap<String, Entry> entries;
+        private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+
+        Region(Endpoint endpoint, int maxConcurrent) {
+            this.endpoint = endpoint;
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > endpoint.maxEntries;
+                }
+            };
+        }
+
+        synchronized Entry lookup(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void store(String key, Object value) {
+            long now = System.nanoTime();
+            long freshUntil = now + endpoint.fresh.toNanos();
+            entries.put(key, new Entry(value, freshUntil, freshUntil + endpoint.stale.toNanos()));
+        }
+
+        /** Single-flight: request đầu tiên cho key gọi loader, các request đồng thời chờ chung kết quả. */
+        <T> T load(String key, Supplier<T> loader, Predicate<T> cacheable, long acquireTimeoutMs) {
+            CompletableFuture<Object> mine = new CompletableFuture<>();
+            CompletableFuture<Object> leader = inFlight.putIfAbsent(key, mine);
+            if (leader != null) {
+                coalesced.increment();
+                return cast(leader.join());
+            }
+            T value = null;
+            try {
+                value = callLimited(loader, acquireTimeoutMs);
+                if (value != null && cacheable.test(value)) store(key, value);
+                return value;
+            } finally {
+                inFlight.remove(key, mine);
+                mine.complete(value);
+            }
+        }
+
+        private <T> T callLimited(Supplier<T> loader, long acquireTimeoutMs) {
+            try {
+                if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throttled.increment();
+                    log.warn("ML {} saturated ({} in flight), skipping call", endpoint, maxConcurrent);
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            try {
+                return loader.get();
+            } finally {
+                permits.release();
+            }
+        }
+
+        Map<String, Object> stats() {
+            long h = hits.sum();
+            long s = staleHits.sum();
+            long m = misses.sum();
+            long total = h + s + m;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("hits", h);
+            stats.put("staleHits", s);
+            stats.put("misses", m);
+            stats.put("hitRatio", total == 0 ? 0.0 : (double) (h + s) / total);
+            stats.put("coalesced", coalesced.sum());
+            stats.put("throttled", throttled.sum());
+            stats.put("inFlightCalls", maxConcurrent - permits.availablePermits());
+            synchronized (this) {
+                stats.put("size", entries.size());
+            }
+            return stats;
+        }
+    }
+}
@@ -7,37 +7,175 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 
+/**
+ * Index pHash 64-bit cho tìm ảnh gần trùng, dạng multi-index hashing (MIH):
+ *
+ * - Hash chia {@link #CHUNKS} đoạn 16 bit, mỗi đoạn 1 bảng 65536 bucket → slot.
+ * - Theo nguyên lý chuồng bồ câu, hash cách target ≤ r bit thì có ít nhất 1 đoạn cách ≤ r/4 bit →
+ *   chỉ cần dò các bucket lân cận (r=8: 4 × 137 bucket) thay vì quét cả catalog.
+ *   Bán kính lớn ({@code r/4 > } {@link #MAX_PROBE_BITS}) quét tuyến tính trên mảng long nguyên thủy.
+ * - Thêm/xóa tại chỗ (swap-remove), không copy cả index; đọc/ghi qua read-write lock.
+ * - Đồng bộ DB theo delta {@code phashUpdatedAt} mỗi phút; số dòng lệch (sản phẩm bị xóa ở node khác,
+ *   dòng cũ chưa có timestamp) → nạp lại toàn bộ.
+ */
 @Service
 @RequiredArgsConstructor
 public class PhashIndex {
 
+    static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int BUCKETS = 1 << CHUNK_BITS;
+    static final int MAX_PROBE_BITS = 2;
+    /** PROBE_MASKS[k] = mọi mask 16 bit có ≤ k bit 1. */
+    private static final int[][] PROBE_MASKS = new int[MAX_PROBE_BITS + 1][];
+
+    static {
+        for (int k = 0; k <= MAX_PROBE_BITS; k++) {
+            int kk = k;
+            PROBE_MASKS[k] = IntStream.range(0, BUCKETS)
+                    .filter(m -> Integer.bitCount(m) <= kk)
+                    .toArray();
+        }
+    }
+
     private final ProductRepository productRepository;
 
-    private volatile Map<Long, Long> cache = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private State state = new State(0);
+    private volatile LocalDateTime watermark;
+
+    /**
+     * Slot liền nhau: ids[i] ↔ hashes[i], i < count. buckets[c][v] = {size, slot...} các slot có đoạn c = v.
+     */
+    private static final class State {
+        long[] ids;
+        long[] hashes;
+        int count;
+        final Map<Long, Integer> slotOf;
+        final int[][][] buckets = new int[CHUNKS][BUCKETS][];
+
+        State(int capacity) {
+            ids = new long[Math.max(16, capacity)];
+            hashes = new long[ids.length];
+            slotOf = new HashMap<>(Math.max(16, capacity * 2));
+        }
+
+        void put(long id, long hash) {
+            Integer slot = slotOf.get(id);
+            if (slot != null) {
+                if (hashes[slot] == hash) return;
+                unlinkBuckets(slot);
+                hashes[slot] = hash;
+                linkBuckets(slot);
+                return;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            ids[count] = id;
+            hashes[count] = hash;
+            slotOf.put(id, count);
+            linkBuckets(count);
+            count++;
+        }
+
+        void remove(long id) {
+            Integer slot = slotOf.remove(id);
+            if (slot == null) return;
+            unlinkBuckets(slot);
+            int last = --count;
+            if (slot != last) {
+                // Dời slot cuối vào chỗ trống
+                unlinkBuckets(last);
+                ids[slot] = ids[last];
+                hashes[slot] = hashes[last];
+                slotOf.put(ids[slot], slot);
+                linkBuckets(slot);
+            }
+        }
+
+        private void linkBuckets(int slot) {
+            for (int c = 0; c < CHUNKS; c++) {
+                int v = chunk(hashes[slot], c);
+                int[] b = buckets[c][v];
+                if (b == null) {
+                    b = new int[4];
+                } else if (b[0] + 1 == b.length) {
+                    b = Arrays.copyOf(b, b.length * 2);
+                }
+                b[++b[0]] = slot;
+                buckets[c][v] = b;
+            }
+        }
+
+        private void unlinkBuckets(int slot) {
+            for (int c = 0; c < CHUNKS; c++) {
+                int[] b = buckets[c][chunk(hashes[slot], c)];
+                if (b == null) continue;
+                for (int i = 1; i <= b[0]; i++) {
+                    if (b[i] == slot) {
+                        b[i] = b[b[0]--];
+                        break;
+                    }
+                }
+            }
+        }
+    }
 
     @PostConstruct
     public void init() {
         refresh();
     }
 
-    /** Full refresh — 5 phút (tránh spam DB mỗi 60s). Cập nhật đơn lẻ qua {@link #put}. */
-    @Scheduled(fixedDelay = 300_000, initialDelay = 300_000)
+    /** Nạp lại toàn bộ (khởi động + lưới an toàn mỗi giờ); dựng index mới ngoài lock rồi đổi. */
+    @Scheduled(fixedDelay = 3_600_000, initialDelay = 3_600_000)
     public void refresh() {
+        LocalDateTime startedAt = LocalDateTime.now();
         List<Object[]> rows = productRepository.findAllProductIdAndPhash();
-        Map<Long, Long> next = new HashMap<>(rows.size() * 2);
+        State next = new State(rows.size());
         for (Object[] r : rows) {
             Long id = (Long) r[0];
             Long h = (Long) r[1];
             if (id != null && h != null) next.put(id, h);
         }
-        cache = next;
-        System.out.println("PhashIndex refresh: " + next.size() + " phash entries");
+        lock.writeLock().lock();
+        try {
+            state = next;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        watermark = startedAt;
+        System.out.println("PhashIndex refresh: " + next.count + " phash entries");
+    }
+
+    /** Delta mỗi phút: chỉ dòng có phashUpdatedAt ≥ mốc lần trước. */
+    @Scheduled(fixedDelay = 60_000, initialDelay = 60_000)
+    public void refreshDelta() {
+        LocalDateTime since = watermark;
+        if (since == null) {
+            refresh();
+            return;
+        }
+        LocalDateTime startedAt = LocalDateTime.now();
+        List<Object[]> rows = productRepository.findPhashChangedSince(since);
+        for (Object[] r : rows) {
+            put((Long) r[0], (Long) r[1]);
+        }
+        watermark = startedAt;
+        if (productRepository.countWithPhash() != size()) {
+            refresh();
+        }
     }
 
     public static class Hit {
@@ -49,25 +187,81 @@ public class PhashIndex {
         }
     }
 
+    /** Tối đa {@code limit} sản phẩm cách {@code target} ≤ maxDistance bit, gần nhất trước. */
     public List<Hit> findWithin(long target, int maxDistance, int limit) {
         List<Hit> hits = new ArrayList<>();
-        for (Map.Entry<Long, Long> e : cache.entrySet()) {
-            int d = PhashUtil.hammingDistance(target, e.getValue());
-            if (d <= maxDistance) hits.add(new Hit(e.getKey(), d));
+        if (maxDistance < 0 || limit <= 0) return hits;
+        int probeBits = maxDistance / CHUNKS;
+        lock.readLock().lock();
+        try {
+            State s = state;
+            if (probeBits > MAX_PROBE_BITS) {
+                for (int i = 0; i < s.count; i++) {
+                    int d = PhashUtil.hammingDistance(target, s.hashes[i]);
+                    if (d <= maxDistance) hits.add(new Hit(s.ids[i], d));
+                }
+            } else {
+                int[] masks = PROBE_MASKS[probeBits];
+                for (int c = 0; c < CHUNKS; c++) {
+                    int tc = chunk(target, c);
+                    for (int mask : masks) {
+                        int[] b = s.buckets[c][tc ^ mask];
+                        if (b == null) continue;
+                        for (int i = 1; i <= b[0]; i++) {
+                            long h = s.hashes[b[i]];
+                            // Đã gặp ở đoạn trước (cũng trong bán kính dò) → bỏ, tránh trùng
+                            if (matchedEarlierChunk(target, h, c, probeBits)) continue;
+                            int d = PhashUtil.hammingDistance(target, h);
+                            if (d <= maxDistance) hits.add(new Hit(s.ids[b[i]], d));
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
         }
         hits.sort(Comparator.comparingInt(h -> h.distance));
-        if (hits.size() > limit) return hits.subList(0, limit);
+        if (hits.size() > limit) return new ArrayList<>(hits.subList(0, limit));
         return hits;
     }
 
     public void put(Long productId, Long phash) {
         if (productId == null || phash == null) return;
-        Map<Long, Long> next = new HashMap<>(cache);
-        next.put(productId, phash);
-        cache = next;
+        lock.writeLock().lock();
+        try {
+            state.put(productId, phash);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long productId) {
+        if (productId == null) return;
+        lock.writeLock().lock();
+        try {
+            state.remove(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public int size() {
-        return cache.size();
+        lock.readLock().lock();
+        try {
+            return state.count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean matchedEarlierChunk(long target, long hash, int chunk, int probeBits) {
+        for (int c = 0; c < chunk; c++) {
+            if (Integer.bitCount(chunk(target, c) ^ chunk(hash, c)) <= probeBits) return true;
+        }
+        return false;
+    }
+
+    private static int chunk(long hash, int c) {
+        return (int) (hash >>> (c * CHUNK_BITS)) & (BUCKETS - 1);
     }
 }
\ No newline at end of file
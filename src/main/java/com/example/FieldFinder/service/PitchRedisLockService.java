@@ -2,17 +2,50 @@ package com.example.FieldFinder.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Khóa slot đặt sân trên Redis. Mọi thao tác nhiều slot chạy trong 1 Lua script (1 round-trip, atomic):
+ * khóa kiểu toàn-bộ-hoặc-không, nhả khóa có kiểm tra chủ sở hữu (không xóa nhầm khóa người khác vừa giữ).
+ */
 @Service
 @RequiredArgsConstructor
 public class PitchRedisLockService {
 
+    private static final long LOCK_TIMEOUT_MS = 10 * 60_000L;
+
+    /** KEYS = các slot, ARGV[1] = owner, ARGV[2] = TTL ms. Có slot nào đang bị giữ → 0, không set gì. */
+    private static final RedisScript<Long> LOCK_ALL_SCRIPT = new DefaultRedisScript<>("""
+            for i = 1, #KEYS do
+              if redis.call('EXISTS', KEYS[i]) == 1 then return 0 end
+            end
+            for i = 1, #KEYS do
+              redis.call('SET', KEYS[i], ARGV[1], 'PX', ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    /** KEYS = các slot, ARGV[1] = owner. Chỉ xóa key đang thuộc owner; trả số key đã nhả. */
+    private static final RedisScript<Long> RELEASE_OWNED_SCRIPT = new DefaultRedisScript<>("""
+            local released = 0
+            for i = 1, #KEYS do
+              if redis.call('GET', KEYS[i]) == ARGV[1] then
+                redis.call('DEL', KEYS[i])
+                released = released + 1
+              end
+            end
+            return released
+            """, Long.class);
+
     private final StringRedisTemplate redisTemplate;
 
     private String getLockKey(UUID pitchId, LocalDate date, Integer slotId) {
@@ -20,29 +53,37 @@ public class PitchRedisLockService {
     }
 
     public boolean lockSlots(UUID pitchId, LocalDate date, List<Integer> slotIds, String userId) {
-        long LOCK_TIMEOUT_MINUTES = 10;
+        return lockSlots(date, Map.of(pitchId, slotIds), userId);
+    }
 
-        for (int i = 0; i < slotIds.size(); i++) {
-            String key = getLockKey(pitchId, date, slotIds.get(i));
+    /** Khóa slot của nhiều sân cùng ngày trong 1 lần gọi — hoặc giữ hết, hoặc không giữ slot nào. */
+    public boolean lockSlots(LocalDate date, Map<UUID, ? extends Collection<Integer>> slotsByPitch, String userId) {
+        List<String> keys = keysOf(date, slotsByPitch);
+        if (keys.isEmpty()) return true;
+        Long acquired = redisTemplate.execute(LOCK_ALL_SCRIPT, keys, userId, Long.toString(LOCK_TIMEOUT_MS));
+        return acquired != null && acquired == 1L;
+    }
 
-            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key, userId, LOCK_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    public void unlockSlot(UUID pitchId, LocalDate date, Integer slotId, String userId) {
+        unlockSlots(pitchId, date, List.of(slotId), userId);
+    }
 
-            if (Boolean.FALSE.equals(acquired)) {
-                for (int j = 0; j < i; j++) {
-                    unlockSlot(pitchId, date, slotIds.get(j), userId);
-                }
-                return false;
-            }
-        }
-        return true;
+    public void unlockSlots(UUID pitchId, LocalDate date, Collection<Integer> slotIds, String userId) {
+        unlockSlots(date, Map.of(pitchId, slotIds), userId);
     }
 
-    public void unlockSlot(UUID pitchId, LocalDate date, Integer slotId, String userId) {
-        String key = getLockKey(pitchId, date, slotId);
-        String currentLockOwner = redisTemplate.opsForValue().get(key);
+    /** Nhả (có kiểm tra owner) slot của nhiều sân cùng ngày trong 1 lần gọi — dùng cho các đường hủy. */
+    public void unlockSlots(LocalDate date, Map<UUID, ? extends Collection<Integer>> slotsByPitch, String userId) {
+        List<String> keys = keysOf(date, slotsByPitch);
+        if (keys.isEmpty()) return;
+        redisTemplate.execute(RELEASE_OWNED_SCRIPT, keys, userId);
+    }
 
-        if (userId.equals(currentLockOwner)) {
-            redisTemplate.delete(key);
-        }
+    private List<String> keysOf(LocalDate date, Map<UUID, ? extends Collection<Integer>> slotsByPitch) {
+        List<String> keys = new ArrayList<>();
+        slotsByPitch.forEach((pitchId, slots) -> {
+            for (Integer slotId : slots) keys.add(getLockKey(pitchId, date, slotId));
+        });
+        return keys;
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.example.FieldFinder.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chỉ mục key cache {@code product_detail} theo sản phẩm. Entry cache là theo (sản phẩm, user)
+ * nên trước đây evict phải {@code KEYS product_detail::<id>_*} — O(keyspace), chặn Redis, mà lại
+ * chạy mỗi lần giữ/nhả/trừ kho. Giờ mỗi sản phẩm có 1 Redis set chứa các key chi tiết của nó:
+ *
+ * - Miss {@code getProductDetail} (sắp ghi entry) → SADD key vào set + gia hạn TTL set.
+ * - Evict → 1 Lua script: SMEMBERS set, UNLINK toàn bộ member + chính set (1 round-trip).
+ *
+ * Redis lỗi không làm hỏng đọc/ghi sản phẩm — entry vẫn tự hết hạn theo TTL cache.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductDetailCacheIndex {
+
+    public static final String CACHE = "product_detail";
+    private static final String KEY_PREFIX = CACHE + "::";
+    private static final String INDEX_PREFIX = "product_detail_idx::";
+    /** Dài hơn TTL entry product_detail (6h) để set không hết hạn trước các key nó trỏ tới. */
+    private static final long INDEX_TTL_MS = 7 * 60 * 60_000L;
+
+    /** KEYS[1] = set chỉ mục, ARGV[1] = key entry, ARGV[2] = TTL ms của set. */
+    private static final RedisScript<Long> TRACK_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('SADD', KEYS[1], ARGV[1])
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1] = set chỉ mục. UNLINK mọi key trong set + set; trả số key entry đã trỏ tới.
+     * UNLINK từng lô 500 key: {@code unpack} cả set lớn vượt giới hạn stack của Lua.
+     */
+    private static final RedisScript<Long> EVICT_SCRIPT = new DefaultRedisScript<>("""
+            local members = redis.call('SMEMBERS', KEYS[1])
+            for i = 1, #members, 500 do
+                redis.call('UNLINK', unpack(members, i, math.min(i + 499, #members)))
+            end
+            redis.call('UNLINK', KEYS[1])
+            return #members
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong keysUnlinked = new AtomicLong();
+    private final AtomicLong maxFanOut = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /** Key cache đúng như SpEL của {@code @Cacheable("product_detail")}: {@code <productId>_<userId|anon>}. */
+    public static String cacheKey(Long productId, UUID userId) {
+        return productId + "_" + (userId != null ? userId.toString() : "anon");
+    }
+
+    /** Ghi nhận entry (sản phẩm, user) sắp được cache — gọi trong thân method {@code @Cacheable}. */
+    public void track(Long productId, UUID userId) {
+        if (productId == null) return;
+        try {
+            redisTemplate.execute(TRACK_SCRIPT, List.of(INDEX_PREFIX + productId),
+                    KEY_PREFIX + cacheKey(productId, userId), Long.toString(INDEX_TTL_MS));
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("ProductDetailCacheIndex: track product {} failed: {}", productId, e.getMessage());
+        }
+    }
+
+    /** Xóa mọi entry chi tiết (mọi user) của 1 sản phẩm; trả số entry đã xóa. */
+    public long evict(Long productId) {
+        if (productId == null) return 0L;
+        try {
+            Long fanOut = redisTemplate.execute(EVICT_SCRIPT, List.of(INDEX_PREFIX + productId));
+            long n = fanOut != null ? fanOut : 0L;
+            evictions.incrementAndGet();
+            keysUnlinked.addAndGet(n);
+            maxFanOut.accumulateAndGet(n, Math::max);
+            if (n > 0) log.debug("ProductDetailCacheIndex: evicted {} entries for product {}", n, productId);
+            return n;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("ProductDetailCacheIndex: evict product {} failed: {}", productId, e.getMessage());
+            return 0L;
+        }
+    }
+
+    /** Số liệu fan-out của evict — xem qua {@code GET /api/admin/cache/stats}. */
+    public Map<String, Object> stats() {
+        long count = evictions.get();
+        long unlinked = keysUnlinked.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("evictions", count);
+        stats.put("keysUnlinked", unlinked);
+        stats.put("avgFanOut", count == 0 ? 0.0 : (double) unlinked / count);
+        stats.put("maxFanOut", maxFanOut.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.repository.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vector feature dựng sẵn theo sản phẩm cho chấm CTR (price bucket, category, brand, totalSold).
+ *
+ * Nạp toàn bộ bằng 1 query projection lúc khởi động và mỗi 10 phút; id chưa có (sản phẩm mới)
+ * được nạp gộp trong 1 query khi lần đầu cần tới. Rerank 1 trang vì vậy không đụng DB theo từng item.
+ * Id DB không có (đã xóa, id lạ từ ML) được nhớ {@link #ABSENT_TTL_MS} để không query lại mỗi lần rerank.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductFeatureIndex {
+
+    /** Feature của 1 sản phẩm; {@code priceBucket} cùng bucket với DeepFM ({@code ml/src/preprocess.py}). */
+    public record ProductFeatures(long productId, String priceBucket, Long categoryId,
+                                  String categoryName, String brand, long totalSold) {}
+
+    static final long ABSENT_TTL_MS = 60_000;
+
+    private final ProductRepository productRepository;
+
+    private volatile Map<Long, ProductFeatures> features = new ConcurrentHashMap<>();
+    /** id → mốc (ms) hết hạn ghi nhớ "không tồn tại"; xóa sạch mỗi lần nạp lại toàn bộ. */
+    private final Map<Long, Long> absentUntil = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("ProductFeatureIndex: initial load failed, loading on demand: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelay = 600_000, initialDelay = 600_000)
+    public void refresh() {
+        List<Object[]> rows = productRepository.findAllCtrFeatureRows();
+        Map<Long, ProductFeatures> next = new ConcurrentHashMap<>(Math.max(16, rows.size() * 2));
+        for (Object[] r : rows) {
+            ProductFeatures f = fromRow(r);
+            if (f != null) next.put(f.productId(), f);
+        }
+        features = next;
+        absentUntil.clear();
+        log.info("ProductFeatureIndex: loaded {} products", next.size());
+    }
+
+    /** Feature của các id (bỏ id không tồn tại); id thiếu trong index → 1 query gộp. */
+    public Map<Long, ProductFeatures> get(Collection<Long> ids) {
+        Map<Long, ProductFeatures> current = features;
+        Map<Long, ProductFeatures> out = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Long id : ids) {
+            if (id == null) continue;
+            ProductFeatures f = current.get(id);
+            if (f != null) out.put(id, f);
+            else if (!isKnownAbsent(id, now)) missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            try {
+                for (Object[] r : productRepository.findCtrFeatureRowsByIds(missing)) {
+                    ProductFeatures f = fromRow(r);
+                    if (f == null) continue;
+                    current.put(f.productId(), f);
+                    out.put(f.productId(), f);
+                }
+                for (Long id : missing) {
+                    if (!out.containsKey(id)) absentUntil.put(id, now + ABSENT_TTL_MS);
+                }
+            } catch (Exception e) {
+                log.warn("ProductFeatureIndex: load {} missing products failed: {}", missing.size(), e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    private boolean isKnownAbsent(Long id, long now) {
+        Long until = absentUntil.get(id);
+        if (until == null) return false;
+        if (until > now) return true;
+        absentUntil.remove(id, until);
+        return false;
+    }
+
+    public int size() {
+        return features.size();
+    }
+
+    /** Cùng ngưỡng {@code price_bucket} lúc train DeepFM; giá ≤ 0 là UNKNOWN. */
+    public static String priceBucket(Double price) {
+        if (price == null || price <= 0) return "UNKNOWN";
+        if (price <= 100_000) return "VERY_LOW";
+        if (price <= 250_000) return "LOW";
+        if (price <= 500_000) return "MID";
+        if (price <= 1_000_000) return "HIGH";
+        return "VIP";
+    }
+
+    private static ProductFeatures fromRow(Object[] r) {
+        if (r == null || r[0] == null) return null;
+        return new ProductFeatures(
+                ((Number) r[0]).longValue(),
+                priceBucket(r[1] != null ? ((Number) r[1]).doubleValue() : null),
+                r[2] != null ? ((Number) r[2]).longValue() : null,
+                (String) r[3],
+                (String) r[4],
+                r[5] != null ? ((Number) r[5]).longValue() : 0L);
+    }
+}
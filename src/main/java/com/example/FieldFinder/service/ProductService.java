@@ -20,6 +20,12 @@ public interface ProductService {
 
     List<ProductResponseDTO> getProductsForAiAssistant(UUID userId);
 
+    /** Id mọi sản phẩm (productId giảm dần) — không nạp DTO. */
+    List<Long> getAllProductIds();
+
+    /** Áp giá/mã giảm theo user lên danh sách DTO base (không đổi DTO đầu vào). userId null → trả nguyên. */
+    List<ProductResponseDTO> overlayForUser(List<ProductResponseDTO> base, UUID userId);
+
     List<ProductResponseDTO> getTopSellingProducts(int limit, UUID userId);
     List<ProductResponseDTO> findProductsByCategories(List<String> categories, UUID userId);
 
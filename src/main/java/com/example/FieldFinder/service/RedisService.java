@@ -3,9 +3,13 @@ package com.example.FieldFinder.service;
 import com.example.FieldFinder.entity.User;
 import com.example.FieldFinder.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -25,6 +29,8 @@ public class RedisService {
     @Autowired
     private RedisTemplate<String, String> redisTemplate;
 
+    private static final int DELETE_BATCH_SIZE = 500;
+
     public void saveData(String key, String value) {
         redisTemplate.opsForValue().set(key, value);
     }
@@ -41,11 +47,31 @@ public class RedisService {
         redisTemplate.delete(key);
     }
 
-    public void deleteByPattern(String pattern) {
-        java.util.Set<String> keys = redisTemplate.keys(pattern);
-        if (keys != null && !keys.isEmpty()) {
-            redisTemplate.delete(keys);
+    /**
+     * Xóa mọi key khớp pattern bằng SCAN + UNLINK theo lô — không dùng KEYS (O(keyspace), chặn Redis).
+     * Trả số key đã xóa. Chỉ dành cho flush toàn bộ (admin, discount GLOBAL); evict theo 1 sản phẩm
+     * dùng {@link ProductDetailCacheIndex}.
+     */
+    public long deleteByPattern(String pattern) {
+        long deleted = 0;
+        List<String> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(DELETE_BATCH_SIZE).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= DELETE_BATCH_SIZE) {
+                    deleted += unlink(batch);
+                }
+            }
         }
+        return deleted + unlink(batch);
+    }
+
+    private long unlink(List<String> batch) {
+        if (batch.isEmpty()) return 0L;
+        Long n = redisTemplate.unlink(batch);
+        batch.clear();
+        return n != null ? n : 0L;
     }
 
     public boolean isUserBanned(String email) {
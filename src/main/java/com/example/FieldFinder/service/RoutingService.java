@@ -1,5 +1,7 @@
 package com.example.FieldFinder.service;
 
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -15,7 +17,8 @@ import java.util.concurrent.TimeUnit;
 /**
  * Lấy tuyến đường lái xe (polyline) giữa 2 toạ độ từ OSRM self-host.
  * KHÔNG dùng traffic — ETA tĩnh theo tốc độ giới hạn. Cache Redis né gọi lặp.
- * OSRM down / tắt -> trả Optional.empty (client tự fallback vẽ đường thẳng).
+ * OSRM down / tắt / circuit breaker {@link CircuitBreakers#OSRM} mở -> trả Optional.empty
+ * (client tự fallback vẽ đường thẳng).
  */
 @Slf4j
 @Service
@@ -32,10 +35,12 @@ public class RoutingService {
     private final String baseUrl;
     private final int timeoutMs;
     private final boolean enabled;
+    private final CircuitBreaker circuitBreaker;
 
     public RoutingService(WebClient webClient,
                           RedisService redisService,
                           ObjectMapper objectMapper,
+                          CircuitBreakers circuitBreakers,
                           @Value("${osrm.base-url:http://localhost:5000}") String baseUrl,
                           @Value("${osrm.timeout-ms:8000}") int timeoutMs,
                           @Value("${osrm.enabled:true}") boolean enabled) {
@@ -45,6 +50,7 @@ public class RoutingService {
         this.baseUrl = baseUrl;
         this.timeoutMs = timeoutMs;
         this.enabled = enabled;
+        this.circuitBreaker = circuitBreakers.get(CircuitBreakers.OSRM);
     }
 
     public Optional<Route> route(double fromLat, double fromLng, double toLat, double toLng) {
@@ -68,12 +74,12 @@ public class RoutingService {
                     "%s/route/v1/driving/%f,%f;%f,%f?overview=full&geometries=polyline",
                     baseUrl, fromLng, fromLat, toLng, toLat);
 
-            JsonNode resp = webClient.get()
+            JsonNode resp = circuitBreaker.execute(() -> webClient.get()
                     .uri(uri)
                     .retrieve()
                     .bodyToMono(JsonNode.class)
                     .timeout(Duration.ofMillis(timeoutMs))
-                    .block();
+                    .block(), () -> null);
 
             if (resp == null || !"Ok".equals(resp.path("code").asText())) {
                 return Optional.empty();
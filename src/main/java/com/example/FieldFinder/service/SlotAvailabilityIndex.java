@@ -0,0 +1,221 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.Enum.BookingStatus;
+import com.example.FieldFinder.dto.res.SlotStatusDTO;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
+import com.example.FieldFinder.repository.BookingDetailRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bitmap slot đã chiếm theo (sân, ngày), giữ trong heap. 1 ngày chỉ có 18 slot nên mỗi
+ * (sân, ngày) gói gọn trong vài int: bit i bật ⇔ slot i đã bị chiếm (đơn khách / bảo trì / offline).
+ *
+ * - Miss → nạp từ DB, NHIỀU sân 1 query ({@link BookingDetailRepository#findSlotRowsByPitchesAndDate}).
+ * - Tạo đơn / khóa lịch / hủy / hết hạn giữ chỗ phát {@link BookingSlotsChangedEvent} → sau commit
+ *   xóa entry local + publish kênh Redis để node khác xóa theo. Lần đọc kế tiếp nạp lại từ DB.
+ * - Entry sống tối đa {@link #MAX_AGE_MS} (lưới an toàn khi lỡ mất message pub/sub).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SlotAvailabilityIndex {
+
+    /** Số slot/ngày (slot 1..18, 6h-24h). */
+    public static final int SLOTS_PER_DAY = 18;
+    /** Mask đủ 18 slot — bit 1..18. */
+    public static final int ALL_SLOTS_MASK = ((1 << SLOTS_PER_DAY) - 1) << 1;
+
+    static final String CHANNEL = "slot-availability:invalidate";
+    private static final long MAX_AGE_MS = 10 * 60_000L;
+    private static final List<BookingStatus> EXCLUDED = List.of(BookingStatus.CANCELED);
+
+    private final BookingDetailRepository bookingDetailRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final Map<Key, DaySlots> index = new ConcurrentHashMap<>();
+    /** Tăng mỗi lần invalidate — lượt nạp chạy song song với invalidate sẽ không ghi đè kết quả cũ vào index. */
+    private final AtomicLong epoch = new AtomicLong();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private record Key(UUID pitchId, LocalDate date) {}
+
+    /**
+     * Slot đã chiếm của 1 (sân, ngày), tách theo loại. Slot vừa có đơn vừa có khóa lịch
+     * (hiếm) tính theo thứ tự BOOKED → MAINTENANCE → OFFLINE.
+     */
+    private record DaySlots(int booked, int maintenance, int offline, long loadedAt) {
+        int occupied() {
+            return booked | maintenance | offline;
+        }
+    }
+
+    @PostConstruct
+    void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    /** Mask slot đã chiếm của 1 sân. */
+    public int occupiedMask(UUID pitchId, LocalDate date) {
+        return occupiedMasks(List.of(pitchId), date).getOrDefault(pitchId, 0);
+    }
+
+    /** Mask slot đã chiếm của nhiều sân cùng ngày — sân chưa có trong index nạp chung 1 query. */
+    public Map<UUID, Integer> occupiedMasks(Collection<UUID> pitchIds, LocalDate date) {
+        Map<UUID, DaySlots> slots = load(pitchIds, date);
+        Map<UUID, Integer> result = new HashMap<>(slots.size() * 2);
+        slots.forEach((pitchId, day) -> result.put(pitchId, day.occupied()));
+        return result;
+    }
+
+    /** Slot đã chiếm (tăng dần) của 1 sân. */
+    public List<Integer> bookedSlots(UUID pitchId, LocalDate date) {
+        return toSlots(occupiedMask(pitchId, date));
+    }
+
+    /** Slot còn trống (tăng dần) của nhiều sân cùng ngày. */
+    public Map<UUID, List<Integer>> freeSlots(Collection<UUID> pitchIds, LocalDate date) {
+        Map<UUID, List<Integer>> result = new HashMap<>();
+        occupiedMasks(pitchIds, date).forEach((pitchId, mask) ->
+                result.put(pitchId, toSlots(~mask & ALL_SLOTS_MASK)));
+        return result;
+    }
+
+    /** Trạng thái từng slot đã chiếm kèm loại (BOOKED / MAINTENANCE / OFFLINE), slot tăng dần. */
+    public List<SlotStatusDTO> slotStatuses(UUID pitchId, LocalDate date) {
+        DaySlots day = load(List.of(pitchId), date).get(pitchId);
+        List<SlotStatusDTO> result = new ArrayList<>();
+        if (day == null) return result;
+        for (int slot : toSlots(day.occupied())) {
+            int bit = 1 << slot;
+            String type = (day.booked() & bit) != 0 ? "BOOKED"
+                    : (day.maintenance() & bit) != 0 ? "MAINTENANCE"
+                    : "OFFLINE";
+            result.add(new SlotStatusDTO(slot, type));
+        }
+        return result;
+    }
+
+    public static int toMask(Collection<Integer> slots) {
+        int mask = 0;
+        for (Integer s : slots) {
+            if (s != null && s > 0 && s <= SLOTS_PER_DAY) mask |= 1 << s;
+        }
+        return mask;
+    }
+
+    public static List<Integer> toSlots(int mask) {
+        List<Integer> slots = new ArrayList<>(Integer.bitCount(mask));
+        for (int m = mask & ALL_SLOTS_MASK; m != 0; m &= m - 1) {
+            slots.add(Integer.numberOfTrailingZeros(m));
+        }
+        return slots;
+    }
+
+    /** Slot của (sân, ngày) vừa đổi trong DB — chạy sau commit (hoặc ngay nếu không có transaction). */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onBookingSlotsChanged(BookingSlotsChangedEvent event) {
+        if (event.getPitchIds().isEmpty() || event.getBookingDate() == null) return;
+        evict(event.getPitchIds(), event.getBookingDate());
+        try {
+            StringBuilder payload = new StringBuilder(nodeId).append('|').append(event.getBookingDate());
+            for (UUID pitchId : event.getPitchIds()) payload.append('|').append(pitchId);
+            redisTemplate.convertAndSend(CHANNEL, payload.toString());
+        } catch (Exception e) {
+            // Node khác tự làm mới khi entry quá MAX_AGE_MS
+            log.warn("SlotAvailabilityIndex: publish invalidation failed: {}", e.getMessage());
+        }
+    }
+
+    /** Dọn entry của ngày đã qua — không ai hỏi availability quá khứ. */
+    @Scheduled(cron = "0 5 0 * * *")
+    public void evictPastDates() {
+        LocalDate today = LocalDate.now();
+        index.keySet().removeIf(k -> k.date().isBefore(today));
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    void onRemoteInvalidation(String payload) {
+        String[] parts = payload.split("\\|");
+        if (parts.length < 3 || nodeId.equals(parts[0])) return;
+        try {
+            LocalDate date = LocalDate.parse(parts[1]);
+            List<UUID> pitchIds = new ArrayList<>(parts.length - 2);
+            for (int i = 2; i < parts.length; i++) pitchIds.add(UUID.fromString(parts[i]));
+            evict(pitchIds, date);
+        } catch (Exception e) {
+            log.warn("SlotAvailabilityIndex: bad invalidation payload '{}'", payload);
+        }
+    }
+
+    private void evict(Collection<UUID> pitchIds, LocalDate date) {
+        epoch.incrementAndGet();
+        for (UUID pitchId : pitchIds) index.remove(new Key(pitchId, date));
+    }
+
+    private Map<UUID, DaySlots> load(Collection<UUID> pitchIds, LocalDate date) {
+        long now = System.currentTimeMillis();
+        Map<UUID, DaySlots> result = new HashMap<>(pitchIds.size() * 2);
+        Set<UUID> missing = new LinkedHashSet<>();
+        for (UUID pitchId : pitchIds) {
+            if (pitchId == null) continue;
+            DaySlots day = index.get(new Key(pitchId, date));
+            if (day != null && now - day.loadedAt() < MAX_AGE_MS) {
+                result.put(pitchId, day);
+            } else {
+                missing.add(pitchId);
+            }
+        }
+        if (missing.isEmpty()) return result;
+
+        long epochBefore = epoch.get();
+        Map<UUID, int[]> masks = new HashMap<>(missing.size() * 2);
+        for (UUID pitchId : missing) masks.put(pitchId, new int[3]);
+        for (Object[] row : bookingDetailRepository.findSlotRowsByPitchesAndDate(missing, date, EXCLUDED)) {
+            UUID pitchId = (UUID) row[0];
+            Integer slot = (Integer) row[1];
+            String blockType = (String) row[2];
+            int[] m = masks.get(pitchId);
+            if (m == null || slot == null || slot <= 0 || slot > SLOTS_PER_DAY) continue;
+            int type = blockType == null ? 0 : "MAINTENANCE".equals(blockType) ? 1 : 2;
+            m[type] |= 1 << slot;
+        }
+
+        masks.forEach((pitchId, m) -> result.put(pitchId, new DaySlots(m[0], m[1], m[2], now)));
+        if (epoch.get() == epochBefore) {
+            for (UUID pitchId : missing) index.put(new Key(pitchId, date), result.get(pitchId));
+            // Invalidate chen vào đúng lúc đang ghi → bỏ, lần đọc sau nạp lại
+            if (epoch.get() != epochBefore) {
+                for (UUID pitchId : missing) index.remove(new Key(pitchId, date));
+            }
+        }
+        return result;
+    }
+}
@@ -13,7 +13,9 @@ import com.example.FieldFinder.dto.req.BookingRequestDTO;
 import com.example.FieldFinder.dto.req.PitchBookedSlotsDTO;
 import com.example.FieldFinder.dto.res.BookingResponseDTO;
 import com.example.FieldFinder.dto.res.ProviderBookingResponseDTO;
+import com.example.FieldFinder.dto.res.SlotStatusDTO;
 import com.example.FieldFinder.entity.*;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
 import com.example.FieldFinder.repository.*;
 
 import com.example.FieldFinder.service.BookingService;
@@ -21,16 +23,17 @@ import com.example.FieldFinder.service.DiscountUsageService;
 import com.example.FieldFinder.service.EmailService;
 import com.example.FieldFinder.service.NotificationService;
 import com.example.FieldFinder.service.PitchRedisLockService;
+import com.example.FieldFinder.service.SlotAvailabilityIndex;
 import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
-import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -47,7 +50,6 @@ public class BookingServiceImpl implements BookingService {
     private final BookingDetailRepository bookingDetailRepository;
     private final PitchRepository pitchRepository;
     private final UserRepository userRepository;
-    private final RestTemplate restTemplate;
     private final RabbitTemplate rabbitTemplate;
     private final PitchRedisLockService pitchRedisLockService;
     private final EntityManager entityManager;
@@ -69,6 +71,8 @@ public class BookingServiceImpl implements BookingService {
     private final UserDiscountRepository userDiscountRepository;
     private final NotificationService notificationService;
     private final TimeSlotRepository timeSlotRepository;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
+    private final ApplicationEventPublisher eventPublisher;
 
 
     /** Khoảng thời gian tối thiểu trước slot đầu mới được hủy + hoàn tiền. */
@@ -85,38 +89,20 @@ public class BookingServiceImpl implements BookingService {
 
     @Override
     public List<Integer> getBookedTimeSlots(UUID pitchId, LocalDate bookingDate) {
-        List<BookingDetail> bookingDetails = bookingDetailRepository.findByPitchAndDateExcludingStatuses(
-                pitchId, bookingDate, List.of(BookingStatus.CANCELED));
-        return bookingDetails.stream()
-                .map(bd -> bd.getTimeSlot().getSlotId())
-                .distinct()
-                .collect(Collectors.toList());
+        return slotAvailabilityIndex.bookedSlots(pitchId, bookingDate);
     }
 
     @Override
-    @Transactional(readOnly = true)
-    public List<com.example.FieldFinder.dto.res.SlotStatusDTO> getSlotStatuses(UUID pitchId, LocalDate bookingDate) {
-        List<BookingDetail> details = bookingDetailRepository.findByPitchAndDateExcludingStatuses(
-                pitchId, bookingDate, List.of(BookingStatus.CANCELED));
-        Map<Integer, String> typeBySlot = new LinkedHashMap<>();
-        for (BookingDetail bd : details) {
-            if (bd.getTimeSlot() == null || bd.getBooking() == null) continue;
-            Integer slot = bd.getTimeSlot().getSlotId();
-            String blockType = bd.getBooking().getBlockType();
-            String type;
-            if (blockType == null) {
-                type = "BOOKED";
-            } else if ("MAINTENANCE".equals(blockType)) {
-                type = "MAINTENANCE";
-            } else {
-                type = "OFFLINE"; // OFFLINE_BOOKING
-            }
-            // Slot trùng (hiếm): ưu tiên giữ giá trị đầu, không ghi đè
-            typeBySlot.putIfAbsent(slot, type);
-        }
-        return typeBySlot.entrySet().stream()
-                .map(e -> new com.example.FieldFinder.dto.res.SlotStatusDTO(e.getKey(), e.getValue()))
-                .collect(Collectors.toList());
+    public Map<UUID, List<Integer>> getBookedTimeSlots(Collection<UUID> pitchIds, LocalDate bookingDate) {
+        Map<UUID, List<Integer>> result = new HashMap<>();
+        slotAvailabilityIndex.occupiedMasks(pitchIds, bookingDate)
+                .forEach((pitchId, mask) -> result.put(pitchId, SlotAvailabilityIndex.toSlots(mask)));
+        return result;
+    }
+
+    @Override
+    public List<SlotStatusDTO> getSlotStatuses(UUID pitchId, LocalDate bookingDate) {
+        return slotAvailabilityIndex.slotStatuses(pitchId, bookingDate);
     }
 
     @Override
@@ -136,25 +122,25 @@ public class BookingServiceImpl implements BookingService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<String> getAvailablePitches(LocalDate bookingDate, List<Integer> requestedSlots, String pitchType) {
-        String url = "http://localhost:8080/api/bookings/slots/all?date=" + bookingDate;
-        ResponseEntity<PitchBookedSlotsDTO[]> response = restTemplate.getForEntity(url, PitchBookedSlotsDTO[].class);
-        PitchBookedSlotsDTO[] bookedSlots = response.getBody();
-
-        List<String> allPitchIds = pitchRepository.findAll().stream()
-                .filter(p -> pitchType == null || pitchType.isBlank() ||
-                        p.getType().name().equalsIgnoreCase(pitchType))
-                .map(p -> p.getPitchId().toString())
-                .toList();
-
-        Set<String> bookedPitches = Arrays.stream(bookedSlots)
-                .filter(p -> p.getBookedSlots().stream().anyMatch(requestedSlots::contains))
-                .map(p -> p.getPitchId().toString())
-                .collect(Collectors.toSet());
+        Pitch.PitchType type = null;
+        if (pitchType != null && !pitchType.isBlank()) {
+            try {
+                type = Pitch.PitchType.valueOf(pitchType.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return new ArrayList<>(); // loại sân không tồn tại → không sân nào khớp
+            }
+        }
 
-        return allPitchIds.stream()
-                .filter(pitchId -> !bookedPitches.contains(pitchId))
-                .collect(Collectors.toList());
+        // Set: bỏ slot trùng, kiểm tra trùng slot chạy trong SQL (IN) thay vì List.contains ở Java
+        Set<Integer> slots = requestedSlots == null ? new HashSet<>() : new HashSet<>(requestedSlots);
+        slots.remove(null);
+        try (var free = slots.isEmpty()
+                ? pitchRepository.streamPitchIdsByType(type)
+                : pitchRepository.streamFreePitchIds(bookingDate, slots, type)) {
+            return free.map(v -> v.getPitchId().toString()).collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -347,6 +333,7 @@ public class BookingServiceImpl implements BookingService {
             booking.setBookingDetails(details);
 
             Booking savedBooking = bookingRepository.save(booking);
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(List.of(pitchId), bookingDate));
 
             // Ghi lượt dùng voucher để hoàn lại nếu booking bị hủy
             for (int i = 0; i < consumedDiscounts.size(); i++) {
@@ -377,9 +364,7 @@ public class BookingServiceImpl implements BookingService {
 
             return savedBooking;
         } catch (Exception e) {
-            for (Integer slotId : requestedSlots) {
-                pitchRedisLockService.unlockSlot(pitchId, bookingDate, slotId, userId);
-            }
+            pitchRedisLockService.unlockSlots(pitchId, bookingDate, requestedSlots, userId);
             throw e;
         }
     }
@@ -451,6 +436,7 @@ public class BookingServiceImpl implements BookingService {
             booking.setBookingDetails(details);
 
             Booking savedBooking = bookingRepository.save(booking);
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(List.of(pitchId), bookingDate));
 
             Payment payment = Payment.builder()
                     .booking(savedBooking)
@@ -465,9 +451,7 @@ public class BookingServiceImpl implements BookingService {
 
             return savedBooking;
         } catch (Exception e) {
-            for (Integer slotId : requestedSlots) {
-                pitchRedisLockService.unlockSlot(pitchId, bookingDate, slotId, userIdStr);
-            }
+            pitchRedisLockService.unlockSlots(pitchId, bookingDate, requestedSlots, userIdStr);
             throw e;
         }
     }
@@ -560,6 +544,7 @@ public class BookingServiceImpl implements BookingService {
 
         booking.setStatus(newStatus);
         bookingRepository.save(booking);
+        publishSlotsChanged(booking);
 
         // Admin hủy tay cũng phải hoàn voucher như các đường hủy khác
         if (newStatus == BookingStatus.CANCELED) {
@@ -821,20 +806,12 @@ public class BookingServiceImpl implements BookingService {
     private void unlockSlotsAfterCommit(Booking booking) {
         final String userIdStr = booking.getUser().getUserId().toString();
         final LocalDate bookingDate = booking.getBookingDate();
-        final List<BookingDetail> details = new ArrayList<>(booking.getBookingDetails());
+        final Map<UUID, List<Integer>> slotsByPitch = slotsByPitch(booking);
 
         TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
             @Override
             public void afterCommit() {
-                for (BookingDetail detail : details) {
-                    if (detail.getPitch() != null && detail.getTimeSlot() != null) {
-                        pitchRedisLockService.unlockSlot(
-                                detail.getPitch().getPitchId(),
-                                bookingDate,
-                                detail.getTimeSlot().getSlotId(),
-                                userIdStr);
-                    }
-                }
+                pitchRedisLockService.unlockSlots(bookingDate, slotsByPitch, userIdStr);
             }
         });
     }
@@ -1085,16 +1062,33 @@ public class BookingServiceImpl implements BookingService {
     }
 
     private void unlockRedisSlots(Booking booking) {
-        String userId = booking.getUser().getUserId().toString();
+        pitchRedisLockService.unlockSlots(booking.getBookingDate(), slotsByPitch(booking),
+                booking.getUser().getUserId().toString());
+    }
+
+    /** Slot của booking gom theo sân — để khóa/nhả Redis cả lô trong 1 round-trip. */
+    private static Map<UUID, List<Integer>> slotsByPitch(Booking booking) {
+        Map<UUID, List<Integer>> slotsByPitch = new HashMap<>();
+        if (booking.getBookingDetails() == null) return slotsByPitch;
         for (BookingDetail detail : booking.getBookingDetails()) {
             if (detail.getPitch() != null && detail.getTimeSlot() != null) {
-                pitchRedisLockService.unlockSlot(
-                        detail.getPitch().getPitchId(),
-                        booking.getBookingDate(),
-                        detail.getTimeSlot().getSlotId(),
-                        userId);
+                slotsByPitch.computeIfAbsent(detail.getPitch().getPitchId(), k -> new ArrayList<>())
+                        .add(detail.getTimeSlot().getSlotId());
             }
         }
+        return slotsByPitch;
+    }
+
+    /** Báo {@link SlotAvailabilityIndex} làm mới bitmap các sân của booking (chạy sau commit). */
+    private void publishSlotsChanged(Booking booking) {
+        if (booking.getBookingDetails() == null || booking.getBookingDate() == null) return;
+        Set<UUID> pitchIds = booking.getBookingDetails().stream()
+                .map(BookingDetail::getPitchId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (!pitchIds.isEmpty()) {
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(pitchIds, booking.getBookingDate()));
+        }
     }
 
     private LocalDateTime earliestSlotStart(Booking booking) {
@@ -1137,6 +1131,7 @@ public class BookingServiceImpl implements BookingService {
         booking.setCancelReason(reason);
         booking.setCancelledAt(LocalDateTime.now());
         bookingRepository.save(booking);
+        publishSlotsChanged(booking);
 
         // Hoàn voucher đã dùng cho booking này (mọi đường hủy đều qua đây)
         if (revertDiscounts) {
@@ -1260,4 +1255,4 @@ public class BookingServiceImpl implements BookingService {
                     payout, "BOOKING", bookingId, reason);
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
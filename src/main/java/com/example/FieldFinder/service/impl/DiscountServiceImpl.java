@@ -6,12 +6,16 @@ import com.example.FieldFinder.dto.res.DiscountResponseDTO;
 import com.example.FieldFinder.dto.res.UserDiscountResponseDTO;
 import com.example.FieldFinder.entity.*;
 import com.example.FieldFinder.repository.*;
+import com.example.FieldFinder.event.CatalogChangedEvent;
 import com.example.FieldFinder.event.DiscountCreatedEvent;
 import com.example.FieldFinder.service.DiscountService;
 import com.example.FieldFinder.service.NotificationService;
+import com.example.FieldFinder.service.ProductDetailCacheIndex;
+import com.example.FieldFinder.service.RedisService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -33,7 +37,9 @@ public class DiscountServiceImpl implements DiscountService {
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final ProductDetailCacheIndex productDetailCacheIndex;
+    private final RedisService redisService;
+    private final CacheManager cacheManager;
 
     private final NotificationService notificationService;
 
@@ -44,23 +50,21 @@ public class DiscountServiceImpl implements DiscountService {
 
         if (discount.getScope() == Discount.DiscountScope.SPECIFIC_PRODUCT) {
             if (discount.getApplicableProducts() != null) {
+                List<Long> productIds = new ArrayList<>();
                 for (Product p : discount.getApplicableProducts()) {
-                    String pattern = "product_detail::" + p.getProductId() + "_*";
-                    Set<String> keys = redisTemplate.keys(pattern);
-                    if (keys != null && !keys.isEmpty()) {
-                        redisTemplate.delete(keys);
-                    }
+                    productDetailCacheIndex.evict(p.getProductId());
+                    if (p.getProductId() != null) productIds.add(p.getProductId());
                 }
+                eventPublisher.publishEvent(CatalogChangedEvent.ofProducts(productIds));
             }
         } else {
-            Set<String> keys = redisTemplate.keys("product_detail::*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-            }
+            redisService.deleteByPattern("product_detail::*");
+            eventPublisher.publishEvent(CatalogChangedEvent.all());
         }
 
-        Set<String> topSellingKeys = redisTemplate.keys("top_selling::*");
-        if (topSellingKeys != null && !topSellingKeys.isEmpty()) redisTemplate.delete(topSellingKeys);
+        // Qua CacheManager để tầng near-cache của mọi node cũng bị xóa
+        Cache topSelling = cacheManager.getCache("top_selling");
+        if (topSelling != null) topSelling.clear();
     }
 
     @Override
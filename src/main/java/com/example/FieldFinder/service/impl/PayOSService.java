@@ -1,5 +1,7 @@
 package com.example.FieldFinder.service.impl;
 
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
@@ -18,12 +20,14 @@ import java.util.TreeMap;
 public class PayOSService {
 
     private final WebClient webClient;
+    private final CircuitBreaker circuitBreaker;
 
-    public PayOSService(@Value("${payos.endpoint}") String baseUrl) {
+    public PayOSService(@Value("${payos.endpoint}") String baseUrl, CircuitBreakers circuitBreakers) {
         this.webClient = WebClient.builder()
                 .baseUrl(baseUrl)
                 .defaultHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
                 .build();
+        this.circuitBreaker = circuitBreakers.get(CircuitBreakers.PAYOS);
     }
 
     @Value("${payos.clientId}")
@@ -53,17 +57,18 @@ public class PayOSService {
 
     /**
      * Đọc trạng thái payment link từ PayOS theo {@code paymentLinkId} (server-to-server).
-     * Dùng để XÁC NHẬN nạp ví trước khi cộng tiền — chống webhook giả mạo. Trả null nếu lỗi.
+     * Dùng để XÁC NHẬN nạp ví trước khi cộng tiền — chống webhook giả mạo. Trả null nếu lỗi
+     * hoặc circuit breaker PayOS đang mở.
      */
     public PaymentInfo getPaymentInfo(String paymentLinkId) {
         try {
-            Map<?, ?> res = webClient.get()
+            Map<?, ?> res = circuitBreaker.execute(() -> webClient.get()
                     .uri("/v2/payment-requests/{id}", paymentLinkId)
                     .header("x-client-id", clientId)
                     .header("x-api-key", apiKey)
                     .retrieve()
                     .bodyToMono(Map.class)
-                    .block();
+                    .block(), () -> null);
             if (res == null || !"00".equals(res.get("code"))) return null;
             Map<?, ?> data = (Map<?, ?>) res.get("data");
             if (data == null) return null;
@@ -122,37 +127,38 @@ public class PayOSService {
         System.out.println("Raw signature data: " + rawData);
 
         try {
-            return webClient.post()
+            // Breaker chỉ tính lượt HTTP lỗi phía PayOS; code lỗi nghiệp vụ / 4xx vẫn là PayOS còn sống.
+            Map<?, ?> res = circuitBreaker.execute(() -> webClient.post()
                     .uri("/v2/payment-requests")
                     .header("x-client-id", clientId)
                     .header("x-api-key", apiKey)
                     .bodyValue(body)
                     .retrieve()
                     .bodyToMono(Map.class)
-                    .doOnNext(res -> System.out.println("PayOS response: " + res))
-                    .<PaymentResult>handle((res, sink) -> {
-                        if (!"00".equals(res.get("code"))) {
-                            sink.error(new IllegalStateException("PayOS error: " + res.get("desc")));
-                            return;
-                        }
-                        Map<?, ?> data = (Map<?, ?>) res.get("data");
-                        if (data == null) {
-                            sink.error(new IllegalStateException("Missing data in PayOS response"));
-                            return;
-                        }
-
-                        String checkoutUrl = (String) data.get("checkoutUrl");
-                        String transactionId = (String) data.get("paymentLinkId");
-                        String qrCode = (String) data.get("qrCode");
-
-                        if (checkoutUrl == null || transactionId == null) {
-                            sink.error(new IllegalStateException("Missing checkoutUrl or paymentLinkId in PayOS response"));
-                            return;
-                        }
-
-                        sink.next(new PaymentResult(checkoutUrl, transactionId, qrCode));
-                    })
-                    .block();
+                    .block(), () -> {
+                throw new IllegalStateException("PayOS tạm thời không khả dụng");
+            }, e -> !(e instanceof WebClientResponseException w && w.getStatusCode().is4xxClientError()));
+            System.out.println("PayOS response: " + res);
+            if (res == null) {
+                throw new IllegalStateException("Empty PayOS response");
+            }
+            if (!"00".equals(res.get("code"))) {
+                throw new IllegalStateException("PayOS error: " + res.get("desc"));
+            }
+            Map<?, ?> data = (Map<?, ?>) res.get("data");
+            if (data == null) {
+                throw new IllegalStateException("Missing data in PayOS response");
+            }
+
+            String checkoutUrl = (String) data.get("checkoutUrl");
+            String transactionId = (String) data.get("paymentLinkId");
+            String qrCode = (String) data.get("qrCode");
+
+            if (checkoutUrl == null || transactionId == null) {
+                throw new IllegalStateException("Missing checkoutUrl or paymentLinkId in PayOS response");
+            }
+
+            return new PaymentResult(checkoutUrl, transactionId, qrCode);
         } catch (WebClientResponseException e) {
             System.err.println("PayOS API error: " + e.getResponseBodyAsString());
             throw new RuntimeException("PayOS API request failed", e);
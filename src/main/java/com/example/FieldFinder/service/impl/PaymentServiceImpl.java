@@ -10,6 +10,7 @@ import com.example.FieldFinder.dto.req.PaymentRequestDTO;
 import com.example.FieldFinder.dto.req.ShopPaymentRequestDTO;
 import com.example.FieldFinder.dto.res.PaymentResponseDTO;
 import com.example.FieldFinder.entity.*;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
 import com.example.FieldFinder.repository.*;
 import com.example.FieldFinder.service.PaymentService;
 import com.example.FieldFinder.service.ProductService;
@@ -20,6 +21,7 @@ import com.example.FieldFinder.service.strategy.payment.PaymentStrategyFactory;
 import lombok.RequiredArgsConstructor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,6 +59,7 @@ public class PaymentServiceImpl implements PaymentService {
     private final com.example.FieldFinder.service.WalletTopupService walletTopupService;
     private final PayOsWebhookVerifier payOsWebhookVerifier;
     private final PitchRepository pitchRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Value("${front_end_url}")
     private String frontEndUrl;
@@ -417,24 +420,9 @@ public class PaymentServiceImpl implements PaymentService {
         }
 
         // Slot trống → thử khóa lại Redis (chặn create đang chạy). Thua khóa = coi như đã bị giữ.
-        if (!slotTaken) {
-            List<UUID> lockedPitches = new ArrayList<>();
-            for (Map.Entry<UUID, List<Integer>> e : slotsByPitch.entrySet()) {
-                if (pitchRedisLockService.lockSlots(e.getKey(), date, e.getValue(), userIdStr)) {
-                    lockedPitches.add(e.getKey());
-                } else {
-                    slotTaken = true;
-                    break;
-                }
-            }
-            if (slotTaken) {
-                // Dọn các khóa đã giữ được trước khi rơi xuống nhánh hoàn tiền
-                for (UUID pitchId : lockedPitches) {
-                    for (Integer slot : slotsByPitch.get(pitchId)) {
-                        pitchRedisLockService.unlockSlot(pitchId, date, slot, userIdStr);
-                    }
-                }
-            }
+        // Khóa mọi sân trong 1 script toàn-bộ-hoặc-không → không còn khóa dở dang phải dọn.
+        if (!slotTaken && !pitchRedisLockService.lockSlots(date, slotsByPitch, userIdStr)) {
+            slotTaken = true;
         }
 
         if (!slotTaken) {
@@ -443,6 +431,8 @@ public class PaymentServiceImpl implements PaymentService {
             payment.setPaidAt(paidTime);
             booking.setPaymentStatus(PaymentStatus.PAID);
             booking.setStatus(BookingStatus.CONFIRMED);
+            // Đơn sống lại → slot bị chiếm trở lại
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(slotsByPitch.keySet(), date));
 
             rabbitTemplate.convertAndSend(RabbitMQConfig.EMAIL_EXCHANGE,
                     RabbitMQConfig.BOOKING_EMAIL_ROUTING_KEY, booking.getBookingId().toString());
@@ -4,17 +4,15 @@ import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.SuggestedPitchesResponseDTO;
 import com.example.FieldFinder.entity.Pitch;
 import com.example.FieldFinder.entity.User;
-import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import com.example.FieldFinder.repository.InteractionLogRepository;
 import com.example.FieldFinder.repository.PitchRepository;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
 import com.example.FieldFinder.repository.UserRepository;
 import com.example.FieldFinder.service.PitchRecommendationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -29,7 +27,10 @@ public class PitchRecommendationServiceImpl implements PitchRecommendationServic
     private final UserRepository userRepository;
 
     @Autowired(required = false)
-    private MongoTemplate mongoTemplate;
+    private InteractionLogRepository interactionLogRepository;
+
+    @Autowired(required = false)
+    private UserBehaviorProfileRepository userBehaviorProfileRepository;
 
     public PitchRecommendationServiceImpl(PitchRepository pitchRepository, UserRepository userRepository) {
         this.pitchRepository = pitchRepository;
@@ -87,23 +88,39 @@ public class PitchRecommendationServiceImpl implements PitchRecommendationServic
         return response;
     }
 
+    private UserBehaviorProfile loadBehaviorProfile(UUID userId) {
+        if (userBehaviorProfileRepository == null) return null;
+        try {
+            return userBehaviorProfileRepository.findById(userId.toString()).orElse(null);
+        } catch (Exception e) {
+            log.warn("[SUGGEST-VISITED] behavior profile read failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
     private List<Pitch> loadVisited(UUID excludeId, UUID userId, int limit) {
         LinkedHashSet<UUID> ids = new LinkedHashSet<>();
 
-        if (mongoTemplate != null) {
+        UserBehaviorProfile profile = loadBehaviorProfile(userId);
+        if (profile != null) {
+            // Hồ sơ hành vi: sân đã xem / đặt gần nhất gộp sẵn
+            for (String id : profile.getVisitedPitchIds()) {
+                try {
+                    UUID uuid = UUID.fromString(id);
+                    if (!uuid.equals(excludeId)) ids.add(uuid);
+                } catch (IllegalArgumentException ignored) {}
+                if (ids.size() >= limit * 2) break;
+            }
+            log.info("[SUGGEST-VISITED] {} visited pitches from behavior profile of user {}", ids.size(), userId);
+        } else if (interactionLogRepository != null) {
             try {
-                Query q = Query.query(
-                        Criteria.where("userId").is(userId.toString())
-                                .and("eventType").is("VIEW_PITCH")
-                                .and("itemType").is("PITCH")
-                ).with(Sort.by(Sort.Direction.DESC, "timestamp"));
-                q.limit(50);
-                List<InteractionLog> logs = mongoTemplate.find(q, InteractionLog.class);
-                log.info("[SUGGEST-VISITED] Found {} view logs in Mongo for user {}", logs.size(), userId);
-                for (InteractionLog l : logs) {
-                    if (l.getItemId() == null) continue;
+                List<InteractionLogRepository.ItemEventView> views = interactionLogRepository.findRecentItemEvents(
+                        userId.toString(), List.of("VIEW_PITCH"), "PITCH", 50);
+                log.info("[SUGGEST-VISITED] Found {} view logs in Mongo for user {}", views.size(), userId);
+                for (InteractionLogRepository.ItemEventView v : views) {
+                    if (v.getItemId() == null) continue;
                     try {
-                        UUID uuid = UUID.fromString(l.getItemId());
+                        UUID uuid = UUID.fromString(v.getItemId());
                         if (!uuid.equals(excludeId)) ids.add(uuid);
                     } catch (IllegalArgumentException ignored) {}
                     if (ids.size() >= limit * 2) break;
@@ -112,7 +129,7 @@ public class PitchRecommendationServiceImpl implements PitchRecommendationServic
                 log.warn("[SUGGEST-VISITED] mongo query failed: {}", e.getMessage(), e);
             }
         } else {
-            log.info("[SUGGEST-VISITED] mongoTemplate is null, skipping MongoDB view logs");
+            log.info("[SUGGEST-VISITED] Mongo unavailable, skipping MongoDB view logs");
         }
 
         try {
@@ -9,6 +9,8 @@ import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.entity.Booking;
 import com.example.FieldFinder.entity.Pitch;
 import com.example.FieldFinder.entity.ProviderAddress;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
+import com.example.FieldFinder.event.PitchCatalogChangedEvent;
 import com.example.FieldFinder.exception.PitchDeactivateBlockedException;
 import com.example.FieldFinder.repository.BookingDetailRepository;
 import com.example.FieldFinder.repository.BookingRepository;
@@ -27,6 +29,7 @@ import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -59,6 +62,7 @@ public class PitchServiceImpl implements PitchService {
     private final NotificationService notificationService;
     private final CacheManager cacheManager;
     private final GeocodingService geocodingService;
+    private final ApplicationEventPublisher eventPublisher;
     private final PitchServiceImpl self;
 
     public PitchServiceImpl(
@@ -72,6 +76,7 @@ public class PitchServiceImpl implements PitchService {
             NotificationService notificationService,
             CacheManager cacheManager,
             GeocodingService geocodingService,
+            ApplicationEventPublisher eventPublisher,
             @Lazy PitchServiceImpl self) {
         this.pitchRepository = pitchRepository;
         this.providerAddressRepository = providerAddressRepository;
@@ -83,6 +88,7 @@ public class PitchServiceImpl implements PitchService {
         this.notificationService = notificationService;
         this.cacheManager = cacheManager;
         this.geocodingService = geocodingService;
+        this.eventPublisher = eventPublisher;
         this.self = self;
     }
 
@@ -108,6 +114,7 @@ public class PitchServiceImpl implements PitchService {
                 .build();
 
         pitch = pitchRepository.save(pitch);
+        eventPublisher.publishEvent(new PitchCatalogChangedEvent(pitch.getPitchId()));
         return PitchResponseDTO.fromEntity(pitch);
     }
 
@@ -126,6 +133,7 @@ public class PitchServiceImpl implements PitchService {
         pitch.setDescription(dto.getDescription());
         pitch.setImageUrls(dto.getImageUrls() != null ? dto.getImageUrls() : new ArrayList<>());
         pitch = pitchRepository.save(pitch);
+        eventPublisher.publishEvent(new PitchCatalogChangedEvent(pitch.getPitchId()));
         return PitchResponseDTO.fromEntity(pitch);
     }
 
@@ -149,6 +157,7 @@ public class PitchServiceImpl implements PitchService {
             throw new RuntimeException("Không thể xóa sân vì đã có đơn đặt sân liên quan!");
         }
         pitchRepository.deleteById(pitchId);
+        eventPublisher.publishEvent(new PitchCatalogChangedEvent(pitchId));
     }
 
     @Override
@@ -295,6 +304,7 @@ public class PitchServiceImpl implements PitchService {
             booking.setCancelledBy(CancelActor.SYSTEM);
             booking.setCancelReason("Sân tạm ngưng hoạt động từ " + targetDate);
             bookingRepository.save(booking);
+            eventPublisher.publishEvent(new BookingSlotsChangedEvent(List.of(pitchId), booking.getBookingDate()));
             // Hoàn voucher nếu có
             discountUsageService.revertForBooking(booking.getBookingId());
             // Thông báo cho khách
@@ -317,6 +327,9 @@ public class PitchServiceImpl implements PitchService {
             pitch.setStatus(Pitch.PitchStatus.INACTIVE);
         }
         pitchRepository.save(pitch);
+        if (pitch.getStatus() == Pitch.PitchStatus.INACTIVE) {
+            eventPublisher.publishEvent(new PitchCatalogChangedEvent(pitchId));
+        }
         log.info("[PITCH] Lên lịch ngưng sân {} từ {} (status={}, hủy {} PENDING)",
                 pitch.getName(), targetDate, pitch.getStatus(), pendingToCancel.size());
     }
@@ -346,6 +359,7 @@ public class PitchServiceImpl implements PitchService {
         pitch.setStatus(Pitch.PitchStatus.ACTIVE);
         pitch.setDeactivationDate(null); // huỷ lịch ngưng nếu có
         pitchRepository.save(pitch);
+        eventPublisher.publishEvent(new PitchCatalogChangedEvent(pitchId));
         log.info("[PITCH] Đã kích hoạt lại sân {}", pitch.getName());
     }
 
@@ -359,6 +373,7 @@ public class PitchServiceImpl implements PitchService {
         for (Pitch p : due) {
             p.setStatus(Pitch.PitchStatus.INACTIVE);
             pitchRepository.save(p);
+            eventPublisher.publishEvent(new PitchCatalogChangedEvent(p.getPitchId()));
             log.info("[PITCH] Tự ngưng sân {} đúng lịch ({})", p.getName(), p.getDeactivationDate());
         }
         Cache list = cacheManager.getCache("pitches_list");
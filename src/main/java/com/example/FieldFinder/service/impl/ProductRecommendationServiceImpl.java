@@ -1,15 +1,19 @@
 package com.example.FieldFinder.service.impl;
 
+import com.example.FieldFinder.config.StageExecutors;
 import com.example.FieldFinder.dto.res.MLItemResult;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.dto.res.SuggestedProductsResponseDTO;
 import com.example.FieldFinder.entity.Order;
 import com.example.FieldFinder.entity.Product;
 import com.example.FieldFinder.entity.User;
-import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import com.example.FieldFinder.repository.InteractionLogRepository;
 import com.example.FieldFinder.repository.OrderRepository;
 import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
 import com.example.FieldFinder.repository.UserRepository;
+import com.example.FieldFinder.ai.ranking.CtrScorer;
 import com.example.FieldFinder.ai.ranking.SimilarProductRanker;
 import com.example.FieldFinder.service.MLRecommendationService;
 import com.example.FieldFinder.service.ProductRecommendationService;
@@ -17,10 +21,6 @@ import com.example.FieldFinder.service.ProductService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -39,22 +39,31 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
     private final ProductService productService;
     private final MLRecommendationService mlService;
     private final SimilarProductRanker similarProductRanker;
+    private final StageExecutors stageExecutors;
+    private final CtrScorer ctrScorer;
 
     @Autowired(required = false)
-    private MongoTemplate mongoTemplate;
+    private InteractionLogRepository interactionLogRepository;
+
+    @Autowired(required = false)
+    private UserBehaviorProfileRepository userBehaviorProfileRepository;
 
     public ProductRecommendationServiceImpl(ProductRepository productRepository,
                                             UserRepository userRepository,
                                             OrderRepository orderRepository,
                                             ProductService productService,
                                             MLRecommendationService mlService,
-                                            SimilarProductRanker similarProductRanker) {
+                                            SimilarProductRanker similarProductRanker,
+                                            StageExecutors stageExecutors,
+                                            CtrScorer ctrScorer) {
         this.productRepository = productRepository;
         this.userRepository = userRepository;
         this.orderRepository = orderRepository;
         this.productService = productService;
         this.mlService = mlService;
         this.similarProductRanker = similarProductRanker;
+        this.stageExecutors = stageExecutors;
+        this.ctrScorer = ctrScorer;
     }
 
     @Override
@@ -105,11 +114,10 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
 
         // ML CTR chỉ cần danh sách ID → bắn song song với phần hydrate (getProductsByIds)
         // vốn là bottleneck. Latency ML (≤ timeout) bị "nuốt" dưới thời gian hydrate.
-        final UUID uid = userId;
-        final Long anchorId = productId;
+        CtrScorer.Query ctrQuery = new CtrScorer.Query(userId, new ArrayList<>(allIds), productId,
+                Map.of("source", "suggested-product"));
         long tStart = System.currentTimeMillis();
-        CompletableFuture<Map<String, Double>> ctrFuture =
-                CompletableFuture.supplyAsync(() -> rerankByCtr(allIds, uid, anchorId));
+        CompletableFuture<Map<Long, Double>> ctrFuture = stageExecutors.ctr().supply(() -> scoreCtr(ctrQuery));
 
         Map<Long, ProductResponseDTO> dtosMap = productService.getProductsByIds(new ArrayList<>(allIds), userId);
         long tHydrate = System.currentTimeMillis();
@@ -130,8 +138,8 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
                 .filter(Objects::nonNull)
                 .toList();
 
-        // Lấy kết quả ML (đã chạy nền). Lỗi/timeout → map rỗng → giữ thứ tự heuristic.
-        Map<String, Double> ctrScores = joinCtr(ctrFuture);
+        // Lấy điểm CTR (đã chạy nền). ML lỗi/quá hạn → điểm LR cục bộ, không bỏ rerank.
+        Map<Long, Double> ctrScores = joinCtr(ctrFuture, ctrQuery);
         log.info("[SUGGEST-PRODUCT][TIMING] joinCtr waited {} ms (total after hydrate)", System.currentTimeMillis() - tHydrate);
         similarDtos = applyTieredCtrOrder(similarDtos, similarTierById, ctrScores);
         topSellingDtos = applyCtrOrder(topSellingDtos, ctrScores);
@@ -143,32 +151,33 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
         return new SuggestedProductsResponseDTO(similarDtos, topSellingDtos, historyDtos);
     }
 
-    private Map<String, Double> joinCtr(CompletableFuture<Map<String, Double>> future) {
+    private Map<Long, Double> joinCtr(CompletableFuture<Map<Long, Double>> future, CtrScorer.Query query) {
         try {
             return future.get(1500, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            log.warn("[SUGGEST-PRODUCT] CTR future not ready, fallback heuristic: {}", e.getMessage());
-            future.cancel(true);
-            return Collections.emptyMap();
+            log.warn("[SUGGEST-PRODUCT] CTR future not ready, local LR fallback: {}", e.getMessage());
+            future.cancel(true); // StageExecutor: bỏ task còn trong hàng đợi / interrupt task đang chạy
+            return scoreCtrLocally(query);
         }
     }
 
-    private Map<String, Double> rerankByCtr(Set<Long> candidateIds, UUID userId, Long anchorProductId) {
-        if (candidateIds == null || candidateIds.isEmpty()) return Collections.emptyMap();
-        List<String> candIds = candidateIds.stream().map(String::valueOf).toList();
-        List<String> itemTypes = candIds.stream().map(x -> "PRODUCT").toList();
-        Map<String, Object> context = new HashMap<>();
-        context.put("source", "suggested-product");
-        if (anchorProductId != null) context.put("anchor_product_id", anchorProductId);
+    private Map<Long, Double> scoreCtr(CtrScorer.Query query) {
         try {
-            Map<String, Double> scores = mlService.rerankCtr(
-                    userId != null ? userId.toString() : null,
-                    candIds, itemTypes, context);
+            Map<Long, Double> scores = ctrScorer.score(query);
             log.info("[SUGGEST-PRODUCT] CTR rerank scored {} / {} candidates",
-                    scores != null ? scores.size() : 0, candIds.size());
-            return scores != null ? scores : Collections.emptyMap();
+                    scores.size(), query.candidateIds().size());
+            return scores;
         } catch (Exception e) {
-            log.warn("[SUGGEST-PRODUCT] CTR rerank failed, fallback heuristic: {}", e.getMessage());
+            log.warn("[SUGGEST-PRODUCT] CTR rerank failed, local LR fallback: {}", e.getMessage());
+            return scoreCtrLocally(query);
+        }
+    }
+
+    private Map<Long, Double> scoreCtrLocally(CtrScorer.Query query) {
+        try {
+            return ctrScorer.fallback(query);
+        } catch (Exception e) {
+            log.warn("[SUGGEST-PRODUCT] local CTR fallback failed, keep heuristic order: {}", e.getMessage());
             return Collections.emptyMap();
         }
     }
@@ -206,26 +215,25 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
     }
 
     private List<ProductResponseDTO> applyCtrOrder(List<ProductResponseDTO> items,
-                                                   Map<String, Double> ctrScores) {
+                                                   Map<Long, Double> ctrScores) {
         if (ctrScores.isEmpty() || items.size() < 2) return items;
         return items.stream()
                 .sorted(Comparator.comparingDouble(
-                        (ProductResponseDTO d) ->
-                                ctrScores.getOrDefault(String.valueOf(d.getId()), 0.0))
+                        (ProductResponseDTO d) -> ctrScores.getOrDefault(d.getId(), 0.0))
                         .reversed())
                 .collect(Collectors.toList());
     }
 
     private List<ProductResponseDTO> applyTieredCtrOrder(List<ProductResponseDTO> items,
                                                          Map<Long, Integer> tierById,
-                                                         Map<String, Double> ctrScores) {
+                                                         Map<Long, Double> ctrScores) {
         if (items.size() < 2) return items;
         return items.stream()
                 .sorted(Comparator
                         .comparingInt((ProductResponseDTO d) ->
                                 tierById.getOrDefault(d.getId(), Integer.MAX_VALUE))
                         .thenComparing(
-                                d -> ctrScores.getOrDefault(String.valueOf(d.getId()), 0.0),
+                                d -> ctrScores.getOrDefault(d.getId(), 0.0),
                                 Comparator.reverseOrder()))
                 .collect(Collectors.toList());
     }
@@ -234,21 +242,65 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
                                              Long categoryId, String brand, String sex) {
         LinkedHashSet<Long> ids = new LinkedHashSet<>();
 
+        UserBehaviorProfile profile = loadBehaviorProfile(userId);
+        if (profile != null) {
+            // Hồ sơ hành vi: đã xem + đã mua gộp sẵn, 1 lần đọc theo khoá
+            for (Long pid : profile.getRecentProductIds()) if (!pid.equals(excludeId)) ids.add(pid);
+            for (Long pid : profile.getPurchasedProductIds()) if (!pid.equals(excludeId)) ids.add(pid);
+            log.info("[SUGGEST-PRODUCT-HISTORY] {} history ids from behavior profile of user {}", ids.size(), userId);
+        } else {
+            loadRawHistory(ids, excludeId, userId);
+        }
+
+        if (ids.isEmpty()) return List.of();
+
+        // Sort history product IDs: prioritize products of same category, brand, or sex
+        List<Product> loadedProducts = productRepository.findAllListViewByIds(ids);
+        
+        List<Long> sortedIds = loadedProducts.stream()
+                .sorted((p1, p2) -> {
+                    int score1 = 0;
+                    int score2 = 0;
+                    if (p1.getCategory() != null && p1.getCategory().getCategoryId().equals(categoryId)) score1 += 3;
+                    if (p1.getBrand() != null && p1.getBrand().equalsIgnoreCase(brand)) score1 += 2;
+                    if (p1.getSex() != null && p1.getSex().equalsIgnoreCase(sex)) score1 += 1;
+
+                    if (p2.getCategory() != null && p2.getCategory().getCategoryId().equals(categoryId)) score2 += 3;
+                    if (p2.getBrand() != null && p2.getBrand().equalsIgnoreCase(brand)) score2 += 2;
+                    if (p2.getSex() != null && p2.getSex().equalsIgnoreCase(sex)) score2 += 1;
+
+                    return Integer.compare(score2, score1);
+                })
+                .map(Product::getProductId)
+                .limit(limit)
+                .collect(Collectors.toList());
+
+        log.info("[SUGGEST-PRODUCT-HISTORY] Ordered history based IDs: {}", sortedIds);
+        return sortedIds;
+    }
+
+    private UserBehaviorProfile loadBehaviorProfile(UUID userId) {
+        if (userBehaviorProfileRepository == null) return null;
+        try {
+            return userBehaviorProfileRepository.findById(userId.toString()).orElse(null);
+        } catch (Exception e) {
+            log.warn("[SUGGEST-PRODUCT-HISTORY] behavior profile read failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** Chưa có hồ sơ hành vi → đọc thẳng log xem (Mongo) + lịch sử đơn. */
+    private void loadRawHistory(LinkedHashSet<Long> ids, Long excludeId, UUID userId) {
         // A. Load from view logs in MongoDB
-        if (mongoTemplate != null) {
+        if (interactionLogRepository != null) {
             try {
-                Query q = Query.query(
-                        Criteria.where("userId").is(userId.toString())
-                                .and("eventType").is("VIEW_PRODUCT")
-                                .and("itemType").is("PRODUCT")
-                ).with(Sort.by(Sort.Direction.DESC, "timestamp"));
-                q.limit(50);
-                List<InteractionLog> logs = mongoTemplate.find(q, InteractionLog.class);
-                log.info("[SUGGEST-PRODUCT-HISTORY] Found {} view logs in Mongo for user {}", logs.size(), userId);
-                for (InteractionLog l : logs) {
-                    if (l.getItemId() == null) continue;
+                List<InteractionLogRepository.ItemEventView> views = interactionLogRepository.findRecentItemEvents(
+                        userId.toString(), List.of("VIEW_PRODUCT"), "PRODUCT", 50);
+                log.info("[SUGGEST-PRODUCT-HISTORY] Found {} view logs in Mongo for user {}", views.size(), userId);
+                for (InteractionLogRepository.ItemEventView v : views) {
+                    if (v.getItemId() == null) continue;
                     try {
-                        Long pid = Long.parseLong(l.getItemId());
+                        Long pid = Long.parseLong(v.getItemId());
                         if (!pid.equals(excludeId)) ids.add(pid);
                     } catch (NumberFormatException ignored) {}
                 }
@@ -256,7 +308,7 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
                 log.warn("[SUGGEST-PRODUCT-HISTORY] MongoDB query failed: {}", e.getMessage(), e);
             }
         } else {
-            log.info("[SUGGEST-PRODUCT-HISTORY] mongoTemplate is null, skipping view history");
+            log.info("[SUGGEST-PRODUCT-HISTORY] Mongo unavailable, skipping view history");
         }
 
         // B. Load from order history in PostgreSQL
@@ -278,32 +330,6 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
         } catch (Exception e) {
             log.warn("[SUGGEST-PRODUCT-HISTORY] Order history query failed: {}", e.getMessage(), e);
         }
-
-        if (ids.isEmpty()) return List.of();
-
-        // Sort history product IDs: prioritize products of same category, brand, or sex
-        List<Product> loadedProducts = productRepository.findAllListViewByIds(ids);
-        
-        List<Long> sortedIds = loadedProducts.stream()
-                .sorted((p1, p2) -> {
-                    int score1 = 0;
-                    int score2 = 0;
-                    if (p1.getCategory() != null && p1.getCategory().getCategoryId().equals(categoryId)) score1 += 3;
-                    if (p1.getBrand() != null && p1.getBrand().equalsIgnoreCase(brand)) score1 += 2;
-                    if (p1.getSex() != null && p1.getSex().equalsIgnoreCase(sex)) score1 += 1;
-
-                    if (p2.getCategory() != null && p2.getCategory().getCategoryId().equals(categoryId)) score2 += 3;
-                    if (p2.getBrand() != null && p2.getBrand().equalsIgnoreCase(brand)) score2 += 2;
-                    if (p2.getSex() != null && p2.getSex().equalsIgnoreCase(sex)) score2 += 1;
-
-                    return Integer.compare(score2, score1);
-                })
-                .map(Product::getProductId)
-                .limit(limit)
-                .collect(Collectors.toList());
-
-        log.info("[SUGGEST-PRODUCT-HISTORY] Ordered history based IDs: {}", sortedIds);
-        return sortedIds;
     }
 
     @Override
@@ -320,10 +346,8 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
         }
 
         // ML CTR rerank song song với hydrate (giống getSuggested).
-        final UUID uid = userId;
-        Set<Long> candidateIds = new LinkedHashSet<>(ids);
-        CompletableFuture<Map<String, Double>> ctrFuture =
-                CompletableFuture.supplyAsync(() -> rerankByCtr(candidateIds, uid, null));
+        CtrScorer.Query ctrQuery = new CtrScorer.Query(userId, ids, null, Map.of("source", "suggested-product"));
+        CompletableFuture<Map<Long, Double>> ctrFuture = stageExecutors.ctr().supply(() -> scoreCtr(ctrQuery));
 
         Map<Long, ProductResponseDTO> dtosMap = productService.getProductsByIds(new ArrayList<>(ids), userId);
         List<ProductResponseDTO> result = ids.stream()
@@ -331,7 +355,7 @@ public class ProductRecommendationServiceImpl implements ProductRecommendationSe
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
 
-        Map<String, Double> ctrScores = joinCtr(ctrFuture);
+        Map<Long, Double> ctrScores = joinCtr(ctrFuture, ctrQuery);
         result = applyCtrOrder(result, ctrScores);
         log.info("[SUGGEST-FOOTBALL-PRODUCTS] Returning {} products, ctrReranked={}",
                 result.size(), !ctrScores.isEmpty());
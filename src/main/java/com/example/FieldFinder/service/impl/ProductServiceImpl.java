@@ -5,8 +5,10 @@ import com.example.FieldFinder.dto.req.ProductRequestDTO;
 import com.example.FieldFinder.dto.res.CachedPage;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.entity.*;
+import com.example.FieldFinder.event.CatalogChangedEvent;
 import com.example.FieldFinder.repository.*;
 import com.example.FieldFinder.service.CloudinaryService;
+import com.example.FieldFinder.service.EmbeddingIndex;
 import com.example.FieldFinder.service.ProductService;
 import com.example.FieldFinder.specification.ProductSpecification;
 import com.example.FieldFinder.util.DiscountEligibilityUtil;
@@ -15,13 +17,13 @@ import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,6 +32,7 @@ import com.example.FieldFinder.Enum.CategoryType;
 import jakarta.annotation.PreDestroy;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -46,8 +49,10 @@ public class ProductServiceImpl implements ProductService {
     private final AIChat aiChat;
     private final CloudinaryService cloudinaryService;
     private final com.example.FieldFinder.service.PhashIndex phashIndex;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final EmbeddingIndex embeddingIndex;
+    private final com.example.FieldFinder.service.ProductDetailCacheIndex productDetailCacheIndex;
     private final CacheManager cacheManager;
+    private final ApplicationEventPublisher eventPublisher;
     private ProductServiceImpl self;
     private final ExecutorService enrichmentExecutor = Executors.newFixedThreadPool(2);
 
@@ -62,10 +67,12 @@ public class ProductServiceImpl implements ProductService {
             UserDiscountRepository userDiscountRepository,
             CloudinaryService cloudinaryService,
             @Lazy AIChat aiChat,
-            RedisTemplate<String, Object> redisTemplate,
             CacheManager cacheManager,
+            ApplicationEventPublisher eventPublisher,
             @Lazy ProductServiceImpl self,
-            com.example.FieldFinder.service.PhashIndex phashIndex) {
+            com.example.FieldFinder.service.PhashIndex phashIndex,
+            com.example.FieldFinder.service.ProductDetailCacheIndex productDetailCacheIndex,
+            EmbeddingIndex embeddingIndex) {
         this.productRepository = productRepository;
         this.categoryRepository = categoryRepository;
         this.productVariantRepository = productVariantRepository;
@@ -73,10 +80,12 @@ public class ProductServiceImpl implements ProductService {
         this.userDiscountRepository = userDiscountRepository;
         this.cloudinaryService = cloudinaryService;
         this.aiChat = aiChat;
-        this.redisTemplate = redisTemplate;
         this.cacheManager = cacheManager;
+        this.eventPublisher = eventPublisher;
         this.self = self;
         this.phashIndex = phashIndex;
+        this.productDetailCacheIndex = productDetailCacheIndex;
+        this.embeddingIndex = embeddingIndex;
     }
 
     private Map<Long, Long> loadCategoryParentById() {
@@ -412,6 +421,7 @@ public class ProductServiceImpl implements ProductService {
                 .build();
 
         productRepository.save(product);
+        eventPublisher.publishEvent(CatalogChangedEvent.ofProducts(List.of(product.getProductId())));
 
         if (request.getVariants() != null) {
             List<ProductVariant> variants = request.getVariants().stream().map(v -> ProductVariant.builder()
@@ -576,7 +586,18 @@ public class ProductServiceImpl implements ProductService {
     public List<ProductResponseDTO> getProductsForAiAssistant(UUID userId) {
         // Base list cached (no userId). Overlay sẽ apply trong AIChat flow nếu cần.
         // AI flow hiện gọi với userId=null hầu hết → base cache hit luôn.
-        List<ProductResponseDTO> base = self.getProductsForAiAssistantCached();
+        return overlayForUser(self.getProductsForAiAssistantCached(), userId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Long> getAllProductIds() {
+        return productRepository.findAllProductIds();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ProductResponseDTO> overlayForUser(List<ProductResponseDTO> base, UUID userId) {
         if (userId == null) return base;
 
         // Apply overlay nếu userId — batch
@@ -624,6 +645,7 @@ public class ProductServiceImpl implements ProductService {
                 c.clear();
             }
         }
+        eventPublisher.publishEvent(CatalogChangedEvent.all());
     }
 
     @Override
@@ -718,6 +740,8 @@ public class ProductServiceImpl implements ProductService {
     public void deleteProduct(Long id) {
         evictProductDetailCache(id);
         productRepository.deleteById(id);
+        embeddingIndex.remove(id);
+        if (phashIndex != null) phashIndex.remove(id);
     }
 
     @Override
@@ -905,6 +929,7 @@ public class ProductServiceImpl implements ProductService {
         Product p = productRepository.findById(productId).orElse(null);
         if (p != null) {
             p.setImagePhash(phash);
+            p.setPhashUpdatedAt(LocalDateTime.now());
             productRepository.save(p);
             if (phashIndex != null) phashIndex.put(productId, phash);
         }
@@ -1007,18 +1032,6 @@ public class ProductServiceImpl implements ProductService {
         }, "phash-backfill").start();
     }
 
-    private double cosineSimilarity(double[] vectorA, double[] vectorB) {
-        if (vectorA.length != vectorB.length || vectorA.length == 0)
-            return 0.0;
-        double dotProduct = 0.0, normA = 0.0, normB = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
-        }
-        return (normA == 0 || normB == 0) ? 0.0 : dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
-    }
-
     @Override
     @Transactional(readOnly = true)
     public List<ProductResponseDTO> findProductsByVector(String descriptionFromImage) {
@@ -1035,15 +1048,19 @@ public class ProductServiceImpl implements ProductService {
             return new ArrayList<>();
         double[] queryVector = queryVectorList.stream().mapToDouble(d -> d).toArray();
 
-        return productRepository.findAll().stream()
-                .filter(p -> p.getEmbeddingArray().length > 0)
-                .map(p -> new AbstractMap.SimpleEntry<>(p, cosineSimilarity(queryVector, p.getEmbeddingArray())))
-                .filter(entry -> entry.getValue() > 0.6)
-                .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
-                .limit(10)
-                .map(entry -> (Map.Entry<ProductResponseDTO, Double>) new AbstractMap.SimpleEntry<>(
-                        mapToResponse(entry.getKey(), Collections.emptyList()),
-                        Math.round(entry.getValue() * 10000.0) / 10000.0)) // Round to 4 decimal places
+        // Top-10 cosine > 0.6 từ index trong heap, chỉ load entity của các hit
+        List<EmbeddingIndex.Hit> hits = embeddingIndex.topK(queryVector, 10, 0.6);
+        if (hits.isEmpty())
+            return new ArrayList<>();
+        Map<Long, Product> byId = productRepository.findAllListViewByIds(
+                        hits.stream().map(EmbeddingIndex.Hit::productId).toList()).stream()
+                .collect(Collectors.toMap(Product::getProductId, p -> p));
+
+        return hits.stream()
+                .filter(h -> byId.containsKey(h.productId()))
+                .map(h -> (Map.Entry<ProductResponseDTO, Double>) new AbstractMap.SimpleEntry<>(
+                        mapToResponse(byId.get(h.productId()), Collections.emptyList()),
+                        Math.round(h.score() * 10000.0) / 10000.0)) // Round to 4 decimal places
                 .collect(Collectors.toList());
     }
 
@@ -1099,17 +1116,13 @@ public class ProductServiceImpl implements ProductService {
                 ? userDiscountRepository.findUsedDiscountIdsByUserId(userId)
                 : Collections.emptyList();
 
+        // Miss → entry sắp được ghi: đưa key vào chỉ mục theo sản phẩm để evict không cần KEYS
+        productDetailCacheIndex.track(productId, userId);
         return mapToResponse(product, usedDiscountIds, userId);
     }
 
     private void evictProductDetailCache(Long productId) {
-        String pattern = "product_detail::" + productId + "_*";
-
-        java.util.Set<String> keys = redisTemplate.keys(pattern);
-
-        if (keys != null && !keys.isEmpty()) {
-            redisTemplate.delete(keys);
-            System.out.println("Đã xóa " + keys.size() + " bản ghi cache cho sản phẩm ID: " + productId);
-        }
+        productDetailCacheIndex.evict(productId);
+        eventPublisher.publishEvent(CatalogChangedEvent.ofProducts(List.of(productId)));
     }
 }
\ No newline at end of file
@@ -7,140 +7,144 @@ import com.example.FieldFinder.repository.BankAccountRepository;
 import com.example.FieldFinder.repository.RefundRequestRepository;
 import com.example.FieldFinder.service.RefundService;
 import com.example.FieldFinder.service.payout.PayoutCommand;
-import com.example.FieldFinder.service.payout.PayoutProvider;
-import com.example.FieldFinder.service.payout.PayoutResult;
+import com.example.FieldFinder.service.payout.PayoutEngine;
+import com.example.FieldFinder.service.payout.PayoutQueue;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Xử lý hoàn tiền mặt qua PayOS payout bằng các job nền — KHÔNG chặn luồng hủy đơn.
  * Tách 3 việc: (1) đẩy lệnh chi PENDING, (2) poll trạng thái PROCESSING, (3) canh deadline.
- * Mọi bước idempotent + giới hạn số lần thử để chịu được nhiều đơn hoàn cùng lúc.
+ * (1) và (2) chạy qua {@link PayoutEngine} (lease SKIP LOCKED, gọi PayOS ngoài transaction) — lớp này chỉ
+ * khai báo cách khóa dòng và các chuyển trạng thái của khoản hoàn.
  */
 @Component
 @RequiredArgsConstructor
-public class RefundPayoutProcessor {
+public class RefundPayoutProcessor implements PayoutQueue<RefundRequest> {
+
+    private static final int DEADLINE_CHUNK = 20;
 
     private final RefundRequestRepository refundRequestRepository;
     private final BankAccountRepository bankAccountRepository;
-    private final PayoutProvider payoutProvider;
     private final RefundService refundService;
     private final com.example.FieldFinder.service.NotificationService notificationService;
+    private final PayoutEngine payoutEngine;
+    private final TransactionTemplate transactionTemplate;
 
     @Value("${refund.payout.max-attempts:5}")
     private int maxAttempts;
 
     /** (1) Đẩy lệnh chi cho các khoản PAYOUT_PENDING. */
     @Scheduled(fixedDelayString = "${refund.payout.dispatch-interval-ms:30000}")
-    @Transactional
     public void dispatchPending() {
-        List<RefundRequest> pending =
-                refundRequestRepository.findByStatusOrderByCreatedAtAsc(RefundStatus.PAYOUT_PENDING);
-        if (pending.isEmpty()) return;
-
-        Optional<BigDecimal> balance = payoutProvider.getBalance();
-
-        for (RefundRequest r : pending) {
-            // Đủ số dư TK chi mới đẩy; thiếu thì để PENDING, chờ nạp tiền
-            if (balance.isPresent() && balance.get().compareTo(r.getAmount()) < 0) {
-                System.err.println("[Payout] Số dư TK chi không đủ cho refund " + r.getRefundId()
-                        + " (cần " + r.getAmount() + ", có " + balance.get() + ") — chờ nạp.");
-                continue;
-            }
-
-            r.setAttemptCount(r.getAttemptCount() + 1);
-            r.setLastAttemptAt(LocalDateTime.now());
-
-            PayoutResult res = payoutProvider.disburse(new PayoutCommand(
-                    r.getPayosReferenceId(),
-                    r.getAmount().longValueExact(),
-                    buildDescription(r),
-                    r.getBankBin(),
-                    r.getBankAccountNumber()));
-
-            r.setPayosTxnState(res.providerState());
-            r.setFailureReason(res.message());
-
-            switch (res.state()) {
-                case SUCCEEDED -> {
-                    r.setPayosPayoutId(res.payoutId());
-                    markSucceeded(r);
-                }
-                case PROCESSING -> {
-                    r.setPayosPayoutId(res.payoutId());
-                    r.setStatus(RefundStatus.PAYOUT_PROCESSING);
-                }
-                case FAILED, UNKNOWN -> failOrRetry(r, res.message());
-            }
-            refundRequestRepository.save(r);
-        }
+        payoutEngine.dispatch(this);
     }
 
     /** (2) Poll trạng thái các lệnh đã gửi (PAYOUT_PROCESSING). */
     @Scheduled(fixedDelayString = "${refund.payout.poll-interval-ms:45000}")
-    @Transactional
     public void pollProcessing() {
-        List<RefundRequest> processing =
-                refundRequestRepository.findByStatusOrderByCreatedAtAsc(RefundStatus.PAYOUT_PROCESSING);
-        for (RefundRequest r : processing) {
-            if (r.getPayosPayoutId() == null) continue;
-            PayoutResult res = payoutProvider.getStatus(r.getPayosPayoutId());
-            r.setPayosTxnState(res.providerState());
-            switch (res.state()) {
-                case SUCCEEDED -> markSucceeded(r);
-                case FAILED -> {
-                    r.setFailureReason(res.message());
-                    r.setStatus(RefundStatus.PAYOUT_FAILED);
-                    alertAdmin(r, "Payout FAILED khi poll: " + res.message());
-                }
-                case PROCESSING, UNKNOWN -> { /* chờ vòng sau */ }
-            }
-            refundRequestRepository.save(r);
-        }
+        payoutEngine.poll(this);
     }
 
     /**
      * (3) Canh deadline. Quá hạn mà chưa chi xong:
-     *  - PAYOUT_PENDING (CHƯA gửi PayOS) ⇒ BÙ VOUCHER ngay để user nhận được, đóng khoản.
+     *  - PAYOUT_PENDING (CHƯA gửi PayOS) ⇒ BÙ VOUCHER ngay để user nhận được, đóng khoản. Nhận theo chunk
+     *    SKIP LOCKED, bỏ qua dòng đang có lease (node khác đang gửi lệnh chi) để không vừa chi vừa bù.
      *  - PAYOUT_PROCESSING (ĐÃ gửi PayOS) ⇒ chỉ cảnh báo, KHÔNG bù (tránh chi đôi nếu PayOS
      *    vẫn đang xử lý và sẽ thành công).
      */
     @Scheduled(fixedDelayString = "${refund.payout.deadline-interval-ms:600000}")
-    @Transactional
     public void checkDeadlines() {
-        List<RefundRequest> overdue = refundRequestRepository.findByStatusInAndDeadlineAtBefore(
-                List.of(RefundStatus.PAYOUT_PENDING, RefundStatus.PAYOUT_PROCESSING),
-                LocalDateTime.now());
-        for (RefundRequest r : overdue) {
-            if (r.getStatus() == RefundStatus.PAYOUT_PENDING) {
-                refundService.fallbackToVoucher(r,
-                        "Quá hạn " + r.getDeadlineAt() + " mà chưa chi được tiền mặt — đã phát voucher bù.");
-                System.out.println("[Payout] Quá hạn refund " + r.getRefundId()
-                        + " — bù voucher thay tiền mặt.");
-            } else {
-                alertAdmin(r, "QUÁ HẠN khi đang PROCESSING (deadline " + r.getDeadlineAt()
-                        + ") — chờ PayOS, không bù để tránh chi đôi.");
-            }
+        while (true) {
+            Integer handled = transactionTemplate.execute(status -> {
+                List<RefundRequest> overdue = refundRequestRepository.findOverdueForUpdate(
+                        RefundStatus.PAYOUT_PENDING, LocalDateTime.now(), Limit.of(DEADLINE_CHUNK));
+                for (RefundRequest r : overdue) {
+                    refundService.fallbackToVoucher(r,
+                            "Quá hạn " + r.getDeadlineAt() + " mà chưa chi được tiền mặt — đã phát voucher bù.");
+                    System.out.println("[Payout] Quá hạn refund " + r.getRefundId()
+                            + " — bù voucher thay tiền mặt.");
+                }
+                return overdue.size();
+            });
+            if (handled == null || handled < DEADLINE_CHUNK) break;
         }
-    }
 
-    private void failOrRetry(RefundRequest r, String reason) {
-        if (r.getAttemptCount() >= maxAttempts) {
-            r.setStatus(RefundStatus.PAYOUT_FAILED);
-            alertAdmin(r, "Payout FAILED sau " + r.getAttemptCount() + " lần thử: " + reason);
+        for (RefundRequest r : refundRequestRepository.findByStatusInAndDeadlineAtBefore(
+                List.of(RefundStatus.PAYOUT_PROCESSING), LocalDateTime.now())) {
+            alertAdmin(r, "QUÁ HẠN khi đang PROCESSING (deadline " + r.getDeadlineAt()
+                    + ") — chờ PayOS, không bù để tránh chi đôi.");
         }
-        // còn lượt ⇒ giữ PAYOUT_PENDING, vòng dispatch sau thử lại
     }
 
-    private void markSucceeded(RefundRequest r) {
+    // ═══════════════════════════════════════════
+    //  PayoutQueue
+    // ═══════════════════════════════════════════
+
+    @Override
+    public String name() {
+        return "refund";
+    }
+
+    @Override
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    @Override
+    public List<RefundRequest> lockDue(Phase phase, LocalDateTime now, int limit) {
+        RefundStatus status = phase == Phase.DISPATCH ? RefundStatus.PAYOUT_PENDING : RefundStatus.PAYOUT_PROCESSING;
+        return refundRequestRepository.findDueForUpdate(status, now, Limit.of(limit));
+    }
+
+    @Override
+    public Optional<RefundRequest> lockById(UUID id) {
+        return refundRequestRepository.findByIdForUpdate(id);
+    }
+
+    @Override
+    public UUID idOf(RefundRequest r) {
+        return r.getRefundId();
+    }
+
+    @Override
+    public PayoutCommand command(RefundRequest r) {
+        return new PayoutCommand(
+                r.getPayosReferenceId(),
+                r.getAmount().longValueExact(),
+                buildDescription(r),
+                r.getBankBin(),
+                r.getBankAccountNumber());
+    }
+
+    @Override
+    public void save(RefundRequest r) {
+        refundRequestRepository.save(r);
+    }
+
+    @Override
+    public void markProcessing(RefundRequest r) {
+        r.setStatus(RefundStatus.PAYOUT_PROCESSING);
+    }
+
+    @Override
+    public void markFailed(RefundRequest r, String reason) {
+        r.setStatus(RefundStatus.PAYOUT_FAILED);
+        alertAdmin(r, "Payout " + reason);
+    }
+
+    @Override
+    public void markSucceeded(RefundRequest r) {
         r.setStatus(RefundStatus.PAYOUT_SUCCEEDED);
         r.setProcessedAt(LocalDateTime.now());
         // Lần chi thành công ⇒ coi như TK đã xác thực
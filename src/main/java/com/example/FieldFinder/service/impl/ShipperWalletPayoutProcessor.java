@@ -11,140 +11,153 @@ import com.example.FieldFinder.service.BankAccountService;
 import com.example.FieldFinder.service.NotificationService;
 import com.example.FieldFinder.service.ShipperWalletService;
 import com.example.FieldFinder.service.payout.PayoutCommand;
-import com.example.FieldFinder.service.payout.PayoutProvider;
-import com.example.FieldFinder.service.payout.PayoutResult;
+import com.example.FieldFinder.service.payout.PayoutEngine;
+import com.example.FieldFinder.service.payout.PayoutQueue;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Tự động RÚT số dư rút được của ví shipper về TK ngân hàng qua PayOS — job nền, không chặn luồng chính.
- * Tái dùng cùng {@link PayoutProvider} với ví chủ sân (cùng TK chi). Quy trình mỗi vòng:
+ * Dùng chung {@link PayoutEngine} (và TK chi) với ví chủ sân. Quy trình mỗi vòng:
  * (1) tạo lệnh rút cho ví có withdrawable>0, (2) đẩy lệnh PENDING, (3) poll PROCESSING.
  * Thất bại vĩnh viễn ⇒ hoàn lại số dư ví. Idempotent + giới hạn số lần thử.
  */
 @Component
 @RequiredArgsConstructor
-public class ShipperWalletPayoutProcessor {
+public class ShipperWalletPayoutProcessor implements PayoutQueue<ShipperWalletTransaction> {
 
     private final ShipperWalletRepository walletRepository;
     private final ShipperWalletTransactionRepository txRepository;
     private final ShipperWalletService walletService;
     private final BankAccountService bankAccountService;
-    private final PayoutProvider payoutProvider;
     private final NotificationService notificationService;
+    private final PayoutEngine payoutEngine;
+    private final TransactionTemplate transactionTemplate;
 
     @Value("${shipper.wallet.withdraw-max-attempts:5}")
     private int maxAttempts;
 
+    /** Tạo lệnh rút cho ví đủ điều kiện — mỗi ví một transaction, khóa ví trước (xem WalletPayoutProcessor). */
     @Scheduled(fixedDelayString = "${shipper.wallet.auto-payout-interval-ms:600000}")
-    @Transactional
     public void autoCreateWithdrawals() {
-        for (ShipperWallet wallet : walletRepository.findAllPositive()) {
-            User shipper = wallet.getShipper();
-            if (shipper == null) continue;
-
-            // Đã có lệnh rút dở ⇒ chờ xong rồi tính tiếp.
-            if (txRepository.existsByShipper_UserIdAndStatusIn(
-                    shipper.getUserId(), List.of(WalletTxnStatus.PENDING, WalletTxnStatus.PROCESSING))) {
-                continue;
-            }
-            BigDecimal withdrawable = walletService.computeWithdrawable(shipper.getUserId());
-            // Dưới sàn rút tối thiểu ⇒ giữ trong ví, gom đủ rồi rút (tránh phí payout > tiền lẻ).
-            if (withdrawable.compareTo(walletService.getMinWithdraw()) < 0) continue;
-
-            Optional<BankAccount> bank = bankAccountService.getDefault(shipper.getUserId());
-            // Chưa liên kết TK / TK chưa được DUYỆT (tên lệch hồ sơ) ⇒ giữ trong ví, không chi.
-            if (bank.isEmpty()
-                    || bank.get().getReviewStatus() != com.example.FieldFinder.Enum.BankReviewStatus.APPROVED) {
-                continue;
+        List<UUID> shipperIds = transactionTemplate.execute(status -> walletRepository.findAllPositive().stream()
+                .filter(w -> w.getShipper() != null)
+                .map(w -> w.getShipper().getUserId())
+                .toList());
+        if (shipperIds == null) return;
+        for (UUID shipperId : shipperIds) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> createWithdrawalIfDue(shipperId));
+            } catch (Exception e) {
+                System.err.println("[ShipperPayout] Lỗi tạo lệnh rút shipper " + shipperId + ": " + e.getMessage());
             }
+        }
+    }
 
-            walletService.createWithdrawal(shipper, withdrawable, bank.get());
+    private void createWithdrawalIfDue(UUID shipperId) {
+        ShipperWallet wallet = walletRepository.findByUserIdForUpdate(shipperId).orElse(null);
+        if (wallet == null || wallet.getBalance().signum() <= 0) return;
+        User shipper = wallet.getShipper();
+
+        // Đã có lệnh rút dở ⇒ chờ xong rồi tính tiếp.
+        if (txRepository.existsByShipper_UserIdAndStatusIn(
+                shipperId, List.of(WalletTxnStatus.PENDING, WalletTxnStatus.PROCESSING))) {
+            return;
+        }
+        BigDecimal withdrawable = walletService.computeWithdrawable(shipperId);
+        // Dưới sàn rút tối thiểu ⇒ giữ trong ví, gom đủ rồi rút (tránh phí payout > tiền lẻ).
+        if (withdrawable.compareTo(walletService.getMinWithdraw()) < 0) return;
+
+        Optional<BankAccount> bank = bankAccountService.getDefault(shipperId);
+        // Chưa liên kết TK / TK chưa được DUYỆT (tên lệch hồ sơ) ⇒ giữ trong ví, không chi.
+        if (bank.isEmpty()
+                || bank.get().getReviewStatus() != com.example.FieldFinder.Enum.BankReviewStatus.APPROVED) {
+            return;
         }
+
+        walletService.createWithdrawal(shipper, withdrawable, bank.get());
     }
 
     @Scheduled(fixedDelayString = "${shipper.wallet.dispatch-interval-ms:30000}")
-    @Transactional
     public void dispatchPending() {
-        List<ShipperWalletTransaction> pending = txRepository.findByStatusOrderByCreatedAtAsc(WalletTxnStatus.PENDING);
-        if (pending.isEmpty()) return;
-        Optional<BigDecimal> balance = payoutProvider.getBalance();
-
-        for (ShipperWalletTransaction wtx : pending) {
-            BigDecimal amount = wtx.getAmount().abs();
-            if (balance.isPresent() && balance.get().compareTo(amount) < 0) {
-                System.err.println("[ShipperPayout] Số dư TK chi không đủ cho rút " + wtx.getTxnId()
-                        + " (cần " + amount + ") — chờ nạp.");
-                continue;
-            }
-            wtx.setAttemptCount(wtx.getAttemptCount() + 1);
-            wtx.setLastAttemptAt(LocalDateTime.now());
-
-            PayoutResult res = payoutProvider.disburse(new PayoutCommand(
-                    wtx.getPayosReferenceId(),
-                    amount.longValueExact(),
-                    "Rut tien vi shipper " + wtx.getTxnId(),
-                    wtx.getBankBin(),
-                    wtx.getBankAccountNumber()));
-
-            wtx.setPayosTxnState(res.providerState());
-            wtx.setFailureReason(res.message());
-
-            switch (res.state()) {
-                case SUCCEEDED -> {
-                    wtx.setPayosPayoutId(res.payoutId());
-                    markSucceeded(wtx);
-                }
-                case PROCESSING -> {
-                    wtx.setPayosPayoutId(res.payoutId());
-                    wtx.setStatus(WalletTxnStatus.PROCESSING);
-                    txRepository.save(wtx);
-                }
-                case FAILED, UNKNOWN -> failOrRetry(wtx, res.message());
-            }
-        }
+        payoutEngine.dispatch(this);
     }
 
     @Scheduled(fixedDelayString = "${shipper.wallet.poll-interval-ms:45000}")
-    @Transactional
     public void pollProcessing() {
-        for (ShipperWalletTransaction wtx : txRepository.findByStatusOrderByCreatedAtAsc(WalletTxnStatus.PROCESSING)) {
-            if (wtx.getPayosPayoutId() == null) continue;
-            PayoutResult res = payoutProvider.getStatus(wtx.getPayosPayoutId());
-            wtx.setPayosTxnState(res.providerState());
-            switch (res.state()) {
-                case SUCCEEDED -> markSucceeded(wtx);
-                case FAILED -> {
-                    wtx.setFailureReason(res.message());
-                    walletService.reverseFailedWithdrawal(wtx); // hoàn số dư
-                    alertAdmin(wtx, "Rút FAILED khi poll: " + res.message());
-                }
-                case PROCESSING, UNKNOWN -> { /* chờ vòng sau */ }
-            }
-        }
+        payoutEngine.poll(this);
     }
 
-    private void failOrRetry(ShipperWalletTransaction wtx, String reason) {
-        if (wtx.getAttemptCount() >= maxAttempts) {
-            walletService.reverseFailedWithdrawal(wtx); // quá số lần ⇒ hoàn số dư, đóng lệnh
-            alertAdmin(wtx, "Rút FAILED sau " + wtx.getAttemptCount() + " lần: " + reason);
-        } else {
-            txRepository.save(wtx); // còn lượt ⇒ giữ PENDING, thử lại
-        }
+    // ═══════════════════════════════════════════
+    //  PayoutQueue
+    // ═══════════════════════════════════════════
+
+    @Override
+    public String name() {
+        return "shipper-wallet";
+    }
+
+    @Override
+    public int maxAttempts() {
+        return maxAttempts;
     }
 
-    private void markSucceeded(ShipperWalletTransaction wtx) {
+    @Override
+    public List<ShipperWalletTransaction> lockDue(Phase phase, LocalDateTime now, int limit) {
+        WalletTxnStatus status = phase == Phase.DISPATCH ? WalletTxnStatus.PENDING : WalletTxnStatus.PROCESSING;
+        return txRepository.findDueForUpdate(status, now, Limit.of(limit));
+    }
+
+    @Override
+    public Optional<ShipperWalletTransaction> lockById(UUID id) {
+        return txRepository.findByIdForUpdate(id);
+    }
+
+    @Override
+    public UUID idOf(ShipperWalletTransaction wtx) {
+        return wtx.getTxnId();
+    }
+
+    @Override
+    public PayoutCommand command(ShipperWalletTransaction wtx) {
+        return new PayoutCommand(
+                wtx.getPayosReferenceId(),
+                wtx.getAmount().abs().longValueExact(),
+                "Rut tien vi shipper " + wtx.getTxnId(),
+                wtx.getBankBin(),
+                wtx.getBankAccountNumber());
+    }
+
+    @Override
+    public void save(ShipperWalletTransaction wtx) {
+        txRepository.save(wtx);
+    }
+
+    @Override
+    public void markProcessing(ShipperWalletTransaction wtx) {
+        wtx.setStatus(WalletTxnStatus.PROCESSING);
+    }
+
+    @Override
+    public void markFailed(ShipperWalletTransaction wtx, String reason) {
+        walletService.reverseFailedWithdrawal(wtx); // hoàn số dư, đóng lệnh
+        alertAdmin(wtx, "Rút " + reason);
+    }
+
+    @Override
+    public void markSucceeded(ShipperWalletTransaction wtx) {
         wtx.setStatus(WalletTxnStatus.SUCCEEDED);
         wtx.setProcessedAt(LocalDateTime.now());
-        txRepository.save(wtx);
         System.out.println("[ShipperPayout] Rút thành công " + wtx.getTxnId()
                 + " amount=" + wtx.getAmount().abs() + " -> " + wtx.getBankAccountNumber());
         if (wtx.getShipper() != null) {
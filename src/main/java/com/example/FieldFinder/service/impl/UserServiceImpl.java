@@ -8,9 +8,12 @@ import com.example.FieldFinder.entity.Product;
 import com.example.FieldFinder.entity.User;
 import com.example.FieldFinder.entity.UserProvider;
 import com.example.FieldFinder.entity.UserProvider.ProviderName;
-import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import com.example.FieldFinder.event.UserProfileChangedEvent;
+import com.example.FieldFinder.repository.InteractionLogRepository;
 import com.example.FieldFinder.repository.PasswordResetTokenRepository;
 import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
 import com.example.FieldFinder.repository.UserProviderRepository;
 import com.example.FieldFinder.repository.UserRepository;
 import com.example.FieldFinder.service.EmailService;
@@ -22,10 +25,7 @@ import com.google.firebase.auth.FirebaseToken;
 import com.google.firebase.auth.UserRecord;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -51,12 +51,16 @@ public class UserServiceImpl implements UserService {
     private final PasswordResetTokenRepository passwordResetTokenRepository;
     private final UserProviderRepository userProviderRepository;
     private final SocialLoginService socialLoginService;
+    private final ApplicationEventPublisher eventPublisher;
 
     private final Map<String, UUID> sessionUserMap = new ConcurrentHashMap<>();
     private final RedisTemplate<String, Object> redisTemplate;
 
     @Autowired(required = false)
-    private MongoTemplate mongoTemplate;
+    private InteractionLogRepository interactionLogRepository;
+
+    @Autowired(required = false)
+    private UserBehaviorProfileRepository userBehaviorProfileRepository;
 
     @Autowired
     private ProductRepository productRepository;
@@ -69,7 +73,8 @@ public class UserServiceImpl implements UserService {
 
     public UserServiceImpl(UserRepository userRepository, PasswordEncoder passwordEncoder, EmailService emailService,
                            PasswordResetTokenRepository passwordResetTokenRepository, RedisTemplate<String, Object> redisTemplate,
-                           SocialLoginService socialLoginService, UserProviderRepository userProviderRepository) {
+                           SocialLoginService socialLoginService, UserProviderRepository userProviderRepository,
+                           ApplicationEventPublisher eventPublisher) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
         this.emailService = emailService;
@@ -77,6 +82,7 @@ public class UserServiceImpl implements UserService {
         this.redisTemplate = redisTemplate;
         this.socialLoginService = socialLoginService;
         this.userProviderRepository = userProviderRepository;
+        this.eventPublisher = eventPublisher;
     }
 
     @Override
@@ -191,11 +197,13 @@ public class UserServiceImpl implements UserService {
         if (userUpdateRequestDTO.getVehiclePlate() != null) user.setVehiclePlate(userUpdateRequestDTO.getVehiclePlate());
 
         User updatedUser = userRepository.save(user);
+        eventPublisher.publishEvent(new UserProfileChangedEvent(userId));
         if (addressChanged && updatedUser.getLatitude() == null) {
             geocodingService.geocodeAsync(updatedUser.getAddress()).thenAccept(opt -> opt.ifPresent(latLng -> {
                 updatedUser.setLatitude(latLng.latitude());
                 updatedUser.setLongitude(latLng.longitude());
                 userRepository.save(updatedUser);
+                eventPublisher.publishEvent(new UserProfileChangedEvent(userId));
             }));
         }
         return UserResponseDTO.toDto(updatedUser);
@@ -391,18 +399,25 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public List<String> getUserTopBrands(UUID userId, int limit) {
-        if (userId == null || mongoTemplate == null) return List.of();
+        if (userId == null) return List.of();
+
+        // Hồ sơ hành vi đã gộp sẵn điểm brand (có suy giảm) → 1 lần đọc theo khoá
+        if (userBehaviorProfileRepository != null) {
+            try {
+                UserBehaviorProfile profile = userBehaviorProfileRepository.findById(userId.toString()).orElse(null);
+                if (profile != null && !profile.getBrandScores().isEmpty()) return profile.topBrands(limit);
+            } catch (Exception e) {
+                System.err.println("getUserTopBrands profile read fail for " + userId + ": " + e.getMessage());
+            }
+        }
+        // Chưa có hồ sơ (user chưa phát sinh event từ khi bật) → tổng hợp từ log thô
+        if (interactionLogRepository == null) return List.of();
 
         try {
-            // Query last 30 PRODUCT events from user
-            Query q = Query.query(
-                    Criteria.where("userId").is(userId.toString())
-                            .and("eventType").in("VIEW_PRODUCT", "ADD_TO_CART", "CREATE_ORDER", "CHAT_RESULT_CLICK")
-                            .and("itemType").is("PRODUCT")
-            ).with(Sort.by(Sort.Direction.DESC, "timestamp"));
-            q.limit(30);
-
-            List<InteractionLog> events = mongoTemplate.find(q, InteractionLog.class);
+            // Last 30 PRODUCT events from user (chỉ lấy itemId + eventType)
+            List<InteractionLogRepository.ItemEventView> events = interactionLogRepository.findRecentItemEvents(
+                    userId.toString(), List.of("VIEW_PRODUCT", "ADD_TO_CART", "CREATE_ORDER", "CHAT_RESULT_CLICK"),
+                    "PRODUCT", 30);
             if (events.isEmpty()) return List.of();
 
             // Extract product IDs from events
@@ -427,12 +442,12 @@ public class UserServiceImpl implements UserService {
             // Weighted brand affinity by event INTENT strength (mua > thêm giỏ > click > xem).
             // Mỗi event không còn đếm 1 đều nhau — brand được MUA nặng hơn brand chỉ lướt xem.
             Map<String, Double> brandScore = new HashMap<>();
-            for (InteractionLog e : events) {
+            for (InteractionLogRepository.ItemEventView e : events) {
                 try {
                     Long pid = Long.parseLong(e.getItemId());
                     String brand = brandMap.get(pid);
                     if (brand != null) {
-                        brandScore.merge(brand, eventWeight(e.getEventType()), Double::sum);
+                        brandScore.merge(brand, UserBehaviorProfile.eventWeight(e.getEventType()), Double::sum);
                     }
                 } catch (Exception ignored) {}
             }
@@ -453,16 +468,4 @@ public class UserServiceImpl implements UserService {
             return List.of();
         }
     }
-
-    /** Trọng số event theo intent strength: mua > thêm giỏ > click chat > xem. Heuristic. */
-    private static double eventWeight(String eventType) {
-        if (eventType == null) return 1.0;
-        switch (eventType) {
-            case "CREATE_ORDER":       return 5.0;
-            case "ADD_TO_CART":        return 3.0;
-            case "CHAT_RESULT_CLICK":  return 2.0;
-            case "VIEW_PRODUCT":       return 1.0;
-            default:                   return 1.0;
-        }
-    }
 }
\ No newline at end of file
@@ -11,139 +11,156 @@ import com.example.FieldFinder.service.BankAccountService;
 import com.example.FieldFinder.service.NotificationService;
 import com.example.FieldFinder.service.WalletService;
 import com.example.FieldFinder.service.payout.PayoutCommand;
-import com.example.FieldFinder.service.payout.PayoutProvider;
-import com.example.FieldFinder.service.payout.PayoutResult;
+import com.example.FieldFinder.service.payout.PayoutEngine;
+import com.example.FieldFinder.service.payout.PayoutQueue;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Tự động RÚT số dư rút được của ví chủ sân về TK ngân hàng qua PayOS — job nền, không chặn luồng chính.
  * Quy trình mỗi vòng: (1) tạo lệnh rút cho ví có withdrawable>0, (2) đẩy lệnh PENDING, (3) poll PROCESSING.
- * Thất bại vĩnh viễn ⇒ hoàn lại số dư ví (reverseFailedWithdrawal). Idempotent + giới hạn số lần thử.
+ * (2) và (3) chạy qua {@link PayoutEngine}. Thất bại vĩnh viễn ⇒ hoàn lại số dư ví (reverseFailedWithdrawal).
  */
 @Component
 @RequiredArgsConstructor
-public class WalletPayoutProcessor {
+public class WalletPayoutProcessor implements PayoutQueue<WalletTransaction> {
 
     private final ProviderWalletRepository walletRepository;
     private final WalletTransactionRepository txRepository;
     private final WalletService walletService;
     private final BankAccountService bankAccountService;
-    private final PayoutProvider payoutProvider;
     private final NotificationService notificationService;
+    private final PayoutEngine payoutEngine;
+    private final TransactionTemplate transactionTemplate;
 
     @Value("${provider.wallet.withdraw-max-attempts:5}")
     private int maxAttempts;
 
+    /**
+     * Tạo lệnh rút cho ví đủ điều kiện — mỗi ví một transaction ngắn, khóa dòng ví TRƯỚC khi kiểm tra
+     * lệnh dở: nhiều node cùng quét sẽ xếp hàng trên ví, node sau thấy lệnh PENDING vừa tạo và bỏ qua.
+     */
     @Scheduled(fixedDelayString = "${provider.wallet.auto-payout-interval-ms:600000}")
-    @Transactional
     public void autoCreateWithdrawals() {
-        for (ProviderWallet wallet : walletRepository.findAllPositive()) {
-            Provider provider = wallet.getProvider();
-            if (provider == null || provider.getUser() == null) continue;
-
-            // Đã có lệnh rút dở ⇒ chờ xong rồi tính tiếp.
-            if (txRepository.existsByProvider_ProviderIdAndStatusIn(
-                    provider.getProviderId(), List.of(WalletTxnStatus.PENDING, WalletTxnStatus.PROCESSING))) {
-                continue;
-            }
-            BigDecimal withdrawable = walletService.computeWithdrawable(provider.getProviderId());
-            // Dưới sàn rút tối thiểu ⇒ giữ trong ví, gom đủ rồi rút (tránh phí payout > tiền lẻ).
-            if (withdrawable.compareTo(walletService.getMinWithdraw()) < 0) continue;
-
-            Optional<BankAccount> bank = bankAccountService.getDefault(provider.getUser().getUserId());
-            // Chưa liên kết TK / TK chưa được DUYỆT (tên lệch hồ sơ) ⇒ giữ trong ví, không chi.
-            if (bank.isEmpty()
-                    || bank.get().getReviewStatus() != com.example.FieldFinder.Enum.BankReviewStatus.APPROVED) {
-                continue;
+        List<UUID> providerIds = transactionTemplate.execute(status -> walletRepository.findAllPositive().stream()
+                .filter(w -> w.getProvider() != null)
+                .map(w -> w.getProvider().getProviderId())
+                .toList());
+        if (providerIds == null) return;
+        for (UUID providerId : providerIds) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> createWithdrawalIfDue(providerId));
+            } catch (Exception e) {
+                System.err.println("[WalletPayout] Lỗi tạo lệnh rút provider " + providerId + ": " + e.getMessage());
             }
+        }
+    }
 
-            walletService.createWithdrawal(provider, withdrawable, bank.get());
+    private void createWithdrawalIfDue(UUID providerId) {
+        ProviderWallet wallet = walletRepository.findByProviderIdForUpdate(providerId).orElse(null);
+        if (wallet == null || wallet.getBalance().signum() <= 0) return;
+        Provider provider = wallet.getProvider();
+        if (provider.getUser() == null) return;
+
+        // Đã có lệnh rút dở ⇒ chờ xong rồi tính tiếp.
+        if (txRepository.existsByProvider_ProviderIdAndStatusIn(
+                providerId, List.of(WalletTxnStatus.PENDING, WalletTxnStatus.PROCESSING))) {
+            return;
+        }
+        BigDecimal withdrawable = walletService.computeWithdrawable(providerId);
+        // Dưới sàn rút tối thiểu ⇒ giữ trong ví, gom đủ rồi rút (tránh phí payout > tiền lẻ).
+        if (withdrawable.compareTo(walletService.getMinWithdraw()) < 0) return;
+
+        Optional<BankAccount> bank = bankAccountService.getDefault(provider.getUser().getUserId());
+        // Chưa liên kết TK / TK chưa được DUYỆT (tên lệch hồ sơ) ⇒ giữ trong ví, không chi.
+        if (bank.isEmpty()
+                || bank.get().getReviewStatus() != com.example.FieldFinder.Enum.BankReviewStatus.APPROVED) {
+            return;
         }
+
+        walletService.createWithdrawal(provider, withdrawable, bank.get());
     }
 
     @Scheduled(fixedDelayString = "${provider.wallet.dispatch-interval-ms:30000}")
-    @Transactional
     public void dispatchPending() {
-        List<WalletTransaction> pending = txRepository.findByStatusOrderByCreatedAtAsc(WalletTxnStatus.PENDING);
-        if (pending.isEmpty()) return;
-        Optional<BigDecimal> balance = payoutProvider.getBalance();
-
-        for (WalletTransaction wtx : pending) {
-            BigDecimal amount = wtx.getAmount().abs();
-            if (balance.isPresent() && balance.get().compareTo(amount) < 0) {
-                System.err.println("[WalletPayout] Số dư TK chi không đủ cho rút " + wtx.getTxnId()
-                        + " (cần " + amount + ") — chờ nạp.");
-                continue;
-            }
-            wtx.setAttemptCount(wtx.getAttemptCount() + 1);
-            wtx.setLastAttemptAt(LocalDateTime.now());
-
-            PayoutResult res = payoutProvider.disburse(new PayoutCommand(
-                    wtx.getPayosReferenceId(),
-                    amount.longValueExact(),
-                    "Rut tien vi chu san " + wtx.getTxnId(),
-                    wtx.getBankBin(),
-                    wtx.getBankAccountNumber()));
-
-            wtx.setPayosTxnState(res.providerState());
-            wtx.setFailureReason(res.message());
-
-            switch (res.state()) {
-                case SUCCEEDED -> {
-                    wtx.setPayosPayoutId(res.payoutId());
-                    markSucceeded(wtx);
-                }
-                case PROCESSING -> {
-                    wtx.setPayosPayoutId(res.payoutId());
-                    wtx.setStatus(WalletTxnStatus.PROCESSING);
-                    txRepository.save(wtx);
-                }
-                case FAILED, UNKNOWN -> failOrRetry(wtx, res.message());
-            }
-        }
+        payoutEngine.dispatch(this);
     }
 
     @Scheduled(fixedDelayString = "${provider.wallet.poll-interval-ms:45000}")
-    @Transactional
     public void pollProcessing() {
-        for (WalletTransaction wtx : txRepository.findByStatusOrderByCreatedAtAsc(WalletTxnStatus.PROCESSING)) {
-            if (wtx.getPayosPayoutId() == null) continue;
-            PayoutResult res = payoutProvider.getStatus(wtx.getPayosPayoutId());
-            wtx.setPayosTxnState(res.providerState());
-            switch (res.state()) {
-                case SUCCEEDED -> markSucceeded(wtx);
-                case FAILED -> {
-                    wtx.setFailureReason(res.message());
-                    walletService.reverseFailedWithdrawal(wtx); // hoàn số dư
-                    alertAdmin(wtx, "Rút FAILED khi poll: " + res.message());
-                }
-                case PROCESSING, UNKNOWN -> { /* chờ vòng sau */ }
-            }
-        }
+        payoutEngine.poll(this);
     }
 
-    private void failOrRetry(WalletTransaction wtx, String reason) {
-        if (wtx.getAttemptCount() >= maxAttempts) {
-            walletService.reverseFailedWithdrawal(wtx); // quá số lần ⇒ hoàn số dư, đóng lệnh
-            alertAdmin(wtx, "Rút FAILED sau " + wtx.getAttemptCount() + " lần: " + reason);
-        } else {
-            txRepository.save(wtx); // còn lượt ⇒ giữ PENDING, thử lại
-        }
+    // ═══════════════════════════════════════════
+    //  PayoutQueue
+    // ═══════════════════════════════════════════
+
+    @Override
+    public String name() {
+        return "provider-wallet";
+    }
+
+    @Override
+    public int maxAttempts() {
+        return maxAttempts;
     }
 
-    private void markSucceeded(WalletTransaction wtx) {
+    @Override
+    public List<WalletTransaction> lockDue(Phase phase, LocalDateTime now, int limit) {
+        WalletTxnStatus status = phase == Phase.DISPATCH ? WalletTxnStatus.PENDING : WalletTxnStatus.PROCESSING;
+        return txRepository.findDueForUpdate(status, now, Limit.of(limit));
+    }
+
+    @Override
+    public Optional<WalletTransaction> lockById(UUID id) {
+        return txRepository.findByIdForUpdate(id);
+    }
+
+    @Override
+    public UUID idOf(WalletTransaction wtx) {
+        return wtx.getTxnId();
+    }
+
+    @Override
+    public PayoutCommand command(WalletTransaction wtx) {
+        return new PayoutCommand(
+                wtx.getPayosReferenceId(),
+                wtx.getAmount().abs().longValueExact(),
+                "Rut tien vi chu san " + wtx.getTxnId(),
+                wtx.getBankBin(),
+                wtx.getBankAccountNumber());
+    }
+
+    @Override
+    public void save(WalletTransaction wtx) {
+        txRepository.save(wtx);
+    }
+
+    @Override
+    public void markProcessing(WalletTransaction wtx) {
+        wtx.setStatus(WalletTxnStatus.PROCESSING);
+    }
+
+    @Override
+    public void markFailed(WalletTransaction wtx, String reason) {
+        walletService.reverseFailedWithdrawal(wtx); // hoàn số dư, đóng lệnh
+        alertAdmin(wtx, "Rút " + reason);
+    }
+
+    @Override
+    public void markSucceeded(WalletTransaction wtx) {
         wtx.setStatus(WalletTxnStatus.SUCCEEDED);
         wtx.setProcessedAt(LocalDateTime.now());
-        txRepository.save(wtx);
         System.out.println("[WalletPayout] Rút thành công " + wtx.getTxnId()
                 + " amount=" + wtx.getAmount().abs() + " -> " + wtx.getBankAccountNumber());
         if (wtx.getProvider() != null && wtx.getProvider().getUser() != null) {
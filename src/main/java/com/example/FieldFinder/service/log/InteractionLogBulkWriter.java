@@ -0,0 +1,62 @@
+package com.example.FieldFinder.service.log;
+
+import com.example.FieldFinder.entity.log.InteractionLog;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ghi lô log hành vi bằng 1 lệnh {@code insertMany} (unordered, w:1) thay vì {@code save} từng event.
+ *
+ * Unordered: 1 document lỗi không chặn phần còn lại. Trùng {@code _id} (message bị giao lại sau khi
+ * đã ghi) tính là đã ghi; lỗi khác trả về theo vị trí để caller đẩy sang dead-letter.
+ */
+@Component
+public class InteractionLogBulkWriter {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    /** {@code failedIndexes}: vị trí (trong list truyền vào) của event Mongo từ chối. */
+    public record Result(int inserted, int duplicates, List<Integer> failedIndexes) {}
+
+    private final MongoTemplate mongoTemplate;
+
+    public InteractionLogBulkWriter(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /** Lỗi cả lô (mất kết nối, map document lỗi...) → ném exception, không ghi nhận phần nào. */
+    public Result insertUnordered(List<InteractionLog> logs) {
+        if (logs.isEmpty()) return new Result(0, 0, List.of());
+        List<Document> docs = new ArrayList<>(logs.size());
+        for (InteractionLog log : logs) {
+            Document doc = new Document();
+            mongoTemplate.getConverter().write(log, doc);
+            docs.add(doc);
+        }
+        MongoCollection<Document> collection = mongoTemplate.getCollection(
+                mongoTemplate.getCollectionName(InteractionLog.class)).withWriteConcern(WriteConcern.W1);
+        try {
+            collection.insertMany(docs, new InsertManyOptions().ordered(false));
+            return new Result(docs.size(), 0, List.of());
+        } catch (MongoBulkWriteException e) {
+            // Write concern không đạt: ném lên để giao lại cả lô (phần đã ghi thành trùng _id lần sau)
+            if (e.getWriteConcernError() != null) throw e;
+            int duplicates = 0;
+            List<Integer> failed = new ArrayList<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() == DUPLICATE_KEY) duplicates++;
+                else failed.add(error.getIndex());
+            }
+            return new Result(e.getWriteResult().getInsertedCount(), duplicates, failed);
+        }
+    }
+}
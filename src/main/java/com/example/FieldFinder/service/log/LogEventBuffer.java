@@ -0,0 +1,81 @@
+package com.example.FieldFinder.service.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffer vòng có giới hạn giữa request thread (offer) và thread flush của {@link LogPublisherService}.
+ *
+ * Đầy thì bỏ event giá trị thấp (impression) trước: impression mới bị bỏ luôn; event thường mới
+ * đẩy impression cũ nhất ra, chỉ bị bỏ khi buffer toàn event thường.
+ */
+final class LogEventBuffer<T> {
+
+    private final int capacity;
+    private final ArrayDeque<T> normal;
+    private final ArrayDeque<T> lowValue;
+    private int signalAt = Integer.MAX_VALUE;
+
+    private long droppedLowValue;
+    private long droppedNormal;
+
+    LogEventBuffer(int capacity) {
+        this.capacity = capacity;
+        this.normal = new ArrayDeque<>();
+        this.lowValue = new ArrayDeque<>();
+    }
+
+    /** false → event bị bỏ do buffer đầy. */
+    synchronized boolean offer(T event, boolean isLowValue) {
+        if (size() >= capacity) {
+            if (isLowValue || lowValue.isEmpty()) {
+                if (isLowValue) droppedLowValue++;
+                else droppedNormal++;
+                return false;
+            }
+            lowValue.pollFirst();
+            droppedLowValue++;
+        }
+        (isLowValue ? lowValue : normal).addLast(event);
+        if (size() == signalAt) notifyAll();
+        return true;
+    }
+
+    /** Chờ tới khi có ít nhất {@code batchSize} event hoặc hết {@code maxWaitMs}. */
+    synchronized void awaitBatch(int batchSize, long maxWaitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        signalAt = batchSize;
+        try {
+            long left;
+            while (size() < batchSize && (left = deadline - System.currentTimeMillis()) > 0) {
+                wait(left);
+            }
+        } finally {
+            signalAt = Integer.MAX_VALUE;
+        }
+    }
+
+    /** Lấy tối đa {@code max} event, event thường trước. */
+    synchronized List<T> drain(int max) {
+        List<T> out = new ArrayList<>(Math.min(max, size()));
+        while (out.size() < max && !normal.isEmpty()) out.add(normal.pollFirst());
+        while (out.size() < max && !lowValue.isEmpty()) out.add(lowValue.pollFirst());
+        return out;
+    }
+
+    synchronized int size() {
+        return normal.size() + lowValue.size();
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buffered", size());
+        stats.put("capacity", capacity);
+        stats.put("droppedLowValue", droppedLowValue);
+        stats.put("droppedNormal", droppedNormal);
+        return stats;
+    }
+}
@@ -2,11 +2,14 @@ package com.example.FieldFinder.service.log;
 
 import com.example.FieldFinder.config.RabbitMQLogConfig;
 import com.example.FieldFinder.entity.log.InteractionLog;
-import com.example.FieldFinder.repository.UserRepository;
+import com.example.FieldFinder.entity.log.InteractionLogBatch;
 import com.example.FieldFinder.service.OpenWeatherService;
-import lombok.RequiredArgsConstructor;
+import com.example.FieldFinder.service.log.UserDemographicsCache.Demographics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -14,99 +17,262 @@ import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Gom log hành vi theo lô: request thread chỉ đẩy event thô vào {@link LogEventBuffer}; thread
+ * {@code log-publisher} cứ {@code flushIntervalMs} hoặc đủ {@code batchSize} event thì làm giàu cả lô
+ * (nhân khẩu học qua {@link UserDemographicsCache}, thời tiết 1 lần/lô, User-Agent đã memo) rồi gửi
+ * 1 message {@link InteractionLogBatch}.
+ *
+ * Buffer đầy → bỏ impression trước (xem {@link LogEventBuffer}); gửi lỗi → bỏ lô, đếm vào stats.
+ */
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class LogPublisherService {
 
+    private static final ZoneId ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    // User-Agent: regex biên dịch 1 lần, kết quả memo LRU theo chuỗi UA
+    // Android: "Linux; Android 13; SM-G991B Build/TP1A.220624.014; wv"
+    private static final Pattern ANDROID = Pattern.compile("Android\\s+([\\d.]+)(?:;\\s*([^;)]+))?");
+    // iPhone: "iPhone; CPU iPhone OS 17_4 like Mac OS X"
+    private static final Pattern IOS = Pattern.compile("(iPhone|iPad).*?OS\\s+([\\d_]+)");
+    // Windows: "Windows NT 10.0"
+    private static final Pattern WINDOWS = Pattern.compile("Windows NT\\s+([\\d.]+)");
+    // Mac: "Macintosh; Intel Mac OS X 10_15_7"
+    private static final Pattern MAC = Pattern.compile("Macintosh.*?OS X\\s+([\\d_]+)");
+
+    private static final int UA_CACHE_SIZE = 1024;
+    private static final Map<String, Map<String, String>> UA_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                    return size() > UA_CACHE_SIZE;
+                }
+            });
+
+    /** Event thô, chụp thời điểm lúc phát sinh — làm giàu (kể cả metadata) để lúc flush. */
+    record PendingEvent(String userId, String sessionId, String eventType, String itemId, String itemType,
+                        Supplier<Map<String, Object>> metadata, String userAgent, Double lat, Double lng,
+                        Instant timestamp) {}
+
     private final RabbitTemplate rabbitTemplate;
     private final OpenWeatherService openWeatherService;
-    private final UserRepository userRepository;
+    private final UserDemographicsCache demographicsCache;
+    private final LogEventBuffer<PendingEvent> buffer;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private volatile Thread flusher;
+
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder eventsFailed = new LongAdder();
+    private final LongAdder metadataFailed = new LongAdder();
+
+    public LogPublisherService(RabbitTemplate rabbitTemplate,
+                               OpenWeatherService openWeatherService,
+                               UserDemographicsCache demographicsCache,
+                               @Value("${log.publisher.batch-size:500}") int batchSize,
+                               @Value("${log.publisher.flush-interval-ms:100}") long flushIntervalMs,
+                               @Value("${log.publisher.buffer-capacity:20000}") int bufferCapacity) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.openWeatherService = openWeatherService;
+        this.demographicsCache = demographicsCache;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.buffer = new LogEventBuffer<>(bufferCapacity);
+    }
+
+    @PostConstruct
+    void start() {
+        Thread t = new Thread(this::runFlusher, "log-publisher");
+        t.setDaemon(true);
+        flusher = t;
+        t.start();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        Thread t = flusher;
+        flusher = null;
+        if (t != null) {
+            t.interrupt();
+            t.join(2_000);
+        }
+        // Xả nốt phần còn trong buffer trước khi tắt
+        while (buffer.size() > 0) flush();
+    }
 
-    @Async
     public void publishEvent(String userId, String sessionId, String eventType,
                              String itemId, String itemType, Map<String, Object> metadata, String userAgent) {
         publishEventEnriched(userId, sessionId, eventType, itemId, itemType, metadata, userAgent, null, null);
     }
 
-    @Async
+    /** Không chặn: chỉ xếp event vào buffer. */
     public void publishEventEnriched(String userId, String sessionId, String eventType,
                                      String itemId, String itemType, Map<String, Object> metadata,
                                      String userAgent, Double lat, Double lng) {
+        publishEventLazy(userId, sessionId, eventType, itemId, itemType, () -> metadata, userAgent, lat, lng);
+    }
+
+    /**
+     * Như {@link #publishEventEnriched} nhưng metadata chỉ dựng lúc flush, trên thread
+     * {@code log-publisher} — {@code metadata} chỉ được đọc dữ liệu không còn đổi sau request
+     * (DTO đã trả về), không đụng request/session.
+     */
+    public void publishEventLazy(String userId, String sessionId, String eventType,
+                                 String itemId, String itemType, Supplier<Map<String, Object>> metadata,
+                                 String userAgent, Double lat, Double lng) {
+        buffer.offer(new PendingEvent(userId, sessionId, eventType, itemId, itemType, metadata, userAgent,
+                lat, lng, Instant.now()), isLowValue(eventType));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(buffer.stats());
+        stats.put("batchesSent", batchesSent.sum());
+        stats.put("eventsSent", eventsSent.sum());
+        stats.put("eventsFailed", eventsFailed.sum());
+        stats.put("metadataFailed", metadataFailed.sum());
+        stats.put("demographics", demographicsCache.stats());
+        return stats;
+    }
 
-        ZonedDateTime now = ZonedDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh"));
+    /** Impression danh sách: nhiều nhất, giá trị thấp nhất → bỏ trước khi quá tải. */
+    static boolean isLowValue(String eventType) {
+        return eventType != null && eventType.startsWith("IMPRESSION");
+    }
+
+    private void runFlusher() {
+        while (flusher == Thread.currentThread()) {
+            try {
+                buffer.awaitBatch(batchSize, flushIntervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                flush();
+            } catch (Exception e) {
+                log.warn("Log publisher: flush failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** Làm giàu + gửi tối đa {@code batchSize} event đang chờ; trả số event đã lấy khỏi buffer. */
+    int flush() {
+        List<PendingEvent> pending = buffer.drain(batchSize);
+        if (pending.isEmpty()) return 0;
+
+        List<String> userIds = new ArrayList<>(pending.size());
+        for (PendingEvent e : pending) {
+            if (e.userId() != null && !e.userId().isBlank()) userIds.add(e.userId());
+        }
+        Map<String, Demographics> demographics = demographicsCache.getAll(userIds);
+        String weather = openWeatherService.getCachedDefaultWeather();
+
+        List<InteractionLog> logs = new ArrayList<>(pending.size());
+        for (PendingEvent e : pending) logs.add(toLog(e, demographics.get(e.userId()), weather));
+        try {
+            rabbitTemplate.convertAndSend(RabbitMQLogConfig.EXCHANGE_LOG, RabbitMQLogConfig.ROUTING_KEY_LOG_BATCH,
+                    new InteractionLogBatch(logs));
+            batchesSent.increment();
+            eventsSent.add(logs.size());
+        } catch (Exception ex) {
+            eventsFailed.add(logs.size());
+            log.warn("Log publisher: drop batch of {} events: {}", logs.size(), ex.getMessage());
+        }
+        return pending.size();
+    }
+
+    private InteractionLog toLog(PendingEvent e, Demographics demographics, String weather) {
+        ZonedDateTime at = e.timestamp().atZone(ZONE);
 
         Map<String, Object> context = new HashMap<>();
-        context.put("device_info", userAgent);
+        context.put("device_info", e.userAgent());
 
-        Map<String, String> parsedUA = parseUserAgent(userAgent);
+        Map<String, String> parsedUA = parseUserAgent(e.userAgent());
         context.put("device_model", parsedUA.get("device_model"));
         context.put("os", parsedUA.get("os"));
         context.put("os_version", parsedUA.get("os_version"));
 
-        context.put("weather", openWeatherService.getCachedDefaultWeather());
+        context.put("weather", weather);
 
-        if (lat != null && lng != null) {
+        if (e.lat() != null && e.lng() != null) {
             Map<String, Double> location = new HashMap<>();
-            location.put("lat", lat);
-            location.put("lng", lng);
+            location.put("lat", e.lat());
+            location.put("lng", e.lng());
             context.put("location", location);
         }
 
-        snapshotUserDemographics(userId, context);
+        if (demographics != null) putDemographics(demographics, at.toLocalDate(), context);
 
-        InteractionLog log = InteractionLog.builder()
+        return InteractionLog.builder()
                 .logId(UUID.randomUUID().toString())
-                .userId(userId)
-                .sessionId(sessionId)
-                .timestamp(Instant.now())
-                .dayOfWeek(now.getDayOfWeek().getValue())
-                .hourOfDay(now.getHour())
-                .isWeekend(now.getDayOfWeek().getValue() >= 6)
+                .userId(e.userId())
+                .sessionId(e.sessionId())
+                .timestamp(e.timestamp())
+                .dayOfWeek(at.getDayOfWeek().getValue())
+                .hourOfDay(at.getHour())
+                .isWeekend(at.getDayOfWeek().getValue() >= 6)
                 .context(context)
-                .eventType(eventType)
-                .itemId(itemId)
-                .itemType(itemType)
-                .eventMetadata(metadata != null ? metadata : new HashMap<>()) // Nhận metadata từ AOP
+                .eventType(e.eventType())
+                .itemId(e.itemId())
+                .itemType(e.itemType())
+                .eventMetadata(buildMetadata(e)) // Nhận metadata từ AOP
                 .build();
+    }
 
-        rabbitTemplate.convertAndSend(RabbitMQLogConfig.EXCHANGE_LOG, RabbitMQLogConfig.ROUTING_KEY_LOG, log);
+    /** Lỗi dựng metadata không làm mất event — ghi event với metadata rỗng. */
+    private Map<String, Object> buildMetadata(PendingEvent e) {
+        try {
+            Map<String, Object> metadata = e.metadata() != null ? e.metadata().get() : null;
+            return metadata != null ? metadata : new HashMap<>();
+        } catch (Exception ex) {
+            metadataFailed.increment();
+            log.warn("Log publisher: metadata for {} failed: {}", e.eventType(), ex.getMessage());
+            return new HashMap<>();
+        }
     }
 
     // ── User demographics snapshot ──
-    private void snapshotUserDemographics(String userId, Map<String, Object> context) {
-        if (userId == null || userId.isBlank()) return;
-        try {
-            UUID uid = UUID.fromString(userId);
-            userRepository.findById(uid).ifPresent(user -> {
-                if (user.getDateOfBirth() != null) {
-                    int age = Period.between(user.getDateOfBirth(), LocalDate.now(ZoneId.of("Asia/Ho_Chi_Minh"))).getYears();
-                    context.put("user_age_at_event", age);
-                }
-                if (user.getGender() != null) {
-                    context.put("user_gender", user.getGender().name());
-                }
-                if (user.getLatitude() != null && user.getLongitude() != null
-                        && !context.containsKey("location")) {
-                    // Fallback: dùng location profile nếu frontend không gửi
-                    Map<String, Double> location = new HashMap<>();
-                    location.put("lat", user.getLatitude());
-                    location.put("lng", user.getLongitude());
-                    context.put("location", location);
-                }
-            });
-        } catch (IllegalArgumentException ignored) {
-            // userId không phải UUID hợp lệ (VD: guest), bỏ qua
+    private static void putDemographics(Demographics d, LocalDate today, Map<String, Object> context) {
+        if (d.dateOfBirth() != null) {
+            context.put("user_age_at_event", Period.between(d.dateOfBirth(), today).getYears());
+        }
+        if (d.gender() != null) {
+            context.put("user_gender", d.gender());
+        }
+        if (d.latitude() != null && d.longitude() != null && !context.containsKey("location")) {
+            // Fallback: dùng location profile nếu frontend không gửi
+            Map<String, Double> location = new HashMap<>();
+            location.put("lat", d.latitude());
+            location.put("lng", d.longitude());
+            context.put("location", location);
         }
     }
 
     // ── User-Agent parser (regex, không cần thêm dependency) ──
+    /** Kết quả không sửa được (dùng chung giữa các event cùng UA). */
     static Map<String, String> parseUserAgent(String userAgent) {
+        if (userAgent == null) return doParseUserAgent(null);
+        Map<String, String> cached = UA_CACHE.get(userAgent);
+        if (cached != null) return cached;
+        Map<String, String> parsed = doParseUserAgent(userAgent);
+        UA_CACHE.put(userAgent, parsed);
+        return parsed;
+    }
+
+    private static Map<String, String> doParseUserAgent(String userAgent) {
         Map<String, String> result = new HashMap<>();
         result.put("device_model", "Unknown");
         result.put("os", "Unknown");
@@ -114,12 +280,10 @@ public class LogPublisherService {
 
         if (userAgent == null || userAgent.isBlank() || "AI_Chatbot".equals(userAgent)) {
             result.put("os", "AI_Chatbot".equals(userAgent) ? "Server" : "Unknown");
-            return result;
+            return Collections.unmodifiableMap(result);
         }
 
-        // Android: "Linux; Android 13; SM-G991B Build/TP1A.220624.014; wv"
-        Pattern androidPattern = Pattern.compile("Android\\s+([\\d.]+)(?:;\\s*([^;)]+))?");
-        Matcher m = androidPattern.matcher(userAgent);
+        Matcher m = ANDROID.matcher(userAgent);
         if (m.find()) {
             result.put("os", "Android");
             result.put("os_version", m.group(1));
@@ -127,37 +291,31 @@ public class LogPublisherService {
                 String model = m.group(2).trim().split(" Build/")[0];
                 result.put("device_model", model);
             }
-            return result;
+            return Collections.unmodifiableMap(result);
         }
 
-        // iPhone: "iPhone; CPU iPhone OS 17_4 like Mac OS X"
-        Pattern iosPattern = Pattern.compile("(iPhone|iPad).*?OS\\s+([\\d_]+)");
-        m = iosPattern.matcher(userAgent);
+        m = IOS.matcher(userAgent);
         if (m.find()) {
             result.put("os", "iOS");
             result.put("os_version", m.group(2).replace('_', '.'));
             result.put("device_model", m.group(1));
-            return result;
+            return Collections.unmodifiableMap(result);
         }
 
-        // Windows: "Windows NT 10.0"
-        Pattern winPattern = Pattern.compile("Windows NT\\s+([\\d.]+)");
-        m = winPattern.matcher(userAgent);
+        m = WINDOWS.matcher(userAgent);
         if (m.find()) {
             result.put("os", "Windows");
             result.put("os_version", m.group(1));
             result.put("device_model", "PC");
-            return result;
+            return Collections.unmodifiableMap(result);
         }
 
-        // Mac: "Macintosh; Intel Mac OS X 10_15_7"
-        Pattern macPattern = Pattern.compile("Macintosh.*?OS X\\s+([\\d_]+)");
-        m = macPattern.matcher(userAgent);
+        m = MAC.matcher(userAgent);
         if (m.find()) {
             result.put("os", "macOS");
             result.put("os_version", m.group(1).replace('_', '.'));
             result.put("device_model", "Mac");
-            return result;
+            return Collections.unmodifiableMap(result);
         }
 
         // Linux generic
@@ -166,6 +324,6 @@ public class LogPublisherService {
             result.put("device_model", "PC");
         }
 
-        return result;
+        return Collections.unmodifiableMap(result);
     }
 }
\ No newline at end of file
@@ -2,26 +2,225 @@ package com.example.FieldFinder.service.log;
 
 import com.example.FieldFinder.config.RabbitMQLogConfig;
 import com.example.FieldFinder.entity.log.InteractionLog;
-import com.example.FieldFinder.repository.InteractionLogRepository;
-import lombok.RequiredArgsConstructor;
+import com.example.FieldFinder.entity.log.InteractionLogBatch;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.BSONException;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mapping.MappingException;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumer log hành vi theo lô: mỗi lần nhận tối đa N message (xem
+ * {@link RabbitMQLogConfig#logBatchListenerFactory}), gộp mọi event rồi ghi 1 lệnh {@code insertMany}.
+ * Ack tay 1 lần cho cả lô SAU KHI ghi xong.
+ *
+ * - Message không parse được / event thiếu trường bắt buộc → dead-letter, không chặn cả lô.
+ * - Mongo từ chối cả lô vì lỗi dữ liệu → chia đôi tới khi cô lập được event hỏng → dead-letter.
+ * - Lỗi khác (Mongo không tới được, write concern...) → nack requeue cả lô sau {@code requeueBackoffMs}, lần sau ghi lại
+ *   (trùng {@code _id} với phần đã ghi được bỏ qua).
+ *
+ * Ghi xong mới gộp các event đã lưu vào {@link UserBehaviorProfileUpdater}; lỗi ở bước này chỉ đếm,
+ * không giao lại lô (log đã an toàn trong Mongo).
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class LogRabbitListener {
 
-    private final InteractionLogRepository logRepository;
+    private static final String ERROR_HEADER = "x-log-error";
+
+    private final InteractionLogBulkWriter writer;
+    private final UserBehaviorProfileUpdater profileUpdater;
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+    private final long requeueBackoffMs;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder requeued = new LongAdder();
+    private final LongAdder profileFailures = new LongAdder();
+
+    public LogRabbitListener(InteractionLogBulkWriter writer,
+                             UserBehaviorProfileUpdater profileUpdater,
+                             RabbitTemplate rabbitTemplate,
+                             ObjectMapper objectMapper,
+                             @Value("${log.consumer.requeue-backoff-ms:1000}") long requeueBackoffMs) {
+        this.writer = writer;
+        this.profileUpdater = profileUpdater;
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+        this.requeueBackoffMs = requeueBackoffMs;
+    }
+
+    /** Nhận cả queue cũ (1 {@link InteractionLog}/message) lẫn queue lô ({@link InteractionLogBatch}). */
+    @RabbitListener(queues = {RabbitMQLogConfig.QUEUE_LOG, RabbitMQLogConfig.QUEUE_LOG_BATCH},
+            containerFactory = RabbitMQLogConfig.LOG_LISTENER_FACTORY)
+    public void consumeLogEvents(List<Message> messages, Channel channel) throws IOException {
+        if (messages.isEmpty()) return;
+        batches.increment();
+        long lastTag = messages.get(messages.size() - 1).getMessageProperties().getDeliveryTag();
+
+        List<InteractionLog> events = new ArrayList<>();
+        List<InteractionLog> written = new ArrayList<>();
+        try {
+            for (Message message : messages) decode(message, events);
+            write(events, written);
+        } catch (TransientWriteException e) {
+            requeued.add(messages.size());
+            log.warn("Log consumer: Mongo unavailable, requeue {} messages: {}", messages.size(), e.getMessage());
+            backoff();
+            channel.basicNack(lastTag, true, true);
+            return;
+        }
+        updateProfiles(written);
+        channel.basicAck(lastTag, true);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", batches.sum());
+        stats.put("inserted", inserted.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("splits", splits.sum());
+        stats.put("requeued", requeued.sum());
+        stats.put("profileFailures", profileFailures.sum());
+        stats.put("profiles", profileUpdater.stats());
+        return stats;
+    }
 
-    @RabbitListener(queues = RabbitMQLogConfig.QUEUE_LOG)
-    public void consumeLogEvent(InteractionLog interactionLog) {
+    private void decode(Message message, List<InteractionLog> out) {
+        List<InteractionLog> events;
         try {
-            logRepository.save(interactionLog);
-            log.info(" Đã ghi Log thành công: Event={}, User={}", interactionLog.getEventType(), interactionLog.getUserId());
+            JsonNode root = objectMapper.readTree(message.getBody());
+            if (root.has("events")) {
+                InteractionLogBatch batch = objectMapper.treeToValue(root, InteractionLogBatch.class);
+                events = batch.getEvents() != null ? batch.getEvents() : List.of();
+            } else {
+                events = List.of(objectMapper.treeToValue(root, InteractionLog.class));
+            }
         } catch (Exception e) {
-            log.error(" Lỗi khi ghi log vào MongoDB: ", e);
+            deadLetter(message.getBody(), "unparseable: " + e.getMessage());
+            return;
+        }
+        for (InteractionLog event : events) {
+            if (event == null || event.getEventType() == null || event.getTimestamp() == null) {
+                deadLetter(event, "missing eventType/timestamp");
+            } else {
+                out.add(event);
+            }
+        }
+    }
+
+    /** Ghi {@code events} (phần đã lưu vào {@code written}); lỗi dữ liệu → chia đôi tới khi cô lập được event hỏng. */
+    private void write(List<InteractionLog> events, List<InteractionLog> written) {
+        if (events.isEmpty()) return;
+        InteractionLogBulkWriter.Result result;
+        try {
+            result = writer.insertUnordered(events);
+        } catch (RuntimeException e) {
+            if (isTransient(e)) throw new TransientWriteException(e);
+            if (events.size() == 1) {
+                deadLetter(events.get(0), e.getClass().getSimpleName() + ": " + e.getMessage());
+                return;
+            }
+            splits.increment();
+            int mid = events.size() / 2;
+            write(events.subList(0, mid), written);
+            write(events.subList(mid, events.size()), written);
+            return;
+        }
+        inserted.add(result.inserted());
+        duplicates.add(result.duplicates());
+        Set<Integer> failed = new HashSet<>(result.failedIndexes());
+        for (int i = 0; i < events.size(); i++) {
+            if (failed.contains(i)) deadLetter(events.get(i), "rejected by Mongo");
+            else written.add(events.get(i));
+        }
+    }
+
+    private void updateProfiles(List<InteractionLog> written) {
+        if (written.isEmpty()) return;
+        try {
+            profileUpdater.apply(written);
+        } catch (Exception e) {
+            profileFailures.increment();
+            log.warn("Log consumer: behavior profile update failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Chỉ lỗi dữ liệu (map/serialize document, tham số sai) mới chia đôi + dead-letter; mọi lỗi còn lại
+     * (mạng, pool bị clear, write concern, auth, interrupt...) coi là tạm thời → giao lại cả lô.
+     */
+    private static boolean isTransient(RuntimeException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CodecConfigurationException
+                    || t instanceof BSONException
+                    || t instanceof MappingException
+                    || t instanceof IllegalArgumentException) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deadLetter(InteractionLog event, String reason) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(event);
+        } catch (Exception e) {
+            body = String.valueOf(event).getBytes(StandardCharsets.UTF_8);
+        }
+        deadLetter(body, reason);
+    }
+
+    private void deadLetter(byte[] body, String reason) {
+        MessageProperties props = new MessageProperties();
+        props.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        props.setHeader(ERROR_HEADER, reason);
+        try {
+            rabbitTemplate.send(RabbitMQLogConfig.EXCHANGE_LOG, RabbitMQLogConfig.ROUTING_KEY_LOG_DEAD,
+                    new Message(body, props));
+            deadLettered.increment();
+        } catch (Exception e) {
+            // Không gửi được dead-letter thì giao lại cả lô, đừng làm mất event
+            throw new TransientWriteException(e);
+        }
+    }
+
+    private void backoff() {
+        try {
+            Thread.sleep(requeueBackoffMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Lỗi hạ tầng (Mongo/RabbitMQ không tới được): giao lại cả lô thay vì dead-letter. */
+    static final class TransientWriteException extends RuntimeException {
+        TransientWriteException(Throwable cause) {
+            super(cause.getMessage(), cause);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,324 @@
+package com.example.FieldFinder.service.log;
+
+import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import com.example.FieldFinder.repository.InteractionLogRepository;
+import com.example.FieldFinder.repository.InteractionLogRepository.ItemEventView;
+import com.example.FieldFinder.repository.OrderItemRepository;
+import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.repository.ProductRepository.ProductTraitView;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gộp lô log vừa ghi vào {@link UserBehaviorProfile} của từng user: 1 {@code findAllById} cho cả lô,
+ * 1 lần ghi / user (optimistic lock, đụng consumer khác thì đọc lại rồi gộp lại).
+ *
+ * Brand / danh mục / giá lấy từ snapshot trong metadata; event không có (đơn hàng, click chat) thì
+ * tra 1 query projection cho cả lô.
+ *
+ * Hồ sơ có là nơi đọc tin ngay (không quay lại log thô), nên hồ sơ mới được seed đủ các danh sách:
+ * sản phẩm đã mua từ lịch sử đơn, sản phẩm / sân đã xem từ log thô. Event đã gộp (theo logId) bị bỏ
+ * qua khi lô được giao lại.
+ */
+@Slf4j
+@Component
+public class UserBehaviorProfileUpdater {
+
+    static final int MAX_RECENT_PRODUCTS = 50;
+    static final int MAX_PURCHASED_PRODUCTS = 100;
+    static final int MAX_VISITED_PITCHES = 50;
+    static final int MAX_SCORED_KEYS = 30;
+    static final int MAX_FOLDED_LOG_IDS = 200;
+    private static final double MIN_SCORE = 0.05;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final UserBehaviorProfileRepository profileRepository;
+    private final ProductRepository productRepository;
+    private final OrderItemRepository orderItemRepository;
+    private final InteractionLogRepository interactionLogRepository;
+    private final double halfLifeMs;
+
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public UserBehaviorProfileUpdater(UserBehaviorProfileRepository profileRepository,
+                                      ProductRepository productRepository,
+                                      OrderItemRepository orderItemRepository,
+                                      InteractionLogRepository interactionLogRepository,
+                                      @Value("${log.profile.half-life-days:14}") long halfLifeDays) {
+        this.profileRepository = profileRepository;
+        this.productRepository = productRepository;
+        this.orderItemRepository = orderItemRepository;
+        this.interactionLogRepository = interactionLogRepository;
+        this.halfLifeMs = Duration.ofDays(halfLifeDays).toMillis();
+    }
+
+    /** Event không gắn user hoặc không mang tín hiệu sở thích thì bỏ qua. */
+    public void apply(List<InteractionLog> events) {
+        Map<String, List<InteractionLog>> byUser = new LinkedHashMap<>();
+        for (InteractionLog e : events) {
+            if (e.getUserId() == null || e.getUserId().isBlank() || !isProfileEvent(e)) continue;
+            byUser.computeIfAbsent(e.getUserId(), k -> new ArrayList<>()).add(e);
+        }
+        if (byUser.isEmpty()) return;
+        byUser.values().forEach(list -> list.sort(Comparator.comparing(InteractionLog::getTimestamp)));
+
+        Map<Long, ProductTraitView> traits = loadMissingTraits(byUser.values());
+        Map<String, UserBehaviorProfile> current = new HashMap<>();
+        profileRepository.findAllById(byUser.keySet()).forEach(p -> current.put(p.getUserId(), p));
+
+        byUser.forEach((userId, userEvents) -> {
+            try {
+                save(userId, current.get(userId), userEvents, traits);
+            } catch (Exception ex) {
+                failures.increment();
+                log.warn("Behavior profile: update failed for {}: {}", userId, ex.getMessage());
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("updated", updated.sum());
+        stats.put("created", created.sum());
+        stats.put("conflicts", conflicts.sum());
+        stats.put("redelivered", redelivered.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+
+    private void save(String userId, UserBehaviorProfile profile, List<InteractionLog> events,
+                      Map<Long, ProductTraitView> traits) {
+        for (int attempt = 1; ; attempt++) {
+            boolean isNew = profile == null;
+            if (isNew) profile = newProfile(userId);
+            int folded = 0;
+            for (InteractionLog e : events) {
+                if (!markFolded(profile, e.getLogId())) {
+                    redelivered.increment();
+                    continue;
+                }
+                fold(profile, e, traits);
+                folded++;
+            }
+            if (folded == 0 && !isNew) return;
+            try {
+                profileRepository.save(profile);
+                (isNew ? created : updated).increment();
+                return;
+            } catch (OptimisticLockingFailureException | DuplicateKeyException e) {
+                conflicts.increment();
+                if (attempt >= MAX_ATTEMPTS) throw e;
+                profile = profileRepository.findById(userId).orElse(null);
+            }
+        }
+    }
+
+    /** false nếu event này đã gộp vào hồ sơ (lô giao lại); event không có logId luôn gộp. */
+    private static boolean markFolded(UserBehaviorProfile p, String logId) {
+        if (logId == null) return true;
+        if (p.getFoldedLogIds() == null) p.setFoldedLogIds(new ArrayList<>());
+        if (p.getFoldedLogIds().contains(logId)) return false;
+        pushFront(p.getFoldedLogIds(), logId, MAX_FOLDED_LOG_IDS);
+        return true;
+    }
+
+    /**
+     * Lô hiện tại đã nằm trong log thô (ghi trước khi gộp) — seed rồi gộp lại chỉ đưa lên đầu, không trùng.
+     * Đọc log lỗi thì ném ra: chưa tạo hồ sơ, lần sau seed lại đủ thay vì để hồ sơ thiếu lịch sử.
+     */
+    private UserBehaviorProfile newProfile(String userId) {
+        UserBehaviorProfile profile = UserBehaviorProfile.builder().userId(userId).build();
+        for (ItemEventView v : interactionLogRepository.findRecentItemEvents(
+                userId, List.of("VIEW_PRODUCT", "ADD_TO_CART"), "PRODUCT", MAX_RECENT_PRODUCTS)) {
+            Long pid = parseLong(v.getItemId());
+            if (pid != null && !profile.getRecentProductIds().contains(pid)) profile.getRecentProductIds().add(pid);
+        }
+        for (ItemEventView v : interactionLogRepository.findRecentItemEvents(
+                userId, List.of("VIEW_PITCH"), "PITCH", MAX_VISITED_PITCHES)) {
+            String pitchId = v.getItemId();
+            if (pitchId != null && !profile.getVisitedPitchIds().contains(pitchId)) profile.getVisitedPitchIds().add(pitchId);
+        }
+        try {
+            profile.setPurchasedProductIds(new ArrayList<>(orderItemRepository.findPurchasedProductIdsByUser(
+                    UUID.fromString(userId), PageRequest.of(0, MAX_PURCHASED_PRODUCTS))));
+        } catch (IllegalArgumentException ignored) {
+            // userId không phải UUID (session ẩn danh) — không có lịch sử đơn
+        }
+        return profile;
+    }
+
+    // ── Gộp 1 event ──
+
+    private void fold(UserBehaviorProfile p, InteractionLog e, Map<Long, ProductTraitView> traits) {
+        double weight = UserBehaviorProfile.eventWeight(e.getEventType()) * decayTo(p, e.getTimestamp());
+        switch (e.getEventType()) {
+            case "VIEW_PRODUCT", "ADD_TO_CART" -> foldProduct(p, parseLong(e.getItemId()), e, weight, traits, false);
+            case "CREATE_ORDER" -> {
+                for (Long pid : orderProductIds(e)) foldProduct(p, pid, e, weight, traits, true);
+            }
+            case "CHAT_RESULT_CLICK" -> {
+                if ("PRODUCT".equals(e.getItemType())) {
+                    foldProduct(p, parseLong(e.getItemId()), e, weight, traits, false);
+                } else if ("PITCH".equals(e.getItemType())) {
+                    pushFront(p.getVisitedPitchIds(), e.getItemId(), MAX_VISITED_PITCHES);
+                }
+            }
+            case "VIEW_PITCH" -> pushFront(p.getVisitedPitchIds(), e.getItemId(), MAX_VISITED_PITCHES);
+            case "CREATE_BOOKING" -> pushFront(p.getVisitedPitchIds(),
+                    metadataString(e, "requested_pitch_id"), MAX_VISITED_PITCHES);
+            default -> { }
+        }
+    }
+
+    private void foldProduct(UserBehaviorProfile p, Long productId, InteractionLog e, double weight,
+                             Map<Long, ProductTraitView> traits, boolean purchased) {
+        if (productId == null) return;
+        if (purchased) pushFront(p.getPurchasedProductIds(), productId, MAX_PURCHASED_PRODUCTS);
+        else pushFront(p.getRecentProductIds(), productId, MAX_RECENT_PRODUCTS);
+
+        ProductTraitView t = traits.get(productId);
+        String brand = firstNonBlank(metadataString(e, "item_brand"), t != null ? t.getBrand() : null);
+        String category = firstNonBlank(metadataString(e, "item_category"), t != null ? t.getCategoryName() : null);
+        Double price = metadataDouble(e, "item_price_snapshot");
+        if ((price == null || price <= 0) && t != null) price = t.getPrice();
+
+        if (brand != null) addScore(p.getBrandScores(), brand, weight);
+        if (category != null) addScore(p.getCategoryScores(), category, weight);
+        if (price != null && price > 0) {
+            p.setPriceWeight(p.getPriceWeight() + weight);
+            p.setPriceSum(p.getPriceSum() + weight * price);
+            p.setPriceSquareSum(p.getPriceSquareSum() + weight * price * price);
+        }
+    }
+
+    /**
+     * Đưa mốc suy giảm của hồ sơ tới {@code at}; trả hệ số cho event tại {@code at}
+     * (event đến trễ hơn mốc hiện tại thì tự nó bị suy giảm).
+     */
+    private double decayTo(UserBehaviorProfile p, Instant at) {
+        Instant since = p.getUpdatedAt();
+        if (since == null) {
+            p.setUpdatedAt(at);
+            return 1.0;
+        }
+        long deltaMs = at.toEpochMilli() - since.toEpochMilli();
+        if (deltaMs <= 0) return Math.pow(0.5, -deltaMs / halfLifeMs);
+        double factor = Math.pow(0.5, deltaMs / halfLifeMs);
+        decay(p.getBrandScores(), factor);
+        decay(p.getCategoryScores(), factor);
+        p.setPriceWeight(p.getPriceWeight() * factor);
+        p.setPriceSum(p.getPriceSum() * factor);
+        p.setPriceSquareSum(p.getPriceSquareSum() * factor);
+        p.setUpdatedAt(at);
+        return 1.0;
+    }
+
+    private static void decay(Map<String, Double> scores, double factor) {
+        scores.replaceAll((k, v) -> v * factor);
+        scores.values().removeIf(v -> v < MIN_SCORE);
+    }
+
+    private static void addScore(Map<String, Double> scores, String key, double weight) {
+        scores.merge(key, weight, Double::sum);
+        if (scores.size() <= MAX_SCORED_KEYS) return;
+        scores.entrySet().stream()
+                .min(Map.Entry.comparingByValue())
+                .ifPresent(weakest -> scores.remove(weakest.getKey()));
+    }
+
+    private static <T> void pushFront(List<T> list, T value, int max) {
+        if (value == null) return;
+        list.remove(value);
+        list.add(0, value);
+        while (list.size() > max) list.remove(list.size() - 1);
+    }
+
+    // ── Tra brand / danh mục / giá cho event thiếu snapshot ──
+
+    private Map<Long, ProductTraitView> loadMissingTraits(Iterable<List<InteractionLog>> eventsByUser) {
+        Set<Long> missing = new HashSet<>();
+        for (List<InteractionLog> events : eventsByUser) {
+            for (InteractionLog e : events) {
+                if ("CREATE_ORDER".equals(e.getEventType())) {
+                    missing.addAll(orderProductIds(e));
+                } else if ("PRODUCT".equals(e.getItemType()) && metadataString(e, "item_brand") == null) {
+                    Long pid = parseLong(e.getItemId());
+                    if (pid != null) missing.add(pid);
+                }
+            }
+        }
+        if (missing.isEmpty()) return Map.of();
+        Map<Long, ProductTraitView> traits = new HashMap<>();
+        for (ProductTraitView t : productRepository.findTraitsByIds(missing)) traits.put(t.getProductId(), t);
+        return traits;
+    }
+
+    private static boolean isProfileEvent(InteractionLog e) {
+        if (e.getEventType() == null || e.getTimestamp() == null) return false;
+        return switch (e.getEventType()) {
+            case "VIEW_PRODUCT", "ADD_TO_CART", "CREATE_ORDER", "CHAT_RESULT_CLICK",
+                 "VIEW_PITCH", "CREATE_BOOKING" -> true;
+            default -> false;
+        };
+    }
+
+    /** {@code order_items} do UserActivityAspect ghi: [{productId, quantity, size}, ...]. */
+    private static List<Long> orderProductIds(InteractionLog e) {
+        Object items = e.getEventMetadata() != null ? e.getEventMetadata().get("order_items") : null;
+        if (!(items instanceof List<?> list)) return List.of();
+        List<Long> ids = new ArrayList<>();
+        for (Object item : list) {
+            if (item instanceof Map<?, ?> m && m.get("productId") != null) {
+                Long pid = parseLong(String.valueOf(m.get("productId")));
+                if (pid != null) ids.add(pid);
+            }
+        }
+        return ids;
+    }
+
+    private static String metadataString(InteractionLog e, String key) {
+        Object v = e.getEventMetadata() != null ? e.getEventMetadata().get(key) : null;
+        return v == null || String.valueOf(v).isBlank() ? null : String.valueOf(v);
+    }
+
+    private static Double metadataDouble(InteractionLog e, String key) {
+        Object v = e.getEventMetadata() != null ? e.getEventMetadata().get(key) : null;
+        return v instanceof Number n ? n.doubleValue() : null;
+    }
+
+    private static Long parseLong(String s) {
+        if (s == null) return null;
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String firstNonBlank(String a, String b) {
+        return a != null ? a : (b != null && !b.isBlank() ? b : null);
+    }
+}
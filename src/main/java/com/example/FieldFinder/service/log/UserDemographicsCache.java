@@ -0,0 +1,165 @@
+package com.example.FieldFinder.service.log;
+
+import com.example.FieldFinder.entity.User;
+import com.example.FieldFinder.event.UserProfileChangedEvent;
+import com.example.FieldFinder.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot nhân khẩu học (ngày sinh, giới tính, toạ độ profile) để làm giàu log hành vi — cache
+ * cục bộ theo TTL thay vì {@code findById} mỗi event. Cả lô event chỉ tốn 1 query cho user chưa có.
+ *
+ * Sửa hồ sơ → {@link UserProfileChangedEvent} SAU KHI commit: bỏ entry ở node này rồi publish
+ * {@code nodeId|userId} lên {@link #CHANNEL} cho node khác bỏ theo. Lỡ message thì entry hết TTL.
+ */
+@Slf4j
+@Component
+public class UserDemographicsCache {
+
+    static final String CHANNEL = "user-demographics:invalidate";
+
+    /** {@link #EMPTY}: user không tồn tại / không phải UUID — cache luôn để khỏi hỏi lại DB. */
+    public record Demographics(LocalDate dateOfBirth, String gender, Double latitude, Double longitude) {}
+
+    static final Demographics EMPTY = new Demographics(null, null, null, null);
+
+    private record Entry(Demographics value, long expiresAt) {}
+
+    private final UserRepository userRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final long ttlMs;
+    private final int maxEntries;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public UserDemographicsCache(UserRepository userRepository,
+                                 StringRedisTemplate redisTemplate,
+                                 RedisMessageListenerContainer listenerContainer,
+                                 @Value("${log.demographics.ttl-ms:600000}") long ttlMs,
+                                 @Value("${log.demographics.max-entries:50000}") int maxEntries) {
+        this.userRepository = userRepository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+    }
+
+    @PostConstruct
+    void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) ->
+                onRemoteInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CHANNEL));
+    }
+
+    /** userId → snapshot; id không phải UUID hoặc user không tồn tại → {@link #EMPTY}. */
+    public Map<String, Demographics> getAll(Collection<String> userIds) {
+        long now = System.currentTimeMillis();
+        Map<String, Demographics> out = new HashMap<>();
+        Map<UUID, String> missing = new HashMap<>();
+        for (String userId : userIds) {
+            if (userId == null || out.containsKey(userId)) continue;
+            UUID uid;
+            try {
+                uid = UUID.fromString(userId);
+            } catch (IllegalArgumentException e) {
+                // userId không phải UUID hợp lệ (VD: guest, email fallback)
+                out.put(userId, EMPTY);
+                continue;
+            }
+            Entry entry = entries.get(uid);
+            if (entry != null && entry.expiresAt() > now) {
+                hits.increment();
+                out.put(userId, entry.value());
+            } else {
+                misses.increment();
+                missing.put(uid, userId);
+            }
+        }
+        if (missing.isEmpty()) return out;
+
+        loads.increment();
+        Map<UUID, Demographics> loaded = new HashMap<>();
+        try {
+            for (User user : userRepository.findAllById(missing.keySet())) {
+                loaded.put(user.getUserId(), new Demographics(user.getDateOfBirth(),
+                        user.getGender() != null ? user.getGender().name() : null,
+                        user.getLatitude(), user.getLongitude()));
+            }
+        } catch (Exception e) {
+            // DB lỗi: log vẫn đi, chỉ thiếu nhân khẩu học; không cache để lần sau thử lại
+            log.warn("UserDemographicsCache: load {} users failed: {}", missing.size(), e.getMessage());
+            missing.values().forEach(userId -> out.put(userId, EMPTY));
+            return out;
+        }
+        if (entries.size() + missing.size() > maxEntries) evictExpired(now);
+        missing.forEach((uid, userId) -> {
+            Demographics d = loaded.getOrDefault(uid, EMPTY);
+            if (entries.size() < maxEntries) entries.put(uid, new Entry(d, now + ttlMs));
+            out.put(userId, d);
+        });
+        return out;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onUserProfileChanged(UserProfileChangedEvent event) {
+        evictLocal(event.getUserId());
+        try {
+            redisTemplate.convertAndSend(CHANNEL, nodeId + "|" + event.getUserId());
+        } catch (Exception e) {
+            // Node khác tự làm mới khi entry hết TTL
+            log.warn("UserDemographicsCache: publish invalidation failed: {}", e.getMessage());
+        }
+    }
+
+    void onRemoteInvalidation(String payload) {
+        String[] parts = payload.split("\\|", 2);
+        if (parts.length < 2 || nodeId.equals(parts[0])) return;
+        try {
+            evictLocal(UUID.fromString(parts[1]));
+        } catch (IllegalArgumentException e) {
+            log.warn("UserDemographicsCache: bad invalidation payload '{}'", payload);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("loads", loads.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private void evictLocal(UUID userId) {
+        if (entries.remove(userId) != null) invalidations.increment();
+    }
+
+    private void evictExpired(long now) {
+        entries.values().removeIf(e -> e.expiresAt() <= now);
+    }
+}
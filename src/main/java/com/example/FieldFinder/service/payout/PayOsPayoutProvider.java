@@ -1,5 +1,7 @@
 package com.example.FieldFinder.service.payout;
 
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -20,11 +22,15 @@ import java.util.Optional;
 /**
  * Chi tiền thật qua PayOS Chi hộ (kênh chi riêng — credentials KHÁC kênh thu).
  * Bật khi {@code payos.payout.provider=payos} (mặc định). SDK tự lo x-signature + idempotency.
+ * Mọi call đi qua breaker {@link CircuitBreakers#PAYOS_PAYOUT}; đang mở → UNKNOWN / không có số dư,
+ * PayoutEngine xét lại ở vòng sau thay vì dồn call vào PayOS đang lỗi.
  */
 @Component
 @ConditionalOnProperty(name = "payos.payout.provider", havingValue = "payos", matchIfMissing = true)
 public class PayOsPayoutProvider implements PayoutProvider {
 
+    private static final String BREAKER_OPEN = "PayOS payout circuit breaker open";
+
     @Value("${payos.payout.clientId}")
     private String clientId;
 
@@ -34,8 +40,14 @@ public class PayOsPayoutProvider implements PayoutProvider {
     @Value("${payos.payout.checksumKey}")
     private String checksumKey;
 
+    private final CircuitBreaker circuitBreaker;
+
     private PayOS client;
 
+    public PayOsPayoutProvider(CircuitBreakers circuitBreakers) {
+        this.circuitBreaker = circuitBreakers.get(CircuitBreakers.PAYOS_PAYOUT);
+    }
+
     @PostConstruct
     void init() {
         this.client = new PayOS(clientId, apiKey, checksumKey);
@@ -52,7 +64,11 @@ public class PayOsPayoutProvider implements PayoutProvider {
                 .build();
         try {
             // idempotencyKey = referenceId ⇒ gọi lại không double-chi
-            Payout payout = client.payouts().create(req, cmd.referenceId());
+            Payout payout = circuitBreaker.execute(() -> client.payouts().create(req, cmd.referenceId()),
+                    () -> null, PayOsPayoutProvider::isOutage);
+            if (payout == null) {
+                return new PayoutResult(null, cmd.referenceId(), PayoutState.UNKNOWN, null, null, BREAKER_OPEN);
+            }
             return toResult(payout);
         } catch (APIException e) {
             // Lỗi nghiệp vụ PayOS (số dư, TK nhận...) — không có payoutId, job sẽ retry/đánh dấu fail
@@ -68,7 +84,9 @@ public class PayOsPayoutProvider implements PayoutProvider {
     @Override
     public PayoutResult getStatus(String payoutId) {
         try {
-            Payout payout = client.payouts().get(payoutId);
+            Payout payout = circuitBreaker.execute(() -> client.payouts().get(payoutId),
+                    () -> null, PayOsPayoutProvider::isOutage);
+            if (payout == null) return new PayoutResult(payoutId, null, PayoutState.UNKNOWN, null, null, BREAKER_OPEN);
             return toResult(payout);
         } catch (Exception e) {
             return new PayoutResult(payoutId, null, PayoutState.UNKNOWN, null, null, e.getMessage());
@@ -78,7 +96,8 @@ public class PayOsPayoutProvider implements PayoutProvider {
     @Override
     public Optional<BigDecimal> getBalance() {
         try {
-            PayoutAccountInfo info = client.payoutsAccount().balance();
+            PayoutAccountInfo info = circuitBreaker.execute(() -> client.payoutsAccount().balance(),
+                    () -> null, PayOsPayoutProvider::isOutage);
             if (info == null || info.getBalance() == null) return Optional.empty();
             return Optional.of(new BigDecimal(info.getBalance().trim()));
         } catch (Exception e) {
@@ -86,6 +105,13 @@ public class PayOsPayoutProvider implements PayoutProvider {
         }
     }
 
+    /** Lỗi 4xx (số dư, TK nhận, request sai...) là PayOS đã trả lời — không tính vào breaker. */
+    private static boolean isOutage(RuntimeException e) {
+        if (!(e instanceof APIException api)) return true;
+        int status = api.getStatusCode().orElse(500);
+        return status >= 500;
+    }
+
     private PayoutResult toResult(Payout payout) {
         PayoutTransaction txn = firstTxn(payout);
         PayoutTransactionState st = txn != null ? txn.getState() : null;
@@ -0,0 +1,304 @@
+package com.example.FieldFinder.service.payout;
+
+import com.example.FieldFinder.service.payout.PayoutQueue.Phase;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vòng dispatch/poll dùng chung cho mọi loại lệnh chi ({@link PayoutQueue}) — chạy được trên nhiều node.
+ *
+ * Mỗi chunk đi 3 bước, KHÔNG giữ connection DB trong lúc gọi PayOS:
+ * <ol>
+ *   <li>Transaction ngắn: khóa tối đa {@code payout.chunk-size} dòng đến hạn bằng
+ *       {@code FOR UPDATE SKIP LOCKED}, ghi lease (node + hạn) rồi commit — node khác bỏ qua các dòng này.</li>
+ *   <li>Gọi {@link PayoutProvider} ngoài transaction, song song tối đa {@code payout.concurrency} lệnh.</li>
+ *   <li>Mỗi kết quả một transaction ngắn: đọc lại dòng, còn đúng lease của node này thì ghi trạng thái
+ *       và trả lease; mất lease (hết hạn, node khác đã nhận) thì bỏ — disburse idempotent theo referenceId
+ *       nên lần gọi của node kia trả về cùng lệnh chi.</li>
+ * </ol>
+ * Node chết giữa chừng ⇒ lease hết hạn, vòng sau node bất kỳ nhận lại dòng đó.
+ *
+ * Dòng chưa xong (chờ thử lại, PayOS còn PROCESSING, thiếu số dư) trả lease nhưng ghi {@code leaseUntil}
+ * = lúc được xét lại, nên chunk kế trong cùng vòng đi tiếp tới dòng sau thay vì lấy lại đúng các dòng đó.
+ */
+@Component
+public class PayoutEngine {
+
+    private final PayoutProvider payoutProvider;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final int maxChunksPerRound;
+    private final Duration leaseDuration;
+    private final Duration retryDelay;
+    private final Duration pollDelay;
+    private final ThreadPoolExecutor pool;
+    private final String nodeId;
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    public PayoutEngine(PayoutProvider payoutProvider,
+                        TransactionTemplate transactionTemplate,
+                        @Value("${payout.chunk-size:10}") int chunkSize,
+                        @Value("${payout.concurrency:4}") int concurrency,
+                        @Value("${payout.lease-seconds:120}") long leaseSeconds,
+                        @Value("${payout.max-chunks-per-round:50}") int maxChunksPerRound,
+                        @Value("${payout.retry-delay-seconds:30}") long retryDelaySeconds,
+                        @Value("${payout.poll-delay-seconds:45}") long pollDelaySeconds) {
+        this.payoutProvider = payoutProvider;
+        this.transactionTemplate = transactionTemplate;
+        this.chunkSize = chunkSize;
+        this.maxChunksPerRound = maxChunksPerRound;
+        this.leaseDuration = Duration.ofSeconds(leaseSeconds);
+        this.retryDelay = Duration.ofSeconds(retryDelaySeconds);
+        this.pollDelay = Duration.ofSeconds(pollDelaySeconds);
+        AtomicInteger seq = new AtomicInteger();
+        // Hàng đợi đầy ⇒ thread scheduler tự gọi (CallerRuns): chậm lại chứ không dồn vô hạn
+        this.pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(chunkSize, concurrency) * 4), r -> {
+                    Thread t = new Thread(r, "payout-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+        this.nodeId = hostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Đẩy lệnh chi cho các dòng PENDING. Số dư TK chi đọc 1 lần / vòng (ngoài transaction) và trừ dần
+     * theo từng dòng được nhận — thiếu thì để PENDING, hoãn {@code payout.retry-delay-seconds} chờ nạp, xét
+     * tiếp các dòng nhỏ hơn phía sau.
+     */
+    public <T extends PayoutRow> void dispatch(PayoutQueue<T> queue) {
+        Optional<BigDecimal> balance = payoutProvider.getBalance();
+        long[] budget = {balance.map(BigDecimal::longValue).orElse(Long.MAX_VALUE)};
+        drain(queue, Phase.DISPATCH, budget);
+    }
+
+    /** Poll trạng thái các dòng PROCESSING. */
+    public <T extends PayoutRow> void poll(PayoutQueue<T> queue) {
+        drain(queue, Phase.POLL, null);
+    }
+
+    /** Số dòng đã nhận / kết quả theo từng loại lệnh chi + tải pool gọi PayOS. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", nodeId);
+        stats.put("active", pool.getActiveCount());
+        stats.put("queued", pool.getQueue().size());
+        counters.forEach((name, c) -> stats.put(name, c.snapshot()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private <T extends PayoutRow> void drain(PayoutQueue<T> queue, Phase phase, long[] budget) {
+        Counters c = counters.computeIfAbsent(queue.name(), k -> new Counters());
+        for (int round = 0; round < maxChunksPerRound; round++) {
+            Chunk chunk;
+            try {
+                chunk = transactionTemplate.execute(status -> lease(queue, phase, budget, c));
+            } catch (Exception e) {
+                c.errors.increment();
+                System.err.println("[Payout][" + queue.name() + "] Lỗi nhận lease " + phase + ": " + e.getMessage());
+                return;
+            }
+            if (chunk == null) return;
+            if (chunk.leases().isEmpty()) {
+                if (chunk.fetched() < chunkSize) return;
+                continue; // cả chunk bị hoãn (thiếu số dư) — đã dời hạn, chunk sau là các dòng kế tiếp
+            }
+
+            List<Callable<Void>> calls = new ArrayList<>(chunk.leases().size());
+            for (Lease lease : chunk.leases()) {
+                calls.add(() -> {
+                    process(queue, phase, lease, c);
+                    return null;
+                });
+            }
+            try {
+                pool.invokeAll(calls);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Hết dòng đến hạn. Dòng đã xét đều có leaseUntil ở tương lai nên chunk sau không lặp lại chúng
+            if (chunk.fetched() < chunkSize) return;
+        }
+    }
+
+    /** Bước 1 — trong transaction: khóa dòng đến hạn, ghi lease, chụp lại dữ liệu cần để gọi PayOS. */
+    private <T extends PayoutRow> Chunk lease(PayoutQueue<T> queue, Phase phase, long[] budget, Counters c) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime until = now.plus(leaseDuration);
+        List<T> due = queue.lockDue(phase, now, chunkSize);
+        List<Lease> leases = new ArrayList<>(due.size());
+        for (T row : due) {
+            PayoutCommand command = null;
+            if (phase == Phase.DISPATCH) {
+                command = queue.command(row);
+                if (budget[0] < command.amountVnd()) {
+                    c.insufficientBalance.increment();
+                    System.err.println("[Payout][" + queue.name() + "] Số dư TK chi không đủ cho " + queue.idOf(row)
+                            + " (cần " + command.amountVnd() + ", còn " + budget[0] + ") — chờ nạp.");
+                    defer(queue, row, now.plus(retryDelay));
+                    continue;
+                }
+                budget[0] -= command.amountVnd();
+                row.setAttemptCount(row.getAttemptCount() + 1);
+                row.setLastAttemptAt(now);
+            } else if (row.getPayosPayoutId() == null) {
+                defer(queue, row, now.plus(pollDelay));
+                continue;
+            }
+            row.setLeaseOwner(nodeId);
+            row.setLeaseUntil(until);
+            queue.save(row);
+            leases.add(new Lease(queue.idOf(row), command, row.getPayosPayoutId()));
+        }
+        c.leased.add(leases.size());
+        return new Chunk(leases, due.size());
+    }
+
+    /** Dòng không nhận lần này: không giữ lease, chỉ dời lúc được xét lại. */
+    private static <T extends PayoutRow> void defer(PayoutQueue<T> queue, T row, LocalDateTime eligibleAt) {
+        row.setLeaseOwner(null);
+        row.setLeaseUntil(eligibleAt);
+        queue.save(row);
+    }
+
+    /** Bước 2 + 3 — gọi PayOS ngoài transaction rồi ghi kết quả trong transaction riêng. */
+    private <T extends PayoutRow> void process(PayoutQueue<T> queue, Phase phase, Lease lease, Counters c) {
+        PayoutResult res;
+        try {
+            res = phase == Phase.DISPATCH
+                    ? payoutProvider.disburse(lease.command())
+                    : payoutProvider.getStatus(lease.payoutId());
+        } catch (Exception e) {
+            res = new PayoutResult(lease.payoutId(), null, PayoutState.UNKNOWN, null, null, e.getMessage());
+        }
+        PayoutResult result = res;
+        try {
+            transactionTemplate.executeWithoutResult(status -> complete(queue, phase, lease, result, c));
+        } catch (Exception e) {
+            // Lease hết hạn sẽ được nhận lại ở vòng sau — an toàn nhờ idempotency theo referenceId
+            c.errors.increment();
+            System.err.println("[Payout][" + queue.name() + "] Lỗi ghi kết quả " + lease.id() + ": " + e.getMessage());
+        }
+    }
+
+    private <T extends PayoutRow> void complete(PayoutQueue<T> queue, Phase phase, Lease lease,
+                                                PayoutResult res, Counters c) {
+        T row = queue.lockById(lease.id()).orElse(null);
+        if (row == null || !nodeId.equals(row.getLeaseOwner())) {
+            c.leaseLost.increment();
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        row.setLeaseOwner(null);
+        row.setLeaseUntil(null);
+        row.setPayosTxnState(res.providerState());
+
+        if (phase == Phase.DISPATCH) {
+            row.setFailureReason(res.message());
+            switch (res.state()) {
+                case SUCCEEDED -> {
+                    row.setPayosPayoutId(res.payoutId());
+                    queue.markSucceeded(row);
+                    c.succeeded.increment();
+                }
+                case PROCESSING -> {
+                    row.setPayosPayoutId(res.payoutId());
+                    queue.markProcessing(row);
+                    row.setLeaseUntil(now.plus(pollDelay)); // PayOS vừa nhận lệnh — chưa cần poll ngay
+                    c.processing.increment();
+                }
+                case FAILED, UNKNOWN -> {
+                    if (row.getAttemptCount() >= queue.maxAttempts()) {
+                        queue.markFailed(row, "FAILED sau " + row.getAttemptCount() + " lần thử: " + res.message());
+                        c.failed.increment();
+                    } else {
+                        // Còn lượt ⇒ giữ PENDING, thử lại sau retryDelay × số lần đã thử (không đốt hết lượt khi PayOS sập)
+                        row.setLeaseUntil(now.plus(retryDelay.multipliedBy(row.getAttemptCount())));
+                        c.retried.increment();
+                    }
+                }
+            }
+        } else {
+            switch (res.state()) {
+                case SUCCEEDED -> {
+                    queue.markSucceeded(row);
+                    c.succeeded.increment();
+                }
+                case FAILED -> {
+                    row.setFailureReason(res.message());
+                    queue.markFailed(row, "FAILED khi poll: " + res.message());
+                    c.failed.increment();
+                }
+                case PROCESSING, UNKNOWN -> row.setLeaseUntil(now.plus(pollDelay));
+            }
+        }
+        queue.save(row);
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node";
+        }
+    }
+
+    /** Dữ liệu chụp lúc nhận lease — bước gọi PayOS không chạm entity / DB. */
+    private record Lease(UUID id, PayoutCommand command, String payoutId) {
+    }
+
+    private record Chunk(List<Lease> leases, int fetched) {
+    }
+
+    private static final class Counters {
+        final LongAdder leased = new LongAdder();
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder processing = new LongAdder();
+        final LongAdder retried = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder leaseLost = new LongAdder();
+        final LongAdder insufficientBalance = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("leased", leased.sum());
+            stats.put("succeeded", succeeded.sum());
+            stats.put("processing", processing.sum());
+            stats.put("retried", retried.sum());
+            stats.put("failed", failed.sum());
+            stats.put("leaseLost", leaseLost.sum());
+            stats.put("insufficientBalance", insufficientBalance.sum());
+            stats.put("errors", errors.sum());
+            return stats;
+        }
+    }
+}
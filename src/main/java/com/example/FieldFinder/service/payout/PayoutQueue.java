@@ -0,0 +1,51 @@
+package com.example.FieldFinder.service.payout;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Một loại lệnh chi cắm vào {@link PayoutEngine}: cách khóa dòng đến hạn, dựng {@link PayoutCommand}
+ * và các chuyển trạng thái nghiệp vụ (đổi status, hoàn số dư ví, notify...). Engine lo lease,
+ * gọi {@link PayoutProvider} ngoài transaction và đếm số lần thử.
+ *
+ * Mọi method trừ {@link #name()}/{@link #maxAttempts()} được engine gọi bên trong transaction ngắn.
+ */
+public interface PayoutQueue<T extends PayoutRow> {
+
+    enum Phase {
+        /** Dòng chưa gửi PayOS (PENDING) — tạo lệnh chi. */
+        DISPATCH,
+        /** Dòng đã gửi (PROCESSING) — poll trạng thái. */
+        POLL
+    }
+
+    /** Tên ngắn cho log / thống kê. */
+    String name();
+
+    int maxAttempts();
+
+    /**
+     * Khóa tối đa {@code limit} dòng đến hạn của phase, cũ nhất trước, bỏ qua dòng còn lease
+     * ({@code leaseUntil >= now}) và dòng node khác đang khóa ({@code FOR UPDATE SKIP LOCKED}).
+     */
+    List<T> lockDue(Phase phase, LocalDateTime now, int limit);
+
+    /** Đọc lại 1 dòng kèm khóa ghi để ghi kết quả. */
+    Optional<T> lockById(UUID id);
+
+    UUID idOf(T row);
+
+    PayoutCommand command(T row);
+
+    void save(T row);
+
+    /** PayOS đã nhận lệnh, chờ poll. */
+    void markProcessing(T row);
+
+    void markSucceeded(T row);
+
+    /** Thất bại vĩnh viễn (hết lượt thử hoặc PayOS báo FAILED khi poll). */
+    void markFailed(T row, String reason);
+}
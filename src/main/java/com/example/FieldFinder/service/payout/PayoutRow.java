@@ -0,0 +1,42 @@
+package com.example.FieldFinder.service.payout;
+
+import java.time.LocalDateTime;
+
+/**
+ * Phần chung của một dòng chờ chi (hoàn tiền, rút ví chủ sân, rút ví shipper) mà {@link PayoutEngine}
+ * đọc/ghi. Entity đã có sẵn getter/setter (Lombok) nên chỉ cần khai báo {@code implements}.
+ *
+ * Lease: {@code leaseOwner}/{@code leaseUntil} đánh dấu node đang gọi PayOS cho dòng này — node khác
+ * (và job canh deadline) bỏ qua dòng còn lease, hết hạn thì coi như node kia đã chết. {@code leaseOwner}
+ * null mà {@code leaseUntil} ở tương lai là dòng được hoãn (chờ thử lại / nạp số dư): vòng dispatch/poll
+ * chưa xét lại, nhưng không ai đang giữ.
+ */
+public interface PayoutRow {
+
+    String getPayosPayoutId();
+
+    void setPayosPayoutId(String payosPayoutId);
+
+    void setPayosTxnState(String payosTxnState);
+
+    void setFailureReason(String failureReason);
+
+    int getAttemptCount();
+
+    void setAttemptCount(int attemptCount);
+
+    void setLastAttemptAt(LocalDateTime lastAttemptAt);
+
+    String getLeaseOwner();
+
+    void setLeaseOwner(String leaseOwner);
+
+    LocalDateTime getLeaseUntil();
+
+    void setLeaseUntil(LocalDateTime leaseUntil);
+
+    /** Có node đang giữ lease (đang gọi PayOS) — cùng điều kiện job canh deadline dùng để bỏ qua dòng. */
+    default boolean isLeased(LocalDateTime now) {
+        return getLeaseOwner() != null && (getLeaseUntil() == null || !getLeaseUntil().isBefore(now));
+    }
+}
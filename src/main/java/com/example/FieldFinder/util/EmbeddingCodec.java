@@ -0,0 +1,55 @@
+package com.example.FieldFinder.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mã hóa vector embedding dạng nhị phân: float32 little-endian, liền nhau, không header
+ * (số chiều = length / 4). 768 chiều → 3 KB, thay vì ~10+ KB chuỗi "[0.0123, -0.0456, ...]".
+ */
+public final class EmbeddingCodec {
+
+    private EmbeddingCodec() {}
+
+    public static byte[] encode(float[] vector) {
+        if (vector == null) return null;
+        ByteBuffer buf = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(vector);
+        return buf.array();
+    }
+
+    /** Blob rỗng / lệch bội số 4 byte → null. */
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes.length % Float.BYTES != 0) return null;
+        float[] out = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(out);
+        return out;
+    }
+
+    /** Parse định dạng TEXT cũ "[0.1, -0.2, ...]" không qua regex/stream. Lỗi → null. */
+    public static float[] parseText(String text) {
+        if (text == null || text.isEmpty()) return null;
+        int start = text.indexOf('[') + 1;
+        int end = text.lastIndexOf(']');
+        if (end < 0) end = text.length();
+        List<Float> values = new ArrayList<>(1024);
+        try {
+            int i = start;
+            while (i < end) {
+                int comma = text.indexOf(',', i);
+                if (comma < 0 || comma > end) comma = end;
+                String token = text.substring(i, comma).trim();
+                if (!token.isEmpty()) values.add(Float.parseFloat(token));
+                i = comma + 1;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (values.isEmpty()) return null;
+        float[] out = new float[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+}
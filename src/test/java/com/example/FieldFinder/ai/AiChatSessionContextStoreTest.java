@@ -1,12 +1,18 @@
 package com.example.FieldFinder.ai;
 
+import com.example.FieldFinder.dto.res.PitchResponseDTO;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -55,4 +61,87 @@ class AiChatSessionContextStoreTest {
         assertNull(result);
         verify(hashOps).delete("ai:chat:session:s1", "lastProduct");
     }
+
+    @Test
+    void turnLoadsHashOnceAndFlushesChangesInOnePipelinedTransaction() {
+        Map<Object, Object> hash = new HashMap<>();
+        hash.put("lastSize", "42");
+        hash.put("lastActivity", "chạy bộ");
+        when(hashOps.entries("ai:chat:session:s1")).thenReturn(hash);
+        PitchResponseDTO pitch = new PitchResponseDTO();
+        pitch.setName("Sân A");
+
+        try (AiChatSessionContextStore.Turn turn = store.openTurn("s1")) {
+            assertEquals("42", store.getLastSize("s1"));
+            assertEquals("42", store.getLastSize("s1"));
+            assertEquals("chạy bộ", store.getLastActivity("s1"));
+            store.setLastSize("s1", "43");
+            store.setLastPitch("s1", pitch);
+            assertEquals("43", store.getLastSize("s1"));
+        }
+
+        verify(hashOps, times(1)).entries("ai:chat:session:s1");
+        verify(hashOps, never()).get(anyString(), any());
+        verify(hashOps, never()).put(anyString(), any(), any());
+
+        RedisOperations<String, String> ops = runFlush();
+        HashOperations<String, Object, Object> txHash = ops.opsForHash();
+        ArgumentCaptor<Map<String, String>> written = ArgumentCaptor.forClass(Map.class);
+        verify(ops).multi();
+        verify(txHash).putAll(eq("ai:chat:session:s1"), written.capture());
+        verify(ops).expire("ai:chat:session:s1", 2, TimeUnit.HOURS);
+        verify(ops).exec();
+        assertEquals("43", written.getValue().get("lastSize"));
+        assertEquals("1", written.getValue().get("v"));
+        assertTrue(written.getValue().get("lastPitch").contains("Sân A"));
+        assertFalse(written.getValue().containsKey("lastActivity"));
+    }
+
+    @Test
+    void readOnlyTurnOnlyRefreshesTtl() {
+        when(hashOps.entries("ai:chat:session:s1")).thenReturn(Map.of("lastSize", "42"));
+
+        try (AiChatSessionContextStore.Turn turn = store.openTurn("s1")) {
+            assertEquals("42", store.getLastSize("s1"));
+        }
+
+        verify(redisTemplate).expire("ai:chat:session:s1", 2, TimeUnit.HOURS);
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
+    }
+
+    @Test
+    void hashFromNewerFormatIsIgnoredAndReplaced() {
+        when(hashOps.entries("ai:chat:session:s1")).thenReturn(Map.of("v", "2", "lastSize", "XL"));
+
+        try (AiChatSessionContextStore.Turn turn = store.openTurn("s1")) {
+            assertNull(store.getLastSize("s1"));
+            store.setLastSize("s1", "40");
+        }
+
+        RedisOperations<String, String> ops = runFlush();
+        verify(ops).delete("ai:chat:session:s1");
+        verify(ops.opsForHash()).putAll(eq("ai:chat:session:s1"), eq(Map.of("lastSize", "40", "v", "1")));
+    }
+
+    @Test
+    void otherSessionsBypassTheOpenTurn() {
+        try (AiChatSessionContextStore.Turn turn = store.openTurn("s1")) {
+            store.setLastSize("s2", "41");
+        }
+
+        verify(hashOps).put("ai:chat:session:s2", "lastSize", "41");
+        verify(hashOps, never()).entries(anyString());
+    }
+
+    /** Chạy SessionCallback đã gửi vào executePipelined trên RedisOperations giả, trả lại để verify. */
+    @SuppressWarnings("unchecked")
+    private RedisOperations<String, String> runFlush() {
+        ArgumentCaptor<SessionCallback<Object>> callback = ArgumentCaptor.forClass(SessionCallback.class);
+        verify(redisTemplate).executePipelined(callback.capture());
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        HashOperations<String, Object, Object> txHash = mock(HashOperations.class);
+        when(ops.<Object, Object>opsForHash()).thenReturn(txHash);
+        callback.getValue().execute(ops);
+        return ops;
+    }
 }
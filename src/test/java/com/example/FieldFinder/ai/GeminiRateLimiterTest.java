@@ -1,35 +1,107 @@
 package com.example.FieldFinder.ai;
 
+import com.example.FieldFinder.ai.GeminiRateLimiter.Budget;
+import com.example.FieldFinder.ai.GeminiRateLimiter.Priority;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 class GeminiRateLimiterTest {
 
+    private static final Map<String, Budget> BUDGETS = Map.of(
+            GeminiRateLimiter.GENERATE_MODEL, new Budget(60, 100_000),
+            GeminiRateLimiter.EMBEDDING_MODEL, new Budget(600, 100_000));
+
+    private GeminiRateLimiter limiter;
+
+    @AfterEach
+    void tearDown() {
+        if (limiter != null) limiter.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void waitsForTheDelayReturnedByTheBucketScript() throws Exception {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenReturn(50L, 0L);
+        limiter = new GeminiRateLimiter(redisTemplate, BUDGETS);
+
+        long start = System.nanoTime();
+        limiter.acquire(GeminiRateLimiter.GENERATE_MODEL, Priority.CHAT, 500);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class),
+                eq(List.of(GeminiRateLimiter.KEY_PREFIX + GeminiRateLimiter.GENERATE_MODEL)),
+                eq("60"), eq("100000"), eq("500"), eq("0.0"));
+        Map<String, Object> chat = (Map<String, Object>) limiter.stats().get("chat");
+        assertEquals(1L, chat.get("granted"));
+    }
+
+    @Test
+    void higherPriorityIsServedFirstOnceBudgetFrees() throws Exception {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        AtomicInteger open = new AtomicInteger();
+        List<Object> grantedReserves = new CopyOnWriteArrayList<>();
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenAnswer(inv -> {
+                    if (open.get() == 0) return 20L;
+                    grantedReserves.add(inv.getArgument(5)); // ARGV[4] = reserve của lớp ưu tiên
+                    return 0L;
+                });
+        limiter = new GeminiRateLimiter(redisTemplate, BUDGETS);
+
+        CountDownLatch done = new CountDownLatch(3);
+        for (Priority p : new Priority[]{Priority.ENRICHMENT, Priority.IMAGE, Priority.CHAT}) {
+            new Thread(() -> {
+                try {
+                    limiter.acquire(GeminiRateLimiter.GENERATE_MODEL, p, 10);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+            Thread.sleep(30);
+        }
+
+        open.set(1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("0.0", "0.1", "0.3"), grantedReserves);
+    }
+
     @Test
-    void acquireRetriesUntilDistributedPermitIsGranted() throws Exception {
+    void fallsBackToLocalBucketWhenRedisIsDown() throws Exception {
         StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
-        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(valueOps);
-        when(valueOps.setIfAbsent(
-                "ai:gemini:rate:permit",
-                "1",
-                GeminiRateLimiter.MIN_INTERVAL_MS,
-                TimeUnit.MILLISECONDS
-        )).thenReturn(false, true);
-
-        GeminiRateLimiter limiter = new GeminiRateLimiter(redisTemplate);
-        limiter.acquire();
-
-        verify(valueOps, times(2)).setIfAbsent(
-                "ai:gemini:rate:permit",
-                "1",
-                GeminiRateLimiter.MIN_INTERVAL_MS,
-                TimeUnit.MILLISECONDS
-        );
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RuntimeException("redis down"));
+        limiter = new GeminiRateLimiter(redisTemplate, BUDGETS);
+
+        limiter.acquire(GeminiRateLimiter.EMBEDDING_MODEL, Priority.CHAT, 10);
+
+        assertEquals(1L, limiter.stats().get("redisFallbacks"));
+    }
+
+    @Test
+    void localBucketRefillsAndKeepsReserveForLowerPriorities() {
+        GeminiRateLimiter.LocalBucket bucket = new GeminiRateLimiter.LocalBucket(new Budget(60, 1_000));
+
+        assertEquals(0, bucket.take(600, 0.0, 0));
+        // Còn 400 token: enrichment cần chừa 30% (300) → thiếu 200 token = 12s nạp lại
+        assertEquals(12_000, bucket.take(300, GeminiRateLimiter.RESERVE[Priority.ENRICHMENT.ordinal()], 0));
+        assertEquals(0, bucket.take(300, 0.0, 0));
+        assertTrue(bucket.take(300, 0.0, 0) > 0);
+        assertEquals(0, bucket.take(300, 0.0, 60_000));
     }
 }
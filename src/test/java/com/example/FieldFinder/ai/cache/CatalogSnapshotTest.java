@@ -0,0 +1,129 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.dto.res.ProductResponseDTO;
+import com.example.FieldFinder.event.CatalogChangedEvent;
+import com.example.FieldFinder.service.ProductService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CatalogSnapshotTest {
+
+    private static ProductResponseDTO product(long id, String brand, String category, int salePercent, String size, int qty) {
+        return ProductResponseDTO.builder()
+                .id(id)
+                .name("P" + id)
+                .brand(brand)
+                .categoryId(id % 2)
+                .categoryName(category)
+                .sex("Nam")
+                .dominantColor("đen")
+                .tags(Set.of("running"))
+                .price(100.0)
+                .salePercent(salePercent)
+                .variants(List.of(ProductResponseDTO.VariantDTO.builder().size(size).quantity(qty).build()))
+                .build();
+    }
+
+    private final List<ProductResponseDTO> base = List.of(
+            product(1, "Nike", "Running Shoes", 0, "42", 3),
+            product(2, "Adidas", "Running Shoes", 20, "42", 0),
+            product(3, "nike", "T-Shirts", 10, "M", 5));
+
+    @Test
+    void indexesAreCaseInsensitiveAndKeepInputOrder() {
+        CatalogSnapshot snapshot = CatalogSnapshot.build(1L, base);
+
+        assertEquals(List.of(1L, 3L), snapshot.byBrand("NIKE").stream().map(ProductResponseDTO::getId).toList());
+        assertEquals(List.of("Nike", "Adidas"), snapshot.brands());
+        assertEquals(2, snapshot.byCategoryNames(List.of("running shoes")).size());
+        assertEquals(List.of(1L), snapshot.inStockSize("42").stream().map(ProductResponseDTO::getId).toList());
+        assertEquals(List.of(2L, 3L), snapshot.onSale().stream().map(ProductResponseDTO::getId).toList());
+        assertEquals(3, snapshot.byTag("Running").size());
+        assertTrue(snapshot.byBrand("Puma").isEmpty());
+        assertDoesNotThrow(() -> snapshot.byBrand("Puma").sort(null));
+    }
+
+    @Test
+    void applyReplacesAndRemovesOnlyChangedProducts() {
+        CatalogSnapshot snapshot = CatalogSnapshot.build(1L, base);
+
+        CatalogSnapshot next = snapshot.apply(2L, List.of(product(1, "Nike", "Running Shoes", 0, "42", 0)), List.of(3L));
+
+        assertEquals(2L, next.version());
+        assertEquals(List.of(1L, 2L), next.all().stream().map(ProductResponseDTO::getId).toList());
+        assertTrue(next.inStockSize("42").isEmpty());
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    void overlaySwapsDtosButKeepsIndexes() {
+        CatalogSnapshot snapshot = CatalogSnapshot.build(1L, base);
+
+        CatalogSnapshot view = snapshot.overlay(List.of(product(1, "Nike", "Running Shoes", 30, "42", 3)));
+
+        assertEquals(30, view.byId(1L).getSalePercent());
+        assertEquals(30, view.all().get(0).getSalePercent());
+        assertSame(snapshot.byId(2L), view.byId(2L));
+        assertSame(snapshot.byId(1L).getVariants(), view.byId(1L).getVariants());
+        assertEquals(1, view.overrideCount());
+        assertEquals(List.of(1L, 2L, 3L), view.onSale().stream().map(ProductResponseDTO::getId).toList());
+        assertEquals(0, snapshot.byId(1L).getSalePercent());
+        assertEquals(snapshot.version(), view.version());
+    }
+
+    @Test
+    void storeReloadsOnlyDirtyProductsAfterChangeEvent() {
+        ProductService productService = mock(ProductService.class);
+        when(productService.getAllProductIds()).thenReturn(List.of(1L, 2L, 3L));
+        when(productService.getProductsByIds(anyList(), isNull())).thenAnswer(inv -> {
+            List<Long> ids = inv.getArgument(0);
+            Map<Long, ProductResponseDTO> out = new java.util.LinkedHashMap<>();
+            for (ProductResponseDTO p : base) if (ids.contains(p.getId())) out.put(p.getId(), p);
+            return out;
+        });
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        CatalogSnapshotStore store = new CatalogSnapshotStore(productService, redisTemplate,
+                mock(RedisMessageListenerContainer.class));
+
+        CatalogSnapshot first = store.current();
+        assertSame(first, store.current());
+        assertEquals(3, first.size());
+
+        store.onCatalogChanged(CatalogChangedEvent.ofProducts(List.of(2L)));
+        CatalogSnapshot second = store.current();
+
+        assertTrue(second.version() > first.version());
+        verify(productService).getProductsByIds(List.of(2L), null);
+        verify(productService, times(1)).getAllProductIds();
+        verify(redisTemplate).convertAndSend(eq(CatalogSnapshotStore.CHANNEL), endsWith("|2"));
+
+        store.onRemoteChange("other-node|*");
+        store.current();
+        verify(productService, times(2)).getAllProductIds();
+    }
+
+    @Test
+    void userViewIsMemoizedPerSnapshotVersion() {
+        ProductService productService = mock(ProductService.class);
+        when(productService.getAllProductIds()).thenReturn(List.of(1L, 2L, 3L));
+        when(productService.getProductsByIds(anyList(), isNull())).thenReturn(Map.of(
+                1L, base.get(0), 2L, base.get(1), 3L, base.get(2)));
+        when(productService.overlayForUser(anyList(), any(UUID.class))).thenAnswer(inv -> inv.getArgument(0));
+        CatalogSnapshotStore store = new CatalogSnapshotStore(productService, mock(StringRedisTemplate.class),
+                mock(RedisMessageListenerContainer.class));
+        UUID userId = UUID.randomUUID();
+
+        assertSame(store.forUser(userId), store.forUser(userId));
+        verify(productService, times(1)).overlayForUser(anyList(), eq(userId));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.FieldFinder.ai.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IntentCacheTest {
+
+    @Test
+    void normalizeFoldsDiacriticsWhitespaceAndNumbers() {
+        assertEquals("san 5 nguoi toi nay", IntentCache.normalize("  Sân 5 người,   tối nay!! "));
+        assertEquals(IntentCache.normalize("giày size 42"), IntentCache.normalize("Giay SIZE 042"));
+        assertEquals("giay duoi 500000", IntentCache.normalize("giày dưới 500k"));
+        assertEquals("giay duoi 500000", IntentCache.normalize("giày dưới 500.000"));
+        assertEquals("dat san di an", IntentCache.normalize("Đặt sân Dĩ An"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void localThenRedisThenMissWithHitRatio() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        IntentCache cache = new IntentCache(redisTemplate);
+
+        assertNull(cache.get("prompt-v1", "sân 5 người tối nay"));
+        cache.put("prompt-v1", "sân 5 người tối nay", "{\"pitchType\":\"FIVE_A_SIDE\"}");
+        verify(ops).set(startsWith(IntentCache.KEY_PREFIX), eq("{\"pitchType\":\"FIVE_A_SIDE\"}"),
+                eq(6L), eq(TimeUnit.HOURS));
+
+        // Cùng ý sau chuẩn hóa → trúng heap
+        assertEquals("{\"pitchType\":\"FIVE_A_SIDE\"}", cache.get("prompt-v1", "San 5 nguoi  toi nay"));
+        // Prompt khác (sang ngày mới) → key khác, hỏi Redis
+        when(ops.get(anyString())).thenReturn("{\"remote\":true}");
+        assertEquals("{\"remote\":true}", cache.get("prompt-v2", "sân 5 người tối nay"));
+
+        Map<String, Object> stats = cache.stats();
+        assertEquals(1L, stats.get("localHits"));
+        assertEquals(1L, stats.get("redisHits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(2.0 / 3, (double) stats.get("hitRatio"), 1e-9);
+    }
+
+    @Test
+    void skipsOverlongInputAndSurvivesRedisOutage() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenThrow(new RuntimeException("redis down"));
+        IntentCache cache = new IntentCache(redisTemplate);
+
+        cache.put("p", "x".repeat(IntentCache.MAX_INPUT_LENGTH + 1), "{}");
+        assertEquals(0L, cache.stats().get("stores"));
+
+        cache.put("p", "giày size 42", "{\"size\":\"42\"}");
+        assertEquals("{\"size\":\"42\"}", cache.get("p", "giày size 42"));
+        assertNull(cache.get("p", "áo size M"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.FieldFinder.ai.cache;
+
+import com.example.FieldFinder.entity.Pitch;
+import com.example.FieldFinder.event.PitchCatalogChangedEvent;
+import com.example.FieldFinder.repository.PitchRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PitchTypeCounterTest {
+
+    @Test
+    void countsOnceAndBumpsVersionOnlyWhenCountsChange() {
+        PitchRepository pitchRepository = mock(PitchRepository.class);
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(pitchRepository.countByTypeAndStatus(Pitch.PitchStatus.ACTIVE)).thenReturn(
+                List.<Object[]>of(new Object[]{Pitch.PitchType.FIVE_A_SIDE, 4L}, new Object[]{Pitch.PitchType.SEVEN_A_SIDE, 2L}),
+                List.<Object[]>of(new Object[]{Pitch.PitchType.FIVE_A_SIDE, 4L}, new Object[]{Pitch.PitchType.SEVEN_A_SIDE, 2L}),
+                List.<Object[]>of(new Object[]{Pitch.PitchType.FIVE_A_SIDE, 5L}, new Object[]{Pitch.PitchType.SEVEN_A_SIDE, 2L}));
+        PitchTypeCounter counter = new PitchTypeCounter(pitchRepository, redisTemplate,
+                mock(RedisMessageListenerContainer.class));
+
+        PitchTypeCounter.Counts first = counter.current();
+        assertEquals(6, first.total());
+        assertEquals(0, first.of(Pitch.PitchType.ELEVEN_A_SIDE));
+        assertSame(first, counter.current());
+
+        // Sửa sân nhưng số đếm không đổi → giữ version (prompt đã render dùng tiếp)
+        counter.onPitchCatalogChanged(new PitchCatalogChangedEvent(UUID.randomUUID()));
+        assertEquals(first.version(), counter.current().version());
+        verify(redisTemplate).convertAndSend(eq(PitchTypeCounter.CHANNEL), anyString());
+
+        // Node khác báo đổi → đếm lại, version mới
+        counter.onRemoteChange("other-node|" + UUID.randomUUID());
+        PitchTypeCounter.Counts third = counter.current();
+        assertEquals(5, third.of(Pitch.PitchType.FIVE_A_SIDE));
+        assertNotEquals(first.version(), third.version());
+        verify(pitchRepository, times(3)).countByTypeAndStatus(Pitch.PitchStatus.ACTIVE);
+    }
+}
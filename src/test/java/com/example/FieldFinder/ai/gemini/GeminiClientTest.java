@@ -1,12 +1,22 @@
 package com.example.FieldFinder.ai.gemini;
 
+import com.example.FieldFinder.ai.GeminiRateLimiter;
+import com.example.FieldFinder.config.CircuitBreaker;
+import com.example.FieldFinder.config.CircuitBreakers;
+import okhttp3.Request;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
 
 /**
  * Test các helper thuần của GeminiClient (không gọi HTTP):
- * làm sạch JSON fences, hash cache key, resize ảnh fail-safe.
+ * làm sạch JSON fences, hash cache key, resize ảnh fail-safe, jitter retry, hạn chót (không tính vào breaker).
  */
 class GeminiClientTest {
 
@@ -42,4 +52,51 @@ class GeminiClientTest {
         String notAnImage = "bm90LWFuLWltYWdl"; // "not-an-image"
         assertEquals(notAnImage, GeminiClient.resizeBase64(notAnImage, 512));
     }
+
+    @Test
+    void jitter_staysWithinQuarterOfBackoff() {
+        for (int i = 0; i < 1_000; i++) {
+            long d = GeminiClient.jitter(8_000);
+            assertTrue(d >= 6_000 && d <= 10_000, "jitter " + d);
+        }
+        assertEquals(0, GeminiClient.jitter(0));
+    }
+
+    @Test
+    void callAsync_expiredDeadlineFailsWithoutSending() throws Exception {
+        GeminiClient async = new GeminiClient(mock(GeminiRateLimiter.class), null);
+        try {
+            Request request = new Request.Builder().url("http://127.0.0.1:9/never").get().build();
+            ExecutionException e = assertThrows(ExecutionException.class, () ->
+                    async.callAsync(request, "Test", GeminiRateLimiter.GENERATE_MODEL,
+                            GeminiRateLimiter.Priority.CHAT, 10, Instant.now().minusSeconds(1))
+                            .get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+        } finally {
+            async.shutdown();
+        }
+    }
+
+    @Test
+    void callAsync_quaHanTruocKhiGui_khongTinhVaoBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(CircuitBreakers.GEMINI,
+                new CircuitBreaker.Settings(4, 2, 50, 30_000, 80, 60_000, 1), t -> {});
+        GeminiClient async = new GeminiClient(mock(GeminiRateLimiter.class), null, breaker);
+        try {
+            Request request = new Request.Builder().url("http://127.0.0.1:9/never").get().build();
+            for (int i = 0; i < 5; i++) {
+                ExecutionException e = assertThrows(ExecutionException.class, () ->
+                        async.callAsync(request, "Test", GeminiRateLimiter.GENERATE_MODEL,
+                                GeminiRateLimiter.Priority.CHAT, 10, Instant.now().minusSeconds(1))
+                                .get(5, TimeUnit.SECONDS));
+                assertInstanceOf(GeminiClient.LocalFailureException.class, e.getCause());
+            }
+            // Nghẽn permit phía mình không được mở breaker dùng chung
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+            assertEquals(0L, breaker.stats().get("permitted"));
+            assertEquals(0L, breaker.stats().get("failed"));
+        } finally {
+            async.shutdown();
+        }
+    }
 }
@@ -16,7 +16,7 @@ class ImageSearchHandlerTest {
 
     // Helper không dùng dependency nào → construct với null là đủ.
     private final ImageSearchHandler handler =
-            new ImageSearchHandler(null, null, null, null, null, null, null, null, null);
+            new ImageSearchHandler(null, null, null, null, null, null, null, null, null, null, null);
 
     private ProductResponseDTO p(long id) {
         return ProductResponseDTO.builder().id(id).name("P" + id).build();
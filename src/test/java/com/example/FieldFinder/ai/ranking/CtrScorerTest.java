@@ -0,0 +1,111 @@
+package com.example.FieldFinder.ai.ranking;
+
+import com.example.FieldFinder.dto.req.MLRecommendCtrRequest;
+import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.service.MLRecommendationService;
+import com.example.FieldFinder.service.ProductFeatureIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chấm CTR theo lô: 1 call ML cho nhiều user, feature item lấy 1 lần, request ML không chấm được
+ * → LR cục bộ.
+ */
+@ExtendWith(MockitoExtension.class)
+class CtrScorerTest {
+
+    @Mock private MLRecommendationService mlService;
+    @Mock private ProductRepository productRepository;
+
+    private CtrScorer scorer;
+
+    @BeforeEach
+    void setUp() {
+        scorer = new CtrScorer(mlService, new ProductFeatureIndex(productRepository));
+        lenient().when(productRepository.findCtrFeatureRowsByIds(anyCollection())).thenReturn(List.of(
+                new Object[]{1L, 400_000.0, 10L, "Football Shoes", "Nike", 12L},
+                new Object[]{2L, 450_000.0, 10L, "Football Shoes", "Nike", 3L},
+                new Object[]{3L, 2_000_000.0, 20L, "Bags", "Puma", 300L}));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchCuaNhieuUser_motCallMl_kemFeatureTungItem() {
+        UUID u1 = UUID.randomUUID();
+        UUID u2 = UUID.randomUUID();
+        when(mlService.rerankCtrBatch(anyList())).thenReturn(List.of(
+                Map.of("2", 0.7, "3", 0.2),
+                Map.of("3", 0.9)));
+
+        List<Map<Long, Double>> out = scorer.scoreBatch(List.of(
+                new CtrScorer.Query(u1, List.of(2L, 3L), 1L, Map.of()),
+                new CtrScorer.Query(u2, List.of(3L), null, Map.of())));
+
+        assertEquals(Map.of(2L, 0.7, 3L, 0.2), out.get(0));
+        assertEquals(Map.of(3L, 0.9), out.get(1));
+        verify(productRepository, times(1)).findCtrFeatureRowsByIds(anyCollection());
+
+        ArgumentCaptor<List<MLRecommendCtrRequest>> sent = ArgumentCaptor.forClass(List.class);
+        verify(mlService, times(1)).rerankCtrBatch(sent.capture());
+        MLRecommendCtrRequest first = sent.getValue().get(0);
+        assertEquals(u1.toString(), first.getUserId());
+        assertEquals(List.of("2", "3"), first.getCandidateIds());
+        assertEquals("MID", first.getItemContext().get(0).get("price_bucket"));
+        assertEquals("Bags", first.getItemContext().get(1).get("item_category"));
+        assertEquals(1L, first.getContext().get("anchor_product_id"));
+    }
+
+    @Test
+    void mlKhongChamDuoc_lrCucBoTheoAnchor() {
+        // Request 1 ML trả rỗng → LR; request 2 vẫn lấy điểm ML.
+        when(mlService.rerankCtrBatch(anyList())).thenReturn(List.of(Map.of(), Map.of("3", 0.4)));
+
+        List<Map<Long, Double>> out = scorer.scoreBatch(List.of(
+                new CtrScorer.Query(null, List.of(2L, 3L), 1L, Map.of()),
+                new CtrScorer.Query(null, List.of(3L), null, Map.of())));
+
+        // 2: cùng category + brand + bucket giá với anchor → vượt 3 dù 3 bán chạy hơn.
+        assertTrue(out.get(0).get(2L) > out.get(0).get(3L));
+        assertEquals(Map.of(3L, 0.4), out.get(1));
+        assertEquals(1L, scorer.stats().get("fallbackScored"));
+        assertEquals(1L, scorer.stats().get("mlScored"));
+    }
+
+    @Test
+    void mlNull_caLoDungLr() {
+        when(mlService.rerankCtrBatch(anyList())).thenReturn(null);
+
+        Map<Long, Double> out = scorer.score(new CtrScorer.Query(null, List.of(2L, 3L, 99L), null, Map.of()));
+
+        assertEquals(3, out.size());
+        // Không anchor → chỉ còn độ phổ biến; sản phẩm không có feature = CTR nền, thấp nhất.
+        assertTrue(out.get(3L) > out.get(2L));
+        assertTrue(out.get(2L) > out.get(99L));
+    }
+
+    @Test
+    void hourBucketCungBinLucTrain() {
+        assertEquals("NIGHT", CtrScorer.hourBucket(LocalTime.of(5, 59)));
+        assertEquals("MORNING", CtrScorer.hourBucket(LocalTime.of(6, 0)));
+        assertEquals("AFTERNOON", CtrScorer.hourBucket(LocalTime.of(17, 30)));
+        assertEquals("EVENING", CtrScorer.hourBucket(LocalTime.of(21, 0)));
+        assertEquals("LATE", CtrScorer.hourBucket(LocalTime.of(22, 0)));
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.FieldFinder.ai.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptTemplateTest {
+
+    @Test
+    void rendersVariablesAndKeepsJsonBraces() {
+        PromptTemplate t = PromptTemplate.compile(
+                "Hôm nay: {{today}}. {\"pitchCounts\": {\"FIVE_A_SIDE\": {{five}}}} {{ không phải biến }}");
+
+        assertEquals(List.of("today", "five"), t.variables());
+        assertEquals("Hôm nay: 2026-10-17. {\"pitchCounts\": {\"FIVE_A_SIDE\": 3}} {{ không phải biến }}",
+                t.render(Map.of("today", "2026-10-17", "five", "3")));
+    }
+
+    @Test
+    void matchesChainedReplaceAndKeepsMissingVariables() {
+        String template = "{{a}}-{{b}}-{{a}}{{c}}";
+        PromptTemplate t = PromptTemplate.compile(template);
+
+        assertEquals(template.replace("{{a}}", "1").replace("{{b}}", "2"),
+                t.render(Map.of("a", "1", "b", "2")));
+        assertEquals("no vars", PromptTemplate.compile("no vars").render(Map.of()));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.FieldFinder.aspect;
+
+import com.example.FieldFinder.dto.req.OrderItemRequestDTO;
+import com.example.FieldFinder.dto.req.OrderRequestDTO;
+import com.example.FieldFinder.dto.res.OrderResponseDTO;
+import com.example.FieldFinder.dto.res.ProductResponseDTO;
+import com.example.FieldFinder.service.RedisService;
+import com.example.FieldFinder.service.log.LogPublisherService;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+/** Log hành vi theo {@link LogActivity}: id đọc trên request thread, metadata dựng trễ từ DTO. */
+@ExtendWith(MockitoExtension.class)
+class UserActivityAspectTest {
+
+    @Mock private LogPublisherService logPublisherService;
+    @Mock private RedisService redisService;
+    @Mock private JoinPoint joinPoint;
+    @Mock private MethodSignature signature;
+
+    private UserActivityAspect aspect;
+    private MockHttpServletRequest request;
+
+    /** Controller giả chỉ để mang annotation. */
+    static class Endpoints {
+        @LogActivity(event = "VIEW_PRODUCT", itemType = "PRODUCT", idArg = 0, snapshot = LogActivity.Snapshot.PRODUCT)
+        public ProductResponseDTO view(Long id) { return null; }
+
+        @LogActivity(event = "IMPRESSION_LIST", itemType = "PRODUCT", kind = LogActivity.Kind.IMPRESSION,
+                id = "id", listType = "PRODUCT_LIST", params = {"brand"})
+        @LogActivity(event = "SEARCH_QUERY", itemType = "PRODUCT", kind = LogActivity.Kind.SEARCH, params = {"brand"})
+        public Object list() { return null; }
+
+        @LogActivity(event = "CREATE_ORDER", itemType = "ORDER", id = "orderId", snapshot = LogActivity.Snapshot.ORDER_REQUEST)
+        public OrderResponseDTO create(@RequestBody OrderRequestDTO request) { return null; }
+    }
+
+    @BeforeEach
+    void setUp() {
+        aspect = new UserActivityAspect(logPublisherService, redisService);
+        request = new MockHttpServletRequest();
+        request.addHeader("User-Agent", "JUnit");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        lenient().when(joinPoint.getSignature()).thenReturn(signature);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void xemChiTiet_idTuThamSo_snapshotDungTre() throws Exception {
+        ProductResponseDTO product = ProductResponseDTO.builder().id(7L).name("Giày").brand("Nike")
+                .categoryName("Giày bóng đá").price(500_000.0).tags(new LinkedHashSet<>(List.of("đen"))).build();
+
+        invoke("view", new Object[]{7L}, product, Long.class);
+
+        Supplier<Map<String, Object>> metadata = captureMetadata("VIEW_PRODUCT", "7", "PRODUCT");
+        // Chưa dựng gì trên request thread: sửa DTO trước khi flush vẫn thấy giá trị mới
+        product.setBrand("Adidas");
+        Map<String, Object> built = metadata.get();
+        assertEquals("Adidas", built.get("item_brand"));
+        assertEquals(500_000.0, built.get("item_price_snapshot"));
+        assertEquals(List.of("đen"), built.get("item_tags"));
+        assertFalse(built.containsKey("item_sale_percent"));
+    }
+
+    @Test
+    void danhSach_impressionVaSearch_tuPage() throws Exception {
+        request.setParameter("brand", "Nike");
+        var page = new PageImpl<>(List.of(
+                ProductResponseDTO.builder().id(1L).build(),
+                ProductResponseDTO.builder().id(2L).build()), PageRequest.of(0, 2), 40);
+
+        invoke("list", new Object[]{}, ResponseEntity.ok(page));
+
+        Map<String, Object> impression = captureMetadata("IMPRESSION_LIST", null, "PRODUCT").get();
+        assertEquals(List.of("1", "2"), impression.get("shownItemIds"));
+        assertEquals(List.of(0, 1), impression.get("positions"));
+        assertEquals(Map.of("brand", "Nike"), impression.get("filters"));
+        Map<String, Object> search = captureMetadata("SEARCH_QUERY", null, "PRODUCT").get();
+        assertEquals(Map.of("brand", "Nike", "resultCount", 40), search);
+    }
+
+    @Test
+    void danhSachRong_khongFilter_khongLog() throws Exception {
+        invoke("list", new Object[]{}, new PageImpl<>(List.of()));
+
+        verifyNoInteractions(logPublisherService);
+    }
+
+    @Test
+    void loi4xx_khongLog() throws Exception {
+        invoke("view", new Object[]{7L}, ResponseEntity.badRequest().build(), Long.class);
+
+        verifyNoInteractions(logPublisherService);
+    }
+
+    @Test
+    void taoDon_idTuResponse_metadataTuRequestBody() throws Exception {
+        OrderItemRequestDTO item = new OrderItemRequestDTO();
+        item.setProductId(5L);
+        item.setQuantity(2);
+        OrderRequestDTO body = new OrderRequestDTO();
+        body.setPaymentMethod("COD");
+        body.setItems(List.of(item));
+
+        invoke("create", new Object[]{body}, OrderResponseDTO.builder().orderId(99L).build(), OrderRequestDTO.class);
+
+        Map<String, Object> metadata = captureMetadata("CREATE_ORDER", "99", "ORDER").get();
+        assertEquals("COD", metadata.get("payment_method"));
+        assertEquals(List.of(Map.of("productId", 5L, "quantity", 2)), metadata.get("order_items"));
+    }
+
+    private void invoke(String method, Object[] args, Object result, Class<?>... types) throws Exception {
+        lenient().when(signature.getMethod()).thenReturn(Endpoints.class.getMethod(method, types));
+        lenient().when(joinPoint.getArgs()).thenReturn(args);
+        aspect.logActivity(joinPoint, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Supplier<Map<String, Object>> captureMetadata(String eventType, String itemId, String itemType) {
+        ArgumentCaptor<Supplier<Map<String, Object>>> captor = ArgumentCaptor.forClass(Supplier.class);
+        verify(logPublisherService).publishEventLazy(isNull(), anyString(), eq(eventType),
+                itemId == null ? isNull() : eq(itemId), eq(itemType), captor.capture(), eq("JUnit"),
+                isNull(), isNull());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.FieldFinder.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Cửa sổ trượt, ngưỡng call chậm, thời gian mở theo đồng hồ giả, trạng thái nhận từ node khác.
+ */
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final List<CircuitBreaker.Transition> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(long slowCallMs) {
+        return new CircuitBreaker("test",
+                new CircuitBreaker.Settings(4, 4, 50, slowCallMs, 50, 10_000, 1),
+                transitions::add, now::get);
+    }
+
+    @Test
+    void loiCuTruotKhoiCuaSo_khongMo() {
+        CircuitBreaker breaker = breaker(60_000);
+        breaker.onFailure(System.nanoTime());
+        for (int i = 0; i < 4; i++) breaker.onSuccess(System.nanoTime());
+        // Cửa sổ 4 call gần nhất: 1 lỗi rồi 1 thành công nữa → vẫn dưới 50%.
+        breaker.onFailure(System.nanoTime());
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    void callChamChamNguong_moDuKhongLoi() {
+        CircuitBreaker breaker = breaker(0);
+        for (int i = 0; i < 4; i++) breaker.onSuccess(System.nanoTime());
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(List.of(new CircuitBreaker.Transition("test", CircuitBreaker.State.OPEN, 1_010_000)),
+                transitions);
+    }
+
+    @Test
+    void openTheoDongHo_roiHalfOpen() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 4; i++) breaker.onFailure(System.nanoTime());
+
+        now.addAndGet(9_999);
+        assertFalse(breaker.tryAcquire());
+        now.incrementAndGet();
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        // Lượt thử bị hủy → trả lại lượt, không đổi trạng thái.
+        breaker.release();
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(System.nanoTime());
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(CircuitBreaker.State.CLOSED, transitions.get(transitions.size() - 1).state());
+    }
+
+    @Test
+    void callTuTrangThaiTruoc_khongTinhLaLuotThu() {
+        CircuitBreaker breaker = breaker(60_000);
+        assertTrue(breaker.tryAcquire());
+        long staleStart = System.nanoTime();
+        for (int i = 0; i < 4; i++) breaker.onFailure(System.nanoTime());
+
+        now.addAndGet(10_000);
+        assertTrue(breaker.tryAcquire());
+        // Call xin phép lúc CLOSED xong khi đang HALF_OPEN: không đóng breaker, không trả lượt thử
+        breaker.onSuccess(staleStart);
+        breaker.release(staleStart);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess(System.nanoTime());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void executeKhiMo_traFallbackKhongGoi() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalStateException.class, () -> breaker.execute(() -> {
+                throw new IllegalStateException("down");
+            }, () -> "fallback"));
+        }
+
+        assertEquals("fallback", breaker.execute(() -> fail("không được gọi"), () -> "fallback"));
+        assertEquals(4L, breaker.stats().get("failed"));
+        assertEquals(1L, breaker.stats().get("rejected"));
+    }
+
+    @Test
+    void loiKhongTinhLaSuCo_khongMo() {
+        CircuitBreaker breaker = breaker(60_000);
+        for (int i = 0; i < 4; i++) {
+            // vd 4xx: request sai, phía kia vẫn trả lời
+            assertThrows(IllegalArgumentException.class, () -> breaker.execute(() -> {
+                throw new IllegalArgumentException("bad request");
+            }, () -> "fallback", e -> !(e instanceof IllegalArgumentException)));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0L, breaker.stats().get("failed"));
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    void nhanTrangThaiTuNodeKhac_khongPublishLai() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        CircuitBreakers breakers = new CircuitBreakers(redisTemplate, mock(RedisMessageListenerContainer.class),
+                20, 5, 50, 80, 60_000, 2, 10_000, 30_000, 2_000, 4_000, 5_000, 10_000);
+        CircuitBreaker osrm = breakers.get(CircuitBreakers.OSRM);
+
+        breakers.onRemoteTransition("other-node|osrm|OPEN|" + (System.currentTimeMillis() + 30_000));
+        assertFalse(osrm.tryAcquire());
+
+        breakers.onRemoteTransition("other-node|osrm|CLOSED|0");
+        assertTrue(osrm.tryAcquire());
+
+        // Payload hỏng / breaker lạ bị bỏ qua
+        breakers.onRemoteTransition("other-node|osrm|BROKEN|x");
+        breakers.onRemoteTransition("other-node|unknown|OPEN|1");
+        assertEquals(CircuitBreaker.State.CLOSED, osrm.state());
+        verifyNoInteractions(redisTemplate);
+    }
+}
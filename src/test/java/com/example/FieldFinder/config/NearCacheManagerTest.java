@@ -0,0 +1,98 @@
+package com.example.FieldFinder.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NearCacheManagerTest {
+
+    private ConcurrentMapCacheManager remote;
+    private StringRedisTemplate redisTemplate;
+    private NearCacheManager cacheManager;
+
+    @BeforeEach
+    void setUp() {
+        remote = new ConcurrentMapCacheManager("pitch_detail", "product_detail");
+        redisTemplate = mock(StringRedisTemplate.class);
+        cacheManager = new NearCacheManager(remote,
+                Map.of("pitch_detail", new NearCacheManager.Spec(2, Duration.ofMinutes(5))), redisTemplate);
+    }
+
+    @Test
+    void onlyConfiguredCachesGetLocalTier() {
+        assertInstanceOf(NearCache.class, cacheManager.getCache("pitch_detail"));
+        assertInstanceOf(ConcurrentMapCache.class, cacheManager.getCache("product_detail"));
+        assertSame(cacheManager.getCache("pitch_detail"), cacheManager.getCache("pitch_detail"));
+    }
+
+    @Test
+    void secondReadIsServedLocallyWithoutTouchingRemote() {
+        UUID key = UUID.randomUUID();
+        remote.getCache("pitch_detail").put(key, "pitch");
+        Cache cache = cacheManager.getCache("pitch_detail");
+
+        assertEquals("pitch", cache.get(key).get());
+        remote.getCache("pitch_detail").evict(key);
+        assertEquals("pitch", cache.get(key).get());
+        assertNull(cache.get(UUID.randomUUID()));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stats = (Map<String, Object>) cacheManager.stats().get("pitch_detail");
+        assertEquals(1L, stats.get("localHits"));
+        assertEquals(1L, stats.get("remoteHits"));
+        assertEquals(1L, stats.get("misses"));
+    }
+
+    @Test
+    void localTierIsBoundedLru() {
+        Cache cache = cacheManager.getCache("pitch_detail");
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+        remote.getCache("pitch_detail").clear();
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void evictClearsBothTiersAndBroadcasts() {
+        Cache cache = cacheManager.getCache("pitch_detail");
+        cache.put("k", "v");
+
+        cache.evict("k");
+
+        assertNull(cache.get("k"));
+        verify(redisTemplate).convertAndSend(eq(NearCacheManager.CHANNEL), endsWith("|E|pitch_detail|k"));
+    }
+
+    @Test
+    void remoteInvalidationDropsOnlyLocalTier() {
+        Cache cache = cacheManager.getCache("pitch_detail");
+        cache.put("k", "v");
+        cache.put("k2", "v2");
+
+        cacheManager.onRemoteInvalidation("other-node|E|pitch_detail|k");
+        remote.getCache("pitch_detail").evict("k");
+        assertNull(cache.get("k"));
+
+        cacheManager.onRemoteInvalidation("other-node|C|pitch_detail");
+        assertEquals("v2", cache.get("k2").get());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stats = (Map<String, Object>) cacheManager.stats().get("pitch_detail");
+        assertEquals(0L, stats.get("localHits"));
+    }
+}
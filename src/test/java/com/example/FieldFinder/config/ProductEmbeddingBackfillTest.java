@@ -0,0 +1,80 @@
+package com.example.FieldFinder.config;
+
+import com.example.FieldFinder.entity.Product;
+import com.example.FieldFinder.entity.ProductEmbedding;
+import com.example.FieldFinder.repository.ProductEmbeddingRepository;
+import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.service.EmbeddingIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductEmbeddingBackfillTest {
+
+    private ProductEmbeddingRepository productEmbeddingRepository;
+    private EmbeddingIndex embeddingIndex;
+    private ProductEmbeddingBackfill backfill;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        productEmbeddingRepository = mock(ProductEmbeddingRepository.class);
+        ProductRepository productRepository = mock(ProductRepository.class);
+        when(productRepository.getReferenceById(anyLong()))
+                .thenAnswer(inv -> Product.builder().productId(inv.getArgument(0)).build());
+        embeddingIndex = mock(EmbeddingIndex.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(inv -> ((TransactionCallback<Object>) inv.getArgument(0)).doInTransaction(null));
+        backfill = new ProductEmbeddingBackfill(productEmbeddingRepository, productRepository,
+                embeddingIndex, transactionTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void convertsLegacyTextInKeysetChunksAndRefreshesIndex() {
+        List<Object[]> first = new ArrayList<>();
+        for (long id = 1; id <= ProductEmbeddingBackfill.CHUNK_SIZE; id++) {
+            first.add(new Object[]{id, id == 2 ? "[oops]" : "[1.0, 0.5]", 42L});
+        }
+        List<Object[]> second = List.<Object[]>of(new Object[]{500L, "[0.0, 1.0]", 7L});
+        when(productEmbeddingRepository.findLegacyTextChunk(0L, ProductEmbeddingBackfill.CHUNK_SIZE)).thenReturn(first);
+        when(productEmbeddingRepository.findLegacyTextChunk(ProductEmbeddingBackfill.CHUNK_SIZE, ProductEmbeddingBackfill.CHUNK_SIZE))
+                .thenReturn(second);
+        ProductEmbedding existing = ProductEmbedding.builder().productId(1L).dimension(3).sourceCrc(1L).build();
+        when(productEmbeddingRepository.findAllById(anyList())).thenReturn(List.of(existing));
+
+        backfill.run();
+
+        ArgumentCaptor<List<ProductEmbedding>> saved = ArgumentCaptor.forClass(List.class);
+        verify(productEmbeddingRepository, times(2)).saveAll(saved.capture());
+        List<ProductEmbedding> batch = saved.getAllValues().get(0);
+        assertEquals(ProductEmbeddingBackfill.CHUNK_SIZE - 1, batch.size());
+        assertSame(existing, batch.get(0));
+        assertEquals(2, existing.getDimension());
+        assertEquals(42L, existing.getSourceCrc());
+        assertArrayEquals(new float[]{1f, 0.5f}, existing.toArray());
+        assertEquals(3L, batch.get(1).getProduct().getProductId());
+        verify(embeddingIndex).refresh();
+    }
+
+    @Test
+    void missingLegacyColumnIsANoOp() {
+        when(productEmbeddingRepository.findLegacyTextChunk(anyLong(), anyInt()))
+                .thenThrow(new RuntimeException("Unknown column 'p.embedding'"));
+
+        assertDoesNotThrow(() -> backfill.run());
+
+        verify(productEmbeddingRepository, never()).saveAll(any());
+        verify(embeddingIndex, never()).refresh();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.FieldFinder.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StageExecutorTest {
+
+    private final StageMetrics metrics = new StageMetrics();
+    private final StageExecutor executor = new StageExecutor("test", 1, 1, metrics);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void completesWithTaskResultAndRecordsTimings() throws Exception {
+        assertEquals("ok", executor.supply(() -> "ok").get(2, TimeUnit.SECONDS));
+
+        assertEquals(1L, executor.stats().get("completed"));
+        assertTrue(metrics.stats().containsKey("executor.test.queue"));
+        assertTrue(metrics.stats().containsKey("executor.test.run"));
+    }
+
+    @Test
+    void fullQueueFailsFutureInsteadOfThrowing() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.supply(() -> {
+            started.countDown();
+            await(release);
+            return 1;
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        executor.supply(() -> 2); // chiếm chỗ duy nhất trong hàng đợi
+
+        CompletableFuture<Integer> rejected = executor.supply(() -> 3);
+
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1L, executor.stats().get("rejected"));
+        release.countDown();
+    }
+
+    @Test
+    void cancellingFutureInterruptsRunningTask() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> future = executor.supply(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "late";
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+
+        future.cancel(true);
+
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+        assertEquals(1L, executor.stats().get("cancelled"));
+        assertEquals(0L, executor.stats().get("completed"));
+    }
+
+    @Test
+    void percentilesComeFromPowerOfTwoBuckets() {
+        for (int i = 0; i < 99; i++) metrics.record("stage", 3);
+        metrics.record("stage", 900);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stage = (Map<String, Object>) metrics.stats().get("stage");
+        assertEquals(100L, stage.get("count"));
+        assertEquals(4L, stage.get("p50Ms"));
+        assertEquals(4L, stage.get("p95Ms"));
+        assertEquals(900L, stage.get("maxMs"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.example.FieldFinder.controller;
 
 import com.example.FieldFinder.ai.AIChat;
+import com.example.FieldFinder.ai.ChatStreamListener;
+import com.example.FieldFinder.ai.GeminiRateLimiter;
+import com.example.FieldFinder.ai.cache.IntentCache;
 import com.example.FieldFinder.dto.req.ChatClickRequestDTO;
 import com.example.FieldFinder.dto.req.ChatFeedbackRequestDTO;
+import com.example.FieldFinder.dto.req.ChatRequestDTO;
 import com.example.FieldFinder.service.JwtService;
 import com.example.FieldFinder.service.RedisService;
 import com.example.FieldFinder.service.UserService;
@@ -16,15 +20,24 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(AIChatController.class)
@@ -43,6 +56,12 @@ class AIChatControllerTest {
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private GeminiRateLimiter geminiRateLimiter;
+
+    @MockBean
+    private IntentCache intentCache;
+
     @MockBean
     private RedisService redisService;
 
@@ -104,4 +123,82 @@ class AIChatControllerTest {
                 isNull(), isNull(), anyMap(), eq("Test-UA")
         );
     }
+
+    @Test
+    @WithMockUser
+    void testChatIsServedAsynchronously() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setUserInput("sân 5 tối nay");
+        request.setSessionId("sess-123");
+        AIChat.BookingQuery answer = new AIChat.BookingQuery();
+        answer.message = "Đã tìm thấy 3 sân";
+        when(aiChatService.parseBookingInputAsync(eq("sân 5 tối nay"), eq("sess-123"), isNull(), isNull(),
+                any(Instant.class))).thenReturn(CompletableFuture.completedFuture(answer));
+
+        MvcResult started = mockMvc.perform(post("/api/ai/chat")
+                        .with(csrf())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Đã tìm thấy 3 sân"));
+        verify(aiChatService).resumeEnrichment();
+    }
+
+    @Test
+    @WithMockUser
+    void testChatReturns503WhenWorkersAreSaturated() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setUserInput("giày size 42");
+        request.setSessionId("sess-123");
+        when(aiChatService.parseBookingInputAsync(anyString(), anyString(), any(), any(), any(Instant.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("queue full")));
+
+        MvcResult started = mockMvc.perform(post("/api/ai/chat")
+                        .with(csrf())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    @WithMockUser
+    void testChatStreamEmitsIntentCardsThenMessage() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setUserInput("sân 5 trống tối nay");
+        request.setSessionId("sess-123");
+        AIChat.BookingQuery answer = new AIChat.BookingQuery();
+        answer.message = "Có 1 sân còn trống";
+        when(aiChatService.parseBookingInputAsync(eq("sân 5 trống tối nay"), eq("sess-123"), isNull(), isNull(),
+                any(Instant.class), any(ChatStreamListener.class))).thenAnswer(inv -> {
+            ChatStreamListener listener = inv.getArgument(5);
+            listener.onIntent(Map.of("action", "check_pitch_availability"));
+            listener.onCards("availability", List.of(Map.of("name", "Sân A")));
+            return CompletableFuture.completedFuture(answer);
+        });
+
+        MvcResult started = mockMvc.perform(post("/api/ai/chat/stream")
+                        .with(csrf())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk());
+        String body = started.getResponse().getContentAsString();
+        int intent = body.indexOf("event:intent");
+        int cards = body.indexOf("event:cards");
+        int message = body.indexOf("event:message");
+        assertTrue(intent >= 0 && intent < cards && cards < message, body);
+        assertTrue(body.contains("Có 1 sân còn trống"), body);
+        verify(aiChatService).resumeEnrichment();
+    }
 }
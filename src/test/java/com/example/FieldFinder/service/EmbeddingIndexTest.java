@@ -0,0 +1,119 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.repository.ProductEmbeddingRepository;
+import com.example.FieldFinder.util.EmbeddingCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EmbeddingIndexTest {
+
+    private ProductEmbeddingRepository productEmbeddingRepository;
+    private EmbeddingIndex index;
+
+    @BeforeEach
+    void setUp() {
+        productEmbeddingRepository = mock(ProductEmbeddingRepository.class);
+        index = new EmbeddingIndex(productEmbeddingRepository);
+    }
+
+    private static Object[] row(long id, float... vector) {
+        return new Object[]{id, EmbeddingCodec.encode(vector)};
+    }
+
+    @Test
+    void decodesBinaryVectorsAndSkipsOddDimensions() {
+        when(productEmbeddingRepository.findAllProductIdAndVector()).thenReturn(List.of(
+                row(1L, 1f, 0f, 0f),
+                row(2L, 0f, 2f, 0f),
+                row(3L, 1f, 1f),
+                new Object[]{4L, new byte[]{1, 2, 3}}));
+
+        index.refresh();
+
+        assertEquals(2, index.size());
+        assertEquals(3, index.dimension());
+    }
+
+    @Test
+    void codecRoundTripsLittleEndianFloat32AndParsesLegacyText() {
+        byte[] bytes = EmbeddingCodec.encode(new float[]{1f, -0.25f});
+
+        assertEquals(8, bytes.length);
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3f}, java.util.Arrays.copyOf(bytes, 4));
+        assertArrayEquals(new float[]{1f, -0.25f}, EmbeddingCodec.decode(bytes));
+        assertNull(EmbeddingCodec.decode(new byte[]{1, 2, 3}));
+        assertArrayEquals(new float[]{0.5f, -1f}, EmbeddingCodec.parseText("[0.5, -1]"));
+        assertNull(EmbeddingCodec.parseText("[x, 1]"));
+        assertNull(EmbeddingCodec.parseText("[]"));
+    }
+
+    @Test
+    void topKReturnsCosineOrderAboveThreshold() {
+        when(productEmbeddingRepository.findAllProductIdAndVector()).thenReturn(List.of(
+                row(1L, 1f, 0f),
+                row(2L, 1f, 1f),
+                row(3L, 0f, 1f),
+                row(4L, -1f, 0f)));
+        index.refresh();
+
+        List<EmbeddingIndex.Hit> hits = index.topK(new double[]{3.0, 0.1}, 2, 0.6);
+
+        assertEquals(List.of(1L, 2L), hits.stream().map(EmbeddingIndex.Hit::productId).toList());
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+        assertTrue(index.topK(new double[]{1, 0, 0}, 5, 0.0).isEmpty());
+    }
+
+    @Test
+    void putAndRemoveUpdateIndexInPlace() {
+        when(productEmbeddingRepository.findAllProductIdAndVector()).thenReturn(List.<Object[]>of(
+                row(1L, 1f, 0f)));
+        index.refresh();
+
+        index.put(2L, new double[]{0.0, 1.0});
+        index.put(1L, new double[]{0.0, 5.0});
+        index.put(3L, new double[]{1.0, 0.0, 0.0});
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.topK(new double[]{0.0, 1.0}, 5, 0.9).size());
+
+        index.remove(1L);
+        assertEquals(List.of(2L), index.topK(new double[]{0.0, 1.0}, 5, 0.9).stream()
+                .map(EmbeddingIndex.Hit::productId).toList());
+    }
+
+    @Test
+    void parallelScanMatchesSequentialTopK() {
+        Random random = new Random(7);
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 0; id < EmbeddingIndex.PARALLEL_THRESHOLD + 500; id++) {
+            rows.add(row(id, (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian()));
+        }
+        when(productEmbeddingRepository.findAllProductIdAndVector()).thenReturn(rows);
+        index.refresh();
+        double[] query = {0.3, -0.2, 0.9};
+
+        List<EmbeddingIndex.Hit> hits = index.topK(query, 10, -1.0);
+
+        assertEquals(10, hits.size());
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+        }
+        // Đối chiếu quét tuần tự: không vector nào ngoài top-10 có điểm cao hơn phần tử cuối
+        double last = hits.get(9).score();
+        double qn = Math.sqrt(0.09 + 0.04 + 0.81);
+        long better = rows.stream().filter(r -> {
+            float[] v = EmbeddingCodec.decode((byte[]) r[1]);
+            double n = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+            return (query[0] * v[0] + query[1] * v[1] + query[2] * v[2]) / (n * qn) > last + 1e-5;
+        }).count();
+        assertTrue(better <= 9);
+    }
+}
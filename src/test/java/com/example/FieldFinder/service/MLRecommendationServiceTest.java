@@ -0,0 +1,51 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.dto.req.MLRecommendCtrRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Key cache CTR theo lô: cùng nội dung → cùng key, bất kể thứ tự ứng viên / thứ tự key của map. */
+class MLRecommendationServiceTest {
+
+    @Test
+    void ctrBatchKey_khongPhuThuocThuTuUngVienVaContext() {
+        Map<String, Object> ctx1 = new LinkedHashMap<>();
+        ctx1.put("hour", 20);
+        ctx1.put("device", "mobile");
+        Map<String, Object> ctx2 = new LinkedHashMap<>();
+        ctx2.put("device", "mobile");
+        ctx2.put("hour", 20);
+
+        MLRecommendCtrRequest a = request(List.of("1", "2"), List.of(Map.of("price_bucket", 1), Map.of("price_bucket", 2)), ctx1);
+        MLRecommendCtrRequest b = request(List.of("2", "1"), List.of(Map.of("price_bucket", 2), Map.of("price_bucket", 1)), ctx2);
+
+        assertEquals(MLRecommendationService.ctrBatchKey(List.of(a)), MLRecommendationService.ctrBatchKey(List.of(b)));
+    }
+
+    @Test
+    void ctrBatchKey_featureItemKhacThiKeyKhac() {
+        MLRecommendCtrRequest a = request(List.of("1"), List.of(Map.of("price_bucket", 1)), new HashMap<>());
+        MLRecommendCtrRequest b = request(List.of("1"), List.of(Map.of("price_bucket", 3)), new HashMap<>());
+
+        assertNotEquals(MLRecommendationService.ctrBatchKey(List.of(a)), MLRecommendationService.ctrBatchKey(List.of(b)));
+        // Kết quả song song theo vị trí request → đổi thứ tự request là key khác
+        assertNotEquals(MLRecommendationService.ctrBatchKey(List.of(a, b)), MLRecommendationService.ctrBatchKey(List.of(b, a)));
+    }
+
+    private static MLRecommendCtrRequest request(List<String> ids, List<Map<String, Object>> itemContext,
+                                                 Map<String, Object> context) {
+        return MLRecommendCtrRequest.builder()
+                .userId("u1")
+                .candidateIds(ids)
+                .itemTypes(ids.stream().map(id -> "PRODUCT").toList())
+                .itemContext(itemContext)
+                .context(context)
+                .build();
+    }
+}
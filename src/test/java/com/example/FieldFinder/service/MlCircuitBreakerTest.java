@@ -1,70 +1,94 @@
 package com.example.FieldFinder.service;
 
-import org.junit.jupiter.api.BeforeEach;
+import com.example.FieldFinder.config.CircuitBreakers;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
-import java.time.Instant;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+/**
+ * Breaker ML: trạng thái cục bộ, đường nóng không gọi Redis; chỉ chuyển OPEN/CLOSED được publish.
+ */
 class MlCircuitBreakerTest {
 
-    private StringRedisTemplate redisTemplate;
-    private ValueOperations<String, String> valueOps;
-    private MlCircuitBreaker breaker;
+    private static final String CHANNEL = "circuit-breaker:transition";
 
-    @BeforeEach
-    void setUp() {
-        redisTemplate = mock(StringRedisTemplate.class);
-        valueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(valueOps);
-        breaker = new MlCircuitBreaker(redisTemplate);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private CircuitBreakers circuitBreakers;
+
+    private MlCircuitBreaker breaker(long openDurationMs) {
+        // Cửa sổ 10 call, tối thiểu 5, mở khi ≥ 50% lỗi; 2 lượt thử khi half-open.
+        circuitBreakers = new CircuitBreakers(redisTemplate, mock(RedisMessageListenerContainer.class),
+                10, 5, 50, 80, openDurationMs, 2, 10_000, 30_000, 2_000, 4_000, 5_000, 10_000);
+        return new MlCircuitBreaker(circuitBreakers);
     }
 
     @Test
-    void opensAfterFailureThreshold() {
-        when(valueOps.increment("ml:circuit:failures")).thenReturn(1L, 2L, 3L, 4L, 5L);
+    void trangThaiOnDinh_khongGoiRedis() {
+        MlCircuitBreaker breaker = breaker(60_000);
 
-        for (int i = 0; i < 5; i++) {
-            breaker.recordFailure();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(breaker.allowRequest());
+            if (i % 5 == 0) breaker.recordFailure(System.nanoTime());
+            else breaker.recordSuccess(System.nanoTime());
         }
 
-        verify(valueOps).set(eq("ml:circuit:openUntil"), anyString(), eq(60_000L), eq(TimeUnit.MILLISECONDS));
-        verify(redisTemplate, times(5)).expire("ml:circuit:failures", 60_000L, TimeUnit.MILLISECONDS);
+        verifyNoInteractions(redisTemplate);
     }
 
     @Test
-    void halfOpenAllowsSingleProbeAfterOpenWindow() {
-        long expiredOpenUntil = Instant.now().minusMillis(1_000).toEpochMilli();
-        when(valueOps.get("ml:circuit:openUntil")).thenReturn(Long.toString(expiredOpenUntil));
-        when(valueOps.setIfAbsent("ml:circuit:halfOpenProbe", "1", 60_000L, TimeUnit.MILLISECONDS))
-                .thenReturn(true, false);
+    void tiLeLoiChamNguong_moVaPublishMotLan() {
+        MlCircuitBreaker breaker = breaker(60_000);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure(System.nanoTime());
+        }
 
-        assertTrue(breaker.allowRequest());
         assertFalse(breaker.allowRequest());
+        verify(redisTemplate, timeout(1_000)).convertAndSend(eq(CHANNEL), contains("|ml|OPEN|"));
+        verify(redisTemplate, times(1)).convertAndSend(anyString(), anyString());
     }
 
     @Test
-    void halfOpenProbeFailureReopensImmediately() {
-        when(redisTemplate.hasKey("ml:circuit:halfOpenProbe")).thenReturn(true);
-        when(valueOps.increment("ml:circuit:failures")).thenReturn(1L);
+    void halfOpen_gioiHanLuotThu_thuOnThiDong() {
+        MlCircuitBreaker breaker = breaker(0);
+        for (int i = 0; i < 5; i++) {
+            breaker.allowRequest();
+            breaker.recordFailure(System.nanoTime());
+        }
 
-        breaker.recordFailure();
+        // Hết thời gian mở (0ms) → half-open: đúng 2 lượt thử.
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
 
-        verify(valueOps).set(eq("ml:circuit:openUntil"), anyString(), eq(60_000L), eq(TimeUnit.MILLISECONDS));
-        verify(redisTemplate).delete("ml:circuit:halfOpenProbe");
+        breaker.recordSuccess(System.nanoTime());
+        breaker.recordSuccess(System.nanoTime());
+
+        assertTrue(breaker.allowRequest());
+        verify(redisTemplate, timeout(1_000)).convertAndSend(eq(CHANNEL), contains("|ml|CLOSED|"));
     }
 
     @Test
-    void successClosesCircuit() {
-        breaker.recordSuccess();
+    void halfOpen_luotThuLoi_moLaiNgay() {
+        MlCircuitBreaker breaker = breaker(0);
+        for (int i = 0; i < 5; i++) {
+            breaker.allowRequest();
+            breaker.recordFailure(System.nanoTime());
+        }
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure(System.nanoTime());
 
-        verify(redisTemplate).delete("ml:circuit:failures");
-        verify(redisTemplate).delete("ml:circuit:openUntil");
-        verify(redisTemplate).delete("ml:circuit:halfOpenProbe");
+        assertEquals("OPEN", ((Map<?, ?>) circuitBreakers.stats().get("ml")).get("state"));
+        verify(redisTemplate, timeout(1_000).times(2)).convertAndSend(eq(CHANNEL), contains("|ml|OPEN|"));
     }
 }
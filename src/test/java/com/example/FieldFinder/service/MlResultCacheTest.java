@@ -0,0 +1,123 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.config.StageExecutors;
+import com.example.FieldFinder.config.StageMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MlResultCacheTest {
+
+    private final StageExecutors executors = new StageExecutors(new StageMetrics(), 1, 4, 1, 4, 1, 4);
+
+    @AfterEach
+    void tearDown() {
+        executors.shutdown();
+    }
+
+    @Test
+    void freshEntryIsServedWithoutCallingMl() {
+        MlResultCache cache = new MlResultCache(executors, true, 4, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(List.of("a"), cache.get(MlResultCache.Endpoint.RETRIEVE, "giày|u1",
+                    () -> { calls.incrementAndGet(); return List.of("a"); }, l -> !l.isEmpty()));
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(2L, stat(cache, "RETRIEVE", "hits"));
+    }
+
+    @Test
+    void failedOrEmptyResultsAreNotCached() {
+        MlResultCache cache = new MlResultCache(executors, true, 4, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get(MlResultCache.Endpoint.CTR_BATCH, "k", () -> { calls.incrementAndGet(); return null; }, m -> true);
+        cache.get(MlResultCache.Endpoint.CTR_BATCH, "k", () -> { calls.incrementAndGet(); return Map.of(); },
+                m -> !m.isEmpty());
+        cache.get(MlResultCache.Endpoint.CTR_BATCH, "k", () -> { calls.incrementAndGet(); return Map.of(); },
+                m -> !m.isEmpty());
+
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneCall() throws Exception {
+        MlResultCache cache = new MlResultCache(executors, true, 4, 100);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        try {
+            List<CompletableFuture<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> cache.get(MlResultCache.Endpoint.RECOMMEND_NEXT, "u1|10",
+                        () -> {
+                            calls.incrementAndGet();
+                            entered.countDown();
+                            await(release);
+                            return List.of("p1");
+                        }, l -> !l.isEmpty()), callers));
+                if (i == 0) assertTrue(entered.await(2, TimeUnit.SECONDS));
+            }
+            long deadline = System.currentTimeMillis() + 2_000;
+            while (stat(cache, "RECOMMEND_NEXT", "coalesced") < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (CompletableFuture<List<String>> r : results) assertEquals(List.of("p1"), r.get(2, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(4L, stat(cache, "RECOMMEND_NEXT", "coalesced"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void saturatedEndpointReturnsNullInsteadOfQueueing() throws Exception {
+        MlResultCache cache = new MlResultCache(executors, true, 1, 20);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<String>> slow = CompletableFuture.supplyAsync(() ->
+                cache.get(MlResultCache.Endpoint.RETRIEVE, "a", () -> {
+                    entered.countDown();
+                    await(release);
+                    return List.of("a");
+                }, l -> !l.isEmpty()));
+        assertTrue(entered.await(2, TimeUnit.SECONDS));
+
+        assertNull(cache.get(MlResultCache.Endpoint.RETRIEVE, "b", () -> List.of("b"), l -> !l.isEmpty()));
+        assertEquals(1L, stat(cache, "RETRIEVE", "throttled"));
+
+        release.countDown();
+        assertEquals(List.of("a"), slow.get(2, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long stat(MlResultCache cache, String endpoint, String name) {
+        return (Long) ((Map<String, Object>) cache.stats().get(endpoint)).get(name);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
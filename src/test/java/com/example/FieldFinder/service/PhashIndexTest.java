@@ -0,0 +1,104 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PhashIndexTest {
+
+    private ProductRepository productRepository;
+    private PhashIndex index;
+
+    @BeforeEach
+    void setUp() {
+        productRepository = mock(ProductRepository.class);
+        index = new PhashIndex(productRepository);
+    }
+
+    @Test
+    void radiusQueryMatchesBruteForce() {
+        Random random = new Random(11);
+        long target = random.nextLong();
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 5_000; id++) {
+            long h = random.nextLong();
+            // 1/10 dòng là biến thể gần của target (lật 0..12 bit ngẫu nhiên)
+            if (id % 10 == 0) {
+                h = target;
+                for (int f = random.nextInt(13); f > 0; f--) h ^= 1L << random.nextInt(64);
+            }
+            rows.add(new Object[]{id, h});
+        }
+        when(productRepository.findAllProductIdAndPhash()).thenReturn(rows);
+        index.refresh();
+
+        for (int radius : new int[]{0, 3, 8, 11, 16}) {
+            Set<Long> expected = new TreeSet<>();
+            for (Object[] r : rows) {
+                if (Long.bitCount(target ^ (Long) r[1]) <= radius) expected.add((Long) r[0]);
+            }
+            List<PhashIndex.Hit> hits = index.findWithin(target, radius, Integer.MAX_VALUE);
+            Set<Long> actual = new TreeSet<>();
+            hits.forEach(h -> actual.add(h.productId));
+            assertEquals(expected, actual, "radius " + radius);
+            assertEquals(expected.size(), hits.size(), "no duplicates at radius " + radius);
+            for (int i = 1; i < hits.size(); i++) assertTrue(hits.get(i - 1).distance <= hits.get(i).distance);
+        }
+    }
+
+    @Test
+    void putMoveAndRemoveUpdateBucketsInPlace() {
+        when(productRepository.findAllProductIdAndPhash()).thenReturn(List.of());
+        index.refresh();
+
+        index.put(1L, 0L);
+        index.put(2L, 0xFFL);
+        index.put(3L, 0x1L);
+        assertEquals(List.of(1L, 3L), ids(index.findWithin(0L, 1, 10)));
+
+        index.put(1L, -1L);
+        assertEquals(List.of(3L), ids(index.findWithin(0L, 1, 10)));
+
+        index.remove(3L);
+        assertEquals(2, index.size());
+        assertTrue(index.findWithin(0L, 1, 10).isEmpty());
+        assertEquals(List.of(1L), ids(index.findWithin(-1L, 0, 10)));
+        assertEquals(List.of(2L), ids(index.findWithin(0xFFL, 0, 10)));
+    }
+
+    @Test
+    void deltaRefreshAppliesChangesAndFallsBackToFullOnCountDrift() {
+        when(productRepository.findAllProductIdAndPhash()).thenReturn(List.<Object[]>of(new Object[]{1L, 5L}));
+        index.refresh();
+        when(productRepository.findPhashChangedSince(any(LocalDateTime.class)))
+                .thenReturn(List.<Object[]>of(new Object[]{2L, 7L}));
+        when(productRepository.countWithPhash()).thenReturn(2L);
+
+        index.refreshDelta();
+
+        assertEquals(2, index.size());
+        verify(productRepository, times(1)).findAllProductIdAndPhash();
+
+        when(productRepository.findPhashChangedSince(any(LocalDateTime.class))).thenReturn(List.of());
+        when(productRepository.countWithPhash()).thenReturn(1L);
+        index.refreshDelta();
+
+        verify(productRepository, times(2)).findAllProductIdAndPhash();
+        assertEquals(1, index.size());
+    }
+
+    private static List<Long> ids(List<PhashIndex.Hit> hits) {
+        return hits.stream().map(h -> h.productId).sorted().toList();
+    }
+}
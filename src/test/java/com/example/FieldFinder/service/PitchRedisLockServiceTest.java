@@ -0,0 +1,63 @@
+package com.example.FieldFinder.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PitchRedisLockServiceTest {
+
+    private StringRedisTemplate redisTemplate;
+    private PitchRedisLockService lockService;
+
+    private final UUID pitchId = UUID.randomUUID();
+    private final LocalDate date = LocalDate.now().plusDays(2);
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        lockService = new PitchRedisLockService(redisTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sixSlotLockIsSingleScriptCall() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(1L);
+
+        assertTrue(lockService.lockSlots(pitchId, date, List.of(1, 2, 3, 4, 5, 6), "user-1"));
+
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class),
+                argThat((List<String> keys) -> keys.size() == 6
+                        && keys.get(0).equals("lock:pitch:" + pitchId + ":date:" + date + ":slot:1")),
+                eq("user-1"), eq("600000"));
+        verifyNoMoreInteractions(redisTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lockFailsWhenScriptReportsConflict() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(0L);
+
+        assertFalse(lockService.lockSlots(pitchId, date, List.of(7, 8), "user-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void bulkReleaseAcrossPitchesIsSingleOwnerCheckedCall() {
+        UUID otherPitch = UUID.randomUUID();
+
+        lockService.unlockSlots(date, Map.of(pitchId, List.of(1, 2), otherPitch, List.of(3)), "user-1");
+
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class),
+                argThat((List<String> keys) -> keys.size() == 3), eq("user-1"));
+    }
+}
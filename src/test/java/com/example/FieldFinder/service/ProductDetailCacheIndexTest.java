@@ -0,0 +1,68 @@
+package com.example.FieldFinder.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductDetailCacheIndexTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ProductDetailCacheIndex cacheIndex;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        cacheIndex = new ProductDetailCacheIndex(redisTemplate);
+    }
+
+    @Test
+    void cacheKeyMatchesCacheableSpel() {
+        UUID userId = UUID.randomUUID();
+        assertEquals("5_" + userId, ProductDetailCacheIndex.cacheKey(5L, userId));
+        assertEquals("5_anon", ProductDetailCacheIndex.cacheKey(5L, null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void trackAddsFullCacheKeyToProductSet() {
+        cacheIndex.track(7L, null);
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("product_detail_idx::7")), eq("product_detail::7_anon"), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void evictIsSingleScriptCallAndRecordsFanOut() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList())).thenReturn(3L, 1L);
+
+        assertEquals(3L, cacheIndex.evict(7L));
+        assertEquals(1L, cacheIndex.evict(8L));
+
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class), anyList());
+        verify(redisTemplate, never()).keys(anyString());
+        Map<String, Object> stats = cacheIndex.stats();
+        assertEquals(2L, stats.get("evictions"));
+        assertEquals(4L, stats.get("keysUnlinked"));
+        assertEquals(3L, stats.get("maxFanOut"));
+        assertEquals(2.0, stats.get("avgFanOut"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void redisFailureDoesNotPropagate() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList())).thenThrow(new RuntimeException("down"));
+
+        assertEquals(0L, cacheIndex.evict(7L));
+        assertEquals(1L, cacheIndex.stats().get("failures"));
+    }
+}
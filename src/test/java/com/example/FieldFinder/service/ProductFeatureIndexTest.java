@@ -0,0 +1,57 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductFeatureIndexTest {
+
+    private ProductRepository productRepository;
+    private ProductFeatureIndex index;
+
+    @BeforeEach
+    void setUp() {
+        productRepository = mock(ProductRepository.class);
+        index = new ProductFeatureIndex(productRepository);
+        when(productRepository.findCtrFeatureRowsByIds(anyCollection())).thenReturn(List.<Object[]>of(
+                new Object[]{1L, 400_000.0, 10L, "Football Shoes", "Nike", 12L}));
+    }
+
+    @Test
+    void idKhongTonTai_khongQueryLaiTrongTtl() {
+        Map<Long, ProductFeatureIndex.ProductFeatures> first = index.get(List.of(1L, 99L));
+        Map<Long, ProductFeatureIndex.ProductFeatures> second = index.get(List.of(1L, 99L));
+
+        assertEquals(List.of(1L), List.copyOf(first.keySet()));
+        assertEquals(first, second);
+        verify(productRepository, times(1)).findCtrFeatureRowsByIds(anyCollection());
+    }
+
+    @Test
+    void queryLoi_khongGhiNhoLaKhongTonTai() {
+        when(productRepository.findCtrFeatureRowsByIds(anyCollection()))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenReturn(List.<Object[]>of(new Object[]{99L, 100_000.0, 10L, "Balls", "Adidas", 1L}));
+
+        assertTrue(index.get(List.of(99L)).isEmpty());
+        assertEquals("VERY_LOW", index.get(List.of(99L)).get(99L).priceBucket());
+    }
+
+    @Test
+    void napLaiToanBo_xoaGhiNhoKhongTonTai() {
+        index.get(List.of(99L));
+        when(productRepository.findAllCtrFeatureRows()).thenReturn(List.of());
+        index.refresh();
+
+        index.get(List.of(99L));
+
+        verify(productRepository, times(2)).findCtrFeatureRowsByIds(anyCollection());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.FieldFinder.service;
+
+import com.example.FieldFinder.dto.res.SlotStatusDTO;
+import com.example.FieldFinder.event.BookingSlotsChangedEvent;
+import com.example.FieldFinder.repository.BookingDetailRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SlotAvailabilityIndexTest {
+
+    private BookingDetailRepository bookingDetailRepository;
+    private StringRedisTemplate redisTemplate;
+    private SlotAvailabilityIndex index;
+
+    private final UUID pitchA = UUID.randomUUID();
+    private final UUID pitchB = UUID.randomUUID();
+    private final LocalDate date = LocalDate.now().plusDays(1);
+
+    @BeforeEach
+    void setUp() {
+        bookingDetailRepository = mock(BookingDetailRepository.class);
+        redisTemplate = mock(StringRedisTemplate.class);
+        index = new SlotAvailabilityIndex(bookingDetailRepository, redisTemplate,
+                mock(RedisMessageListenerContainer.class));
+        when(bookingDetailRepository.findSlotRowsByPitchesAndDate(anyCollection(), eq(date), anyList()))
+                .thenReturn(List.of(
+                        new Object[]{pitchA, 3, null},
+                        new Object[]{pitchA, 4, "MAINTENANCE"},
+                        new Object[]{pitchA, 7, "OFFLINE_BOOKING"}));
+    }
+
+    @Test
+    void maskRoundTrip() {
+        int mask = SlotAvailabilityIndex.toMask(List.of(1, 5, 18));
+        assertEquals(List.of(1, 5, 18), SlotAvailabilityIndex.toSlots(mask));
+        assertEquals(18, SlotAvailabilityIndex.toSlots(SlotAvailabilityIndex.ALL_SLOTS_MASK).size());
+    }
+
+    @Test
+    void bulkLookupLoadsAllPitchesInOneQueryThenServesFromMemory() {
+        Map<UUID, List<Integer>> free = index.freeSlots(List.of(pitchA, pitchB), date);
+
+        assertEquals(15, free.get(pitchA).size());
+        assertFalse(free.get(pitchA).contains(3));
+        assertEquals(18, free.get(pitchB).size());
+
+        assertEquals(List.of(3, 4, 7), index.bookedSlots(pitchA, date));
+        assertTrue(index.bookedSlots(pitchB, date).isEmpty());
+        verify(bookingDetailRepository, times(1)).findSlotRowsByPitchesAndDate(anyCollection(), eq(date), anyList());
+    }
+
+    @Test
+    void slotStatusesKeepBlockType() {
+        List<SlotStatusDTO> statuses = index.slotStatuses(pitchA, date);
+
+        assertEquals(List.of(
+                new SlotStatusDTO(3, "BOOKED"),
+                new SlotStatusDTO(4, "MAINTENANCE"),
+                new SlotStatusDTO(7, "OFFLINE")), statuses);
+    }
+
+    @Test
+    void changeEventEvictsLocallyAndBroadcasts() {
+        index.bookedSlots(pitchA, date);
+
+        index.onBookingSlotsChanged(new BookingSlotsChangedEvent(List.of(pitchA), date));
+        index.bookedSlots(pitchA, date);
+
+        verify(bookingDetailRepository, times(2)).findSlotRowsByPitchesAndDate(anyCollection(), eq(date), anyList());
+        verify(redisTemplate).convertAndSend(eq("slot-availability:invalidate"), contains(pitchA.toString()));
+    }
+
+    @Test
+    void remoteInvalidationEvictsEntry() {
+        index.bookedSlots(pitchA, date);
+        assertEquals(1, index.size());
+
+        index.onRemoteInvalidation("other-node|" + date + "|" + pitchA);
+
+        assertEquals(0, index.size());
+    }
+}
@@ -21,10 +21,12 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -62,6 +64,7 @@ class BookingConcurrencyTest {
     @Mock UserDiscountRepository userDiscountRepository;
     @Mock NotificationService notificationService;
     @Mock TimeSlotRepository timeSlotRepository;
+    @Mock ApplicationEventPublisher eventPublisher;
 
     @InjectMocks BookingServiceImpl service;
 
@@ -122,10 +125,10 @@ class BookingConcurrencyTest {
         doAnswer(inv -> {
             UUID pid = inv.getArgument(0);
             LocalDate d = inv.getArgument(1);
-            Integer s = inv.getArgument(2);
-            heldSlots.remove(key(pid, d, s));
+            Collection<Integer> slots = inv.getArgument(2);
+            for (Integer s : slots) heldSlots.remove(key(pid, d, s));
             return null;
-        }).when(pitchRedisLockService).unlockSlot(any(), any(), anyInt(), anyString());
+        }).when(pitchRedisLockService).unlockSlots(any(UUID.class), any(), anyCollection(), anyString());
     }
 
     private BookingRequestDTO requestForSlot(int slot) {
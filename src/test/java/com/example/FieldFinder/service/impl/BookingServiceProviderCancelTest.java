@@ -29,6 +29,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
@@ -62,6 +63,7 @@ class BookingServiceProviderCancelTest {
     @Mock DiscountUsageService discountUsageService;
     @Mock EmailService emailService;
     @Mock NotificationService notificationService;
+    @Mock ApplicationEventPublisher eventPublisher;
 
     @InjectMocks BookingServiceImpl service;
 
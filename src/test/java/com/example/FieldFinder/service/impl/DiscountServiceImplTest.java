@@ -10,6 +10,8 @@ import com.example.FieldFinder.entity.UserDiscount;
 import com.example.FieldFinder.repository.DiscountRepository;
 import com.example.FieldFinder.repository.UserDiscountRepository;
 import com.example.FieldFinder.repository.UserRepository;
+import com.example.FieldFinder.service.ProductDetailCacheIndex;
+import com.example.FieldFinder.service.RedisService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -17,7 +19,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.RedisTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -29,7 +30,6 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -38,7 +38,9 @@ class DiscountServiceImplTest {
     @Mock DiscountRepository discountRepository;
     @Mock UserDiscountRepository userDiscountRepository;
     @Mock UserRepository userRepository;
-    @Mock RedisTemplate<String, Object> redisTemplate;
+    @Mock ProductDetailCacheIndex productDetailCacheIndex;
+    @Mock RedisService redisService;
+    @Mock org.springframework.cache.CacheManager cacheManager;
     @Mock org.springframework.context.ApplicationEventPublisher eventPublisher;
     @InjectMocks DiscountServiceImpl service;
 
@@ -69,9 +71,6 @@ class DiscountServiceImplTest {
 
         user = new User();
         user.setUserId(userId);
-
-        // Stub redis keys mặc định trả null để clearProductCacheByDiscount no-op
-        lenient().when(redisTemplate.keys(anyString())).thenReturn(null);
     }
 
     private DiscountRequestDTO buildRequest() {
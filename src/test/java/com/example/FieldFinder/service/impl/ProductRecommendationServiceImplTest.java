@@ -1,6 +1,9 @@
 package com.example.FieldFinder.service.impl;
 
+import com.example.FieldFinder.ai.ranking.CtrScorer;
 import com.example.FieldFinder.ai.ranking.SimilarProductRanker;
+import com.example.FieldFinder.config.StageExecutors;
+import com.example.FieldFinder.config.StageMetrics;
 import com.example.FieldFinder.dto.res.ProductResponseDTO;
 import com.example.FieldFinder.dto.res.SuggestedProductsResponseDTO;
 import com.example.FieldFinder.entity.Product;
@@ -8,6 +11,7 @@ import com.example.FieldFinder.repository.OrderRepository;
 import com.example.FieldFinder.repository.ProductRepository;
 import com.example.FieldFinder.repository.UserRepository;
 import com.example.FieldFinder.service.MLRecommendationService;
+import com.example.FieldFinder.service.ProductFeatureIndex;
 import com.example.FieldFinder.service.ProductService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -43,8 +47,11 @@ class ProductRecommendationServiceImplTest {
     void setUp() {
         service = new ProductRecommendationServiceImpl(
                 productRepository, userRepository, orderRepository,
-                productService, mlService, similarProductRanker);
-        // mongoTemplate giữ null (history-view bị bỏ qua) — đúng nhánh khi không có Mongo.
+                productService, mlService, similarProductRanker,
+                new StageExecutors(new StageMetrics(), 2, 8, 2, 8, 1, 8),
+                new CtrScorer(mlService, new ProductFeatureIndex(productRepository)));
+        // interactionLogRepository giữ null (history-view bị bỏ qua) — đúng nhánh khi không có Mongo.
+        // Feature index rỗng → LR fallback chấm mọi ứng viên bằng nhau → giữ thứ tự gốc.
     }
 
     private Product product(long id) {
@@ -81,9 +88,8 @@ class ProductRecommendationServiceImplTest {
                 .thenReturn(List.of(product(4L), product(5L)));
         when(productService.getProductsByIds(anyList(), any()))
                 .thenReturn(Map.of(2L, dto(2L), 3L, dto(3L), 4L, dto(4L), 5L, dto(5L)));
-        // ML ném lỗi → fallback map rỗng → giữ thứ tự gốc.
-        when(mlService.rerankCtr(any(), anyList(), anyList(), anyMap()))
-                .thenThrow(new RuntimeException("ML down"));
+        // ML ném lỗi → LR cục bộ (không có feature → điểm bằng nhau) → giữ thứ tự gốc.
+        when(mlService.rerankCtrBatch(anyList())).thenThrow(new RuntimeException("ML down"));
 
         SuggestedProductsResponseDTO r = service.getSuggested(1L, null, 10);
 
@@ -100,8 +106,8 @@ class ProductRecommendationServiceImplTest {
         when(productService.getProductsByIds(anyList(), any()))
                 .thenReturn(Map.of(4L, dto(4L), 5L, dto(5L), 6L, dto(6L)));
         // điểm CTR: 5 cao nhất, rồi 6, rồi 4 → kỳ vọng [5,6,4]
-        when(mlService.rerankCtr(any(), anyList(), anyList(), anyMap()))
-                .thenReturn(Map.of("4", 0.1, "5", 0.9, "6", 0.5));
+        when(mlService.rerankCtrBatch(anyList()))
+                .thenReturn(List.of(Map.of("4", 0.1, "5", 0.9, "6", 0.5)));
 
         SuggestedProductsResponseDTO r = service.getSuggested(1L, null, 10);
 
@@ -118,14 +124,34 @@ class ProductRecommendationServiceImplTest {
         when(productRepository.findTopSellingProducts(any(Pageable.class))).thenReturn(List.of());
         when(productService.getProductsByIds(anyList(), any()))
                 .thenReturn(Map.of(2L, dto(2L), 3L, dto(3L)));
-        when(mlService.rerankCtr(any(), anyList(), anyList(), anyMap()))
-                .thenReturn(Map.of("2", 0.9, "3", 0.1));
+        when(mlService.rerankCtrBatch(anyList()))
+                .thenReturn(List.of(Map.of("2", 0.9, "3", 0.1)));
 
         SuggestedProductsResponseDTO r = service.getSuggested(1L, null, 10);
 
         assertEquals(List.of(3L, 2L), ids(r, SuggestedProductsResponseDTO::getSimilar));
     }
 
+    @Test
+    void mlLoi_xepTheoLrCucBo() {
+        // anchor 1 (cat 10, Nike, MID). ML trả rỗng → LR: 5 cùng category + brand + giá vượt 4.
+        when(productRepository.findById(1L)).thenReturn(java.util.Optional.of(product(1L)));
+        when(similarProductRanker.rank(any(), anyInt())).thenReturn(List.of());
+        when(productRepository.findTopSellingProducts(any(Pageable.class)))
+                .thenReturn(List.of(product(4L), product(5L)));
+        when(productService.getProductsByIds(anyList(), any()))
+                .thenReturn(Map.of(4L, dto(4L), 5L, dto(5L)));
+        when(productRepository.findCtrFeatureRowsByIds(anyCollection())).thenReturn(List.of(
+                new Object[]{1L, 400_000.0, 10L, "Football Shoes", "Nike", 5L},
+                new Object[]{4L, 2_000_000.0, 20L, "Bags", "Puma", 5L},
+                new Object[]{5L, 450_000.0, 10L, "Football Shoes", "Nike", 5L}));
+        when(mlService.rerankCtrBatch(anyList())).thenReturn(List.of(Map.of()));
+
+        SuggestedProductsResponseDTO r = service.getSuggested(1L, null, 10);
+
+        assertEquals(List.of(5L, 4L), ids(r, SuggestedProductsResponseDTO::getTopSelling));
+    }
+
     @Test
     void footballProducts_rongKhiKhongCo() {
         when(productRepository.findFootballProducts(any(Pageable.class))).thenReturn(List.of());
@@ -141,8 +167,8 @@ class ProductRecommendationServiceImplTest {
                 .thenReturn(List.of(product(7L), product(8L)));
         when(productService.getProductsByIds(anyList(), any()))
                 .thenReturn(Map.of(7L, dto(7L), 8L, dto(8L)));
-        when(mlService.rerankCtr(any(), anyList(), anyList(), anyMap()))
-                .thenReturn(Map.of("7", 0.2, "8", 0.8));
+        when(mlService.rerankCtrBatch(anyList()))
+                .thenReturn(List.of(Map.of("7", 0.2, "8", 0.8)));
 
         List<ProductResponseDTO> r = service.getSuggestedFootballProducts(null, 10);
 
@@ -12,7 +12,9 @@ import com.example.FieldFinder.repository.ProductRepository;
 import com.example.FieldFinder.repository.ProductVariantRepository;
 import com.example.FieldFinder.repository.UserDiscountRepository;
 import com.example.FieldFinder.service.CloudinaryService;
+import com.example.FieldFinder.service.EmbeddingIndex;
 import com.example.FieldFinder.service.PhashIndex;
+import com.example.FieldFinder.service.ProductDetailCacheIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -20,7 +22,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.ArrayList;
@@ -31,7 +33,6 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -44,8 +45,10 @@ class ProductServiceImplTest {
     @Mock UserDiscountRepository userDiscountRepository;
     @Mock CloudinaryService cloudinaryService;
     @Mock AIChat aiChat;
-    @Mock RedisTemplate<String, Object> redisTemplate;
     @Mock PhashIndex phashIndex;
+    @Mock ProductDetailCacheIndex productDetailCacheIndex;
+    @Mock EmbeddingIndex embeddingIndex;
+    @Mock ApplicationEventPublisher eventPublisher;
 
     ConcurrentMapCacheManager cacheManager;
     ProductServiceImpl service;
@@ -61,7 +64,7 @@ class ProductServiceImplTest {
         service = new ProductServiceImpl(
                 productRepository, categoryRepository, productVariantRepository,
                 discountRepository, userDiscountRepository,
-                cloudinaryService, aiChat, redisTemplate, cacheManager, null, phashIndex);
+                cloudinaryService, aiChat, cacheManager, eventPublisher, null, phashIndex, productDetailCacheIndex, embeddingIndex);
         ReflectionTestUtils.setField(service, "self", service);
 
         product = Product.builder()
@@ -78,8 +81,6 @@ class ProductServiceImplTest {
                 .lockedQuantity(0)
                 .soldQuantity(0)
                 .build();
-
-        lenient().when(redisTemplate.keys(anyString())).thenReturn(null);
     }
 
     @Nested
@@ -0,0 +1,84 @@
+package com.example.FieldFinder.service.impl;
+
+import com.example.FieldFinder.Enum.RefundStatus;
+import com.example.FieldFinder.entity.RefundRequest;
+import com.example.FieldFinder.repository.BankAccountRepository;
+import com.example.FieldFinder.repository.RefundRequestRepository;
+import com.example.FieldFinder.service.NotificationService;
+import com.example.FieldFinder.service.RefundService;
+import com.example.FieldFinder.service.payout.PayoutEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Job canh deadline: dòng bị PayoutEngine hoãn (không ai giữ lease) vẫn được bù voucher khi quá hạn. */
+@ExtendWith(MockitoExtension.class)
+class RefundPayoutProcessorTest {
+
+    @Mock private RefundRequestRepository refundRequestRepository;
+    @Mock private BankAccountRepository bankAccountRepository;
+    @Mock private RefundService refundService;
+    @Mock private NotificationService notificationService;
+    @Mock private PayoutEngine payoutEngine;
+
+    private RefundPayoutProcessor processor;
+
+    @BeforeEach
+    void setUp() {
+        TransactionTemplate tx = new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+                return action.doInTransaction(null);
+            }
+        };
+        processor = new RefundPayoutProcessor(refundRequestRepository, bankAccountRepository, refundService,
+                notificationService, payoutEngine, tx);
+    }
+
+    @Test
+    void quaHan_dongBiHoanThieuSoDu_vanBuVoucher_dongDangGiuLeaseBoQua() {
+        LocalDateTime now = LocalDateTime.now();
+        // PayoutEngine.defer(): trả lease, dời lúc xét lại sang vòng dispatch sau
+        RefundRequest deferred = refund(now.minusHours(1), null, now.plusSeconds(30));
+        RefundRequest leased = refund(now.minusHours(1), "node-a", now.plusSeconds(120));
+        List<RefundRequest> pending = List.of(deferred, leased);
+        // Cùng điều kiện lease với findOverdueForUpdate
+        when(refundRequestRepository.findOverdueForUpdate(eq(RefundStatus.PAYOUT_PENDING), any(), any(Limit.class)))
+                .thenAnswer(inv -> {
+                    LocalDateTime at = inv.getArgument(1);
+                    return pending.stream()
+                            .filter(r -> r.getDeadlineAt().isBefore(at) && !r.isLeased(at))
+                            .toList();
+                });
+
+        processor.checkDeadlines();
+
+        verify(refundService).fallbackToVoucher(eq(deferred), anyString());
+        verify(refundService, never()).fallbackToVoucher(eq(leased), anyString());
+    }
+
+    private static RefundRequest refund(LocalDateTime deadlineAt, String leaseOwner, LocalDateTime leaseUntil) {
+        return RefundRequest.builder()
+                .refundId(UUID.randomUUID())
+                .status(RefundStatus.PAYOUT_PENDING)
+                .deadlineAt(deadlineAt)
+                .leaseOwner(leaseOwner)
+                .leaseUntil(leaseUntil)
+                .build();
+    }
+}
@@ -3,8 +3,12 @@ package com.example.FieldFinder.service.impl;
 import com.example.FieldFinder.dto.req.UserUpdateRequestDTO;
 import com.example.FieldFinder.dto.res.UserResponseDTO;
 import com.example.FieldFinder.entity.PasswordResetToken;
+import com.example.FieldFinder.entity.Product;
 import com.example.FieldFinder.entity.User;
+import com.example.FieldFinder.event.UserProfileChangedEvent;
+import com.example.FieldFinder.repository.InteractionLogRepository;
 import com.example.FieldFinder.repository.PasswordResetTokenRepository;
+import com.example.FieldFinder.repository.ProductRepository;
 import com.example.FieldFinder.repository.UserProviderRepository;
 import com.example.FieldFinder.repository.UserRepository;
 import com.example.FieldFinder.service.EmailService;
@@ -15,8 +19,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDateTime;
@@ -38,6 +44,7 @@ class UserServiceImplTest {
     @Mock RedisTemplate<String, Object> redisTemplate;
     @Mock SocialLoginService socialLoginService;
     @Mock UserProviderRepository userProviderRepository;
+    @Mock ApplicationEventPublisher eventPublisher;
 
     UserServiceImpl service;
 
@@ -47,7 +54,8 @@ class UserServiceImplTest {
     @BeforeEach
     void setUp() {
         service = new UserServiceImpl(userRepository, passwordEncoder, emailService,
-                passwordResetTokenRepository, redisTemplate, socialLoginService, userProviderRepository);
+                passwordResetTokenRepository, redisTemplate, socialLoginService, userProviderRepository,
+                eventPublisher);
 
         userId = UUID.randomUUID();
         user = new User();
@@ -106,6 +114,8 @@ class UserServiceImplTest {
 
             assertNotNull(result);
             assertEquals("New Name", user.getName());
+            // Snapshot nhân khẩu học đã cache cho log phải bị bỏ
+            verify(eventPublisher).publishEvent(any(UserProfileChangedEvent.class));
         }
 
         @Test
@@ -424,4 +434,38 @@ class UserServiceImplTest {
             assertThrows(ResponseStatusException.class, () -> service.getUserById(userId));
         }
     }
+
+    @Nested
+    class getUserTopBrands {
+        @Mock InteractionLogRepository interactionLogRepository;
+        @Mock ProductRepository productRepository;
+
+        @Test
+        void brandTheoTrongSoEvent_quaProjection() {
+            ReflectionTestUtils.setField(service, "interactionLogRepository", interactionLogRepository);
+            ReflectionTestUtils.setField(service, "productRepository", productRepository);
+            when(interactionLogRepository.findRecentItemEvents(eq(userId.toString()), anyCollection(),
+                    eq("PRODUCT"), eq(30)))
+                    .thenReturn(List.of(view("1", "VIEW_PRODUCT"), view("1", "VIEW_PRODUCT"),
+                            view("2", "CREATE_ORDER"), view("abc", "VIEW_PRODUCT")));
+            when(productRepository.findAllById(anySet())).thenReturn(List.of(
+                    Product.builder().productId(1L).brand("Nike").build(),
+                    Product.builder().productId(2L).brand("Adidas").build()));
+
+            // Adidas: 1 đơn (5) > Nike: 2 lượt xem (2)
+            assertEquals(List.of("Adidas", "Nike"), service.getUserTopBrands(userId, 5));
+        }
+
+        @Test
+        void khongCoMongo_traRong() {
+            assertEquals(List.of(), service.getUserTopBrands(userId, 5));
+        }
+
+        private InteractionLogRepository.ItemEventView view(String itemId, String eventType) {
+            return new InteractionLogRepository.ItemEventView() {
+                @Override public String getItemId() { return itemId; }
+                @Override public String getEventType() { return eventType; }
+            };
+        }
+    }
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package com.example.FieldFinder.service.log;
 import com.example.FieldFinder.Enum.Gender;
 import com.example.FieldFinder.entity.User;
 import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.InteractionLogBatch;
+import com.example.FieldFinder.event.UserProfileChangedEvent;
 import com.example.FieldFinder.repository.UserRepository;
 import com.example.FieldFinder.service.OpenWeatherService;
 import org.junit.jupiter.api.BeforeEach;
@@ -12,15 +14,17 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -36,11 +40,16 @@ class LogPublisherServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    private UserDemographicsCache demographicsCache;
     private LogPublisherService logPublisherService;
 
     @BeforeEach
     void setUp() {
-        logPublisherService = new LogPublisherService(rabbitTemplate, openWeatherService, userRepository);
+        demographicsCache = new UserDemographicsCache(userRepository, mock(StringRedisTemplate.class),
+                mock(RedisMessageListenerContainer.class), 600_000, 1_000);
+        // Không start thread flush: test gọi flush() trực tiếp
+        logPublisherService = new LogPublisherService(rabbitTemplate, openWeatherService, demographicsCache,
+                500, 100, 3);
     }
 
     @Test
@@ -63,6 +72,14 @@ class LogPublisherServiceTest {
         assertEquals("iPhone", result.get("device_model"));
     }
 
+    @Test
+    void testParseUserAgent_memoTheoChuoiUa() {
+        String ua = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15";
+
+        assertSame(LogPublisherService.parseUserAgent(ua), LogPublisherService.parseUserAgent(ua));
+        assertEquals("10.15.7", LogPublisherService.parseUserAgent(ua).get("os_version"));
+    }
+
     @Test
     void testPublishEventEnriched_WithDemographicsAndLocation() {
         UUID userId = UUID.randomUUID();
@@ -74,7 +91,7 @@ class LogPublisherServiceTest {
                 .longitude(106.660172)
                 .build();
 
-        when(userRepository.findById(userId)).thenReturn(Optional.of(user));
+        when(userRepository.findAllById(anyIterable())).thenReturn(List.of(user));
         when(openWeatherService.getCachedDefaultWeather()).thenReturn("Sunny, 30°C");
 
         Map<String, Object> metadata = new HashMap<>();
@@ -86,11 +103,9 @@ class LogPublisherServiceTest {
                 "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36",
                 null, null
         );
+        logPublisherService.flush();
 
-        ArgumentCaptor<InteractionLog> captor = ArgumentCaptor.forClass(InteractionLog.class);
-        verify(rabbitTemplate).convertAndSend(eq("logging_exchange"), eq("log.routing.key"), captor.capture());
-
-        InteractionLog log = captor.getValue();
+        InteractionLog log = sentBatches(1).get(0).getEvents().get(0);
         assertEquals("VIEW_PITCH", log.getEventType());
         assertEquals(userId.toString(), log.getUserId());
 
@@ -114,13 +129,72 @@ class LogPublisherServiceTest {
                 "AI_Chatbot",
                 21.028511, 105.804817 // Hanoi
         );
+        logPublisherService.flush();
 
-        ArgumentCaptor<InteractionLog> captor = ArgumentCaptor.forClass(InteractionLog.class);
-        verify(rabbitTemplate).convertAndSend(any(), any(), captor.capture());
-
-        Map<String, Double> loc = (Map<String, Double>) captor.getValue().getContext().get("location");
+        InteractionLog log = sentBatches(1).get(0).getEvents().get(0);
+        Map<String, Double> loc = (Map<String, Double>) log.getContext().get("location");
         assertEquals(21.028511, loc.get("lat"));
         assertEquals(105.804817, loc.get("lng"));
-        assertEquals("Server", captor.getValue().getContext().get("os"));
+        assertEquals("Server", log.getContext().get("os"));
+    }
+
+    @Test
+    void nhieuEvent_motMessage_nhanKhauHocCache() {
+        UUID userId = UUID.randomUUID();
+        when(userRepository.findAllById(anyIterable()))
+                .thenReturn(List.of(User.builder().userId(userId).gender(Gender.FEMALE).build()));
+
+        logPublisherService.publishEvent(userId.toString(), "s", "VIEW_PRODUCT", "1", "PRODUCT", null, null);
+        logPublisherService.publishEvent(userId.toString(), "s", "VIEW_PRODUCT", "2", "PRODUCT", null, null);
+        logPublisherService.publishEvent(null, "s", "VIEW_PRODUCT", "3", "PRODUCT", null, null);
+        assertEquals(3, logPublisherService.flush());
+        logPublisherService.publishEvent(userId.toString(), "s", "VIEW_PRODUCT", "4", "PRODUCT", null, null);
+        logPublisherService.flush();
+
+        List<InteractionLogBatch> batches = sentBatches(2);
+        assertEquals(3, batches.get(0).getEvents().size());
+        assertEquals("FEMALE", batches.get(1).getEvents().get(0).getContext().get("user_gender"));
+        // Lần flush thứ 2 lấy từ cache
+        verify(userRepository, times(1)).findAllById(anyIterable());
+    }
+
+    @Test
+    void suaHoSo_boCacheNhanKhauHoc() {
+        UUID userId = UUID.randomUUID();
+        when(userRepository.findAllById(anyIterable()))
+                .thenReturn(List.of(User.builder().userId(userId).gender(Gender.MALE).build()))
+                .thenReturn(List.of(User.builder().userId(userId).gender(Gender.FEMALE).build()));
+
+        logPublisherService.publishEvent(userId.toString(), "s", "VIEW_PRODUCT", "1", "PRODUCT", null, null);
+        logPublisherService.flush();
+        demographicsCache.onUserProfileChanged(new UserProfileChangedEvent(userId));
+        logPublisherService.publishEvent(userId.toString(), "s", "VIEW_PRODUCT", "1", "PRODUCT", null, null);
+        logPublisherService.flush();
+
+        assertEquals("FEMALE", sentBatches(2).get(1).getEvents().get(0).getContext().get("user_gender"));
+    }
+
+    @Test
+    void bufferDay_boImpressionTruoc() {
+        // Sức chứa 3
+        logPublisherService.publishEvent(null, "s", "IMPRESSION_LIST", null, "PRODUCT", null, null);
+        logPublisherService.publishEvent(null, "s", "IMPRESSION_LIST", null, "PRODUCT", null, null);
+        logPublisherService.publishEvent(null, "s", "VIEW_PRODUCT", "1", "PRODUCT", null, null);
+        // Đầy: event thường đẩy 1 impression ra, impression mới bị bỏ
+        logPublisherService.publishEvent(null, "s", "CREATE_ORDER", "o1", "ORDER", null, null);
+        logPublisherService.publishEvent(null, "s", "IMPRESSION_LIST", null, "PRODUCT", null, null);
+        logPublisherService.flush();
+
+        List<String> types = sentBatches(1).get(0).getEvents().stream().map(InteractionLog::getEventType).toList();
+        assertEquals(List.of("VIEW_PRODUCT", "CREATE_ORDER", "IMPRESSION_LIST"), types);
+        assertEquals(2L, logPublisherService.stats().get("droppedLowValue"));
+        assertEquals(0L, logPublisherService.stats().get("droppedNormal"));
+    }
+
+    private List<InteractionLogBatch> sentBatches(int count) {
+        ArgumentCaptor<InteractionLogBatch> captor = ArgumentCaptor.forClass(InteractionLogBatch.class);
+        verify(rabbitTemplate, times(count)).convertAndSend(eq("logging_exchange"), eq("log.batch.routing.key"),
+                captor.capture());
+        return captor.getAllValues();
     }
 }
\ No newline at end of file
@@ -0,0 +1,229 @@
+package com.example.FieldFinder.service.log;
+
+import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.InteractionLogBatch;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoConnectionPoolClearedException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ServerId;
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Consumer log theo lô: 1 insertMany + 1 ack cho cả lô, dead-letter message/event hỏng, chia đôi lô
+ * Mongo từ chối vì lỗi dữ liệu, requeue khi lỗi hạ tầng.
+ */
+@ExtendWith(MockitoExtension.class)
+class LogRabbitListenerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    @Mock private InteractionLogBulkWriter writer;
+    @Mock private UserBehaviorProfileUpdater profileUpdater;
+    @Mock private RabbitTemplate rabbitTemplate;
+    @Mock private Channel channel;
+
+    private LogRabbitListener listener;
+
+    @BeforeEach
+    void setUp() {
+        listener = new LogRabbitListener(writer, profileUpdater, rabbitTemplate, mapper, 0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void loNhieuMessage_motInsertMotAck() throws Exception {
+        when(writer.insertUnordered(anyList())).thenReturn(new InteractionLogBulkWriter.Result(4, 0, List.of()));
+
+        listener.consumeLogEvents(List.of(
+                message(1, new InteractionLogBatch(List.of(event("a"), event("b"), event("c")))),
+                message(2, event("d"))), channel);
+
+        ArgumentCaptor<List<InteractionLog>> written = ArgumentCaptor.forClass(List.class);
+        verify(writer, times(1)).insertUnordered(written.capture());
+        assertEquals(List.of("a", "b", "c", "d"), written.getValue().stream().map(InteractionLog::getLogId).toList());
+        verify(channel).basicAck(2, true);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+        verify(profileUpdater).apply(written.getValue());
+    }
+
+    @Test
+    void messageHong_deadLetter_phanConLaiVanGhi() throws Exception {
+        when(writer.insertUnordered(anyList())).thenReturn(new InteractionLogBulkWriter.Result(1, 0, List.of()));
+        InteractionLog noType = event("x");
+        noType.setEventType(null);
+
+        listener.consumeLogEvents(List.of(
+                raw(1, "{not json"),
+                message(2, new InteractionLogBatch(List.of(event("ok"), noType)))), channel);
+
+        verify(rabbitTemplate, times(2)).send(eq("logging_exchange"), eq("log.dead.routing.key"), any(Message.class));
+        verify(writer).insertUnordered(argThat(l -> l.size() == 1 && "ok".equals(l.get(0).getLogId())));
+        verify(channel).basicAck(2, true);
+        assertEquals(2L, listener.stats().get("deadLettered"));
+    }
+
+    @Test
+    void loBiTuChoi_chiaDoiToiEventHong() throws Exception {
+        // Event "bad" làm cả lô chứa nó lỗi (vd map document lỗi); lô không chứa thì ghi được
+        when(writer.insertUnordered(anyList())).thenAnswer(inv -> {
+            List<InteractionLog> logs = inv.getArgument(0);
+            if (logs.stream().anyMatch(l -> "bad".equals(l.getLogId()))) throw new IllegalArgumentException("bad doc");
+            return new InteractionLogBulkWriter.Result(logs.size(), 0, List.of());
+        });
+
+        listener.consumeLogEvents(List.of(message(7, new InteractionLogBatch(List.of(
+                event("a"), event("b"), event("bad"), event("c"))))), channel);
+
+        ArgumentCaptor<Message> dead = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate).send(eq("logging_exchange"), eq("log.dead.routing.key"), dead.capture());
+        assertTrue(new String(dead.getValue().getBody(), StandardCharsets.UTF_8).contains("\"bad\""));
+        assertEquals(3L, listener.stats().get("inserted"));
+        verify(channel).basicAck(7, true);
+    }
+
+    @Test
+    void loiTungDocument_deadLetterDungEventDo() throws Exception {
+        when(writer.insertUnordered(anyList())).thenReturn(new InteractionLogBulkWriter.Result(1, 1, List.of(2)));
+
+        listener.consumeLogEvents(List.of(message(3, new InteractionLogBatch(List.of(
+                event("a"), event("dup"), event("rejected"))))), channel);
+
+        ArgumentCaptor<Message> dead = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate).send(eq("logging_exchange"), eq("log.dead.routing.key"), dead.capture());
+        assertTrue(new String(dead.getValue().getBody(), StandardCharsets.UTF_8).contains("\"rejected\""));
+        assertEquals(1L, listener.stats().get("duplicates"));
+        verify(channel).basicAck(3, true);
+        // Event bị từ chối không vào hồ sơ hành vi
+        verify(profileUpdater).apply(argThat(l -> l.stream().map(InteractionLog::getLogId).toList()
+                .equals(List.of("a", "dup"))));
+    }
+
+    @Test
+    void capNhatHoSoLoi_vanAck() throws Exception {
+        when(writer.insertUnordered(anyList())).thenReturn(new InteractionLogBulkWriter.Result(1, 0, List.of()));
+        doThrow(new IllegalStateException("mongo down")).when(profileUpdater).apply(anyList());
+
+        listener.consumeLogEvents(List.of(message(4, event("a"))), channel);
+
+        verify(channel).basicAck(4, true);
+        assertEquals(1L, listener.stats().get("profileFailures"));
+    }
+
+    @Test
+    void mongoKhongToiDuoc_requeueCaLo() throws Exception {
+        when(writer.insertUnordered(anyList()))
+                .thenThrow(new MongoSocketException("connection refused", new ServerAddress()));
+
+        listener.consumeLogEvents(List.of(message(1, event("a")), message(2, event("b"))), channel);
+
+        verify(channel).basicNack(2, true, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verifyNoInteractions(rabbitTemplate);
+        verifyNoInteractions(profileUpdater);
+    }
+
+    @Test
+    void loiMongoKhongPhaiDuLieu_vanRequeue() throws Exception {
+        // Pool bị clear, interrupt, lỗi Mongo chung: không phải lỗi của event → không chia đôi/dead-letter
+        when(writer.insertUnordered(anyList())).thenThrow(
+                new MongoConnectionPoolClearedException(new ServerId(new ClusterId(), new ServerAddress()),
+                        new MongoSocketException("reset", new ServerAddress())),
+                new MongoInterruptedException("interrupted", new InterruptedException()),
+                new MongoException("server selection"));
+
+        for (long tag = 1; tag <= 3; tag++) {
+            listener.consumeLogEvents(List.of(message(tag, event("a"))), channel);
+            verify(channel).basicNack(tag, true, true);
+        }
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verifyNoInteractions(rabbitTemplate);
+        assertEquals(3L, listener.stats().get("requeued"));
+    }
+
+    /**
+     * Benchmark với writer giả lập 1 round-trip Mongo ~1ms: tiêu 1000 message kiểu cũ (1 message →
+     * 1 lần ghi) so với lô 500 message → 1 insertMany.
+     */
+    @Test
+    void benchmark_loNhanhHonTungEvent() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        InteractionLogBulkWriter slowWriter = new InteractionLogBulkWriter(null) {
+            @Override
+            public Result insertUnordered(List<InteractionLog> logs) {
+                writes.incrementAndGet();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Result(logs.size(), 0, List.of());
+            }
+        };
+        LogRabbitListener bench = new LogRabbitListener(slowWriter, profileUpdater, rabbitTemplate, mapper, 0);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) messages.add(message(i + 1, event("e" + i)));
+
+        long start = System.nanoTime();
+        for (Message m : messages) bench.consumeLogEvents(List.of(m), channel);
+        long perEventNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        bench.consumeLogEvents(messages.subList(0, 500), channel);
+        bench.consumeLogEvents(messages.subList(500, 1000), channel);
+        long batchedNanos = System.nanoTime() - start;
+
+        System.out.printf("log consumer: per-event %.0f events/s, batched %.0f events/s (%d writes)%n",
+                1000 / (perEventNanos / 1e9), 1000 / (batchedNanos / 1e9), writes.get());
+        assertEquals(1002, writes.get());
+        assertTrue(batchedNanos * 10 < perEventNanos,
+                "batched " + batchedNanos / 1_000_000 + "ms vs per-event " + perEventNanos / 1_000_000 + "ms");
+    }
+
+    private static InteractionLog event(String id) {
+        return InteractionLog.builder()
+                .logId(id)
+                .userId("u1")
+                .timestamp(Instant.parse("2025-06-01T10:00:00Z"))
+                .eventType("VIEW_PRODUCT")
+                .itemId("1")
+                .itemType("PRODUCT")
+                .build();
+    }
+
+    private Message message(long tag, Object payload) throws Exception {
+        return raw(tag, mapper.writeValueAsString(payload));
+    }
+
+    private static Message raw(long tag, String body) {
+        MessageProperties props = new MessageProperties();
+        props.setDeliveryTag(tag);
+        return new Message(body.getBytes(StandardCharsets.UTF_8), props);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.FieldFinder.service.log;
+
+import com.example.FieldFinder.entity.log.InteractionLog;
+import com.example.FieldFinder.entity.log.UserBehaviorProfile;
+import com.example.FieldFinder.repository.InteractionLogRepository;
+import com.example.FieldFinder.repository.OrderItemRepository;
+import com.example.FieldFinder.repository.ProductRepository;
+import com.example.FieldFinder.repository.ProductRepository.ProductTraitView;
+import com.example.FieldFinder.repository.UserBehaviorProfileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Gộp log vào hồ sơ hành vi: trọng số theo ý định, suy giảm theo half-life, retry khi đụng version. */
+@ExtendWith(MockitoExtension.class)
+class UserBehaviorProfileUpdaterTest {
+
+    private static final Instant T0 = Instant.parse("2025-06-01T10:00:00Z");
+
+    @Mock private UserBehaviorProfileRepository profileRepository;
+    @Mock private ProductRepository productRepository;
+    @Mock private OrderItemRepository orderItemRepository;
+    @Mock private InteractionLogRepository interactionLogRepository;
+
+    private UserBehaviorProfileUpdater updater;
+    private final String userId = UUID.randomUUID().toString();
+
+    @BeforeEach
+    void setUp() {
+        updater = new UserBehaviorProfileUpdater(profileRepository, productRepository, orderItemRepository,
+                interactionLogRepository, 14);
+    }
+
+    @Test
+    void hoSoMoi_seedDonCu_trongSoVaSuyGiam() {
+        when(profileRepository.findAllById(anyIterable())).thenReturn(List.of());
+        when(orderItemRepository.findPurchasedProductIdsByUser(eq(UUID.fromString(userId)), any()))
+                .thenReturn(List.of(9L));
+        when(productRepository.findTraitsByIds(anyCollection())).thenReturn(List.of(traits(2L, "Adidas", "Giày", 1_000_000.0)));
+
+        updater.apply(List.of(
+                view(1L, "Nike", "Áo", 200_000.0, T0),
+                order(List.of(2L), T0.plus(Duration.ofDays(14)))));
+
+        UserBehaviorProfile saved = savedProfile();
+        // Nike xem (1) nửa đời trước → 0.5; Adidas mua (5) lúc mới nhất
+        assertEquals(0.5, saved.getBrandScores().get("Nike"), 1e-9);
+        assertEquals(5.0, saved.getBrandScores().get("Adidas"), 1e-9);
+        assertEquals(List.of("Adidas", "Nike"), saved.topBrands(3));
+        assertEquals(List.of("Giày", "Áo"), saved.topCategories(3));
+        assertEquals(List.of(1L), saved.getRecentProductIds());
+        assertEquals(List.of(2L, 9L), saved.getPurchasedProductIds());
+        // Khung giá nghiêng về sản phẩm đã mua
+        assertTrue(saved.priceBand().mean() > 800_000);
+        assertEquals(1L, updater.stats().get("created"));
+    }
+
+    @Test
+    void sanDaXem_vaDaDat_moiNhatTruoc() {
+        UserBehaviorProfile existing = UserBehaviorProfile.builder().userId(userId).version(3L).updatedAt(T0)
+                .visitedPitchIds(new ArrayList<>(List.of("p-old", "p1"))).build();
+        when(profileRepository.findAllById(anyIterable())).thenReturn(List.of(existing));
+
+        InteractionLog booking = event("CREATE_BOOKING", "b-1", "BOOKING", T0.plusSeconds(20));
+        booking.getEventMetadata().put("requested_pitch_id", "p2");
+        updater.apply(List.of(booking, event("VIEW_PITCH", "p1", "PITCH", T0.plusSeconds(10))));
+
+        assertEquals(List.of("p2", "p1", "p-old"), savedProfile().getVisitedPitchIds());
+        verifyNoInteractions(orderItemRepository, productRepository);
+        assertEquals(1L, updater.stats().get("updated"));
+    }
+
+    @Test
+    void hoSoMoi_seedSanPhamVaSanDaXemTuLogTho() {
+        when(profileRepository.findAllById(anyIterable())).thenReturn(List.of());
+        when(interactionLogRepository.findRecentItemEvents(eq(userId), anyCollection(), eq("PRODUCT"), anyInt()))
+                .thenReturn(List.of(itemEvent("7", "VIEW_PRODUCT"), itemEvent("3", "ADD_TO_CART")));
+        when(interactionLogRepository.findRecentItemEvents(eq(userId), anyCollection(), eq("PITCH"), anyInt()))
+                .thenReturn(List.of(itemEvent("p1", "VIEW_PITCH"), itemEvent("p9", "VIEW_PITCH")));
+
+        // Event đầu tiên là xem sân: danh sách sản phẩm đã xem trước đó không được mất
+        updater.apply(List.of(event("VIEW_PITCH", "p1", "PITCH", T0)));
+
+        UserBehaviorProfile saved = savedProfile();
+        assertEquals(List.of(7L, 3L), saved.getRecentProductIds());
+        assertEquals(List.of("p1", "p9"), saved.getVisitedPitchIds());
+    }
+
+    @Test
+    void loGiaoLai_khongGopLan2() {
+        UserBehaviorProfile existing = UserBehaviorProfile.builder().userId(userId).version(1L).updatedAt(T0).build();
+        when(profileRepository.findAllById(anyIterable())).thenReturn(List.of(existing));
+        List<InteractionLog> batch = List.of(view(1L, "Nike", null, null, T0));
+
+        updater.apply(batch);
+        updater.apply(batch);
+
+        verify(profileRepository, times(1)).save(any());
+        assertEquals(1.0, existing.getBrandScores().get("Nike"), 1e-9);
+        assertEquals(1L, updater.stats().get("redelivered"));
+    }
+
+    @Test
+    void dungVersion_docLaiRoiGopLai() {
+        UserBehaviorProfile stale = UserBehaviorProfile.builder().userId(userId).version(1L).updatedAt(T0).build();
+        UserBehaviorProfile fresh = UserBehaviorProfile.builder().userId(userId).version(2L).updatedAt(T0)
+                .brandScores(new HashMap<>(Map.of("Puma", 2.0))).build();
+        when(profileRepository.findAllById(anyIterable())).thenReturn(List.of(stale));
+        when(profileRepository.save(any()))
+                .thenThrow(new OptimisticLockingFailureException("version"))
+                .thenAnswer(inv -> inv.getArgument(0));
+        when(profileRepository.findById(userId)).thenReturn(Optional.of(fresh));
+
+        updater.apply(List.of(view(1L, "Nike", null, null, T0)));
+
+        ArgumentCaptor<UserBehaviorProfile> saved = ArgumentCaptor.forClass(UserBehaviorProfile.class);
+        verify(profileRepository, times(2)).save(saved.capture());
+        assertEquals(Map.of("Puma", 2.0, "Nike", 1.0), saved.getAllValues().get(1).getBrandScores());
+        assertEquals(1L, updater.stats().get("conflicts"));
+    }
+
+    @Test
+    void eventKhongCoUser_boQua() {
+        InteractionLog anonymous = view(1L, "Nike", null, null, T0);
+        anonymous.setUserId(null);
+
+        updater.apply(List.of(anonymous, event("IMPRESSION_LIST", null, "PRODUCT", T0)));
+
+        verifyNoInteractions(profileRepository);
+    }
+
+    private UserBehaviorProfile savedProfile() {
+        ArgumentCaptor<UserBehaviorProfile> captor = ArgumentCaptor.forClass(UserBehaviorProfile.class);
+        verify(profileRepository).save(captor.capture());
+        return captor.getValue();
+    }
+
+    private InteractionLog view(Long productId, String brand, String category, Double price, Instant at) {
+        InteractionLog e = event("VIEW_PRODUCT", productId.toString(), "PRODUCT", at);
+        if (brand != null) e.getEventMetadata().put("item_brand", brand);
+        if (category != null) e.getEventMetadata().put("item_category", category);
+        if (price != null) e.getEventMetadata().put("item_price_snapshot", price);
+        return e;
+    }
+
+    private InteractionLog order(List<Long> productIds, Instant at) {
+        InteractionLog e = event("CREATE_ORDER", "o-1", "ORDER", at);
+        e.getEventMetadata().put("order_items",
+                productIds.stream().map(id -> Map.<String, Object>of("productId", id, "quantity", 1)).toList());
+        return e;
+    }
+
+    private InteractionLog event(String type, String itemId, String itemType, Instant at) {
+        return InteractionLog.builder()
+                .logId(UUID.randomUUID().toString())
+                .userId(userId)
+                .timestamp(at)
+                .eventType(type)
+                .itemId(itemId)
+                .itemType(itemType)
+                .eventMetadata(new HashMap<>())
+                .build();
+    }
+
+    private static InteractionLogRepository.ItemEventView itemEvent(String itemId, String eventType) {
+        return new InteractionLogRepository.ItemEventView() {
+            @Override public String getItemId() { return itemId; }
+            @Override public String getEventType() { return eventType; }
+        };
+    }
+
+    private static ProductTraitView traits(Long id, String brand, String category, Double price) {
+        return new ProductTraitView() {
+            @Override public Long getProductId() { return id; }
+            @Override public String getBrand() { return brand; }
+            @Override public String getCategoryName() { return category; }
+            @Override public Double getPrice() { return price; }
+        };
+    }
+}
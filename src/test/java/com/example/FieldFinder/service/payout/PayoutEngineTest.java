@@ -0,0 +1,361 @@
+package com.example.FieldFinder.service.payout;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Lease SKIP LOCKED + gọi PayOS ngoài transaction: nhiều node chia nhau dòng, không chi trùng. */
+class PayoutEngineTest {
+
+    private final FakeTransactions tx = new FakeTransactions();
+    private final FakeQueue queue = new FakeQueue();
+    private final List<PayoutEngine> engines = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        engines.forEach(PayoutEngine::shutdown);
+    }
+
+    @Test
+    void haiNode_chiaNhauLease_khongChiTrung_khongGoiPayOsTrongTransaction() throws Exception {
+        for (int i = 0; i < 200; i++) queue.add(Status.PENDING, 100_000);
+        ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        AtomicBoolean calledInTransaction = new AtomicBoolean();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        PayoutProvider provider = new MockPayoutProvider() {
+            @Override
+            public PayoutResult disburse(PayoutCommand cmd) {
+                if (tx.active()) calledInTransaction.set(true);
+                calls.computeIfAbsent(cmd.referenceId(), k -> new AtomicInteger()).incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    sleep(20); // độ trễ PayOS
+                    return super.disburse(cmd);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+        PayoutEngine nodeA = engine(provider, 8);
+        PayoutEngine nodeB = engine(provider, 8);
+
+        CountDownLatch done = new CountDownLatch(2);
+        for (PayoutEngine node : List.of(nodeA, nodeB)) {
+            new Thread(() -> {
+                node.dispatch(queue);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(200, calls.size());
+        assertTrue(calls.values().stream().allMatch(c -> c.get() == 1), "mỗi referenceId chỉ disburse 1 lần");
+        assertFalse(calledInTransaction.get(), "không gọi PayOS khi đang giữ transaction");
+        for (Row r : queue.rows) {
+            assertEquals(Status.PROCESSING, r.status);
+            assertNotNull(r.getPayosPayoutId());
+            assertEquals(1, r.getAttemptCount());
+            assertNull(r.getLeaseOwner());
+        }
+        // Gọi PayOS song song nhưng không vượt pool của 2 node × 8 luồng
+        assertTrue(maxInFlight.get() > 1, "không gọi song song");
+        assertTrue(maxInFlight.get() <= 2 * 8, "vượt giới hạn song song: " + maxInFlight.get());
+        assertEquals(200L, leased(nodeA) + leased(nodeB));
+    }
+
+    @Test
+    void poll_capNhatThanhCongVaThatBai() {
+        Row ok = queue.add(Status.PROCESSING, 100_000);
+        ok.setPayosPayoutId("p-ok");
+        Row ko = queue.add(Status.PROCESSING, 100_000);
+        ko.setPayosPayoutId("p-ko");
+        Row waiting = queue.add(Status.PROCESSING, 100_000);
+        waiting.setPayosPayoutId("p-wait");
+        PayoutEngine engine = engine(provider(cmd -> null, id -> switch (id) {
+            case "p-ok" -> PayoutState.SUCCEEDED;
+            case "p-ko" -> PayoutState.FAILED;
+            default -> PayoutState.PROCESSING;
+        }), 2);
+
+        engine.poll(queue);
+
+        assertEquals(Status.SUCCEEDED, ok.status);
+        assertEquals(Status.FAILED, ko.status);
+        assertEquals("FAILED khi poll: " + "p-ko", ko.failReason);
+        assertEquals(Status.PROCESSING, waiting.status);
+        assertNull(waiting.getLeaseOwner());
+        assertTrue(waiting.getLeaseUntil().isAfter(LocalDateTime.now()), "poll lại sau poll-delay");
+    }
+
+    @Test
+    void poll_nhieuHonChunk_moiDongPollDungMotLan() {
+        for (int i = 0; i < 25; i++) queue.add(Status.PROCESSING, 100_000).setPayosPayoutId("p-" + i);
+        ConcurrentHashMap<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+        PayoutEngine engine = engine(provider(cmd -> null, id -> {
+            polls.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            return PayoutState.PROCESSING;
+        }), 2);
+
+        engine.poll(queue);
+
+        // Chunk 10: không lặp lại 10 dòng đầu tới hết max-chunks-per-round, đi tới cả dòng 11+
+        assertEquals(25, polls.size());
+        assertTrue(polls.values().stream().allMatch(n -> n.get() == 1), "mỗi dòng chỉ poll 1 lần / vòng");
+        assertEquals(25L, leased(engine));
+    }
+
+    @Test
+    void dispatchLoiLienTuc_moiVongChiTonMotLuot() {
+        for (int i = 0; i < 25; i++) queue.add(Status.PENDING, 100_000);
+        AtomicInteger disburses = new AtomicInteger();
+        PayoutEngine engine = engine(provider(cmd -> {
+            disburses.incrementAndGet();
+            return PayoutState.UNKNOWN;
+        }, id -> null), 2);
+
+        engine.dispatch(queue);
+
+        // PayOS sập: mỗi dòng thử 1 lần rồi hoãn retry-delay, không đốt hết maxAttempts trong vài giây
+        assertEquals(25, disburses.get());
+        for (Row r : queue.rows) {
+            assertEquals(Status.PENDING, r.status);
+            assertEquals(1, r.getAttemptCount());
+            assertTrue(r.getLeaseUntil().isAfter(LocalDateTime.now()));
+        }
+    }
+
+    @Test
+    void dispatchLoi_conLuotGiuPending_hetLuotMarkFailed() {
+        Row fresh = queue.add(Status.PENDING, 100_000);
+        Row last = queue.add(Status.PENDING, 100_000);
+        last.setAttemptCount(FakeQueue.MAX_ATTEMPTS - 1);
+        PayoutEngine engine = engine(provider(cmd -> PayoutState.UNKNOWN, id -> null), 2);
+
+        engine.dispatch(queue);
+
+        assertEquals(Status.PENDING, fresh.status);
+        assertEquals(1, fresh.getAttemptCount());
+        assertNull(fresh.getLeaseOwner());
+        assertEquals(Status.FAILED, last.status);
+        assertTrue(last.failReason.startsWith("FAILED sau 3 lần thử"));
+    }
+
+    @Test
+    void thieuSoDu_chiNhanDongVuaDu() {
+        Row first = queue.add(Status.PENDING, 100_000);
+        Row second = queue.add(Status.PENDING, 100_000);
+        Row small = queue.add(Status.PENDING, 40_000);
+        PayoutProvider provider = provider(cmd -> PayoutState.PROCESSING, id -> null);
+        PayoutProvider lowBalance = new PayoutProvider() {
+            @Override public PayoutResult disburse(PayoutCommand cmd) { return provider.disburse(cmd); }
+            @Override public PayoutResult getStatus(String payoutId) { return provider.getStatus(payoutId); }
+            @Override public Optional<BigDecimal> getBalance() { return Optional.of(new BigDecimal("150000")); }
+        };
+
+        engine(lowBalance, 2).dispatch(queue);
+
+        assertEquals(Status.PROCESSING, first.status);
+        assertEquals(Status.PENDING, second.status);
+        assertEquals(0, second.getAttemptCount());
+        assertEquals(Status.PROCESSING, small.status);
+    }
+
+    @Test
+    void thieuSoDu_caChunkDau_vanXetDongNhoPhiaSau() {
+        List<Row> big = new ArrayList<>();
+        for (int i = 0; i < 10; i++) big.add(queue.add(Status.PENDING, 100_000));
+        Row small = queue.add(Status.PENDING, 40_000);
+        PayoutProvider provider = provider(cmd -> PayoutState.PROCESSING, id -> null);
+        PayoutProvider lowBalance = new PayoutProvider() {
+            @Override public PayoutResult disburse(PayoutCommand cmd) { return provider.disburse(cmd); }
+            @Override public PayoutResult getStatus(String payoutId) { return provider.getStatus(payoutId); }
+            @Override public Optional<BigDecimal> getBalance() { return Optional.of(new BigDecimal("50000")); }
+        };
+
+        engine(lowBalance, 2).dispatch(queue);
+
+        assertEquals(Status.PROCESSING, small.status);
+        for (Row r : big) {
+            assertEquals(Status.PENDING, r.status);
+            assertEquals(0, r.getAttemptCount());
+            assertNull(r.getLeaseOwner());
+            // Hoãn chứ không giữ lease: job canh deadline vẫn bù voucher được
+            assertFalse(r.isLeased(LocalDateTime.now()));
+        }
+    }
+
+    @Test
+    void matLease_khongGhiDeKetQua() {
+        Row row = queue.add(Status.PENDING, 100_000);
+        PayoutEngine engine = engine(provider(cmd -> {
+            // Lease hết hạn giữa lúc gọi PayOS, node khác đã nhận lại dòng
+            row.setLeaseOwner("node-khac");
+            return PayoutState.PROCESSING;
+        }, id -> null), 1);
+
+        engine.dispatch(queue);
+
+        assertEquals(Status.PENDING, row.status);
+        assertEquals("node-khac", row.getLeaseOwner());
+        assertEquals(1L, ((Map<?, ?>) engine.stats().get("fake")).get("leaseLost"));
+    }
+
+    private PayoutEngine engine(PayoutProvider provider, int concurrency) {
+        PayoutEngine engine = new PayoutEngine(provider, tx, 10, concurrency, 120, 50, 30, 45);
+        engines.add(engine);
+        return engine;
+    }
+
+    private static long leased(PayoutEngine engine) {
+        return (Long) ((Map<?, ?>) engine.stats().get("fake")).get("leased");
+    }
+
+    private static PayoutProvider provider(Function<PayoutCommand, PayoutState> disburse,
+                                           Function<String, PayoutState> status) {
+        return new PayoutProvider() {
+            @Override
+            public PayoutResult disburse(PayoutCommand cmd) {
+                PayoutState state = disburse.apply(cmd);
+                return new PayoutResult("p-" + cmd.referenceId(), cmd.referenceId(), state, state.name(), null,
+                        state == PayoutState.PROCESSING ? null : "lỗi mạng");
+            }
+
+            @Override
+            public PayoutResult getStatus(String payoutId) {
+                PayoutState state = status.apply(payoutId);
+                return new PayoutResult(payoutId, null, state, state.name(), null, payoutId);
+            }
+
+            @Override
+            public Optional<BigDecimal> getBalance() {
+                return Optional.empty();
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Transaction giả: tuần tự hóa mọi transaction (chặt hơn SKIP LOCKED) và cho biết thread có đang ở trong. */
+    static class FakeTransactions extends TransactionTemplate {
+        private final ThreadLocal<Boolean> inside = ThreadLocal.withInitial(() -> false);
+
+        @Override
+        public synchronized <T> T execute(TransactionCallback<T> action) throws TransactionException {
+            inside.set(true);
+            try {
+                return action.doInTransaction(null);
+            } finally {
+                inside.set(false);
+            }
+        }
+
+        boolean active() {
+            return inside.get();
+        }
+    }
+
+    enum Status { PENDING, PROCESSING, SUCCEEDED, FAILED }
+
+    static class Row implements PayoutRow {
+        final UUID id = UUID.randomUUID();
+        final long amount;
+        final LocalDateTime createdAt;
+        Status status;
+        String failReason;
+        private String payosPayoutId;
+        private int attemptCount;
+        private String leaseOwner;
+        private LocalDateTime leaseUntil;
+
+        Row(Status status, long amount, LocalDateTime createdAt) {
+            this.status = status;
+            this.amount = amount;
+            this.createdAt = createdAt;
+        }
+
+        @Override public String getPayosPayoutId() { return payosPayoutId; }
+        @Override public void setPayosPayoutId(String payosPayoutId) { this.payosPayoutId = payosPayoutId; }
+        @Override public void setPayosTxnState(String payosTxnState) { }
+        @Override public void setFailureReason(String failureReason) { }
+        @Override public int getAttemptCount() { return attemptCount; }
+        @Override public void setAttemptCount(int attemptCount) { this.attemptCount = attemptCount; }
+        @Override public void setLastAttemptAt(LocalDateTime lastAttemptAt) { }
+        @Override public String getLeaseOwner() { return leaseOwner; }
+        @Override public void setLeaseOwner(String leaseOwner) { this.leaseOwner = leaseOwner; }
+        @Override public LocalDateTime getLeaseUntil() { return leaseUntil; }
+        @Override public void setLeaseUntil(LocalDateTime leaseUntil) { this.leaseUntil = leaseUntil; }
+    }
+
+    static class FakeQueue implements PayoutQueue<Row> {
+        static final int MAX_ATTEMPTS = 3;
+
+        final List<Row> rows = new ArrayList<>();
+
+        Row add(Status status, long amount) {
+            Row row = new Row(status, amount, LocalDateTime.now().plusNanos(rows.size()));
+            rows.add(row);
+            return row;
+        }
+
+        @Override public String name() { return "fake"; }
+        @Override public int maxAttempts() { return MAX_ATTEMPTS; }
+
+        @Override
+        public List<Row> lockDue(Phase phase, LocalDateTime now, int limit) {
+            Status status = phase == Phase.DISPATCH ? Status.PENDING : Status.PROCESSING;
+            return rows.stream()
+                    .filter(r -> r.status == status)
+                    .filter(r -> r.getLeaseUntil() == null || r.getLeaseUntil().isBefore(now))
+                    .sorted(Comparator.comparing(r -> r.createdAt))
+                    .limit(limit)
+                    .toList();
+        }
+
+        @Override
+        public Optional<Row> lockById(UUID id) {
+            return rows.stream().filter(r -> r.id.equals(id)).findFirst();
+        }
+
+        @Override public UUID idOf(Row row) { return row.id; }
+
+        @Override
+        public PayoutCommand command(Row row) {
+            return new PayoutCommand("REF" + row.id, row.amount, "test", "970436", "0123456789");
+        }
+
+        @Override public void save(Row row) { }
+        @Override public void markProcessing(Row row) { row.status = Status.PROCESSING; }
+        @Override public void markSucceeded(Row row) { row.status = Status.SUCCEEDED; }
+
+        @Override
+        public void markFailed(Row row, String reason) {
+            row.status = Status.FAILED;
+            row.failReason = reason;
+        }
+    }
+}